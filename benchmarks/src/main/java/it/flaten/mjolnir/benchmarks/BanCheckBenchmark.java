@@ -0,0 +1,131 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ban checks through the enabled plugin.
+ *
+ * The plugin is enabled against a {@link StubServer} on a synthetic dataset,
+ * with its default storage stack, so this measures what a login or command
+ * pays, including external providers. Name histories are served from a
+ * pre-filled cache file, so no requests are made to Mojang.
+ *
+ * @author Jim Flaten
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class BanCheckBenchmark {
+    /**
+     * Number of cached name histories.
+     */
+    private static final int HISTORIES = 10000;
+
+    @Param({ "native","jdbc","log" })
+    public String method;
+
+    @Param({ "10000","1000000","10000000" })
+    public int events;
+
+    /**
+     * Whether or not the active ban index is enabled.
+     */
+    @Param({ "true","false" })
+    public boolean cache;
+
+    /**
+     * Number of names in each cached history.
+     */
+    @Param({ "4" })
+    public int history;
+
+    private StubServer server;
+    private Mjolnir plugin;
+
+    private String[] known;
+    private String[] unknown;
+    private UUID[] uuids;
+    private String[] names;
+    private int[] times;
+    private Event event;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.server = new StubServer(2);
+
+        final File folder = Fixtures.folder(this.method,this.events);
+
+        this.plugin = Fixtures.load(this.server,folder);
+
+        Fixtures.prepare(this.plugin,this.method,this.events);
+        Fixtures.writeNameHistories(new File(folder,"names-benchmark.dat"),BanCheckBenchmark.HISTORIES,this.history);
+        Fixtures.configure(this.plugin,this.method);
+
+        this.plugin.getConfig().set("storage.cache",this.cache);
+        this.plugin.getConfig().set("names.file","names-benchmark.dat");
+
+        this.plugin.onEnable();
+
+        this.known = Fixtures.names(4096,Fixtures.players(this.events),true);
+        this.unknown = Fixtures.names(4096,Fixtures.players(this.events),false);
+
+        this.uuids = new UUID[1024];
+        this.names = new String[1024];
+        this.times = new int[1024];
+
+        for (int i = 0; i < 1024; i++) {
+            final int index = (i * 7919) % BanCheckBenchmark.HISTORIES;
+            final int name = i % this.history;
+
+            this.uuids[i] = Fixtures.uuid(index);
+            this.names[i] = Fixtures.historyName(index,name);
+            this.times[i] = Fixtures.historyTime(name) + 3600;
+        }
+
+        this.event = new Event();
+        this.event.setTime((int) (System.currentTimeMillis() / 1000L));
+        this.event.setPlayer(this.known[0]);
+        this.event.setOp("Op1");
+        this.event.setType(Event.EventType.BAN);
+        this.event.setReason("Griefing");
+        this.event.setExpires(this.event.getTime() + 86400);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.plugin.onDisable();
+        this.server.shutdown();
+    }
+
+    @Benchmark
+    public boolean isBannedKnown(final Cursor cursor) {
+        return this.plugin.isBanned(this.known[cursor.next(this.known.length)]);
+    }
+
+    @Benchmark
+    public boolean isBannedUnknown(final Cursor cursor) {
+        return this.plugin.isBanned(this.unknown[cursor.next(this.unknown.length)]);
+    }
+
+    @Benchmark
+    public boolean hadNameAtTime(final Cursor cursor) {
+        final int i = cursor.next(this.uuids.length);
+
+        return this.plugin.hadNameAtTime(this.uuids[i],this.names[i],this.times[i]);
+    }
+
+    @Benchmark
+    public String buildKickMessage() {
+        return this.plugin.buildKickMessage(this.event);
+    }
+}
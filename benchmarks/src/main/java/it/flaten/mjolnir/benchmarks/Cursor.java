@@ -0,0 +1,31 @@
+package it.flaten.mjolnir.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread position in an array of inputs.
+ *
+ * Lets a benchmark walk through precomputed inputs, so that neither the JIT
+ * nor any cache sees the same input every time, without allocating.
+ *
+ * @author Jim Flaten
+ */
+@State(Scope.Thread)
+public class Cursor {
+    private int position;
+
+    /**
+     * Get the next position.
+     *
+     * @param length The length of the array.
+     * @return       A position in the array.
+     */
+    public int next(final int length) {
+        if (++this.position >= length) {
+            this.position = 0;
+        }
+
+        return this.position;
+    }
+}
@@ -0,0 +1,234 @@
+package it.flaten.mjolnir.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Mojang name history endpoint.
+ *
+ * Serves /&lt;uuid&gt; on the loopback interface, in the format of the real
+ * endpoint, after a configurable delay. Every request is served on its own
+ * thread, so slow responses overlap the way they do over the internet. A
+ * share of requests can be made to fail with a 500 response.
+ *
+ * @author Jim Flaten
+ */
+public class FakeMojang {
+    /**
+     * Name histories, keyed by UUID. The last name is the current one.
+     */
+    private final Map<UUID,String[]> historyMap = new ConcurrentHashMap<>();
+
+    /**
+     * Milliseconds every response is delayed by, and the most that is added
+     * at random on top.
+     */
+    private final int latency;
+    private final int jitter;
+
+    /**
+     * Share of requests answered with a 500 response.
+     */
+    private final double errors;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link FakeMojang}. Nothing is served until {@link #start()}.
+     *
+     * @param latency Milliseconds every response is delayed by.
+     * @param jitter  Most milliseconds added at random on top.
+     * @param errors  Share of requests answered with a 500 response, between 0 and 1.
+     */
+    public FakeMojang(final int latency,final int jitter,final double errors) {
+        this.latency = Math.max(0,latency);
+        this.jitter = Math.max(0,jitter);
+        this.errors = errors;
+    }
+
+    /**
+     * Set the name history of a UUID.
+     *
+     * UUIDs without a history are answered with 204, like unknown UUIDs are.
+     *
+     * @param uuid  The UUID.
+     * @param names The names, oldest first. The last is the current name.
+     */
+    public void put(final UUID uuid,final String... names) {
+        this.historyMap.put(uuid,names);
+    }
+
+    /**
+     * Start serving.
+     *
+     * @return The URL to configure as names.url.
+     * @throws IOException If no port could be bound.
+     */
+    public String start() throws IOException {
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable,"Fake Mojang #" + (++this.count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/",new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                FakeMojang.this.handle(exchange);
+            }
+        });
+        this.server.start();
+
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/%s";
+    }
+
+    /**
+     * Stop serving.
+     */
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdownNow();
+        }
+    }
+
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    /**
+     * Answer a request.
+     *
+     * @param exchange The request.
+     * @throws IOException If the response could not be written.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+
+        try {
+            final Random random = ThreadLocalRandom.current();
+            final int delay = this.latency + (this.jitter > 0 ? random.nextInt(this.jitter + 1) : 0);
+
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            if (this.errors > 0 && random.nextDouble() < this.errors) {
+                this.failed.incrementAndGet();
+                exchange.sendResponseHeaders(500,-1);
+                return;
+            }
+
+            final String[] names = this.lookup(exchange.getRequestURI().getPath().substring(1));
+
+            if (names == null) {
+                exchange.sendResponseHeaders(204,-1);
+                return;
+            }
+
+            final byte[] body = FakeMojang.render(names).getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type","application/json");
+            exchange.sendResponseHeaders(200,body.length);
+
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Find the history for a requested UUID.
+     *
+     * Accepts UUIDs with or without dashes.
+     *
+     * @param id The UUID from the request path.
+     * @return   The names, or null.
+     */
+    private String[] lookup(final String id) {
+        final String plain = id.replace("-","");
+
+        if (plain.length() != 32) {
+            return null;
+        }
+
+        try {
+            return this.historyMap.get(UUID.fromString(
+                plain.substring(0,8) + "-" + plain.substring(8,12) + "-" + plain.substring(12,16) + "-" + plain.substring(16,20) + "-" + plain.substring(20)
+            ));
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Render a history the way the real endpoint does.
+     *
+     * The first name has no change time, and every next name was taken 30
+     * days after the one before it, with the current name taken 30 days ago.
+     *
+     * @param names The names, oldest first.
+     * @return      The JSON document.
+     */
+    private static String render(final String[] names) {
+        final long now = System.currentTimeMillis();
+        final StringBuilder builder = new StringBuilder(32 + 48 * names.length);
+
+        builder.append('[');
+
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+
+            builder.append("{\"name\":\"").append(names[i]).append('"');
+
+            if (i > 0) {
+                builder.append(",\"changedToAt\":").append(now - (names.length - i) * 30L * 24L * 60L * 60L * 1000L);
+            }
+
+            builder.append('}');
+        }
+
+        return builder.append(']').toString();
+    }
+}
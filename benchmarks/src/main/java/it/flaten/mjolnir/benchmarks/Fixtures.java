@@ -0,0 +1,412 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.storages.ConnectionPool;
+import it.flaten.mjolnir.storages.JdbcStorage;
+import it.flaten.mjolnir.storages.LogStorage;
+import it.flaten.mjolnir.storages.NativeStorage;
+import it.flaten.mjolnir.storages.Storage;
+import org.bukkit.Server;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginLoader;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Plugin instances and synthetic datasets for benchmarks.
+ *
+ * A dataset is a data folder holding a number of {@link Event}s in one of the
+ * storage backends. Writing millions of {@link Event}s takes a while, so each
+ * dataset is generated once, into target/datasets unless the mjolnir.datasets
+ * system property says otherwise, and reused by later runs.
+ * <p>
+ * Datasets are generated from a fixed seed. There is one player for every ten
+ * {@link Event}s, named Player0, Player1 and so on. Players named Stranger0,
+ * Stranger1 and so on never have any {@link Event}s.
+ *
+ * @author Jim Flaten
+ */
+public final class Fixtures {
+    /**
+     * Number of {@link Event}s written per batch.
+     */
+    private static final int BATCH = 10000;
+
+    /**
+     * Reasons given for generated {@link Event}s.
+     */
+    private static final String[] REASONS = { "", "Griefing", "Hacking", "Spamming chat", "Ban evasion", "Appeal accepted" };
+
+    private Fixtures() {
+
+    }
+
+    /**
+     * Get the data folder of a dataset.
+     *
+     * A folder left behind by an interrupted run is emptied, so that the
+     * dataset is generated from scratch.
+     *
+     * @param method The storage method, as in storage.method.
+     * @param events The number of {@link Event}s.
+     * @return       The data folder.
+     */
+    public static File folder(final String method,final int events) {
+        final File folder = new File(System.getProperty("mjolnir.datasets","target" + File.separator + "datasets"),method + "-" + events);
+
+        if (!new File(folder,"ready").exists()) {
+            Fixtures.delete(folder);
+        }
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IllegalStateException("Could not create " + folder);
+        }
+
+        return folder;
+    }
+
+    /**
+     * Load the plugin.
+     *
+     * Initializes a {@link Mjolnir} instance the way Bukkit's plugin loader
+     * would, against the given server, but does not enable it.
+     *
+     * @param server     The {@link StubServer} to run against.
+     * @param dataFolder The plugin's data folder.
+     * @return           The {@link Mjolnir} instance.
+     */
+    public static Mjolnir load(final StubServer server,final File dataFolder) {
+        final PluginDescriptionFile description;
+
+        try (InputStream input = Mjolnir.class.getClassLoader().getResourceAsStream("plugin.yml")) {
+            description = new PluginDescriptionFile(input);
+        } catch (IOException | InvalidDescriptionException exception) {
+            throw new IllegalStateException("Could not read plugin.yml",exception);
+        }
+
+        final Mjolnir plugin = new Mjolnir();
+
+        try {
+            final Method initialize = JavaPlugin.class.getDeclaredMethod(
+                "initialize",
+                PluginLoader.class,
+                Server.class,
+                PluginDescriptionFile.class,
+                File.class,
+                File.class,
+                ClassLoader.class
+            );
+
+            initialize.setAccessible(true);
+            initialize.invoke(
+                plugin,
+                server.getPluginLoader(),
+                server.getServer(),
+                description,
+                dataFolder,
+                new File(dataFolder,"Mjolnir.jar"),
+                Mjolnir.class.getClassLoader()
+            );
+        } catch (InvocationTargetException exception) {
+            throw new IllegalStateException("Could not initialize plugin",exception.getCause());
+        } catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException("Could not initialize plugin",exception);
+        }
+
+        server.setPlugin(plugin);
+
+        return plugin;
+    }
+
+    /**
+     * Point the plugin's configuration at a dataset.
+     *
+     * Must be invoked before the plugin is enabled. The dataset is expected in
+     * the plugin's own data folder.
+     *
+     * @param plugin The {@link Mjolnir} instance.
+     * @param method The storage method, as in storage.method.
+     */
+    public static void configure(final Mjolnir plugin,final String method) {
+        plugin.getConfig().set("storage.method",method);
+        plugin.getConfig().set("storage.jdbc.driver","org.sqlite.JDBC");
+        plugin.getConfig().set("storage.jdbc.url","jdbc:sqlite:{DIR}events.db");
+        plugin.getConfig().set("storage.log.file","events.log");
+        plugin.getConfig().set("metrics.jmx",false);
+    }
+
+    /**
+     * Open a storage backend on its own.
+     *
+     * Uses the same files as {@link #configure(Mjolnir,String)} points the
+     * plugin at.
+     *
+     * @param plugin The {@link Mjolnir} instance.
+     * @param method The storage method, as in storage.method.
+     * @return       The {@link Storage}, with its tables created.
+     */
+    public static Storage open(final Mjolnir plugin,final String method) {
+        final Storage storage;
+
+        switch (method) {
+            case "native":
+                storage = new NativeStorage(plugin);
+                break;
+
+            case "jdbc":
+                try {
+                    Class.forName("org.sqlite.JDBC");
+                } catch (ClassNotFoundException exception) {
+                    throw new IllegalStateException(exception);
+                }
+
+                storage = new JdbcStorage(plugin,new ConnectionPool(
+                    "jdbc:sqlite:" + new File(plugin.getDataFolder(),"events.db").getPath(),
+                    "",
+                    "",
+                    1
+                ));
+                break;
+
+            case "log":
+                storage = new LogStorage(plugin,new File(plugin.getDataFolder(),"events.log"));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown storage method " + method);
+        }
+
+        storage.createTables();
+
+        return storage;
+    }
+
+    /**
+     * Make sure a dataset has been generated.
+     *
+     * @param plugin The {@link Mjolnir} instance, loaded on the dataset's folder.
+     * @param method The storage method, as in storage.method.
+     * @param events The number of {@link Event}s.
+     */
+    public static void prepare(final Mjolnir plugin,final String method,final int events) {
+        final File ready = new File(plugin.getDataFolder(),"ready");
+
+        if (ready.exists()) {
+            return;
+        }
+
+        plugin.getLogger().info("Generating " + events + " events for " + method + " storage...");
+
+        final long start = System.currentTimeMillis();
+        final Storage storage = Fixtures.open(plugin,method);
+
+        try {
+            Fixtures.populate(storage,events);
+        } finally {
+            storage.shutdown();
+        }
+
+        try {
+            if (!ready.createNewFile()) {
+                throw new IOException("Already exists");
+            }
+        } catch (IOException exception) {
+            throw new IllegalStateException("Could not mark dataset ready",exception);
+        }
+
+        plugin.getLogger().info("Generated in " + (System.currentTimeMillis() - start) / 1000L + " s.");
+    }
+
+    /**
+     * Write synthetic {@link Event}s.
+     *
+     * Seven in ten are bans. Half never expire, a quarter expire an hour after
+     * they were made, and a quarter some time in the next 30 days.
+     *
+     * @param storage The {@link Storage} to write to.
+     * @param events  The number of {@link Event}s.
+     */
+    public static void populate(final Storage storage,final int events) {
+        final Random random = new Random(events);
+        final int players = Fixtures.players(events);
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        List<Event> batch = new ArrayList<>(Fixtures.BATCH);
+
+        for (int i = 0; i < events; i++) {
+            final Event event = new Event();
+
+            event.setTime(now - events + i);
+            event.setPlayer(Fixtures.player(random.nextInt(players)));
+            event.setOp("Op" + random.nextInt(16));
+            event.setType(random.nextInt(10) < 7 ? Event.EventType.BAN : Event.EventType.UNBAN);
+            event.setReason(Fixtures.REASONS[random.nextInt(Fixtures.REASONS.length)]);
+
+            switch (random.nextInt(4)) {
+                case 2:
+                    event.setExpires(event.getTime() + 3600);
+                    break;
+
+                case 3:
+                    event.setExpires(now + 1 + random.nextInt(30 * 24 * 60 * 60));
+                    break;
+
+                default:
+                    event.setExpires(0);
+                    break;
+            }
+
+            batch.add(event);
+
+            if (batch.size() == Fixtures.BATCH) {
+                storage.writeEvents(batch);
+                batch = new ArrayList<>(Fixtures.BATCH);
+            }
+        }
+
+        if (batch.size() > 0) {
+            storage.writeEvents(batch);
+        }
+    }
+
+    /**
+     * Get the number of players in a dataset.
+     *
+     * @param events The number of {@link Event}s.
+     * @return       The number of players.
+     */
+    public static int players(final int events) {
+        return Math.max(1,events / 10);
+    }
+
+    /**
+     * Get the name of a player with {@link Event}s.
+     *
+     * @param index The number of the player.
+     * @return      The name.
+     */
+    public static String player(final int index) {
+        return "Player" + index;
+    }
+
+    /**
+     * Get the name of a player without {@link Event}s.
+     *
+     * @param index The number of the player.
+     * @return      The name.
+     */
+    public static String stranger(final int index) {
+        return "Stranger" + index;
+    }
+
+    /**
+     * Pick player names.
+     *
+     * @param count   The number of names to pick.
+     * @param players The number of players to pick from.
+     * @param known   Whether to pick players with {@link Event}s, or strangers.
+     * @return        The names, in random order.
+     */
+    public static String[] names(final int count,final int players,final boolean known) {
+        final Random random = new Random(count);
+        final String[] names = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            names[i] = known ? Fixtures.player(random.nextInt(players)) : Fixtures.stranger(random.nextInt(Integer.MAX_VALUE));
+        }
+
+        return names;
+    }
+
+    /**
+     * Get the UUID of a synthetic name history.
+     *
+     * @param index The number of the history.
+     * @return      The UUID.
+     */
+    public static UUID uuid(final int index) {
+        return new UUID(0x4d6a6f6c6e6972L,index);
+    }
+
+    /**
+     * Get a name in a synthetic name history.
+     *
+     * @param index The number of the history.
+     * @param name  The number of the name in it.
+     * @return      The name.
+     */
+    public static String historyName(final int index,final int name) {
+        return name == 0 ? Fixtures.player(index) : "Player" + index + "_" + name;
+    }
+
+    /**
+     * Get the time a name in a synthetic name history was taken.
+     *
+     * The first name has 0, and every next name was taken a day later.
+     *
+     * @param name The number of the name.
+     * @return     The UNIX time.
+     */
+    public static int historyTime(final int name) {
+        return name == 0 ? 0 : 1262304000 + name * 86400;
+    }
+
+    /**
+     * Write a name history cache file.
+     *
+     * Uses the format of {@link it.flaten.mjolnir.caches.NameHistoryCache},
+     * with every history fetched just now.
+     *
+     * @param file    The file to write.
+     * @param count   The number of histories.
+     * @param length  The number of names in each history.
+     * @throws IOException If the file could not be written.
+     */
+    public static void writeNameHistories(final File file,final int count,final int length) throws IOException {
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; i < count; i++) {
+                final UUID uuid = Fixtures.uuid(i);
+
+                output.writeLong(uuid.getMostSignificantBits());
+                output.writeLong(uuid.getLeastSignificantBits());
+                output.writeInt(now);
+                output.writeShort(length);
+
+                for (int j = 0; j < length; j++) {
+                    output.writeInt(Fixtures.historyTime(j));
+                    output.writeUTF(Fixtures.historyName(i,j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete a file or folder, with everything in it.
+     *
+     * @param file The file or folder.
+     */
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                Fixtures.delete(child);
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IllegalStateException("Could not delete " + file);
+        }
+    }
+}
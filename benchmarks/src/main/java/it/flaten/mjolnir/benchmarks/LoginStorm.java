@@ -0,0 +1,563 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.listeners.PlayerListener;
+import it.flaten.mjolnir.metrics.Gauge;
+import it.flaten.mjolnir.metrics.Histogram;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end login storm against {@link PlayerListener}.
+ *
+ * Enables the plugin against a {@link StubServer} on a synthetic dataset, with
+ * names.url pointing at a {@link FakeMojang}, and then has simulated players
+ * connect at a fixed rate. Each connection goes through the same steps as on
+ * a real server: {@link AsyncPlayerPreLoginEvent} on a connection thread of
+ * its own, {@link PlayerLoginEvent} on the server thread, and, for players let
+ * in, {@link PlayerQuitEvent} on the server thread once their session ends.
+ * <p>
+ * Connections are started on schedule whether or not earlier ones have
+ * finished, and latencies are measured from when a connection should have
+ * started, so a stalled login gate shows up in the results instead of slowing
+ * down the storm. A task ticking on the server thread measures how late it
+ * runs, which is what players notice when the server thread is blocked.
+ * <p>
+ * Run it with java -cp target/benchmarks.jar it.flaten.mjolnir.benchmarks.LoginStorm,
+ * followed by any of the options in {@link #DEFAULTS} as --option value.
+ * Configuration nodes can be overridden with --set node=value, as often as
+ * needed.
+ *
+ * @author Jim Flaten
+ */
+public class LoginStorm {
+    /**
+     * Options, and their default values.
+     */
+    private static final String[][] DEFAULTS = {
+        { "method",         "jdbc",    "Storage method: native, jdbc or log." },
+        { "events",         "1000000", "Number of events in the dataset." },
+        { "players",        "20000",   "Number of simulated players." },
+        { "known",          "0.5",     "Share of players with events in the dataset." },
+        { "history",        "3",       "Number of names in each player's history." },
+        { "rate",           "1000",    "Connections started per second." },
+        { "warmup",         "10",      "Seconds of connections left out of the results." },
+        { "duration",       "60",      "Seconds of connections measured." },
+        { "session",        "5",       "Seconds players stay online." },
+        { "mojang-latency", "100",     "Milliseconds the fake endpoint takes to answer." },
+        { "mojang-jitter",  "50",      "Most milliseconds added at random to that." },
+        { "mojang-errors",  "0",       "Share of requests the fake endpoint fails." },
+        { "warm",           "false",   "Keep name histories from the previous run." }
+    };
+
+    /**
+     * Milliseconds per server tick.
+     */
+    private static final long TICK = 50L;
+
+    private final Map<String,String> options;
+    private final Map<String,String> overrides;
+
+    private final StubServer server = new StubServer(4);
+    private final FakeMojang mojang;
+    private Mjolnir plugin;
+    private PlayerListener listener;
+
+    /**
+     * Simulated players, in the order they connect.
+     */
+    private String[] names;
+    private UUID[] uuids;
+
+    /**
+     * Connection threads, as the server would start for incoming connections.
+     */
+    private final ExecutorService connections = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable,"User Authenticator #" + (++this.count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Ends sessions.
+     */
+    private final ScheduledExecutorService sessions = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Results. Replaced when the warm-up ends.
+     */
+    private volatile Results results = new Results();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link LoginStorm}.
+     *
+     * @param options   Option values, by name.
+     * @param overrides Configuration nodes to set, and their values.
+     */
+    public LoginStorm(final Map<String,String> options,final Map<String,String> overrides) {
+        this.options = options;
+        this.overrides = overrides;
+        this.mojang = new FakeMojang(this.getInt("mojang-latency"),this.getInt("mojang-jitter"),this.getDouble("mojang-errors"));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String,String> options = new LinkedHashMap<>();
+        final Map<String,String> overrides = new LinkedHashMap<>();
+
+        for (String[] option : LoginStorm.DEFAULTS) {
+            options.put(option[0],option[1]);
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                LoginStorm.usage();
+                return;
+            }
+
+            final String name = args[i].substring(2);
+            final String value = args[++i];
+
+            if (name.equals("set") && value.indexOf('=') > 0) {
+                overrides.put(value.substring(0,value.indexOf('=')),value.substring(value.indexOf('=') + 1));
+            } else if (options.containsKey(name)) {
+                options.put(name,value);
+            } else {
+                LoginStorm.usage();
+                return;
+            }
+        }
+
+        final LoginStorm storm = new LoginStorm(options,overrides);
+
+        try {
+            storm.setUp();
+            storm.run();
+            storm.report(System.out);
+        } finally {
+            storm.tearDown();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Print the options.
+     */
+    private static void usage() {
+        System.err.println("Options, as --option value:");
+
+        for (String[] option : LoginStorm.DEFAULTS) {
+            System.err.println(String.format("  --%-15s %s Default %s.",option[0],option[2],option[1]));
+        }
+
+        System.err.println(String.format("  --%-15s %s","set","Set a configuration node, as node=value. May be repeated."));
+    }
+
+    /**
+     * Prepare the dataset, the fake endpoint and the plugin.
+     *
+     * @throws Exception If anything could not be set up.
+     */
+    private void setUp() throws Exception {
+        final String method = this.options.get("method");
+        final int events = this.getInt("events");
+        final File folder = Fixtures.folder(method,events);
+
+        this.plugin = Fixtures.load(this.server,folder);
+
+        Fixtures.prepare(this.plugin,method,events);
+        Fixtures.configure(this.plugin,method);
+
+        final File names = new File(folder,"names-storm.dat");
+
+        if (!Boolean.parseBoolean(this.options.get("warm")) && names.exists() && !names.delete()) {
+            throw new IllegalStateException("Could not delete " + names);
+        }
+
+        this.plugin.getConfig().set("names.file",names.getName());
+        this.plugin.getConfig().set("names.url",this.mojang.start());
+
+        for (Map.Entry<String,String> override : this.overrides.entrySet()) {
+            this.plugin.getConfig().set(override.getKey(),LoginStorm.parse(override.getValue()));
+        }
+
+        this.populate(Fixtures.players(events));
+
+        this.plugin.onEnable();
+
+        this.listener = this.server.getListener(PlayerListener.class);
+
+        if (this.listener == null) {
+            throw new IllegalStateException("Plugin did not register its player listener");
+        }
+
+        this.server.getServer().getScheduler().runTaskTimer(this.plugin,new Runnable() {
+            private long expected = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LoginStorm.TICK);
+
+            @Override
+            public void run() {
+                final long now = System.nanoTime();
+
+                LoginStorm.this.results.tickLag.record(now - this.expected);
+
+                this.expected = Math.max(this.expected,now - TimeUnit.MILLISECONDS.toNanos(LoginStorm.TICK)) + TimeUnit.MILLISECONDS.toNanos(LoginStorm.TICK);
+            }
+        },1,1);
+    }
+
+    /**
+     * Create the simulated players and their name histories.
+     *
+     * Known players log in with the name of a player from the dataset, so
+     * some of them are banned. Every player's previous names include one
+     * from the dataset too, to exercise the previous name check.
+     *
+     * @param datasetPlayers The number of players in the dataset.
+     */
+    private void populate(final int datasetPlayers) {
+        final int count = this.getInt("players");
+        final int length = Math.max(1,this.getInt("history"));
+        final double known = this.getDouble("known");
+        final Random random = new Random(count);
+
+        this.names = new String[count];
+        this.uuids = new UUID[count];
+
+        for (int i = 0; i < count; i++) {
+            this.uuids[i] = Fixtures.uuid(i);
+            this.names[i] = random.nextDouble() < known ? Fixtures.player(random.nextInt(datasetPlayers)) : Fixtures.stranger(i);
+
+            final String[] history = new String[length];
+
+            for (int j = 0; j < length - 1; j++) {
+                history[j] = j == 0 ? Fixtures.player(random.nextInt(datasetPlayers)) : "Old" + i + "_" + j;
+            }
+
+            history[length - 1] = this.names[i];
+
+            this.mojang.put(this.uuids[i],history);
+        }
+    }
+
+    /**
+     * Run the storm.
+     *
+     * Starts connections on schedule for the warm-up and the measured period,
+     * and then waits for the ones still in progress.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void run() throws InterruptedException {
+        final double rate = this.getDouble("rate");
+        final long interval = (long) (1e9 / rate);
+        final long warmup = (long) (this.getDouble("warmup") * rate);
+        final long total = warmup + (long) (this.getDouble("duration") * rate);
+        final long start = System.nanoTime();
+
+        System.err.println("Running " + total + " connections, " + warmup + " of them warm-up...");
+
+        for (long i = 0; i < total; i++) {
+            if (i == warmup) {
+                this.results = new Results();
+                this.results.started = System.nanoTime();
+                this.server.resetMainTimer();
+            }
+
+            final long intended = start + i * interval;
+            final long wait = intended - System.nanoTime();
+
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            final int player = (int) (i % this.names.length);
+            final Results results = this.results;
+
+            results.offered.incrementAndGet();
+
+            this.connections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    LoginStorm.this.connect(player,intended,results);
+                }
+            });
+        }
+
+        this.results.offeredUntil = System.nanoTime();
+
+        this.connections.shutdown();
+
+        if (!this.connections.awaitTermination(60,TimeUnit.SECONDS)) {
+            System.err.println("Connections still running after 60 seconds, reporting anyway.");
+        }
+
+        this.results.finished = System.nanoTime();
+    }
+
+    /**
+     * Simulate one connection.
+     *
+     * @param index    The number of the simulated player.
+     * @param intended When the connection should have started, from {@link System#nanoTime()}.
+     * @param results  Where to record the outcome.
+     */
+    private void connect(final int index,final long intended,final Results results) {
+        final String name = this.names[index];
+        final UUID uuid = this.uuids[index];
+
+        try {
+            final InetAddress address = InetAddress.getLoopbackAddress();
+            final AsyncPlayerPreLoginEvent preLogin = new AsyncPlayerPreLoginEvent(name,address,uuid);
+
+            this.listener.onAsyncPlayerPreLogin(preLogin);
+            this.listener.onAsyncPlayerPreLoginMonitor(preLogin);
+
+            results.preLogin.since(intended);
+
+            if (preLogin.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+                results.denied.incrementAndGet();
+                return;
+            }
+
+            final Player player = this.player(name,uuid,address);
+            final boolean[] allowed = new boolean[1];
+
+            this.server.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    final long start = System.nanoTime();
+                    final PlayerLoginEvent login = new PlayerLoginEvent(player,"localhost",address);
+
+                    LoginStorm.this.listener.onPlayerLogin(login);
+                    LoginStorm.this.listener.onPlayerLoginMonitor(login);
+
+                    results.login.since(start);
+
+                    allowed[0] = login.getResult() == PlayerLoginEvent.Result.ALLOWED;
+
+                    if (allowed[0]) {
+                        LoginStorm.this.server.join(player);
+                    }
+                }
+            });
+
+            results.total.since(intended);
+
+            if (!allowed[0]) {
+                results.banned.incrementAndGet();
+                return;
+            }
+
+            results.joined.incrementAndGet();
+
+            this.sessions.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    LoginStorm.this.server.getServer().getScheduler().runTask(LoginStorm.this.plugin,new Runnable() {
+                        @Override
+                        public void run() {
+                            LoginStorm.this.server.quit(player);
+                            LoginStorm.this.listener.onPlayerQuit(new PlayerQuitEvent(player,null));
+                        }
+                    });
+                }
+            },this.getInt("session"),TimeUnit.SECONDS);
+        } catch (RuntimeException exception) {
+            results.failed.incrementAndGet();
+
+            if (results.failed.get() <= 10) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Create a simulated player.
+     *
+     * @param name    The name of the player.
+     * @param uuid    The UUID of the player.
+     * @param address The address the player connects from.
+     * @return        The {@link Player}.
+     */
+    private Player player(final String name,final UUID uuid,final InetAddress address) {
+        return StubServer.proxy(Player.class,new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,final Method method,final Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getName":
+                    case "getDisplayName":
+                        return name;
+
+                    case "getUniqueId":
+                        return uuid;
+
+                    case "getAddress":
+                        return new InetSocketAddress(address,25565);
+
+                    case "isOnline":
+                        return LoginStorm.this.server.getServer().getPlayerExact(name) == proxy;
+
+                    case "kickPlayer":
+                        LoginStorm.this.results.kicked.incrementAndGet();
+                        LoginStorm.this.server.quit((Player) proxy);
+                        LoginStorm.this.listener.onPlayerQuit(new PlayerQuitEvent((Player) proxy,null));
+                        return null;
+
+                    default:
+                        return StubServer.defaults(proxy,method,args);
+                }
+            }
+        });
+    }
+
+    /**
+     * Print the results.
+     *
+     * @param out Where to print them.
+     */
+    private void report(final PrintStream out) {
+        final Results results = this.results;
+        final double offeredSeconds = (results.offeredUntil - results.started) / 1e9;
+        final double seconds = (results.finished - results.started) / 1e9;
+        final long completed = results.joined.get() + results.banned.get() + results.denied.get();
+        final Histogram main = this.server.getMainTimer();
+        final double busy = main.getMeanMillis() * main.getCount();
+
+        out.println(" ==== Login storm ====");
+        out.println(String.format("Storage:       %s, %s events, %s",this.options.get("method"),this.options.get("events"),this.overrides.isEmpty() ? "default configuration" : this.overrides));
+        out.println(String.format("Mojang:        %s ms + up to %s ms, %s errors",this.options.get("mojang-latency"),this.options.get("mojang-jitter"),this.options.get("mojang-errors")));
+        out.println(String.format("Offered:       %d connections in %.1f s (%.0f/s)",results.offered.get(),offeredSeconds,results.offered.get() / offeredSeconds));
+        out.println(String.format("Completed:     %d in %.1f s (%.0f/s)",completed,seconds,completed / seconds));
+        out.println(String.format("Outcome:       %d joined, %d banned at login, %d denied at pre-login, %d kicked later, %d failed",results.joined.get(),results.banned.get(),results.denied.get(),results.kicked.get(),results.failed.get()));
+        out.println(LoginStorm.line("Pre-login",results.preLogin));
+        out.println(LoginStorm.line("Login",results.login));
+        out.println(LoginStorm.line("Connection",results.total));
+        out.println(LoginStorm.line("Server tasks",main));
+        out.println(String.format("Server busy:   %.0f ms of %.0f ms (%.1f%%)",busy,seconds * 1000D,busy / (seconds * 10D)));
+        out.println(LoginStorm.line("Tick lag",results.tickLag));
+        out.println(String.format("Mojang:        %d requests, %d failed",this.mojang.getRequests(),this.mojang.getFailed()));
+
+        out.println(" ==== Plugin timers ====");
+
+        for (Map.Entry<String,Histogram> entry : this.plugin.getMetrics().getTimers().entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                out.println(LoginStorm.line(entry.getKey(),entry.getValue()));
+            }
+        }
+
+        out.println(" ==== Plugin gauges ====");
+
+        for (Map.Entry<String,Gauge> entry : this.plugin.getMetrics().getGauges().entrySet()) {
+            out.println(String.format("%-26s %.4f",entry.getKey(),entry.getValue().getValue()));
+        }
+    }
+
+    /**
+     * Stop everything.
+     */
+    private void tearDown() {
+        this.sessions.shutdownNow();
+        this.connections.shutdownNow();
+
+        if (this.plugin != null && this.listener != null) {
+            this.plugin.onDisable();
+        }
+
+        this.server.shutdown();
+        this.mojang.stop();
+    }
+
+    /**
+     * Format a timer.
+     *
+     * @param name  The name of the timer.
+     * @param timer The {@link Histogram}.
+     * @return      A line with its count and percentiles.
+     */
+    private static String line(final String name,final Histogram timer) {
+        return String.format(
+            "%-26s %8d, p50 %8.2f ms, p99 %8.2f ms, p99.9 %8.2f ms, max %8.2f ms",
+            name + ":",
+            timer.getCount(),
+            timer.getP50Millis(),
+            timer.getP99Millis(),
+            timer.getPercentile(99.9D) / 1e6,
+            timer.getMaxMillis()
+        );
+    }
+
+    /**
+     * Turn an override into the type the configuration expects.
+     *
+     * @param value The value as given.
+     * @return      A {@link Boolean}, {@link Integer}, {@link Double} or {@link String}.
+     */
+    private static Object parse(final String value) {
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(value);
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ignored) {
+            // Not an integer.
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ignored) {
+            // Not a number.
+        }
+
+        return value;
+    }
+
+    private int getInt(final String option) {
+        return Integer.parseInt(this.options.get(option));
+    }
+
+    private double getDouble(final String option) {
+        return Double.parseDouble(this.options.get(option));
+    }
+
+    /**
+     * Counters and timers of a run.
+     */
+    private static class Results {
+        private final AtomicLong offered = new AtomicLong();
+        private final AtomicLong joined = new AtomicLong();
+        private final AtomicLong banned = new AtomicLong();
+        private final AtomicLong denied = new AtomicLong();
+        private final AtomicLong kicked = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        private final Histogram preLogin = new Histogram();
+        private final Histogram login = new Histogram();
+        private final Histogram total = new Histogram();
+        private final Histogram tickLag = new Histogram();
+
+        private volatile long started = System.nanoTime();
+        private volatile long offeredUntil;
+        private volatile long finished;
+    }
+}
@@ -0,0 +1,71 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.templates.MessageTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kick and broadcast message rendering.
+ *
+ * Uses the templates from the default configuration, which is what
+ * {@link it.flaten.mjolnir.Mjolnir#buildKickMessage(Event)} and
+ * {@link it.flaten.mjolnir.Mjolnir#buildBroadcastMessage(Event,StringBuilder)}
+ * render with.
+ *
+ * @author Jim Flaten
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class MessageTemplateBenchmark {
+    /**
+     * Whether or not the {@link Event} expires.
+     */
+    @Param({ "false","true" })
+    public boolean expires;
+
+    private MessageTemplate kickTemplate;
+    private MessageTemplate broadcastTemplate;
+    private Event event;
+    private StringBuilder builder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.kickTemplate = new MessageTemplate("&cYou are banned. &r<reason>"," &aExpires <expires>","dd-MM-yyyy HH:mm");
+        this.broadcastTemplate = new MessageTemplate("<op> <type>ned <player>. <reason>"," Expires <expires>.","dd-MM-yyyy HH:mm");
+
+        this.event = new Event();
+        this.event.setId(1);
+        this.event.setTime((int) (System.currentTimeMillis() / 1000L));
+        this.event.setPlayer("Player1");
+        this.event.setOp("Op1");
+        this.event.setType(Event.EventType.BAN);
+        this.event.setReason("Griefing");
+        this.event.setExpires(this.expires ? this.event.getTime() + 86400 : 0);
+
+        this.builder = new StringBuilder(4096);
+    }
+
+    @Benchmark
+    public String kick() {
+        return this.kickTemplate.render(this.event);
+    }
+
+    @Benchmark
+    public String broadcast() {
+        return this.broadcastTemplate.render(this.event);
+    }
+
+    @Benchmark
+    public int broadcastInto() {
+        this.builder.setLength(0);
+        this.broadcastTemplate.render(this.event,this.builder);
+
+        return this.builder.length();
+    }
+}
@@ -0,0 +1,108 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.NameHistory;
+import it.flaten.mjolnir.caches.NameHistoryCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name history lookups, as done for every previous name of a connecting player.
+ *
+ * Covers {@link NameHistory#hadNameAt(String,int)} on its own, and behind a
+ * {@link NameHistoryCache} lookup, which together are what
+ * {@link it.flaten.mjolnir.Mjolnir#hadNameAtTime(UUID,String,int)} does for a
+ * cached player.
+ *
+ * @author Jim Flaten
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class NameHistoryBenchmark {
+    /**
+     * Number of histories in the cache.
+     */
+    private static final int HISTORIES = 100000;
+
+    /**
+     * Number of names in each history.
+     */
+    @Param({ "1","8","64","512" })
+    public int length;
+
+    private NameHistory history;
+    private NameHistoryCache cache;
+    private File file;
+
+    private UUID[] uuids;
+    private String[] names;
+    private String[] ownNames;
+    private int[] times;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("names",".dat");
+
+        Fixtures.writeNameHistories(this.file,NameHistoryBenchmark.HISTORIES,this.length);
+
+        this.cache = new NameHistoryCache(this.file,Integer.MAX_VALUE,2 * NameHistoryBenchmark.HISTORIES);
+        this.cache.load();
+
+        this.history = this.cache.get(Fixtures.uuid(0)).getHistory();
+
+        this.uuids = new UUID[1024];
+        this.names = new String[1024];
+        this.ownNames = new String[1024];
+        this.times = new int[1024];
+
+        for (int i = 0; i < 1024; i++) {
+            final int index = (i * 7919) % NameHistoryBenchmark.HISTORIES;
+            final int name = i % this.length;
+
+            this.uuids[i] = Fixtures.uuid(index);
+            this.names[i] = Fixtures.historyName(index,name);
+            this.ownNames[i] = Fixtures.historyName(0,name);
+            this.times[i] = Fixtures.historyTime(name) + 3600;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cache.close();
+
+        if (!this.file.delete()) {
+            this.file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public boolean hadNameAt(final Cursor cursor) {
+        final int i = cursor.next(this.times.length);
+
+        return this.history.hadNameAt(this.ownNames[i],this.times[i]);
+    }
+
+    @Benchmark
+    public boolean hadNameAtMiss(final Cursor cursor) {
+        return this.history.hadNameAt("Stranger",this.times[cursor.next(this.times.length)]);
+    }
+
+    @Benchmark
+    public String nameAt(final Cursor cursor) {
+        return this.history.nameAt(this.times[cursor.next(this.times.length)]);
+    }
+
+    @Benchmark
+    public boolean cachedHadNameAt(final Cursor cursor) {
+        final int i = cursor.next(this.uuids.length);
+
+        return this.cache.get(this.uuids[i]).getHistory().hadNameAt(this.names[i],this.times[i]);
+    }
+}
@@ -0,0 +1,27 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.Mjolnir;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Mjolnir#parseTime(String)}, as used by every temporary ban and unban.
+ *
+ * @author Jim Flaten
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class ParseTimeBenchmark {
+    @Param({ "30m","1d12h","1y2w3d4h5m6s" })
+    public String time;
+
+    @Benchmark
+    public int parseTime() {
+        return Mjolnir.parseTime(this.time);
+    }
+}
@@ -0,0 +1,340 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.propagation.Channel;
+import it.flaten.mjolnir.propagation.TcpChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Local multi-node check of {@link TcpChannel}.
+ *
+ * Opens a number of channels on the loopback address, each with all others as
+ * peers, and has every node publish {@link Event}s. Halfway through, the last
+ * node is closed, the others keep publishing while it is down, and it is then
+ * opened again on the same port. Passes once every node has received every
+ * {@link Event} published by the others, duplicates allowed, and fails if that
+ * does not happen in time. A channel without a secret must refuse to open.
+ * <p>
+ * Run it with java -cp target/benchmarks.jar it.flaten.mjolnir.benchmarks.PropagationCheck,
+ * followed by any of the options in {@link #DEFAULTS} as --option value. Exits
+ * with status 1 if the check fails.
+ *
+ * @author Jim Flaten
+ */
+public class PropagationCheck {
+    /**
+     * Options, and their default values.
+     */
+    private static final String[][] DEFAULTS = {
+        { "nodes",   "3",    "Number of nodes." },
+        { "events",  "2000", "Number of events each node publishes." },
+        { "down",    "2",    "Seconds the last node stays down." },
+        { "timeout", "60",   "Seconds to wait for all events to arrive." }
+    };
+
+    /**
+     * Secret shared by the nodes.
+     */
+    private static final String SECRET = "propagation-check";
+
+    private final int nodes;
+    private final int events;
+    private final int down;
+    private final int timeout;
+
+    private final Logger logger = Logger.getLogger("PropagationCheck");
+
+    /**
+     * Ports, by node.
+     */
+    private final int[] ports;
+
+    /**
+     * Channels, by node. Replaced when a node is opened again.
+     */
+    private final TcpChannel[] channels;
+
+    /**
+     * Reasons of the {@link Event}s received, by node.
+     */
+    private final List<Set<String>> received = new ArrayList<>();
+
+    /**
+     * Number of {@link Event}s received more than once.
+     */
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link PropagationCheck}.
+     *
+     * @param options Option values, by name.
+     */
+    public PropagationCheck(final Map<String,String> options) {
+        this.nodes = Math.max(2,Integer.parseInt(options.get("nodes")));
+        this.events = Integer.parseInt(options.get("events"));
+        this.down = Integer.parseInt(options.get("down"));
+        this.timeout = Integer.parseInt(options.get("timeout"));
+
+        this.ports = new int[this.nodes];
+        this.channels = new TcpChannel[this.nodes];
+
+        for (int i = 0; i < this.nodes; i++) {
+            this.received.add(Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>()));
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String,String> options = new LinkedHashMap<>();
+
+        for (String[] option : PropagationCheck.DEFAULTS) {
+            options.put(option[0],option[1]);
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length || !options.containsKey(args[i].substring(2))) {
+                PropagationCheck.usage();
+                return;
+            }
+
+            options.put(args[i].substring(2),args[++i]);
+        }
+
+        final PropagationCheck check = new PropagationCheck(options);
+        final boolean passed;
+
+        try {
+            passed = check.run();
+        } finally {
+            check.tearDown();
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Print the options.
+     */
+    private static void usage() {
+        System.err.println("Options, as --option value:");
+
+        for (String[] option : PropagationCheck.DEFAULTS) {
+            System.err.println(String.format("  --%-10s %s Default %s.",option[0],option[2],option[1]));
+        }
+    }
+
+    /**
+     * Run the check.
+     *
+     * @return Whether or not it passed.
+     * @throws Exception If the nodes could not be set up.
+     */
+    private boolean run() throws Exception {
+        boolean passed = true;
+
+        final TcpChannel open = new TcpChannel(this.logger,new InetSocketAddress("127.0.0.1",0),Collections.<InetSocketAddress>emptyList(),"",16);
+
+        try {
+            open.open(this.receiver(0));
+            open.close();
+
+            System.out.println("FAIL: a channel without a secret was opened.");
+            passed = false;
+        } catch (IOException exception) {
+            System.out.println("OK:   a channel without a secret refused to open.");
+        }
+
+        for (int i = 0; i < this.nodes; i++) {
+            this.ports[i] = PropagationCheck.freePort();
+        }
+
+        for (int i = 0; i < this.nodes; i++) {
+            this.open(i);
+        }
+
+        final int last = this.nodes - 1;
+        final int half = this.events / 2;
+
+        final long deadline = System.currentTimeMillis() + this.timeout * 1000L;
+
+        /**
+         * What the last node has queued when it is closed is lost with it, as
+         * with a server going down, so let it deliver the first half first.
+         */
+        this.publish(0,half);
+        this.await(half,deadline);
+
+        this.channels[last].close();
+        this.publish(half,this.events);
+
+        Thread.sleep(this.down * 1000L);
+
+        this.open(last);
+        this.await(this.events,deadline);
+
+        for (int i = 0; i < this.nodes; i++) {
+            final int count = this.received.get(i).size();
+            final int expected = this.expected(i,this.events);
+
+            System.out.println(String.format(
+                "%s node %d received %d of %d events.",
+                count == expected ? "OK:  " : "FAIL:",
+                i,
+                count,
+                expected
+            ));
+
+            passed &= count == expected;
+        }
+
+        long sent = 0;
+        long dropped = 0;
+
+        for (TcpChannel channel : this.channels) {
+            sent += channel.getSent();
+            dropped += channel.getDropped();
+        }
+
+        System.out.println(String.format("%d acknowledged by the current channels, %d dropped, %d duplicates.",sent,dropped,this.duplicates.get()));
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    /**
+     * Close all nodes.
+     */
+    private void tearDown() {
+        for (TcpChannel channel : this.channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Open a node, with all others as peers.
+     *
+     * @param node The node.
+     * @throws IOException If it could not be opened.
+     */
+    private void open(final int node) throws IOException {
+        final List<InetSocketAddress> peers = new ArrayList<>();
+
+        for (int i = 0; i < this.nodes; i++) {
+            if (i != node) {
+                peers.add(new InetSocketAddress("127.0.0.1",this.ports[i]));
+            }
+        }
+
+        this.channels[node] = new TcpChannel(
+            this.logger,
+            new InetSocketAddress("127.0.0.1",this.ports[node]),
+            peers,
+            PropagationCheck.SECRET,
+            this.events * 2
+        );
+
+        this.channels[node].open(this.receiver(node));
+    }
+
+    /**
+     * Publish a range of {@link Event}s from every node that is up.
+     *
+     * The last node only publishes while it is up, in the first half.
+     *
+     * @param from The first {@link Event}, inclusive.
+     * @param to   The last {@link Event}, exclusive.
+     */
+    private void publish(final int from,final int to) {
+        for (int i = from; i < to; i++) {
+            for (int node = 0; node < this.nodes; node++) {
+                if (node == this.nodes - 1 && from > 0) {
+                    continue;
+                }
+
+                final Event event = new Event();
+
+                event.setId(node * this.events + i + 1);
+                event.setTime((int) (System.currentTimeMillis() / 1000L));
+                event.setPlayer("player" + i);
+                event.setOp("node" + node);
+                event.setType(Event.EventType.BAN);
+                event.setReason(node + ":" + i);
+                event.setExpires(0);
+
+                this.channels[node].publish(event);
+            }
+        }
+    }
+
+    /**
+     * Get the receiver of a node.
+     *
+     * @param node The node.
+     * @return     A {@link Channel.Receiver} recording what it is handed.
+     */
+    private Channel.Receiver receiver(final int node) {
+        return new Channel.Receiver() {
+            @Override
+            public void receive(final Event event) {
+                if (!PropagationCheck.this.received.get(node).add(event.getReason())) {
+                    PropagationCheck.this.duplicates.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the number of {@link Event}s a node should have received.
+     *
+     * The last node does not publish the second half, so the others receive
+     * fewer {@link Event}s than it does.
+     *
+     * @param node      The node.
+     * @param published The number of {@link Event}s published by each node that was up.
+     * @return          The number of {@link Event}s it should have received.
+     */
+    private int expected(final int node,final int published) {
+        if (node == this.nodes - 1) {
+            return (this.nodes - 1) * published;
+        }
+
+        return (this.nodes - 2) * published + Math.min(published,this.events / 2);
+    }
+
+    /**
+     * Wait until every node has received what it should, or the deadline passes.
+     *
+     * @param published The number of {@link Event}s published by each node that was up.
+     * @param deadline  The time to give up at, in milliseconds.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void await(final int published,final long deadline) throws InterruptedException {
+        for (int i = 0; i < this.nodes; i++) {
+            while (this.received.get(i).size() < this.expected(i,published) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100L);
+            }
+        }
+    }
+
+    /**
+     * Find a free port on the loopback address.
+     *
+     * @return The port.
+     * @throws IOException If no port could be found.
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
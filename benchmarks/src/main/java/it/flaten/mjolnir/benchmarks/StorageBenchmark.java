@@ -0,0 +1,131 @@
+package it.flaten.mjolnir.benchmarks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.storages.CachedStorage;
+import it.flaten.mjolnir.storages.FilteredStorage;
+import it.flaten.mjolnir.storages.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Storage} lookups against synthetic datasets.
+ *
+ * Each backend is measured on its own, behind the known player filter, and
+ * behind the active ban index, the way the plugin stacks them. Datasets are
+ * generated on first use, see {@link Fixtures}.
+ *
+ * @author Jim Flaten
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    /**
+     * Number of names looked up at once by {@link #activeBulk(Cursor)}.
+     */
+    private static final int BULK = 8;
+
+    @Param({ "native","jdbc","log" })
+    public String method;
+
+    @Param({ "10000","1000000","10000000" })
+    public int events;
+
+    /**
+     * What sits in front of the backend: nothing, the filter, or the index.
+     */
+    @Param({ "none","filter","cache" })
+    public String layer;
+
+    private StubServer server;
+    private Storage storage;
+
+    private String[] known;
+    private String[] unknown;
+    private List<String>[] bulk;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        this.server = new StubServer(2);
+
+        final Mjolnir plugin = Fixtures.load(this.server,Fixtures.folder(this.method,this.events));
+
+        Fixtures.prepare(plugin,this.method,this.events);
+
+        this.storage = Fixtures.open(plugin,this.method);
+
+        switch (this.layer) {
+            case "filter":
+                final FilteredStorage filteredStorage = new FilteredStorage(
+                    plugin,
+                    this.storage,
+                    new File(plugin.getDataFolder(),"filter.dat"),
+                    Fixtures.players(this.events),
+                    0.01D
+                );
+
+                filteredStorage.load();
+
+                this.storage = filteredStorage;
+                break;
+
+            case "cache":
+                final CachedStorage cachedStorage = new CachedStorage(this.storage);
+
+                cachedStorage.load();
+
+                this.storage = cachedStorage;
+                break;
+        }
+
+        this.known = Fixtures.names(4096,Fixtures.players(this.events),true);
+        this.unknown = Fixtures.names(4096,Fixtures.players(this.events),false);
+
+        this.bulk = new List[this.known.length / StorageBenchmark.BULK];
+
+        for (int i = 0; i < this.bulk.length; i++) {
+            this.bulk[i] = Arrays.asList(Arrays.copyOfRange(this.known,i * StorageBenchmark.BULK,(i + 1) * StorageBenchmark.BULK));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.storage.shutdown();
+        this.server.shutdown();
+    }
+
+    @Benchmark
+    public Event activeKnown(final Cursor cursor) {
+        return this.storage.loadActiveEvent(this.known[cursor.next(this.known.length)]);
+    }
+
+    @Benchmark
+    public Event activeUnknown(final Cursor cursor) {
+        return this.storage.loadActiveEvent(this.unknown[cursor.next(this.unknown.length)]);
+    }
+
+    @Benchmark
+    public Map<String,Event> activeBulk(final Cursor cursor) {
+        return this.storage.loadActiveEvents(this.bulk[cursor.next(this.bulk.length)]);
+    }
+
+    @Benchmark
+    public List<Event> historyPage(final Cursor cursor) {
+        return this.storage.loadEvents(this.known[cursor.next(this.known.length)],0,10);
+    }
+
+    @Benchmark
+    public int count(final Cursor cursor) {
+        return this.storage.countEvents(this.known[cursor.next(this.known.length)]);
+    }
+}
@@ -0,0 +1,552 @@
+package it.flaten.mjolnir.benchmarks;
+
+import com.avaje.ebean.config.DataSourceConfig;
+import com.avaje.ebean.config.ServerConfig;
+import com.avaje.ebean.config.dbplatform.SQLitePlatform;
+import com.avaje.ebeaninternal.server.lib.sql.TransactionIsolation;
+import it.flaten.mjolnir.metrics.Histogram;
+import org.bukkit.Server;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginLoader;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Just enough of a Bukkit server to run Mjolnir outside of one.
+ *
+ * The {@link Server}, {@link PluginManager}, {@link BukkitScheduler} and
+ * {@link PluginLoader} are dynamic proxies, so they do not break when Bukkit
+ * adds methods. Methods that are not handled here return null, 0, false or an
+ * empty array or collection.
+ * <p>
+ * The scheduler runs synchronous tasks on a single thread standing in for the
+ * server thread, and records how long each of them keeps it busy. Events are
+ * not dispatched. Registered listeners are kept, and benchmarks call them
+ * directly. Online players are whoever was last passed to {@link #join(Player)}
+ * and not to {@link #quit(Player)}.
+ *
+ * @author Jim Flaten
+ */
+public class StubServer {
+    /**
+     * Milliseconds per server tick.
+     */
+    private static final long TICK = 50L;
+
+    private final Logger logger = Logger.getLogger("Stub");
+
+    /**
+     * The server thread.
+     */
+    private final ScheduledExecutorService mainExecutor;
+
+    /**
+     * Threads for asynchronous tasks.
+     */
+    private final ScheduledExecutorService asyncExecutor;
+
+    /**
+     * The thread behind {@link #mainExecutor}.
+     */
+    private volatile Thread mainThread;
+
+    /**
+     * Time each synchronous task kept the server thread busy.
+     */
+    private volatile Histogram mainTimer = new Histogram();
+
+    /**
+     * Scheduled tasks, by id.
+     */
+    private final Map<Integer,Future<?>> taskMap = new ConcurrentHashMap<>();
+    private final AtomicInteger taskIds = new AtomicInteger();
+
+    /**
+     * Registered listeners.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Online players, keyed by lowercased name.
+     */
+    private final Map<String,Player> playerMap = new ConcurrentHashMap<>();
+
+    private final Server server;
+    private final PluginManager pluginManager;
+    private final BukkitScheduler scheduler;
+    private final PluginLoader pluginLoader;
+
+    /**
+     * The plugin commands are created for.
+     */
+    private volatile Plugin plugin;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link StubServer}, and starts its threads.
+     *
+     * @param asyncThreads Number of threads running asynchronous tasks.
+     */
+    public StubServer(final int asyncThreads) {
+        this.mainExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable,"Server thread");
+                thread.setDaemon(true);
+
+                StubServer.this.mainThread = thread;
+
+                return thread;
+            }
+        });
+
+        this.asyncExecutor = Executors.newScheduledThreadPool(Math.max(1,asyncThreads),new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable,"Craft Scheduler Thread - " + (++this.count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.server = StubServer.proxy(Server.class,new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,final Method method,final Object[] args) throws Throwable {
+                return StubServer.this.server(proxy,method,args);
+            }
+        });
+
+        this.pluginManager = StubServer.proxy(PluginManager.class,new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,final Method method,final Object[] args) throws Throwable {
+                return StubServer.this.pluginManager(proxy,method,args);
+            }
+        });
+
+        this.scheduler = StubServer.proxy(BukkitScheduler.class,new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,final Method method,final Object[] args) throws Throwable {
+                return StubServer.this.scheduler(proxy,method,args);
+            }
+        });
+
+        this.pluginLoader = StubServer.proxy(PluginLoader.class,new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,final Method method,final Object[] args) throws Throwable {
+                if (method.getName().equals("disablePlugin")) {
+                    throw new IllegalStateException("Plugin disabled itself, see the log for why");
+                }
+
+                return StubServer.defaults(proxy,method,args);
+            }
+        });
+    }
+
+    public Server getServer() {
+        return this.server;
+    }
+
+    public PluginLoader getPluginLoader() {
+        return this.pluginLoader;
+    }
+
+    public Logger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Set the plugin commands are created for.
+     *
+     * @param plugin The {@link Plugin} under test.
+     */
+    public void setPlugin(final Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Get the server thread timer.
+     *
+     * @return A {@link Histogram} of how long each synchronous task ran.
+     */
+    public Histogram getMainTimer() {
+        return this.mainTimer;
+    }
+
+    /**
+     * Start a new server thread timer.
+     *
+     * Used to leave warm-up out of the results.
+     */
+    public void resetMainTimer() {
+        this.mainTimer = new Histogram();
+    }
+
+    /**
+     * Get a registered listener.
+     *
+     * @param type The class of the listener.
+     * @return     The first listener of that class, or null.
+     */
+    public <T extends Listener> T getListener(final Class<T> type) {
+        for (Listener listener : this.listeners) {
+            if (type.isInstance(listener)) {
+                return type.cast(listener);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Add an online player.
+     *
+     * @param player The {@link Player}.
+     */
+    public void join(final Player player) {
+        this.playerMap.put(player.getName().toLowerCase(),player);
+    }
+
+    /**
+     * Remove an online player.
+     *
+     * @param player The {@link Player}.
+     */
+    public void quit(final Player player) {
+        this.playerMap.remove(player.getName().toLowerCase(),player);
+    }
+
+    /**
+     * Run something on the server thread, and wait for it.
+     *
+     * Counts towards {@link #getMainTimer()} like any other synchronous task.
+     *
+     * @param runnable What to run.
+     */
+    public void runOnMainThread(final Runnable runnable) {
+        try {
+            this.mainExecutor.submit(this.timed(runnable)).get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            throw new IllegalStateException(exception.getCause());
+        }
+    }
+
+    /**
+     * Stop all threads.
+     *
+     * Tasks still running are interrupted.
+     */
+    public void shutdown() {
+        this.mainExecutor.shutdownNow();
+        this.asyncExecutor.shutdownNow();
+        this.taskMap.clear();
+        this.listeners.clear();
+        this.playerMap.clear();
+    }
+
+    private Object server(final Object proxy,final Method method,final Object[] args) {
+        switch (method.getName()) {
+            case "getLogger":
+                return this.logger;
+
+            case "getPluginManager":
+                return this.pluginManager;
+
+            case "getScheduler":
+                return this.scheduler;
+
+            case "getName":
+                return "Stub";
+
+            case "getVersion":
+            case "getBukkitVersion":
+                return "stub";
+
+            case "isPrimaryThread":
+                return Thread.currentThread() == this.mainThread;
+
+            case "getPlayerExact":
+                return this.playerMap.get(((String) args[0]).toLowerCase());
+
+            case "getOnlinePlayers":
+                if (method.getReturnType().isArray()) {
+                    return this.playerMap.values().toArray(new Player[0]);
+                }
+
+                return new ArrayList<>(this.playerMap.values());
+
+            case "getPluginCommand":
+                return this.command((String) args[0]);
+
+            case "configureDbConfig":
+                StubServer.configureDbConfig((ServerConfig) args[0]);
+                return null;
+
+            default:
+                return StubServer.defaults(proxy,method,args);
+        }
+    }
+
+    private Object pluginManager(final Object proxy,final Method method,final Object[] args) {
+        switch (method.getName()) {
+            case "getPlugin":
+                return this.plugin;
+
+            case "isPluginEnabled":
+                return true;
+
+            case "registerEvents":
+                this.listeners.add((Listener) args[0]);
+                return null;
+
+            default:
+                return StubServer.defaults(proxy,method,args);
+        }
+    }
+
+    private Object scheduler(final Object proxy,final Method method,final Object[] args) {
+        final long delay = args != null && args.length > 2 ? (Long) args[2] : 0L;
+        final long period = args != null && args.length > 3 ? (Long) args[3] : -1L;
+
+        switch (method.getName()) {
+            case "runTask":
+            case "runTaskLater":
+            case "runTaskTimer":
+                return this.schedule(this.mainExecutor,this.timed((Runnable) args[1]),delay,period,true);
+
+            case "runTaskAsynchronously":
+            case "runTaskLaterAsynchronously":
+            case "runTaskTimerAsynchronously":
+                return this.schedule(this.asyncExecutor,(Runnable) args[1],delay,period,false);
+
+            case "callSyncMethod":
+                return this.mainExecutor.submit((Callable<?>) args[1]);
+
+            case "cancelTask":
+                final Future<?> future = this.taskMap.remove((Integer) args[0]);
+
+                if (future != null) {
+                    future.cancel(false);
+                }
+
+                return null;
+
+            case "cancelTasks":
+            case "cancelAllTasks":
+                for (Future<?> task : this.taskMap.values()) {
+                    task.cancel(false);
+                }
+
+                this.taskMap.clear();
+                return null;
+
+            case "isCurrentlyRunning":
+            case "isQueued":
+                return this.taskMap.containsKey((Integer) args[0]);
+
+            default:
+                return StubServer.defaults(proxy,method,args);
+        }
+    }
+
+    /**
+     * Schedule a task.
+     *
+     * @param executor The executor to run it on.
+     * @param runnable The task.
+     * @param delay    Ticks to wait before the first run.
+     * @param period   Ticks between runs, or a negative number to run once.
+     * @param sync     Whether or not the task runs on the server thread.
+     * @return         A {@link BukkitTask} for it.
+     */
+    private BukkitTask schedule(final ScheduledExecutorService executor,final Runnable runnable,final long delay,final long period,final boolean sync) {
+        final int id = this.taskIds.incrementAndGet();
+
+        final Future<?> future;
+
+        if (period > 0) {
+            future = executor.scheduleAtFixedRate(runnable,delay * StubServer.TICK,period * StubServer.TICK,TimeUnit.MILLISECONDS);
+            this.taskMap.put(id,future);
+        } else if (delay > 0) {
+            future = executor.schedule(runnable,delay * StubServer.TICK,TimeUnit.MILLISECONDS);
+        } else {
+            future = executor.submit(runnable);
+        }
+
+        final Plugin owner = this.plugin;
+
+        return StubServer.proxy(BukkitTask.class,new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,final Method method,final Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getTaskId":
+                        return id;
+
+                    case "getOwner":
+                        return owner;
+
+                    case "isSync":
+                        return sync;
+
+                    case "cancel":
+                        future.cancel(false);
+                        StubServer.this.taskMap.remove(id);
+                        return null;
+
+                    default:
+                        return StubServer.defaults(proxy,method,args);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wrap a synchronous task so its run time is recorded.
+     *
+     * Exceptions are printed, as the server would, instead of cancelling
+     * repeating tasks.
+     *
+     * @param runnable The task.
+     * @return         The wrapped task.
+     */
+    private Runnable timed(final Runnable runnable) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+
+                try {
+                    runnable.run();
+                } catch (RuntimeException exception) {
+                    exception.printStackTrace();
+                } finally {
+                    StubServer.this.mainTimer.since(start);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a command owned by the plugin under test.
+     *
+     * The constructor of {@link PluginCommand} is not public.
+     *
+     * @param name The name of the command.
+     * @return     The {@link PluginCommand}, or null if there is no plugin.
+     */
+    private PluginCommand command(final String name) {
+        if (this.plugin == null) {
+            return null;
+        }
+
+        try {
+            final Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(String.class,Plugin.class);
+            constructor.setAccessible(true);
+
+            return constructor.newInstance(name,this.plugin);
+        } catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Point Ebean at an SQLite database in the plugin's data folder.
+     *
+     * Same as what CraftBukkit does with its default bukkit.yml.
+     *
+     * @param config The Ebean configuration to fill in.
+     */
+    private static void configureDbConfig(final ServerConfig config) {
+        final DataSourceConfig dataSource = new DataSourceConfig();
+
+        dataSource.setDriver("org.sqlite.JDBC");
+        dataSource.setUrl("jdbc:sqlite:{DIR}{NAME}.db");
+        dataSource.setUsername("bukkit");
+        dataSource.setPassword("walrus");
+        dataSource.setIsolationLevel(TransactionIsolation.getLevel("SERIALIZABLE"));
+
+        config.setDatabasePlatform(new SQLitePlatform());
+        config.getDatabasePlatform().getDbDdlSyntax().setIdentity("");
+        config.setDataSourceConfig(dataSource);
+    }
+
+    /**
+     * Default answer for unhandled methods.
+     *
+     * @param proxy  The proxy.
+     * @param method The method invoked.
+     * @param args   Its arguments.
+     * @return       Null, 0, false, or an empty array or collection.
+     */
+    static Object defaults(final Object proxy,final Method method,final Object[] args) {
+        final Class<?> type = method.getReturnType();
+
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+
+            case "hashCode":
+                return System.identityHashCode(proxy);
+
+            case "toString":
+                return "Stub" + method.getDeclaringClass().getSimpleName();
+        }
+
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type.isArray()) {
+            return Array.newInstance(type.getComponentType(),0);
+        } else if (type == Set.class) {
+            return Collections.emptySet();
+        } else if (type == List.class || type == Collection.class) {
+            return Collections.emptyList();
+        } else if (type == Map.class) {
+            return Collections.emptyMap();
+        }
+
+        return null;
+    }
+
+    /**
+     * Create a proxy.
+     *
+     * @param type    The interface to implement.
+     * @param handler The handler for its methods.
+     * @return        The proxy.
+     */
+    static <T> T proxy(final Class<T> type,final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StubServer.class.getClassLoader(),new Class<?>[] { type },handler));
+    }
+}
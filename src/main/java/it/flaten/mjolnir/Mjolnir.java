@@ -1,27 +1,54 @@
 package it.flaten.mjolnir;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import it.flaten.mjolnir.addresses.AddressRange;
+import it.flaten.mjolnir.beans.ActiveState;
 import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.caches.NameHistoryCache;
+import it.flaten.mjolnir.clients.NameHistoryClient;
 import it.flaten.mjolnir.commands.*;
 import it.flaten.mjolnir.events.IsBannedEvent;
 import it.flaten.mjolnir.events.NewEventEvent;
 import it.flaten.mjolnir.listeners.PlayerListener;
+import it.flaten.mjolnir.metrics.Gauge;
+import it.flaten.mjolnir.metrics.Histogram;
+import it.flaten.mjolnir.metrics.Metrics;
+import it.flaten.mjolnir.patterns.NameMatcher;
+import it.flaten.mjolnir.propagation.Channel;
+import it.flaten.mjolnir.propagation.TcpChannel;
+import it.flaten.mjolnir.providers.BanProvider;
+import it.flaten.mjolnir.providers.EventBanProvider;
+import it.flaten.mjolnir.providers.ProviderRegistry;
+import it.flaten.mjolnir.sessions.Session;
+import it.flaten.mjolnir.sessions.SessionRegistry;
+import it.flaten.mjolnir.storages.AddressStorage;
+import it.flaten.mjolnir.storages.CachedStorage;
+import it.flaten.mjolnir.storages.ConnectionPool;
+import it.flaten.mjolnir.storages.FilteredStorage;
+import it.flaten.mjolnir.storages.JdbcStorage;
+import it.flaten.mjolnir.storages.LogStorage;
+import it.flaten.mjolnir.storages.MetricsStorage;
 import it.flaten.mjolnir.storages.NativeStorage;
+import it.flaten.mjolnir.storages.PatternStorage;
+import it.flaten.mjolnir.storages.QueuedStorage;
 import it.flaten.mjolnir.storages.Storage;
+import it.flaten.mjolnir.tasks.CatchUpTask;
+import it.flaten.mjolnir.tasks.ExpiryTask;
+import it.flaten.mjolnir.tasks.MigrationTask;
+import it.flaten.mjolnir.tasks.SweepTask;
+import it.flaten.mjolnir.templates.DateFormatter;
+import it.flaten.mjolnir.templates.MessageTemplate;
 import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The plugin's main class.
@@ -49,10 +76,118 @@ public class Mjolnir extends JavaPlugin {
     @SuppressWarnings("WeakerAccess")
     public final static List<Class<?>> databaseClasses = new ArrayList<Class<?>>() {{
         add(Event.class);
+        add(ActiveState.class);
     }};
 
-    private final Map<String,Event> whyMap = new HashMap<>();
-    private final Map<UUID, Map<Integer, String>> nameHistoryCache = new HashMap<>();
+    /**
+     * Player sessions.
+     *
+     * One {@link Session} per connecting or online player, holding what the
+     * login check found out about them.
+     */
+    private final SessionRegistry sessions = new SessionRegistry();
+
+    /**
+     * Address ban index.
+     *
+     * The outermost layer of the storage, which answers lookups by address.
+     */
+    private AddressStorage addressStorage;
+
+    /**
+     * Pattern ban index.
+     *
+     * Sits in front of the address ban index, and matches names against all
+     * banned patterns at once.
+     */
+    private PatternStorage patternStorage;
+
+    /**
+     * Name history cache.
+     *
+     * Keeps name histories fetched from the Mojang API on disk, so they are
+     * not fetched again after a restart.
+     */
+    private NameHistoryCache nameHistoryCache;
+
+    /**
+     * Name history client.
+     *
+     * Fetches name histories from the Mojang API.
+     */
+    private NameHistoryClient nameHistoryClient;
+
+    /**
+     * UUID migration.
+     *
+     * Fills in the UUIDs of {@link Event}s written before they were known.
+     */
+    private MigrationTask migration;
+
+    /**
+     * UUIDs whose name history is being refreshed in the background.
+     */
+    private final Set<UUID> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<UUID,Boolean>());
+
+    /**
+     * Compiled message templates.
+     *
+     * Compiled from the configuration whenever it is loaded.
+     */
+    private MessageTemplate kickTemplate;
+    private MessageTemplate broadcastTemplate;
+    private DateFormatter infoFormatter;
+
+    /**
+     * Login check executor.
+     *
+     * A bounded pool of worker threads used to run ban checks for connecting
+     * and online players, so that neither the server thread nor Bukkit's own
+     * async login threads are held up by storage or external lookups.
+     */
+    private ExecutorService loginExecutor;
+
+    /**
+     * External ban providers.
+     *
+     * Asked about players after our own storage, in parallel and with a
+     * deadline, with their results cached for a while.
+     */
+    private ProviderRegistry providers;
+
+    /**
+     * Expiry scheduler.
+     *
+     * Checks online players again when their active {@link Event} expires.
+     */
+    private ExpiryTask expiryTask;
+
+    /**
+     * Propagation channel.
+     *
+     * Carries new {@link Event}s to and from other servers sharing our storage.
+     * Null when propagation is disabled.
+     */
+    private Channel channel;
+
+    /**
+     * Metrics.
+     *
+     * Latency histograms and gauges, shown by /mjolnir stats and exposed
+     * through JMX.
+     */
+    private Metrics metrics;
+
+    /**
+     * Timers for hot paths.
+     *
+     * Kept here so that recording never needs a lookup by name.
+     */
+    private Histogram localTimer;
+    private Histogram externalTimer;
+    private Histogram nameHistoryTimer;
+    private Histogram kickTimer;
+    private Histogram broadcastTimer;
 
     /**
      * Plugin entry point.
@@ -90,6 +225,22 @@ public class Mjolnir extends JavaPlugin {
          */
         this.saveConfig();
 
+        this.getLogger().info(" * Metrics...");
+
+        /**
+         * Set up metrics.
+         *
+         * Timers are always kept, as they are cheap. Registering them as MBeans
+         * can be turned off.
+         */
+        this.metrics = new Metrics(this.getLogger(),this.getConfig().getBoolean("metrics.jmx"));
+
+        this.localTimer = this.metrics.timer("ban.local");
+        this.externalTimer = this.metrics.timer("ban.external");
+        this.nameHistoryTimer = this.metrics.timer("names.history");
+        this.kickTimer = this.metrics.timer("render.kick");
+        this.broadcastTimer = this.metrics.timer("render.broadcast");
+
         this.getLogger().info(" * Storage...");
 
         /**
@@ -103,6 +254,31 @@ public class Mjolnir extends JavaPlugin {
                 this.storage = new NativeStorage(this);
                 break;
 
+            case "jdbc":
+                final String driver = this.getConfig().getString("storage.jdbc.driver");
+
+                if (driver != null && driver.length() > 0) {
+                    try {
+                        Class.forName(driver);
+                    } catch (ClassNotFoundException exception) {
+                        this.getLogger().severe("Unknown JDBC driver!");
+                        this.getPluginLoader().disablePlugin(this);
+                        return;
+                    }
+                }
+
+                this.storage = new JdbcStorage(this,new ConnectionPool(
+                    this.getConfig().getString("storage.jdbc.url").replace("{DIR}",this.getDataFolder().getPath() + File.separator),
+                    this.getConfig().getString("storage.jdbc.username"),
+                    this.getConfig().getString("storage.jdbc.password"),
+                    this.getConfig().getInt("storage.jdbc.pool")
+                ));
+                break;
+
+            case "log":
+                this.storage = new LogStorage(this,new File(this.getDataFolder(),this.getConfig().getString("storage.log.file")));
+                break;
+
             default:
                 this.getLogger().severe("Unknown storage method!");
                 this.getPluginLoader().disablePlugin(this);
@@ -117,6 +293,367 @@ public class Mjolnir extends JavaPlugin {
          */
         this.storage.createTables();
 
+        /**
+         * Time every call that reaches the storage.
+         *
+         * This sits right in front of the storage, below the queue, filter and
+         * cache, so its timers show what the storage itself costs.
+         */
+        this.storage = new MetricsStorage(this.storage,this.metrics);
+
+        /**
+         * Put the write-behind queue in front of the storage.
+         *
+         * New {@link Event}s are then written in batches by a separate thread,
+         * instead of by whoever created them.
+         */
+        if (this.getConfig().getBoolean("storage.write-behind.enabled")) {
+            final QueuedStorage queuedStorage = new QueuedStorage(
+                this,
+                this.storage,
+                this.getConfig().getInt("storage.write-behind.queue"),
+                this.getConfig().getInt("storage.write-behind.batch")
+            );
+
+            this.metrics.gauge("storage.queue.pending",new Gauge() {
+                @Override
+                public double getValue() {
+                    return queuedStorage.size();
+                }
+            });
+
+            this.storage = queuedStorage;
+        }
+
+        /**
+         * Put the known player filter in front of the storage.
+         *
+         * Lookups for players who have never had an {@link Event} are then
+         * answered without reaching the storage. The filter is refreshed now
+         * and then, to pick up {@link Event}s written by other servers.
+         */
+        if (this.getConfig().getBoolean("storage.filter.enabled")) {
+            final FilteredStorage filteredStorage = new FilteredStorage(
+                this,
+                this.storage,
+                new File(this.getDataFolder(),this.getConfig().getString("storage.filter.file")),
+                this.getConfig().getLong("storage.filter.expected"),
+                this.getConfig().getDouble("storage.filter.fpp")
+            );
+
+            filteredStorage.load();
+
+            this.getLogger().info(String.format(
+                "   Filtering %d players in %d KiB, with %d hashes. Estimated false positive rate is %.4f%%.",
+                filteredStorage.getFilter().getCount(),
+                filteredStorage.getFilter().getBits() / 8192L,
+                filteredStorage.getFilter().getHashes(),
+                filteredStorage.getFilter().getFalsePositiveProbability() * 100D
+            ));
+
+            if (filteredStorage.getFilter().getCount() > this.getConfig().getLong("storage.filter.expected")) {
+                this.getLogger().warning("The filter holds more players than expected. Consider raising storage.filter.expected.");
+            }
+
+            final int refresh = this.getConfig().getInt("storage.filter.refresh");
+
+            if (refresh > 0) {
+                this.getServer().getScheduler().runTaskTimerAsynchronously(this,new Runnable() {
+                    @Override
+                    public void run() {
+                        filteredStorage.catchUp();
+                    }
+                },20 * refresh,20 * refresh);
+            }
+
+            this.metrics.gauge("storage.filter.skip-ratio",new Gauge() {
+                @Override
+                public double getValue() {
+                    return Mjolnir.ratio(filteredStorage.getSkipped(),filteredStorage.getPassed());
+                }
+            });
+
+            this.metrics.gauge("storage.filter.fpp",new Gauge() {
+                @Override
+                public double getValue() {
+                    return filteredStorage.getFilter().getFalsePositiveProbability();
+                }
+            });
+
+            this.storage = filteredStorage;
+        }
+
+        /**
+         * Put the active ban index in front of the storage.
+         *
+         * All active {@link Event}s are loaded once here, after which active
+         * {@link Event} lookups no longer reach the storage.
+         */
+        if (this.getConfig().getBoolean("storage.cache")) {
+            final CachedStorage cachedStorage = new CachedStorage(this.storage);
+
+            cachedStorage.load();
+
+            this.getLogger().info("   Indexed " + cachedStorage.size() + " active events.");
+
+            this.metrics.gauge("storage.cache.hit-ratio",new Gauge() {
+                @Override
+                public double getValue() {
+                    return Mjolnir.ratio(cachedStorage.getHits(),cachedStorage.getMisses());
+                }
+            });
+
+            this.metrics.gauge("storage.cache.size",new Gauge() {
+                @Override
+                public double getValue() {
+                    return cachedStorage.size();
+                }
+            });
+
+            this.storage = cachedStorage;
+        }
+
+        /**
+         * Put the address ban index in front of the storage.
+         *
+         * Always there, as connecting players are checked by address. All
+         * active {@link Event}s are read once here, and those targeting an
+         * address are kept in a trie.
+         */
+        this.addressStorage = new AddressStorage(this.storage);
+        this.addressStorage.load();
+
+        this.getLogger().info("   Indexed " + this.addressStorage.size() + " address ranges.");
+
+        final AddressStorage addressStorage = this.addressStorage;
+
+        this.metrics.gauge("storage.address.size",new Gauge() {
+            @Override
+            public double getValue() {
+                return addressStorage.size();
+            }
+        });
+
+        this.storage = this.addressStorage;
+
+        /**
+         * Put the pattern ban index in front of the storage.
+         *
+         * Always there, as connecting players are checked against patterns.
+         * Active {@link Event}s targeting a pattern are compiled into a single
+         * matcher.
+         */
+        this.patternStorage = new PatternStorage(this.storage);
+        this.patternStorage.load();
+
+        this.getLogger().info("   Compiled " + this.patternStorage.size() + " name patterns.");
+
+        final PatternStorage patternStorage = this.patternStorage;
+
+        this.metrics.gauge("storage.pattern.size",new Gauge() {
+            @Override
+            public double getValue() {
+                return patternStorage.size();
+            }
+        });
+
+        this.storage = this.patternStorage;
+
+        this.getLogger().info(" * Name history cache...");
+
+        /**
+         * Set up the name history client.
+         */
+        this.nameHistoryClient = new NameHistoryClient(
+            this.getConfig().getString("names.url"),
+            this.getConfig().getString("names.profile-url"),
+            this.getConfig().getInt("names.connect-timeout"),
+            this.getConfig().getInt("names.read-timeout"),
+            this.getConfig().getInt("names.concurrency"),
+            this.getConfig().getDouble("names.rate"),
+            this.getConfig().getInt("names.breaker.threshold"),
+            this.getConfig().getInt("names.breaker.cooldown"),
+            this.getConfig().getInt("names.retry")
+        );
+
+        final NameHistoryClient nameHistoryClient = this.nameHistoryClient;
+
+        this.metrics.gauge("names.requests",new Gauge() {
+            @Override
+            public double getValue() {
+                return nameHistoryClient.getRequests();
+            }
+        });
+
+        this.metrics.gauge("names.errors",new Gauge() {
+            @Override
+            public double getValue() {
+                return nameHistoryClient.getErrors();
+            }
+        });
+
+        this.metrics.gauge("names.rejected",new Gauge() {
+            @Override
+            public double getValue() {
+                return nameHistoryClient.getRejected();
+            }
+        });
+
+        /**
+         * Load the name history cache.
+         *
+         * If the cache file cannot be used, histories are only kept in memory.
+         * Either way, no more than the configured number of histories are kept
+         * in memory, and the least recently used are evicted first.
+         */
+        this.nameHistoryCache = new NameHistoryCache(
+            new File(this.getDataFolder(),this.getConfig().getString("names.file")),
+            this.getConfig().getInt("names.ttl"),
+            this.getConfig().getInt("names.cache-size")
+        );
+
+        try {
+            this.nameHistoryCache.load();
+        } catch (IOException exception) {
+            this.getLogger().warning("Failed to load name history cache!");
+
+            exception.printStackTrace();
+        }
+
+        this.getLogger().info("   Cached " + this.nameHistoryCache.size() + " of at most " + this.nameHistoryCache.getCapacity() + " name histories.");
+
+        final NameHistoryCache nameHistoryCache = this.nameHistoryCache;
+
+        this.metrics.gauge("names.cache.size",new Gauge() {
+            @Override
+            public double getValue() {
+                return nameHistoryCache.size();
+            }
+        });
+
+        this.metrics.gauge("names.cache.hit-ratio",new Gauge() {
+            @Override
+            public double getValue() {
+                return Mjolnir.ratio(nameHistoryCache.getHits(),nameHistoryCache.getMisses());
+            }
+        });
+
+        this.metrics.gauge("names.cache.evictions",new Gauge() {
+            @Override
+            public double getValue() {
+                return nameHistoryCache.getEvictions();
+            }
+        });
+
+        this.getLogger().info(" * UUID migration...");
+
+        /**
+         * Set up the UUID migration.
+         *
+         * It gets a client of its own, so its lookups are limited separately
+         * from those done for connecting players. It picks up where it left
+         * off, and runs again now and then to cover new {@link Event}s, unless
+         * the interval is 0.
+         */
+        this.migration = new MigrationTask(
+            this,
+            this.storage,
+            new NameHistoryClient(
+                this.getConfig().getString("names.url"),
+                this.getConfig().getString("names.profile-url"),
+                this.getConfig().getInt("names.connect-timeout"),
+                this.getConfig().getInt("names.read-timeout"),
+                this.getConfig().getInt("storage.uuid.threads"),
+                this.getConfig().getDouble("storage.uuid.rate"),
+                this.getConfig().getInt("names.breaker.threshold"),
+                this.getConfig().getInt("names.breaker.cooldown"),
+                this.getConfig().getInt("names.retry")
+            ),
+            new File(this.getDataFolder(),this.getConfig().getString("storage.uuid.file")),
+            this.getConfig().getInt("storage.uuid.batch"),
+            this.getConfig().getInt("storage.uuid.threads")
+        );
+
+        this.migration.load();
+
+        final MigrationTask migration = this.migration;
+
+        this.metrics.gauge("storage.uuid.stamped",new Gauge() {
+            @Override
+            public double getValue() {
+                return migration.getStamped();
+            }
+        });
+
+        this.metrics.gauge("storage.uuid.unresolved",new Gauge() {
+            @Override
+            public double getValue() {
+                return migration.getUnresolved();
+            }
+        });
+
+        final int interval = this.getConfig().getInt("storage.uuid.interval");
+
+        if (interval > 0) {
+            this.getServer().getScheduler().runTaskTimerAsynchronously(this,this.migration,20 * interval,20 * interval);
+        }
+
+        this.getLogger().info(" * Login executor...");
+
+        /**
+         * Start the login check executor.
+         *
+         * The queue is bounded so a login storm cannot pile up unbounded work.
+         * When it is full, or the executor has been shut down, new checks are
+         * rejected, and their callers treat that as a timeout.
+         */
+        final int threads = Math.max(1,this.getConfig().getInt("login.threads"));
+
+        this.loginExecutor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1,this.getConfig().getInt("login.queue"))),
+            new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable,"Mjolnir login #" + (++this.count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+
+        final ThreadPoolExecutor loginExecutor = (ThreadPoolExecutor) this.loginExecutor;
+
+        this.metrics.gauge("login.queue",new Gauge() {
+            @Override
+            public double getValue() {
+                return loginExecutor.getQueue().size();
+            }
+        });
+
+        this.getLogger().info(" * Ban providers...");
+
+        /**
+         * Set up external ban providers.
+         *
+         * Plugins listening for {@link IsBannedEvent} are asked through a
+         * provider of their own. Other plugins may register more.
+         */
+        this.providers = new ProviderRegistry(
+            this.getLogger(),
+            this.getConfig().getInt("providers.threads"),
+            this.getConfig().getLong("providers.timeout"),
+            this.getConfig().getInt("providers.ttl")
+        );
+
+        this.providers.register(new EventBanProvider(this));
+
         this.getLogger().info(" * Event handlers...");
 
         /**
@@ -127,6 +664,166 @@ public class Mjolnir extends JavaPlugin {
          */
         this.getServer().getPluginManager().registerEvents(new PlayerListener(this),this);
 
+        /**
+         * Open sessions for players already online.
+         *
+         * They are only there if the plugin is enabled while the server is
+         * running.
+         */
+        this.sessions.setRecent(
+            this.getConfig().getInt("sessions.recent.window"),
+            this.getConfig().getInt("sessions.recent.limit")
+        );
+
+        for (Player player : this.getServer().getOnlinePlayers()) {
+            this.sessions.join(this.sessions.open(player.getName(),player.getUniqueId(),player.getAddress() == null ? null : player.getAddress().getAddress()));
+        }
+
+        this.metrics.gauge("sessions.open",new Gauge() {
+            @Override
+            public double getValue() {
+                return Mjolnir.this.sessions.size();
+            }
+        });
+
+        this.getLogger().info(" * Tasks...");
+
+        /**
+         * Start scheduled tasks.
+         *
+         * A single expiry scheduler ticks every second. The sweep over all online
+         * players catches external changes, and can be disabled by setting its
+         * interval to 0. Expired address and pattern bans are dropped from their
+         * indexes on the same interval.
+         */
+        this.expiryTask = new ExpiryTask(this);
+        this.getServer().getScheduler().runTaskTimer(this,this.expiryTask,20,20);
+
+        final int sweep = this.getConfig().getInt("sweep.interval");
+
+        if (sweep > 0) {
+            this.getServer().getScheduler().runTaskTimer(this,new SweepTask(this),20 * sweep,20 * sweep);
+
+            this.getServer().getScheduler().runTaskTimerAsynchronously(this,new Runnable() {
+                @Override
+                public void run() {
+                    addressStorage.purge();
+                    patternStorage.purge();
+                }
+            },20 * sweep,20 * sweep);
+        }
+
+        /**
+         * Close sessions of players who never finished connecting.
+         *
+         * Keeps a wave of connections that are let through pre-login, and
+         * then dropped, from piling up sessions. Checked on the same interval
+         * as sessions are allowed to stay open.
+         */
+        final int timeout = Math.max(1,this.getConfig().getInt("sessions.timeout"));
+
+        this.getServer().getScheduler().runTaskTimerAsynchronously(this,new Runnable() {
+            @Override
+            public void run() {
+                Mjolnir.this.sessions.expire((int) (System.currentTimeMillis() / 1000L) - timeout);
+            }
+        },20 * timeout,20 * timeout);
+
+        /**
+         * Read new events from storage regularly.
+         *
+         * Picks up {@link Event}s written by other servers sharing the storage,
+         * which the in-memory indexes would otherwise never see. Starts after
+         * the newest {@link Event} in storage, which is already indexed.
+         */
+        final int catchUp = this.getConfig().getInt("storage.catchup.interval");
+
+        if (catchUp > 0) {
+            this.getServer().getScheduler().runTaskTimerAsynchronously(this,new CatchUpTask(this,this.storage,this.storage.loadLastId()),20 * catchUp,20 * catchUp);
+        }
+
+        this.getLogger().info(" * Propagation...");
+
+        /**
+         * Open the propagation channel.
+         *
+         * If the channel cannot be opened, we carry on without it, and rely on
+         * the {@link CatchUpTask} to pick up {@link Event}s from other servers.
+         */
+        switch (this.getConfig().getString("propagation.method").toLowerCase()) {
+            case "none":
+                break;
+
+            case "tcp":
+                if (this.getConfig().getString("propagation.tcp.secret").length() == 0) {
+                    this.getLogger().warning("No propagation.tcp.secret set! Propagation is disabled.");
+                    break;
+                }
+
+                final List<InetSocketAddress> peers = new ArrayList<>();
+
+                for (String peer : this.getConfig().getStringList("propagation.tcp.peers")) {
+                    final int colon = peer.lastIndexOf(':');
+
+                    peers.add(new InetSocketAddress(peer.substring(0,colon),Integer.parseInt(peer.substring(colon + 1))));
+                }
+
+                this.channel = new TcpChannel(
+                    this.getLogger(),
+                    new InetSocketAddress(this.getConfig().getString("propagation.tcp.host"),this.getConfig().getInt("propagation.tcp.port")),
+                    peers,
+                    this.getConfig().getString("propagation.tcp.secret"),
+                    this.getConfig().getInt("propagation.tcp.queue")
+                );
+                break;
+
+            default:
+                this.getLogger().warning("Unknown propagation method!");
+                break;
+        }
+
+        if (this.channel != null) {
+            try {
+                this.channel.open(new Channel.Receiver() {
+                    @Override
+                    public void receive(final Event event) {
+                        Mjolnir.this.receive(event);
+                    }
+                });
+            } catch (IOException exception) {
+                this.getLogger().warning("Failed to open propagation channel!");
+
+                exception.printStackTrace();
+
+                this.channel = null;
+            }
+        }
+
+        if (this.channel instanceof TcpChannel) {
+            final TcpChannel tcpChannel = (TcpChannel) this.channel;
+
+            this.metrics.gauge("propagation.sent",new Gauge() {
+                @Override
+                public double getValue() {
+                    return tcpChannel.getSent();
+                }
+            });
+
+            this.metrics.gauge("propagation.received",new Gauge() {
+                @Override
+                public double getValue() {
+                    return tcpChannel.getReceived();
+                }
+            });
+
+            this.metrics.gauge("propagation.dropped",new Gauge() {
+                @Override
+                public double getValue() {
+                    return tcpChannel.getDropped();
+                }
+            });
+        }
+
         this.getLogger().info(" * Command handlers...");
 
         /**
@@ -140,6 +837,9 @@ public class Mjolnir extends JavaPlugin {
         this.getCommand("ban").setExecutor(new BanCommand(this));
         this.getCommand("tempunban").setExecutor(new TempUnbanCommand(this));
         this.getCommand("unban").setExecutor(new UnbanCommand(this));
+        this.getCommand("massban").setExecutor(new MassBanCommand(this));
+        this.getCommand("massunban").setExecutor(new MassUnbanCommand(this));
+        this.getCommand("mjolnir").setExecutor(new MjolnirCommand(this));
     }
 
     /**
@@ -160,12 +860,23 @@ public class Mjolnir extends JavaPlugin {
          * handler class instances, disables processing of the commands,
          * and allows the memory to be freed.
          */
+        this.getCommand("mjolnir").setExecutor(null);
+        this.getCommand("massunban").setExecutor(null);
+        this.getCommand("massban").setExecutor(null);
         this.getCommand("unban").setExecutor(null);
         this.getCommand("tempunban").setExecutor(null);
         this.getCommand("ban").setExecutor(null);
         this.getCommand("tempban").setExecutor(null);
         this.getCommand("infractions").setExecutor(null);
 
+        this.getLogger().info(" * Tasks...");
+
+        /**
+         * Stop scheduled tasks.
+         */
+        this.getServer().getScheduler().cancelTasks(this);
+        this.expiryTask = null;
+
         this.getLogger().info(" * Event handlers...");
 
         /**
@@ -175,6 +886,56 @@ public class Mjolnir extends JavaPlugin {
          * the {@link Storage} instance.
          */
         HandlerList.unregisterAll(this);
+        this.sessions.clear();
+
+        this.getLogger().info(" * Propagation...");
+
+        /**
+         * Close the propagation channel.
+         */
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+
+        this.getLogger().info(" * Ban providers...");
+
+        /**
+         * Stop asking external ban providers.
+         */
+        this.providers.shutdown();
+        this.providers = null;
+
+        this.getLogger().info(" * Login executor...");
+
+        /**
+         * Stop the login check executor.
+         *
+         * Any check still running is interrupted. Nobody is waiting for the
+         * result anymore.
+         */
+        this.loginExecutor.shutdownNow();
+        this.loginExecutor = null;
+
+        this.getLogger().info(" * UUID migration...");
+
+        /**
+         * Stop the UUID migration.
+         *
+         * A run in progress saves its progress, and resumes from there next
+         * time.
+         */
+        this.migration.stop();
+        this.migration = null;
+
+        this.getLogger().info(" * Name history cache...");
+
+        /**
+         * Close the name history cache file.
+         */
+        this.nameHistoryCache.close();
+        this.nameHistoryCache = null;
+        this.nameHistoryClient = null;
 
         this.getLogger().info(" * Storage...");
 
@@ -182,7 +943,8 @@ public class Mjolnir extends JavaPlugin {
          * Shut down the storage instance.
          *
          * What is done here depends on the implementing class. {@link it.flaten.mjolnir.storages.NativeStorage#shutdown()}
-         * for example, does nothing.
+         * for example, does nothing, while {@link QueuedStorage#shutdown()} writes
+         * everything still queued.
          */
         this.storage.shutdown();
 
@@ -192,6 +954,40 @@ public class Mjolnir extends JavaPlugin {
          * This allows the memory to be freed.
          */
         this.storage = null;
+
+        this.getLogger().info(" * Metrics...");
+
+        /**
+         * Unregister metrics from JMX.
+         */
+        this.metrics.close();
+        this.metrics = null;
+    }
+
+    /**
+     * Reload the configuration.
+     *
+     * Compiles the message templates again after the configuration file has
+     * been read, so the rest of the plugin never parses configured messages.
+     * Bukkit invokes this the first time {@link #getConfig()} is called.
+     */
+    @Override
+    public void reloadConfig() {
+        super.reloadConfig();
+
+        this.kickTemplate = new MessageTemplate(
+            this.getConfig().getString("kick.message"),
+            this.getConfig().getString("kick.expires.message"),
+            this.getConfig().getString("kick.expires.format")
+        );
+
+        this.broadcastTemplate = new MessageTemplate(
+            this.getConfig().getString("broadcast.message"),
+            this.getConfig().getString("broadcast.expires.message"),
+            this.getConfig().getString("broadcast.expires.format")
+        );
+
+        this.infoFormatter = new DateFormatter(this.getConfig().getString("info.timestamp.format"));
     }
 
     /**
@@ -219,6 +1015,50 @@ public class Mjolnir extends JavaPlugin {
         super.installDDL();
     }
 
+    /**
+     * Get the login check executor.
+     *
+     * Used by {@link PlayerListener} to run ban checks for connecting players
+     * off the server thread.
+     *
+     * @return The {@link ExecutorService} running login checks.
+     */
+    public ExecutorService getLoginExecutor() {
+        return this.loginExecutor;
+    }
+
+    /**
+     * Get the player sessions.
+     *
+     * @return The {@link SessionRegistry}.
+     */
+    public SessionRegistry getSessions() {
+        return this.sessions;
+    }
+
+    /**
+     * Get the metrics.
+     *
+     * Other parts of the plugin use this to get timers of their own.
+     *
+     * @return The {@link Metrics}.
+     */
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get the expiry scheduler.
+     *
+     * Used to have online players checked again when their active {@link Event}
+     * expires.
+     *
+     * @return The {@link ExpiryTask}.
+     */
+    public ExpiryTask getExpiryTask() {
+        return this.expiryTask;
+    }
+
     /**
      * Get all events for a player.
      *
@@ -232,79 +1072,283 @@ public class Mjolnir extends JavaPlugin {
     }
 
     /**
-     * Get the active {@link Event} for a player.
+     * Get a page of events for a player.
+     *
+     * Fetches the events stored for the given player with an id greater than
+     * the given one, oldest first.
+     *
+     * @param player The name of the player whose {@link Event}s to fetch.
+     * @param after  Only {@link Event}s with a greater id are fetched. 0 for the first page.
+     * @param limit  The maximum number of {@link Event}s to fetch.
+     * @return       A {@link List} of {@link Event}s, oldest first.
+     */
+    public List<Event> getEventHistory(final String player,final int after,final int limit) {
+        return this.storage.loadEvents(player,after,limit);
+    }
+
+    /**
+     * Count the events for a player.
+     *
+     * @param player The name of the player whose {@link Event}s to count.
+     * @return       The number of stored {@link Event}s.
+     */
+    public int countEventHistory(final String player) {
+        return this.storage.countEvents(player);
+    }
+
+    /**
+     * Rebuild derived storage state.
+     *
+     * Has the storage recompute its indexes and current state from all
+     * {@link Event}s. This may take a while, and should not be invoked from
+     * the server thread.
+     *
+     * @return The number of {@link Event}s read.
+     */
+    public int rebuild() {
+        return this.storage.rebuild();
+    }
+
+    /**
+     * Get the active {@link Event} for a player.
+     *
+     * Fetches the latest stored {@link Event} for the given player
+     * that has not expired. Will return null of no {@link Event} is
+     * found.
+     *
+     * @param player The name of the player whose {@link Event} to fetch.
+     * @return       The active {@link Event}, or null.
+     */
+    public Event getActiveEvent(final String player) {
+        return this.storage.loadActiveEvent(player);
+    }
+
+    /**
+     * Get the active {@link Event} for a UUID.
+     *
+     * Fetches the latest stored {@link Event} carrying the given UUID that has
+     * not expired, whatever name the player had when it was made. Will return
+     * null if no {@link Event} is found.
+     *
+     * @param uuid The UUID of the player whose {@link Event} to fetch.
+     * @return     The active {@link Event}, or null.
+     */
+    public Event getActiveEvent(final UUID uuid) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadActiveEvent(uuid);
+        } finally {
+            this.localTimer.since(start);
+        }
+    }
+
+    /**
+     * Get the active {@link Event} for an address.
+     *
+     * Fetches the active {@link Event} of the most specific address range
+     * covering the given address that has one. Will return null if no
+     * {@link Event} is found.
+     *
+     * @param address The address of the player.
+     * @return        The active {@link Event}, or null.
+     */
+    public Event getActiveEvent(final InetAddress address) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.addressStorage.loadActiveEvent(address);
+        } finally {
+            this.localTimer.since(start);
+        }
+    }
+
+    /**
+     * Get the active ban {@link Event} of a pattern matching a name.
+     *
+     * Checks the name against every banned pattern at once. Will return null
+     * if no pattern bans it.
+     *
+     * @param player The name of the player.
+     * @return       The active ban {@link Event}, or null.
+     */
+    public Event getPatternEvent(final String player) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.patternStorage.matchActiveEvent(player);
+        } finally {
+            this.localTimer.since(start);
+        }
+    }
+
+    /**
+     * Get the target of a command.
+     *
+     * Address ranges and name patterns are given in their stored form, so
+     * that every way of writing one ends up with the same {@link Event}s.
+     * Anything else is taken as a player name.
+     *
+     * @param argument The target as given.
+     * @return         The address range, pattern or player name, or null if unknown.
+     */
+    public String getTarget(final String argument) {
+        final AddressRange range = AddressRange.parse(argument);
+
+        if (range != null) {
+            return range.toString();
+        }
+
+        if (NameMatcher.isPattern(argument)) {
+            return argument.toLowerCase();
+        }
+
+        final OfflinePlayer player = this.getServer().getOfflinePlayer(argument);
+
+        return player == null ? null : player.getName();
+    }
+
+    /**
+     * Get the UUID migration.
+     *
+     * @return The {@link MigrationTask}.
+     */
+    public MigrationTask getMigration() {
+        return this.migration;
+    }
+
+    /**
+     * Check whether the UUID migration has caught up.
+     *
+     * Once it has, every stored {@link Event} whose player could be resolved
+     * carries a UUID, so there is no need to walk a player's name history to
+     * find {@link Event}s made under earlier names.
+     *
+     * @return Whether the migration has caught up.
+     */
+    public boolean isMigrated() {
+        return this.migration != null && this.migration.isCaughtUp();
+    }
+
+    /**
+     * Get the active {@link Event}s for a number of players.
      *
-     * Fetches the latest stored {@link Event} for the given player
-     * that has not expired. Will return null of no {@link Event} is
-     * found.
+     * Fetches the latest stored {@link Event} that has not expired for each
+     * of the given players, in a single round trip to the storage.
      *
-     * @param player The name of the player whose {@link Event} to fetch.
-     * @return       The active {@link Event}, or null.
+     * @param players The names of the players whose {@link Event}s to fetch.
+     * @return        A {@link Map} of lowercased player names to active {@link Event}s.
      */
-    public Event getActiveEvent(final String player) {
-        return this.storage.loadActiveEvent(player);
+    public Map<String,Event> getActiveEvents(final Collection<String> players) {
+        return this.storage.loadActiveEvents(players);
     }
 
     /**
      * Get an {@link Event} for an external plugin.
      *
-     * Fires an {@link IsBannedEvent} and returns the {@link Event} returned from it,
-     * or null if there is no {@link Event}.
+     * Asks every registered {@link BanProvider}, including the one firing
+     * {@link IsBannedEvent}, and returns the first ban found, or null if there
+     * is no {@link Event}. Waits at most providers.timeout milliseconds for
+     * each provider, and answers from the cache when possible.
      *
      * @param player The name of the player whose {@link Event} to fetch.
      * @return       An {@link Event} created by an external plugin, or null.
      */
     public Event getExternalEvent(final String player) {
-        IsBannedEvent isBannedEvent = new IsBannedEvent(player);
+        return this.providers.lookup(player);
+    }
 
-        this.getServer().getPluginManager().callEvent(isBannedEvent);
+    /**
+     * Get {@link Event}s from external plugins for a number of players.
+     *
+     * Like {@link #getExternalEvent(String)}, but asks about all players at
+     * once, and waits at most providers.timeout milliseconds in total.
+     *
+     * @param players The names of the players whose {@link Event}s to fetch.
+     * @return        A {@link Map} of lowercased player names to {@link Event}s created by external plugins.
+     */
+    public Map<String,Event> getExternalEvents(final Collection<String> players) {
+        return this.providers.lookup(players);
+    }
 
-        return isBannedEvent.getEvent();
+    /**
+     * Get the external ban providers.
+     *
+     * Other plugins may use this to register their own {@link BanProvider}s,
+     * and to invalidate cached results when their bans change.
+     *
+     * @return The {@link ProviderRegistry}.
+     */
+    public ProviderRegistry getProviders() {
+        return this.providers;
     }
 
     /**
      * Build kick message.
      *
      * This method composes the message displayed to players who are kicked,
-     * from an Event bean.
+     * from an Event bean, using the template compiled in {@link #reloadConfig()}.
+     * It is safe to call from any thread.
      *
      * @param event The {@link Event} that caused this kick.
      * @return      The message the kicked player will see.
      */
     public String buildKickMessage(final Event event) {
-        String message = this.getConfig().getString("kick.message")
-            .replace("<reason>",event.getReason());
+        final long start = System.nanoTime();
 
-        if (event.getExpires() > 0) {
-            message += this.getConfig().getString("kick.expires.message")
-                .replace("<expires>",new SimpleDateFormat(this.getConfig().getString("kick.expires.format")).format(event.getExpires() * 1000L));
+        try {
+            return this.kickTemplate.render(event);
+        } finally {
+            this.kickTimer.since(start);
         }
-
-        return message.replace("&", String.valueOf(ChatColor.COLOR_CHAR));
     }
 
     /**
      * Build broadcast message.
      *
      * This method composes the message displayed to in-game players when a
-     * player is kicked, from an {@link Event} bean.
+     * player is kicked, from an {@link Event} bean, using the template compiled
+     * in {@link #reloadConfig()}. It is safe to call from any thread.
      *
      * @param event The {@link Event} that caused this kick.
      * @return      The message in-game players will see.
      */
     public String buildBroadcastMessage(final Event event) {
-        String message = this.getConfig().getString("broadcast.message")
-            .replace("<player>",event.getPlayer())
-            .replace("<op>", event.getOp())
-            .replace("<type>", event.getType().toString().toLowerCase())
-            .replace("<reason>",event.getReason());
+        final long start = System.nanoTime();
+
+        try {
+            return this.broadcastTemplate.render(event);
+        } finally {
+            this.broadcastTimer.since(start);
+        }
+    }
+
+    /**
+     * Build broadcast message into a builder.
+     *
+     * Same as {@link #buildBroadcastMessage(it.flaten.mjolnir.beans.Event)}, but
+     * appends to the given builder, for callers building many lines.
+     *
+     * @param event   The {@link Event} to describe.
+     * @param builder The builder to append the message to.
+     */
+    public void buildBroadcastMessage(final Event event,final StringBuilder builder) {
+        final long start = System.nanoTime();
 
-        if (event.getExpires() > 0) {
-            message += this.getConfig().getString("broadcast.expires.message")
-                .replace("<expires>",new SimpleDateFormat(this.getConfig().getString("broadcast.expires.format")).format(event.getExpires() * 1000L));
+        try {
+            this.broadcastTemplate.render(event,builder);
+        } finally {
+            this.broadcastTimer.since(start);
         }
+    }
 
-        return message.replace("&",String.valueOf(ChatColor.COLOR_CHAR));
+    /**
+     * Get the timestamp formatter for information commands.
+     *
+     * @return A {@link DateFormatter} using the info.timestamp.format pattern.
+     */
+    public DateFormatter getInfoFormatter() {
+        return this.infoFormatter;
     }
 
     /**
@@ -322,6 +1366,57 @@ public class Mjolnir extends JavaPlugin {
         );
     }
 
+    /**
+     * Broadcast a summary of a number of {@link Event}s.
+     *
+     * Sends a single message for {@link Event}s made in one go, built as by
+     * {@link #broadcast(it.flaten.mjolnir.beans.Event)}, with the number of
+     * players and the first few of their names in place of the player. The
+     * {@link Event}s are expected to share their op, type, reason and expiry.
+     *
+     * @param events The {@link Event}s to describe.
+     */
+    public void broadcast(final List<Event> events) {
+        if (events.size() <= 1) {
+            for (Event event : events) {
+                this.broadcast(event);
+            }
+
+            return;
+        }
+
+        final int shown = Math.min(events.size(),Math.max(1,this.getConfig().getInt("broadcast.bulk-names")));
+        final StringBuilder players = new StringBuilder();
+
+        players.append(events.size()).append(" players (");
+
+        for (int i = 0; i < shown; i++) {
+            if (i > 0) {
+                players.append(", ");
+            }
+
+            players.append(events.get(i).getPlayer());
+        }
+
+        if (shown < events.size()) {
+            players.append(" and ").append(events.size() - shown).append(" more");
+        }
+
+        players.append(')');
+
+        final Event first = events.get(0);
+        final Event summary = new Event();
+
+        summary.setTime(first.getTime());
+        summary.setPlayer(players.toString());
+        summary.setOp(first.getOp());
+        summary.setType(first.getType());
+        summary.setReason(first.getReason());
+        summary.setExpires(first.getExpires());
+
+        this.broadcast(summary);
+    }
+
     /**
      * Permanently ban a player.
      *
@@ -434,6 +1529,76 @@ public class Mjolnir extends JavaPlugin {
         return this.storage.saveEvent(player,op,Event.EventType.UNBAN,reason,Mjolnir.parseTime(expires));
     }
 
+    /**
+     * Ban or unban a number of players at once.
+     *
+     * The active {@link Event}s of all targets are fetched in a single round
+     * trip to the storage, and targets already banned, or for unbans not
+     * banned, are skipped. External ban providers are not asked. An {@link Event}
+     * is built and pre-processed for each of the rest, and those not cancelled
+     * are written with {@link Storage#writeEvents(java.util.List)} in one go,
+     * in a single transaction, even behind the write-behind queue.
+     * They are then published to other servers, and enforced in a single pass
+     * over the online players.
+     *
+     * @param players The names of the players, address ranges or patterns.
+     * @param op      The name of the player who executes the bans.
+     * @param type    The {@link it.flaten.mjolnir.beans.Event.EventType} of the {@link Event}s.
+     * @param reason  The reason for the {@link Event}s.
+     * @param expires A UNIX timestamp denoting expiration time, or 0.
+     * @return        The resulting {@link Event}s, in the order of the targets.
+     */
+    public List<Event> saveEvents(final Collection<String> players,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Map<String,Event> active = this.getActiveEvents(players);
+        final Set<String> seen = new HashSet<>();
+        final List<Event> events = new ArrayList<>();
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        for (String player : players) {
+            if (!seen.add(player.toLowerCase())) {
+                continue;
+            }
+
+            final Event current = active.get(player.toLowerCase());
+            final boolean banned = current != null && current.getType() == Event.EventType.BAN;
+
+            if (banned == (type == Event.EventType.BAN)) {
+                continue;
+            }
+
+            final Event event = new Event();
+
+            event.setTime(now);
+            event.setPlayer(player);
+            event.setOp(op);
+            event.setType(type);
+            event.setReason(reason);
+            event.setExpires(expires);
+
+            if (this.preProcess(event).isCancelled()) {
+                continue;
+            }
+
+            events.add(event);
+        }
+
+        if (events.size() == 0) {
+            return events;
+        }
+
+        this.storage.writeEvents(events);
+
+        if (this.channel != null) {
+            for (Event event : events) {
+                this.channel.publish(event);
+            }
+        }
+
+        this.enforce(events);
+
+        return events;
+    }
+
     /**
      * Parse a time period string.
      *
@@ -486,13 +1651,22 @@ public class Mjolnir extends JavaPlugin {
     /**
      * Pre-process an event.
      *
-     * Invoked before the given {@link Event} is saved in storage. Fires off a
-     * {@link NewEventEvent} to let other plugins know a new {@link Event} is about to
-     * be created, and lets them cancel it.
+     * Invoked before the given {@link Event} is saved in storage. Gives it the
+     * UUID of the player if they are online. Fires off a {@link NewEventEvent}
+     * to let other plugins know a new {@link Event} is about to be created,
+     * and lets them cancel it.
      *
      * @param event The {@link Event} to process.
      */
     public NewEventEvent preProcess(final Event event) {
+        if (event.getUniqueId() == null) {
+            final Player player = this.getServer().getPlayerExact(event.getPlayer());
+
+            if (player != null) {
+                event.setUniqueId(player.getUniqueId());
+            }
+        }
+
         NewEventEvent newEventEvent = new NewEventEvent(event);
 
         this.getServer().getPluginManager().callEvent(newEventEvent);
@@ -503,29 +1677,310 @@ public class Mjolnir extends JavaPlugin {
     /**
      * Post-process an event.
      *
-     * Invoked after the given {@link Event} has been saved in storage. Kicks
-     * online players when they are banned.
+     * Invoked after the given {@link Event} has been saved in storage. Publishes
+     * it to other servers, kicks online players when they are banned, and has
+     * them checked again when the {@link Event} expires.
      *
      * @param event The {@link Event} to process.
      */
     public void postProcess(final Event event) {
-        Player player = this.getServer().getPlayerExact(event.getPlayer());
+        if (this.channel != null) {
+            this.channel.publish(event);
+        }
+
+        this.enforce(event);
+    }
+
+    /**
+     * Receive an event from another server.
+     *
+     * Invoked by the propagation channel. The {@link Event} is handed to the
+     * storage so that in-memory state is brought up to date, and then acted on
+     * from the server thread as if it had been created here.
+     *
+     * @param event The {@link Event} created on another server.
+     */
+    public void receive(final Event event) {
+        this.storage.notifyEvent(event);
 
-        if (player != null) {
+        this.getServer().getScheduler().runTask(this,new Runnable() {
+            @Override
+            public void run() {
+                Mjolnir.this.enforce(event);
+            }
+        });
+    }
+
+    /**
+     * Act on a new event.
+     *
+     * Kicks the player if they are online and banned, or has them checked
+     * again when the {@link Event} expires.
+     *
+     * @param event The new {@link Event}.
+     */
+    private void enforce(final Event event) {
+        final AddressRange range = AddressRange.parse(event.getPlayer());
+
+        if (range != null) {
+            this.enforce(event,range);
+            return;
+        }
+
+        if (NameMatcher.isPattern(event.getPlayer())) {
+            this.enforcePattern(event);
+            return;
+        }
+
+        final Player player = this.getServer().getPlayerExact(event.getPlayer());
+
+        if (player == null) {
+            return;
+        }
+
+        if (event.getType() == Event.EventType.BAN) {
             player.kickPlayer(this.buildKickMessage(event));
+        } else if (event.getExpires() > 0) {
+            this.expiryTask.schedule(player.getName(),event.getExpires());
+        }
+    }
+
+    /**
+     * Act on a number of new events.
+     *
+     * Same as {@link #enforce(it.flaten.mjolnir.beans.Event)} for each of them,
+     * except that the online players are only gone through once for all the
+     * {@link Event}s that target a player name.
+     *
+     * @param events The new {@link Event}s.
+     */
+    private void enforce(final List<Event> events) {
+        final Map<String,Event> eventMap = new HashMap<>();
+
+        for (Event event : events) {
+            if (AddressRange.parse(event.getPlayer()) != null || NameMatcher.isPattern(event.getPlayer())) {
+                this.enforce(event);
+            } else {
+                eventMap.put(event.getPlayer().toLowerCase(),event);
+            }
+        }
+
+        if (eventMap.size() == 0) {
+            return;
+        }
+
+        for (Player player : this.getServer().getOnlinePlayers()) {
+            final Event event = eventMap.get(player.getName().toLowerCase());
+
+            if (event == null) {
+                continue;
+            }
+
+            if (event.getType() == Event.EventType.BAN) {
+                player.kickPlayer(this.buildKickMessage(event));
+            } else if (event.getExpires() > 0) {
+                this.expiryTask.schedule(player.getName(),event.getExpires());
+            }
+        }
+    }
+
+    /**
+     * Act on a new address event.
+     *
+     * Kicks the online players whose address is in the range if it is a ban,
+     * unless a narrower range they are in is unbanned. Otherwise has them
+     * checked again when the {@link Event} expires.
+     *
+     * @param event The new {@link Event}.
+     * @param range The range it targets.
+     */
+    private void enforce(final Event event,final AddressRange range) {
+        for (Player player : this.getServer().getOnlinePlayers()) {
+            final InetSocketAddress address = player.getAddress();
+
+            if (address == null || !range.contains(address.getAddress())) {
+                continue;
+            }
+
+            if (event.getType() == Event.EventType.BAN) {
+                final Event active = this.getActiveEvent(address.getAddress());
+
+                if (active != null && active.getType() == Event.EventType.UNBAN && AddressRange.parse(active.getPlayer()).getLength() > range.getLength()) {
+                    continue;
+                }
+
+                player.kickPlayer(this.buildKickMessage(event));
+            } else if (event.getExpires() > 0) {
+                this.expiryTask.schedule(player.getName(),event.getExpires());
+            }
+        }
+    }
+
+    /**
+     * Act on a new pattern event.
+     *
+     * Has the online players whose name matches the pattern checked again.
+     * That is put off until the next tick, by which time the pattern has been
+     * compiled in.
+     *
+     * @param event The new {@link Event}.
+     */
+    private void enforcePattern(final Event event) {
+        final String pattern = event.getPlayer().toLowerCase();
+        final List<String> players = new ArrayList<>();
+
+        for (Player player : this.getServer().getOnlinePlayers()) {
+            if (NameMatcher.matches(pattern,player.getName().toLowerCase())) {
+                players.add(player.getName());
+            }
+        }
+
+        if (players.size() == 0) {
+            return;
+        }
+
+        this.getServer().getScheduler().runTask(this,new Runnable() {
+            @Override
+            public void run() {
+                Mjolnir.this.recheck(players);
+            }
+        });
+    }
+
+    /**
+     * Check online players again.
+     *
+     * Checks the given players on the login executor, and kicks those found
+     * banned from the server thread. Players that are not banned, but whose
+     * active {@link Event} will expire, are handed to the {@link ExpiryTask}.
+     * Their addresses, taken from their {@link Session}s, are checked too, and
+     * so are banned name patterns, for players without an active {@link Event}
+     * of their own. If the login executor is too busy to take the check, it
+     * is tried again a second later.
+     *
+     * @param players The names of the players to check.
+     */
+    public void recheck(final Collection<String> players) {
+        try {
+            this.recheckLater(players);
+        } catch (RejectedExecutionException exception) {
+            if (!this.isEnabled()) {
+                return;
+            }
+
+            this.getServer().getScheduler().runTaskLater(this,new Runnable() {
+                @Override
+                public void run() {
+                    Mjolnir.this.recheck(players);
+                }
+            },20L);
         }
     }
 
+    /**
+     * Submit a check of online players.
+     *
+     * @param players The names of the players to check.
+     * @throws RejectedExecutionException If the login executor did not take the check.
+     */
+    private void recheckLater(final Collection<String> players) {
+        this.loginExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String,Event> banned = new HashMap<>();
+                final Map<String,Event> active = Mjolnir.this.getActiveEvents(players);
+                final List<String> unbanned = new ArrayList<>();
+
+                for (String player : players) {
+                    final Session session = Mjolnir.this.sessions.get(player);
+                    final InetAddress address = session == null ? null : session.getAddress();
+                    final Event blocked = address == null ? null : Mjolnir.this.getActiveEvent(address);
+
+                    if (blocked != null && blocked.getType() == Event.EventType.BAN) {
+                        banned.put(player,blocked);
+                        continue;
+                    }
+
+                    if (blocked != null && blocked.getExpires() > 0) {
+                        Mjolnir.this.expiryTask.schedule(player,blocked.getExpires());
+                    }
+
+                    final Event event = active.get(player.toLowerCase());
+
+                    if (event != null && event.getType() == Event.EventType.BAN) {
+                        banned.put(player,event);
+                        continue;
+                    }
+
+                    if (event == null) {
+                        final Event matched = Mjolnir.this.getPatternEvent(player);
+
+                        if (matched != null) {
+                            banned.put(player,matched);
+                            continue;
+                        }
+                    }
+
+                    unbanned.add(player);
+                }
+
+                /**
+                 * External providers are asked about everyone left at once,
+                 * so a slow provider holds the check up only once.
+                 */
+                final Map<String,Event> external = unbanned.size() == 0 ? Collections.<String,Event>emptyMap() : Mjolnir.this.getExternalBans(unbanned);
+
+                for (String player : unbanned) {
+                    final Event ban = external.get(player.toLowerCase());
+
+                    if (ban != null) {
+                        banned.put(player,ban);
+                        continue;
+                    }
+
+                    final Event event = active.get(player.toLowerCase());
+
+                    if (event != null && event.getExpires() > 0) {
+                        Mjolnir.this.expiryTask.schedule(player,event.getExpires());
+                    }
+                }
+
+                if (banned.size() == 0) {
+                    return;
+                }
+
+                Mjolnir.this.getServer().getScheduler().runTask(Mjolnir.this,new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Map.Entry<String,Event> entry : banned.entrySet()) {
+                            final Player player = Mjolnir.this.getServer().getPlayerExact(entry.getKey());
+
+                            if (player != null) {
+                                player.kickPlayer(Mjolnir.this.buildKickMessage(entry.getValue()));
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * Check if a player is banned.
      *
      * Checks if a player is banned in Mjölnir, and if not also queries external
-     * plugins using the {@link IsBannedEvent} event via {@link #isBannedExternally(String)}.
+     * ban providers, such as plugins listening for {@link IsBannedEvent}, via {@link #isBannedExternally(String)}.
+     * External providers know nothing of address ranges or name patterns, and
+     * are not asked about them.
      *
-     * @param player The name of the player to check.
+     * @param player The name of the player, the address range or the pattern to check.
      * @return       Whether or not the given player is banned.
      */
     public boolean isBanned(final String player) {
+        if (AddressRange.parse(player) != null || NameMatcher.isPattern(player)) {
+            return this.isBannedLocally(player);
+        }
+
         return this.isBannedLocally(player) || this.isBannedExternally(player);
     }
 
@@ -543,7 +1998,14 @@ public class Mjolnir extends JavaPlugin {
      */
     @SuppressWarnings("WeakerAccess")
     public boolean isBannedLocally(final String player) {
-        final Event event = this.getActiveEvent(player);
+        final long start = System.nanoTime();
+        final Event event;
+
+        try {
+            event = this.getActiveEvent(player);
+        } finally {
+            this.localTimer.since(start);
+        }
 
         if (event == null || event.getType() == Event.EventType.UNBAN) {
             return false;
@@ -557,7 +2019,7 @@ public class Mjolnir extends JavaPlugin {
     /**
      * Check if a player is banned externally.
      *
-     * Fires a {@link IsBannedEvent} to query external plugins for {@link Event}s,
+     * Asks external ban providers for {@link Event}s via {@link #getExternalEvent(String)},
      * then checks the {@link it.flaten.mjolnir.beans.Event.EventType}.
      * <p>
      * If the player is banned, {@link #why(String)} can be invoked to get the
@@ -568,9 +2030,9 @@ public class Mjolnir extends JavaPlugin {
      */
     @SuppressWarnings("WeakerAccess")
     public boolean isBannedExternally(final String player) {
-        final Event event = this.getExternalEvent(player);
+        final Event event = this.getExternalBan(player);
 
-        if (event == null || event.getType() == Event.EventType.UNBAN) {
+        if (event == null) {
             return false;
         }
 
@@ -579,69 +2041,144 @@ public class Mjolnir extends JavaPlugin {
         return true;
     }
 
+    /**
+     * Get the external ban of a player.
+     *
+     * Asks external ban providers for {@link Event}s via {@link #getExternalBans(Collection)},
+     * and keeps only bans. Unlike {@link #isBannedExternally(String)}, this
+     * does not touch the player's {@link Session}.
+     *
+     * @param player The name of the player to check.
+     * @return       The {@link Event} that bans the player, or null.
+     */
+    public Event getExternalBan(final String player) {
+        return this.getExternalBans(Collections.singletonList(player)).get(player.toLowerCase());
+    }
+
+    /**
+     * Get the external bans of a number of players.
+     *
+     * Asks external ban providers about all players at once, via
+     * {@link #getExternalEvents(Collection)}, and keeps only bans. Waits at
+     * most providers.timeout milliseconds in total, however many players are
+     * asked about.
+     *
+     * @param players The names of the players to check.
+     * @return        A {@link Map} of lowercased player names to the {@link Event}s that ban them.
+     */
+    public Map<String,Event> getExternalBans(final Collection<String> players) {
+        final long start = System.nanoTime();
+        final Map<String,Event> events;
+
+        try {
+            events = this.getExternalEvents(players);
+        } finally {
+            this.externalTimer.since(start);
+        }
+
+        final Iterator<Event> iterator = events.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().getType() == Event.EventType.UNBAN) {
+                iterator.remove();
+            }
+        }
+
+        return events;
+    }
+
     /**
      * Set which {@link Event} dictated the given player's fate.
      *
      * Used to let others know why {@link #isBanned(String)} returned what it did.
-     * Memory is freed if the {@link Event} is null.
+     * It is kept in the player's {@link Session}, so it is only remembered
+     * for players who are connecting or online, and freed when they leave.
      *
      * @param player The name of the player this {@link Event} belongs to
-     * @param event  The {@link Event}.
+     * @param event  The {@link Event}, or null to forget it.
      */
     public void why(final String player,final Event event) {
-        if (event == null) {
-            this.whyMap.remove(player);
-            return;
-        }
+        final Session session = this.sessions.get(player);
 
-        this.whyMap.put(player, event);
+        if (session != null) {
+            session.setEvent(event);
+        }
     }
 
     /**
      * Get the {@link Event} that dictated the given player's fate.
      *
      * @param player The name of the player whose {@link Event} to fetch.
-     * @return       The {@link Event}.
+     * @return       The {@link Event}, or null.
      */
     public Event why(final String player) {
-        return this.whyMap.get(player);
+        final Session session = this.sessions.get(player);
+
+        return session == null ? null : session.getEvent();
     }
 
     /**
      * Get the name history for a given UUID.
      *
+     * Served from the {@link NameHistoryCache} when possible. Stale histories
+     * are still served, but fetched again in the background. If the history
+     * cannot be fetched, an empty {@link NameHistory} is returned but not cached,
+     * and the {@link NameHistoryClient} decides when to try again.
+     *
      * @param uuid UUID to look up.
-     * @return     A {@link Map} with timestamp as keys and names as values.
+     * @return     The {@link NameHistory}.
      */
-    public Map<Integer, String> getNameHistory(UUID uuid) {
-        if (this.nameHistoryCache.containsKey(uuid))
-            return this.nameHistoryCache.get(uuid);
-
-        HashMap<Integer, String> history = new HashMap<>();
+    public NameHistory getNameHistory(final UUID uuid) {
+        final long start = System.nanoTime();
 
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL("https://api.mojang.com/user/profiles/" + uuid + "/names").openConnection();
-            connection.connect();
-
-            JsonObject root = new JsonParser().parse(new InputStreamReader((InputStream) connection.getContent())).getAsJsonObject();
-
-            for (JsonElement entry : root.getAsJsonArray()) {
-                JsonObject object = entry.getAsJsonObject();
+            return this.loadNameHistory(uuid);
+        } finally {
+            this.nameHistoryTimer.since(start);
+        }
+    }
 
-                history.put(
-                    object.get("changedToAt") == null ? 0 : object.get("changedToAt").getAsInt(),
-                    object.get("name").getAsString()
-                );
+    /**
+     * Load the name history for a given UUID.
+     *
+     * Does the work of {@link #getNameHistory(UUID)}, which times it.
+     *
+     * @param uuid UUID to look up.
+     * @return     The {@link NameHistory}.
+     */
+    private NameHistory loadNameHistory(final UUID uuid) {
+        final NameHistoryCache.Entry entry = this.nameHistoryCache.get(uuid);
+
+        if (entry != null) {
+            if (this.nameHistoryCache.isStale(entry) && this.refreshing.add(uuid)) {
+                this.getServer().getScheduler().runTaskAsynchronously(this,new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Mjolnir.this.nameHistoryCache.put(uuid,Mjolnir.this.nameHistoryClient.fetch(uuid));
+                        } catch (IOException exception) {
+                            Mjolnir.this.getLogger().warning("Failed to refresh name history!");
+                        } finally {
+                            Mjolnir.this.refreshing.remove(uuid);
+                        }
+                    }
+                });
             }
-        } catch (IOException exception) {
-            this.getLogger().warning("Failed to fetch name history!");
 
-            exception.printStackTrace();
+            return entry.getHistory();
         }
 
-        this.nameHistoryCache.put(uuid, history);
+        try {
+            final NameHistory history = this.nameHistoryClient.fetch(uuid);
+
+            this.nameHistoryCache.put(uuid,history);
+
+            return history;
+        } catch (IOException exception) {
+            this.getLogger().warning("Failed to fetch name history for " + uuid + ": " + exception.getMessage());
+        }
 
-        return history;
+        return NameHistory.EMPTY;
     }
 
     /**
@@ -652,26 +2189,20 @@ public class Mjolnir extends JavaPlugin {
      * @param timestamp Timestamp to compare.
      * @return          True if the values match. False otherwise.
      */
-    public boolean hadNameAtTime(UUID uuid, String name, int timestamp) {
-        Map<Integer, String> history = this.getNameHistory(uuid);
-
-        for (int ts : history.keySet()) {
-            if (!history.get(ts).equals(name))
-                continue;
-
-            int next = (int) (System.currentTimeMillis() / 1000L);
-            for (int ts2 : history.keySet()) {
-                if (ts < ts2 && ts2 < next) {
-                    next = ts2;
-                    break;
-                }
-            }
+    public boolean hadNameAtTime(final UUID uuid,final String name,final int timestamp) {
+        return this.getNameHistory(uuid).hadNameAt(name,timestamp);
+    }
 
-            if (ts < timestamp && timestamp < next) {
-                return true;
-            }
-        }
+    /**
+     * Get the share of hits.
+     *
+     * @param hits   The number of hits.
+     * @param misses The number of misses.
+     * @return       Hits divided by all lookups, or 0 if there were none.
+     */
+    private static double ratio(final long hits,final long misses) {
+        final long total = hits + misses;
 
-        return false;
+        return total == 0 ? 0D : (double) hits / total;
     }
 }
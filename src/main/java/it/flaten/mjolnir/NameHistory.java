@@ -0,0 +1,169 @@
+package it.flaten.mjolnir;
+
+import java.util.*;
+
+/**
+ * A player's name history.
+ *
+ * Stored as two parallel arrays sorted by the time each name was taken, so
+ * the name a player had at any given time is found with a binary search.
+ * Instances are immutable.
+ *
+ * @author Jim Flaten
+ */
+public class NameHistory {
+    /**
+     * A history with no names in it.
+     */
+    public static final NameHistory EMPTY = new NameHistory(new int[0],new String[0]);
+
+    /**
+     * UNIX time each name was taken, ascending. The original name has 0.
+     */
+    private final int[] times;
+
+    /**
+     * The names, in the same order as {@link #times}.
+     */
+    private final String[] names;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link NameHistory} from arrays that are already sorted.
+     *
+     * @param times UNIX time each name was taken, ascending.
+     * @param names The names, in the same order.
+     */
+    public NameHistory(final int[] times,final String[] names) {
+        this.times = times;
+        this.names = names;
+    }
+
+    /**
+     * Build a history from a {@link Map}.
+     *
+     * @param history A {@link Map} with timestamp as keys and names as values.
+     * @return        The resulting {@link NameHistory}.
+     */
+    public static NameHistory of(final Map<Integer,String> history) {
+        if (history.size() == 0) {
+            return NameHistory.EMPTY;
+        }
+
+        final SortedMap<Integer,String> sorted = new TreeMap<>(history);
+
+        final int[] times = new int[sorted.size()];
+        final String[] names = new String[sorted.size()];
+        int i = 0;
+
+        for (Map.Entry<Integer,String> entry : sorted.entrySet()) {
+            times[i] = entry.getKey();
+            names[i] = entry.getValue();
+            i++;
+        }
+
+        return new NameHistory(times,names);
+    }
+
+    /**
+     * Build a history from parallel arrays.
+     *
+     * The arrays are sorted first if they are not already.
+     *
+     * @param times UNIX time each name was taken.
+     * @param names The names, in the same order.
+     * @return      The resulting {@link NameHistory}.
+     */
+    public static NameHistory of(final int[] times,final String[] names) {
+        for (int i = 1; i < times.length; i++) {
+            if (times[i - 1] > times[i]) {
+                final Map<Integer,String> history = new HashMap<>();
+
+                for (int j = 0; j < times.length; j++) {
+                    history.put(times[j],names[j]);
+                }
+
+                return NameHistory.of(history);
+            }
+        }
+
+        return new NameHistory(times,names);
+    }
+
+    /**
+     * Get the number of names in the history.
+     *
+     * @return The number of name changes, including the original name.
+     */
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * Get the time a name was taken.
+     *
+     * @param index Position in the history, oldest first.
+     * @return      The UNIX time the name was taken.
+     */
+    public int getTime(final int index) {
+        return this.times[index];
+    }
+
+    /**
+     * Get a name.
+     *
+     * @param index Position in the history, oldest first.
+     * @return      The name.
+     */
+    public String getName(final int index) {
+        return this.names[index];
+    }
+
+    /**
+     * Get the distinct names in the history.
+     *
+     * @return A {@link Set} of names, oldest first.
+     */
+    public Set<String> getNames() {
+        return new LinkedHashSet<>(Arrays.asList(this.names));
+    }
+
+    /**
+     * Get the name held at a given time.
+     *
+     * @param timestamp UNIX time to look up.
+     * @return          The name held at that time, or null if there is none.
+     */
+    public String nameAt(final int timestamp) {
+        int low = 0;
+        int high = this.times.length - 1;
+        int found = -1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+
+            if (this.times[middle] <= timestamp) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return found == -1 ? null : this.names[found];
+    }
+
+    /**
+     * Check if a name was held at a given time.
+     *
+     * @param name      Name to compare.
+     * @param timestamp UNIX time to compare.
+     * @return          True if the name was held at that time. False otherwise.
+     */
+    public boolean hadNameAt(final String name,final int timestamp) {
+        final String held = this.nameAt(timestamp);
+
+        return held != null && held.equalsIgnoreCase(name);
+    }
+}
@@ -0,0 +1,309 @@
+package it.flaten.mjolnir.addresses;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * A range of IPv4 or IPv6 addresses.
+ *
+ * Made up of an address and a prefix length, in CIDR notation. A single
+ * address is a range with the full prefix length. Bits past the prefix are
+ * always zero, so two ranges covering the same addresses are equal.
+ * <p>
+ * Ranges are used as ban targets in place of player names. Player names never
+ * contain dots or colons, so the two can not be mistaken for each other.
+ *
+ * @author Jim Flaten
+ */
+public class AddressRange {
+    /**
+     * The address, 4 bytes for IPv4 or 16 bytes for IPv6.
+     */
+    private final byte[] address;
+
+    /**
+     * Number of leading bits that make up the range.
+     */
+    private final int length;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link AddressRange}. Bits of the address past the prefix
+     * are cleared.
+     *
+     * @param address The address, 4 or 16 bytes.
+     * @param length  The prefix length, from 0 to the number of bits in the address.
+     */
+    public AddressRange(final byte[] address,final int length) {
+        if (address.length != 4 && address.length != 16) {
+            throw new IllegalArgumentException("Not an IPv4 or IPv6 address");
+        }
+
+        if (length < 0 || length > address.length * 8) {
+            throw new IllegalArgumentException("Invalid prefix length " + length);
+        }
+
+        this.address = address.clone();
+        this.length = length;
+
+        for (int bit = length; bit < address.length * 8; bit++) {
+            this.address[bit >>> 3] &= ~(0x80 >>> (bit & 7));
+        }
+    }
+
+    /**
+     * Parse a range.
+     *
+     * Accepts a dotted IPv4 address or an IPv6 address, optionally followed
+     * by a slash and a prefix length. IPv4 addresses mapped to IPv6 are
+     * treated as IPv4. Never causes a DNS lookup.
+     *
+     * @param text The text to parse.
+     * @return     The {@link AddressRange}, or null if the text is not one.
+     */
+    public static AddressRange parse(final String text) {
+        if (text.indexOf('.') < 0 && text.indexOf(':') < 0) {
+            return null;
+        }
+
+        final int slash = text.indexOf('/');
+        final String host = slash < 0 ? text : text.substring(0,slash);
+
+        byte[] address = AddressRange.parseIPv4(host);
+        int offset = 0;
+
+        if (address == null) {
+            if (host.indexOf(':') < 0) {
+                return null;
+            }
+
+            try {
+                /**
+                 * Text with a colon is always taken as an IPv6 literal, and
+                 * never looked up.
+                 */
+                address = InetAddress.getByName(host).getAddress();
+            } catch (UnknownHostException exception) {
+                return null;
+            }
+
+            if (address.length == 4) {
+                offset = 96;
+            }
+        }
+
+        int length = address.length * 8;
+
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(text.substring(slash + 1)) - offset;
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+
+            if (length < 0 || length > address.length * 8) {
+                return null;
+            }
+        }
+
+        return new AddressRange(address,length);
+    }
+
+    /**
+     * Parse a dotted IPv4 address.
+     *
+     * Only the plain form with four decimal parts is accepted.
+     *
+     * @param text The text to parse.
+     * @return     The 4 bytes of the address, or null.
+     */
+    private static byte[] parseIPv4(final String text) {
+        final byte[] address = new byte[4];
+        int part = 0;
+        int value = -1;
+
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && part < 3) {
+                address[part++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+
+        if (value < 0 || part != 3) {
+            return null;
+        }
+
+        address[3] = (byte) value;
+
+        return address;
+    }
+
+    /**
+     * Get the address.
+     *
+     * @return A copy of the address, with bits past the prefix cleared.
+     */
+    public byte[] getAddress() {
+        return this.address.clone();
+    }
+
+    /**
+     * Get the address without copying it.
+     *
+     * @return The address. Must not be modified.
+     */
+    byte[] bytes() {
+        return this.address;
+    }
+
+    /**
+     * Get the prefix length.
+     *
+     * @return Number of leading bits that make up the range.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Get a single bit of the address.
+     *
+     * @param bit The index of the bit, 0 being the most significant.
+     * @return    Whether or not the bit is set.
+     */
+    public boolean bit(final int bit) {
+        return AddressRange.bit(this.address,bit);
+    }
+
+    /**
+     * Check if an address is in the range.
+     *
+     * @param address The address, 4 or 16 bytes.
+     * @return        Whether or not the address is covered.
+     */
+    public boolean contains(final byte[] address) {
+        if (address.length != this.address.length) {
+            return false;
+        }
+
+        return AddressRange.common(this.address,address,0,this.length) == this.length;
+    }
+
+    /**
+     * Check if an address is in the range.
+     *
+     * @param address The address.
+     * @return        Whether or not the address is covered.
+     */
+    public boolean contains(final InetAddress address) {
+        return this.contains(address.getAddress());
+    }
+
+    /**
+     * Get a single bit of an address.
+     *
+     * @param address The address.
+     * @param bit     The index of the bit, 0 being the most significant.
+     * @return        Whether or not the bit is set.
+     */
+    static boolean bit(final byte[] address,final int bit) {
+        return (address[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+    }
+
+    /**
+     * Count the leading bits two addresses have in common.
+     *
+     * Compares whole bytes where it can.
+     *
+     * @param a    One address.
+     * @param b    The other address, of the same size.
+     * @param from The first bit to compare.
+     * @param to   The bit to stop at.
+     * @return     The index of the first bit that differs, or to if none does.
+     */
+    static int common(final byte[] a,final byte[] b,final int from,final int to) {
+        int bit = from;
+
+        while (bit < to) {
+            if ((bit & 7) == 0 && to - bit >= 8) {
+                if (a[bit >>> 3] == b[bit >>> 3]) {
+                    bit += 8;
+                    continue;
+                }
+            }
+
+            if (AddressRange.bit(a,bit) != AddressRange.bit(b,bit)) {
+                return bit;
+            }
+
+            bit++;
+        }
+
+        return to;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (!(object instanceof AddressRange)) {
+            return false;
+        }
+
+        final AddressRange range = (AddressRange) object;
+
+        return this.length == range.length && Arrays.equals(this.address,range.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.address) * 31 + this.length;
+    }
+
+    /**
+     * Get the range in CIDR notation.
+     *
+     * The prefix length is left out for single addresses. This is the form
+     * ranges are stored in as ban targets.
+     *
+     * @return The range, as text.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+
+        if (this.address.length == 4) {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    builder.append('.');
+                }
+
+                builder.append(this.address[i] & 0xff);
+            }
+        } else {
+            for (int i = 0; i < 16; i += 2) {
+                if (i > 0) {
+                    builder.append(':');
+                }
+
+                builder.append(Integer.toHexString(((this.address[i] & 0xff) << 8) | (this.address[i + 1] & 0xff)));
+            }
+        }
+
+        if (this.length != this.address.length * 8) {
+            builder.append('/').append(this.length);
+        }
+
+        return builder.toString();
+    }
+}
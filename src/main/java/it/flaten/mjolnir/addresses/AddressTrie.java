@@ -0,0 +1,299 @@
+package it.flaten.mjolnir.addresses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compressed binary radix trie over {@link AddressRange}s.
+ *
+ * Maps ranges to values, and finds every range covering a given address by
+ * following its bits from the root. Chains of nodes with a single child are
+ * collapsed, so a lookup visits at most one node per bit of the address, no
+ * matter how many ranges are stored. IPv4 and IPv6 ranges are kept apart.
+ * <p>
+ * Changes are made under the lock on this instance. Lookups take no lock: a
+ * new node is fully built before it is linked in, so they always see either
+ * the old or the new shape of the trie.
+ *
+ * @param <V> The type of the values.
+ * @author Jim Flaten
+ */
+public class AddressTrie<V> {
+    /**
+     * Root of the IPv4 ranges.
+     */
+    private final Node<V> root4 = new Node<>(new AddressRange(new byte[4],0),null);
+
+    /**
+     * Root of the IPv6 ranges.
+     */
+    private final Node<V> root6 = new Node<>(new AddressRange(new byte[16],0),null);
+
+    /**
+     * Number of ranges with a value.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private int size = 0;
+
+    /**
+     * Get the value for a range.
+     *
+     * Only the exact range is looked at, not those covering it.
+     *
+     * @param range The range.
+     * @return      The value, or null.
+     */
+    public V get(final AddressRange range) {
+        Node<V> node = this.root(range.bytes());
+
+        while (node != null && node.range.getLength() < range.getLength()) {
+            node = node.child(range.bit(node.range.getLength()));
+        }
+
+        return node != null && node.range.equals(range) ? node.value : null;
+    }
+
+    /**
+     * Set the value for a range.
+     *
+     * @param range The range.
+     * @param value The value, or null to remove the range.
+     */
+    public synchronized void put(final AddressRange range,final V value) {
+        if (value == null) {
+            this.remove(range);
+            return;
+        }
+
+        final byte[] key = range.bytes();
+        Node<V> node = this.root(key);
+
+        while (true) {
+            if (node.range.getLength() == range.getLength()) {
+                if (node.value == null) {
+                    this.size++;
+                }
+
+                node.value = value;
+                return;
+            }
+
+            final boolean bit = range.bit(node.range.getLength());
+            final Node<V> child = node.child(bit);
+
+            if (child == null) {
+                node.link(bit,new Node<>(range,value));
+                this.size++;
+                return;
+            }
+
+            final int length = Math.min(child.range.getLength(),range.getLength());
+            final int common = AddressRange.common(child.range.bytes(),key,node.range.getLength(),length);
+
+            if (common == child.range.getLength()) {
+                node = child;
+                continue;
+            }
+
+            /**
+             * The new range splits the edge to the child. Either it sits on
+             * the edge itself, or a node without a value is put where the two
+             * part ways.
+             */
+            final Node<V> split;
+
+            if (common == range.getLength()) {
+                split = new Node<>(range,value);
+            } else {
+                split = new Node<>(new AddressRange(key,common),null);
+                split.link(range.bit(common),new Node<>(range,value));
+            }
+
+            split.link(child.range.bit(common),child);
+            node.link(bit,split);
+            this.size++;
+            return;
+        }
+    }
+
+    /**
+     * Remove a range.
+     *
+     * Nodes left without a value and with at most one child are taken out.
+     *
+     * @param range The range.
+     * @return      The value the range had, or null.
+     */
+    public synchronized V remove(final AddressRange range) {
+        final List<Node<V>> path = new ArrayList<>();
+        Node<V> node = this.root(range.bytes());
+
+        while (node != null && node.range.getLength() < range.getLength()) {
+            path.add(node);
+            node = node.child(range.bit(node.range.getLength()));
+        }
+
+        if (node == null || !node.range.equals(range) || node.value == null) {
+            return null;
+        }
+
+        final V value = node.value;
+
+        node.value = null;
+        this.size--;
+
+        /**
+         * Collapse upwards, as long as nodes carry nothing.
+         */
+        for (int i = path.size() - 1; i >= 0 && node.value == null; i--) {
+            final Node<V> parent = path.get(i);
+            final boolean bit = node.range.bit(parent.range.getLength());
+
+            if (node.zero != null && node.one != null) {
+                break;
+            }
+
+            parent.link(bit,node.zero != null ? node.zero : node.one);
+            node = parent;
+        }
+
+        return value;
+    }
+
+    /**
+     * Find the values of all ranges covering an address.
+     *
+     * Visits one node per step down the trie, and at most one step per bit of
+     * the address.
+     *
+     * @param address The address, 4 or 16 bytes.
+     * @return        The values, the most specific range first.
+     */
+    public List<V> match(final byte[] address) {
+        final List<V> values = new ArrayList<>();
+        Node<V> node = this.root(address);
+        int checked = 0;
+
+        while (node != null) {
+            if (AddressRange.common(node.range.bytes(),address,checked,node.range.getLength()) < node.range.getLength()) {
+                break;
+            }
+
+            final V value = node.value;
+
+            if (value != null) {
+                values.add(value);
+            }
+
+            checked = node.range.getLength();
+
+            if (checked == address.length * 8) {
+                break;
+            }
+
+            node = node.child(AddressRange.bit(address,checked));
+        }
+
+        Collections.reverse(values);
+
+        return values;
+    }
+
+    /**
+     * Get all ranges with a value.
+     *
+     * @return The ranges, in no particular order.
+     */
+    public synchronized List<AddressRange> ranges() {
+        final List<AddressRange> ranges = new ArrayList<>(this.size);
+
+        AddressTrie.collect(this.root4,ranges);
+        AddressTrie.collect(this.root6,ranges);
+
+        return ranges;
+    }
+
+    /**
+     * Get the number of ranges with a value.
+     *
+     * @return The number of ranges.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Remove all ranges.
+     */
+    public synchronized void clear() {
+        for (Node<V> root : Arrays.asList(this.root4,this.root6)) {
+            root.value = null;
+            root.zero = null;
+            root.one = null;
+        }
+
+        this.size = 0;
+    }
+
+    /**
+     * Get the root for addresses of a given size.
+     *
+     * @param address The address, 4 or 16 bytes.
+     * @return        The root.
+     */
+    private Node<V> root(final byte[] address) {
+        return address.length == 4 ? this.root4 : this.root6;
+    }
+
+    /**
+     * Add the ranges below a node.
+     *
+     * @param node   The node to start from.
+     * @param ranges The ranges found so far.
+     */
+    private static <V> void collect(final Node<V> node,final List<AddressRange> ranges) {
+        if (node == null) {
+            return;
+        }
+
+        if (node.value != null) {
+            ranges.add(node.range);
+        }
+
+        AddressTrie.collect(node.zero,ranges);
+        AddressTrie.collect(node.one,ranges);
+    }
+
+    /**
+     * Node of the trie.
+     *
+     * Covers a range, and holds a value if that range was put in the trie.
+     * Children cover longer ranges, split by the next bit.
+     */
+    private static class Node<V> {
+        private final AddressRange range;
+        private volatile V value;
+        private volatile Node<V> zero;
+        private volatile Node<V> one;
+
+        private Node(final AddressRange range,final V value) {
+            this.range = range;
+            this.value = value;
+        }
+
+        private Node<V> child(final boolean bit) {
+            return bit ? this.one : this.zero;
+        }
+
+        private void link(final boolean bit,final Node<V> child) {
+            if (bit) {
+                this.one = child;
+            } else {
+                this.zero = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package it.flaten.mjolnir.beans;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+@SuppressWarnings("UnusedDeclaration")
+@Entity
+@Table(name = "ActiveState")
+public class ActiveState implements Serializable {
+    @Id     private String player;
+    @Column private int    event;
+
+    public void setPlayer(final String player) {
+        this.player = player;
+    }
+    public String getPlayer() {
+        return this.player;
+    }
+
+    public void setEvent(final int event) {
+        this.event = event;
+    }
+    public int getEvent() {
+        return this.event;
+    }
+}
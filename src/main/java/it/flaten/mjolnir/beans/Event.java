@@ -5,6 +5,7 @@ import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.Table;
 import java.io.Serializable;
+import java.util.UUID;
 
 @SuppressWarnings("UnusedDeclaration")
 @Entity
@@ -23,6 +24,16 @@ public class Event implements Serializable {
         public Integer getId() {
             return this.id;
         }
+
+        public static EventType fromId(final int id) {
+            for (EventType type : EventType.values()) {
+                if (type.id == id) {
+                    return type;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown event type " + id);
+        }
     }
 
     @Id     private int       id;
@@ -32,6 +43,8 @@ public class Event implements Serializable {
     @Column private EventType type;
     @Column private String    reason;
     @Column private int       expires;
+    @Column private long      uuidMost;
+    @Column private long      uuidLeast;
 
     public void setId(final int id) {
         this.id = id;
@@ -81,4 +94,30 @@ public class Event implements Serializable {
     public int getExpires() {
         return this.expires;
     }
+
+    public void setUuidMost(final long uuidMost) {
+        this.uuidMost = uuidMost;
+    }
+    public long getUuidMost() {
+        return this.uuidMost;
+    }
+
+    public void setUuidLeast(final long uuidLeast) {
+        this.uuidLeast = uuidLeast;
+    }
+    public long getUuidLeast() {
+        return this.uuidLeast;
+    }
+
+    public void setUniqueId(final UUID uuid) {
+        this.setUuidMost(uuid == null ? 0L : uuid.getMostSignificantBits());
+        this.setUuidLeast(uuid == null ? 0L : uuid.getLeastSignificantBits());
+    }
+    public UUID getUniqueId() {
+        if (this.getUuidMost() == 0L && this.getUuidLeast() == 0L) {
+            return null;
+        }
+
+        return new UUID(this.getUuidMost(),this.getUuidLeast());
+    }
 }
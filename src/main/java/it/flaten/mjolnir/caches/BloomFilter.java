@@ -0,0 +1,238 @@
+package it.flaten.mjolnir.caches;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over player names.
+ *
+ * Answers whether a name may have been added, without false negatives. Names
+ * are compared case-insensitively. Bits are only ever set, and every bit is
+ * set atomically, so adding and checking names is safe from any thread
+ * without locking.
+ *
+ * @author Jim Flaten
+ */
+public class BloomFilter {
+    /**
+     * The bits, 64 to a word.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * Number of bits.
+     */
+    private final long bits;
+
+    /**
+     * Number of bits set for every name.
+     */
+    private final int hashes;
+
+    /**
+     * Number of names added that were not already in the filter.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates an empty {@link BloomFilter}.
+     *
+     * @param bits   Number of bits, rounded up to a multiple of 64.
+     * @param hashes Number of bits set for every name.
+     */
+    public BloomFilter(final long bits,final int hashes) {
+        this.words = new AtomicLongArray((int) ((Math.max(64L,bits) + 63L) / 64L));
+        this.bits = this.words.length() * 64L;
+        this.hashes = Math.max(1,hashes);
+    }
+
+    /**
+     * Create a {@link BloomFilter} sized for a number of names.
+     *
+     * @param expected Number of names expected to be added.
+     * @param fpp      Wanted chance of a false positive once they have been, between 0 and 1.
+     * @return         An empty {@link BloomFilter}.
+     */
+    public static BloomFilter create(final long expected,final double fpp) {
+        final long n = Math.max(1L,expected);
+        final double p = Math.min(0.5D,Math.max(1.0E-9D,fpp));
+
+        final long bits = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        final int hashes = (int) Math.max(1L,Math.round((double) bits / n * Math.log(2)));
+
+        return new BloomFilter(bits,hashes);
+    }
+
+    /**
+     * Add a name.
+     *
+     * @param name The name to add.
+     */
+    public void put(final String name) {
+        final long hash = BloomFilter.hash(name);
+        final long h1 = hash;
+        final long h2 = (hash >>> 32) | 1L;
+
+        boolean changed = false;
+
+        for (int i = 0; i < this.hashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % this.bits;
+            final int index = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+
+            long word;
+
+            while (((word = this.words.get(index)) & mask) == 0) {
+                if (this.words.compareAndSet(index,word,word | mask)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        if (changed) {
+            this.count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Check whether a name may have been added.
+     *
+     * @param name The name to check.
+     * @return     False if the name has definitely never been added.
+     */
+    public boolean mightContain(final String name) {
+        final long hash = BloomFilter.hash(name);
+        final long h1 = hash;
+        final long h2 = (hash >>> 32) | 1L;
+
+        for (int i = 0; i < this.hashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % this.bits;
+
+            if ((this.words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of bits.
+     *
+     * @return The size of the filter, in bits.
+     */
+    public long getBits() {
+        return this.bits;
+    }
+
+    /**
+     * Get the number of bits set for every name.
+     *
+     * @return The number of hash functions.
+     */
+    public int getHashes() {
+        return this.hashes;
+    }
+
+    /**
+     * Get the number of names added.
+     *
+     * Names that were already in the filter, or seemed to be, are not counted.
+     *
+     * @return The approximate number of distinct names added.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Estimate the current chance of a false positive.
+     *
+     * Based on the share of bits that are set.
+     *
+     * @return The estimated false positive probability, between 0 and 1.
+     */
+    public double getFalsePositiveProbability() {
+        long set = 0;
+
+        for (int i = 0; i < this.words.length(); i++) {
+            set += Long.bitCount(this.words.get(i));
+        }
+
+        return Math.pow((double) set / this.bits,this.hashes);
+    }
+
+    /**
+     * Write the filter.
+     *
+     * @param output Where to write it.
+     * @throws IOException If writing failed.
+     */
+    public void write(final DataOutput output) throws IOException {
+        output.writeLong(this.bits);
+        output.writeInt(this.hashes);
+        output.writeLong(this.count.get());
+
+        for (int i = 0; i < this.words.length(); i++) {
+            output.writeLong(this.words.get(i));
+        }
+    }
+
+    /**
+     * Read a filter written by {@link #write(java.io.DataOutput)}.
+     *
+     * @param input Where to read it from.
+     * @return      The {@link BloomFilter}.
+     * @throws IOException If reading failed.
+     */
+    public static BloomFilter read(final DataInput input) throws IOException {
+        final long bits = input.readLong();
+        final int hashes = input.readInt();
+
+        if (bits <= 0 || bits % 64L != 0 || bits / 64L > Integer.MAX_VALUE || hashes <= 0) {
+            throw new IOException("Invalid filter header");
+        }
+
+        final BloomFilter filter = new BloomFilter(bits,hashes);
+
+        filter.count.set(input.readLong());
+
+        for (int i = 0; i < filter.words.length(); i++) {
+            filter.words.set(i,input.readLong());
+        }
+
+        return filter;
+    }
+
+    /**
+     * Hash a lowercased name to 64 bits.
+     *
+     * FNV-1a over the characters, followed by a final mix so that both
+     * halves of the result are usable on their own.
+     *
+     * @param name The name to hash.
+     * @return     The hash.
+     */
+    private static long hash(final String name) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= Character.toLowerCase(name.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
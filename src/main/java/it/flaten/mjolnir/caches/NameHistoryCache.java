@@ -0,0 +1,518 @@
+package it.flaten.mjolnir.caches;
+
+import it.flaten.mjolnir.NameHistory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk-backed cache of name histories.
+ *
+ * Keeps name histories in memory, and appends every new or refreshed history
+ * to a file, so they survive restarts. Records are written, and the file is
+ * rewritten, by a single writer thread, so storing a history never waits for
+ * the disk. When the file is loaded, later records for a UUID replace earlier
+ * ones, and the file is rewritten once most of its records have been replaced.
+ * <p>
+ * The number of histories kept in memory is bounded. They are spread over a
+ * fixed number of segments by UUID, each with its own lock and evicting its
+ * least recently used history once full, so lookups from different threads
+ * rarely wait for each other. Evicted histories are left out when the file is
+ * rewritten, which happens once it holds twice as many records as the cache.
+ * <p>
+ * Each record is the UUID as two longs, the UNIX time it was fetched, the
+ * number of names, and then each name change as a timestamp and a name.
+ *
+ * @author Jim Flaten
+ */
+public class NameHistoryCache {
+    /**
+     * Number of segments. A power of two.
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Maximum number of records waiting to be written.
+     */
+    private static final int QUEUE = 1024;
+
+    /**
+     * The file we keep records in.
+     */
+    private final File file;
+
+    /**
+     * Number of seconds after which a history should be fetched again.
+     */
+    private final int ttl;
+
+    /**
+     * Maximum number of histories kept in memory.
+     */
+    private final int capacity;
+
+    /**
+     * Cached histories, keyed by UUID.
+     *
+     * Each segment is guarded by its own lock, and keeps its histories least
+     * recently used first.
+     */
+    private final Segment[] segments = new Segment[NameHistoryCache.SEGMENTS];
+
+    /**
+     * Stream appending to {@link #file}.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private DataOutputStream output;
+
+    /**
+     * Number of records in {@link #file}.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private long records = 0;
+
+    /**
+     * Number of lookups that found a history.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups that found no history.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Number of histories evicted to stay within {@link #capacity}.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Records waiting to be written.
+     */
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(NameHistoryCache.QUEUE);
+
+    /**
+     * The writer thread.
+     */
+    private final Thread writer;
+
+    /**
+     * Whether or not the writer should keep running once the queue is empty.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link NameHistoryCache}, and starts the writer thread.
+     *
+     * @param file     The file to keep records in.
+     * @param ttl      Number of seconds after which a history is considered stale.
+     * @param capacity Maximum number of histories kept in memory.
+     */
+    public NameHistoryCache(final File file,final int ttl,final int capacity) {
+        this.file = file;
+        this.ttl = ttl;
+        this.capacity = Math.max(NameHistoryCache.SEGMENTS,capacity);
+
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment(this.capacity / NameHistoryCache.SEGMENTS);
+        }
+
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                NameHistoryCache.this.write();
+            }
+        },"Mjolnir name history writer");
+
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Load the cache from disk.
+     *
+     * Reads every record in the file. The file is truncated after the last
+     * record that could be read, so a record cut short by a crash, or otherwise
+     * unreadable, is dropped along with anything after it. If the file holds
+     * more histories than fit, those written last are kept.
+     *
+     * @throws IOException If the file could not be read or opened for writing.
+     */
+    public synchronized void load() throws IOException {
+        long records = 0;
+
+        if (this.file.exists()) {
+            final byte[] bytes = new byte[(int) this.file.length()];
+
+            try (DataInputStream input = new DataInputStream(new FileInputStream(this.file))) {
+                input.readFully(bytes);
+            }
+
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            int valid = 0;
+
+            try {
+                while (input.available() > 0) {
+                    final UUID uuid = new UUID(input.readLong(),input.readLong());
+                    final int fetched = input.readInt();
+                    final int count = input.readUnsignedShort();
+
+                    final int[] times = new int[count];
+                    final String[] names = new String[count];
+
+                    for (int i = 0; i < count; i++) {
+                        times[i] = input.readInt();
+                        names[i] = input.readUTF();
+                    }
+
+                    this.segment(uuid).store(uuid,new Entry(fetched,NameHistory.of(times,names)));
+
+                    records++;
+                    valid = bytes.length - input.available();
+                }
+            } catch (IOException exception) {
+                try (RandomAccessFile truncate = new RandomAccessFile(this.file,"rw")) {
+                    truncate.setLength(valid);
+                }
+            }
+        }
+
+        this.evictions.set(0);
+
+        if (records > 2L * this.size()) {
+            this.compact();
+        } else {
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file,true)));
+            this.records = records;
+        }
+    }
+
+    /**
+     * Get a cached history.
+     *
+     * @param uuid UUID to look up.
+     * @return     The cached {@link Entry}, or null.
+     */
+    public Entry get(final UUID uuid) {
+        final Entry entry = this.segment(uuid).lookup(uuid);
+
+        if (entry == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Store a history.
+     *
+     * The history is cached in memory, and queued to be appended to the file
+     * by the writer thread. If too many records are already waiting, it is
+     * only kept in memory.
+     *
+     * @param uuid    UUID the history belongs to.
+     * @param history The {@link NameHistory}.
+     */
+    public void put(final UUID uuid,final NameHistory history) {
+        final Entry entry = new Entry((int) (System.currentTimeMillis() / 1000L),history);
+
+        this.segment(uuid).store(uuid,entry);
+
+        this.queue.offer(new Record(uuid,entry));
+    }
+
+    /**
+     * Get the number of histories in memory.
+     *
+     * @return The number of cached histories.
+     */
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Get the maximum number of histories in memory.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the number of lookups that found a history.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that found no history.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the number of histories evicted since the cache was loaded.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Check if a history should be fetched again.
+     *
+     * @param entry The {@link Entry} to check.
+     * @return      Whether or not the {@link Entry} is older than the TTL.
+     */
+    public boolean isStale(final Entry entry) {
+        return (int) (System.currentTimeMillis() / 1000L) - entry.getFetched() > this.ttl;
+    }
+
+    /**
+     * Close the file.
+     *
+     * Waits for the writer thread to write every queued record first.
+     */
+    public void close() {
+        this.running = false;
+
+        try {
+            this.writer.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (this.output == null) {
+                return;
+            }
+
+            try {
+                this.output.close();
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+
+            this.output = null;
+        }
+    }
+
+    /**
+     * Writer loop.
+     *
+     * Appends queued records to the file, as many at a time as are waiting,
+     * and flushes after each batch. The file is rewritten once it holds twice
+     * as many records as fit in memory. Runs until the cache is closed and
+     * the queue is empty.
+     */
+    private void write() {
+        final List<Record> batch = new ArrayList<>();
+
+        while (this.running || this.queue.size() > 0) {
+            try {
+                final Record record = this.queue.poll(100,TimeUnit.MILLISECONDS);
+
+                if (record == null) {
+                    continue;
+                }
+
+                batch.add(record);
+            } catch (InterruptedException exception) {
+                continue;
+            }
+
+            this.queue.drainTo(batch);
+
+            synchronized (this) {
+                if (this.output != null) {
+                    try {
+                        for (Record record : batch) {
+                            NameHistoryCache.write(this.output,record.uuid,record.entry);
+                            this.records++;
+                        }
+
+                        this.output.flush();
+
+                        if (this.records > 2L * this.capacity) {
+                            this.output.close();
+                            this.output = null;
+
+                            this.compact();
+                        }
+                    } catch (IOException exception) {
+                        exception.printStackTrace();
+                    }
+                }
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Rewrite the file.
+     *
+     * Writes one record per cached history to a new file, and replaces the
+     * old file with it.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    private synchronized void compact() throws IOException {
+        final File temporary = new File(this.file.getPath() + ".tmp");
+        long records = 0;
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            for (Segment segment : this.segments) {
+                final List<Map.Entry<UUID,Entry>> entries;
+
+                synchronized (segment) {
+                    entries = new ArrayList<>(segment.entrySet());
+                }
+
+                for (Map.Entry<UUID,Entry> entry : entries) {
+                    NameHistoryCache.write(output,entry.getKey(),entry.getValue());
+                    records++;
+                }
+            }
+        }
+
+        if (!this.file.delete() || !temporary.renameTo(this.file)) {
+            throw new IOException("Could not replace " + this.file);
+        }
+
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file,true)));
+        this.records = records;
+    }
+
+    /**
+     * Get the segment for a UUID.
+     *
+     * @param uuid The UUID.
+     * @return     The {@link Segment} it belongs in.
+     */
+    private Segment segment(final UUID uuid) {
+        final long hash = uuid.getMostSignificantBits() * 0x9e3779b97f4a7c15L ^ uuid.getLeastSignificantBits();
+
+        return this.segments[(int) (hash ^ (hash >>> 32)) & (NameHistoryCache.SEGMENTS - 1)];
+    }
+
+    /**
+     * Write a single record.
+     *
+     * @param output The stream to write to.
+     * @param uuid   UUID the history belongs to.
+     * @param entry  The {@link Entry} to write.
+     * @throws IOException If the record could not be written.
+     */
+    private static void write(final DataOutputStream output,final UUID uuid,final Entry entry) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+        output.writeInt(entry.getFetched());
+        output.writeShort(entry.getHistory().size());
+
+        for (int i = 0; i < entry.getHistory().size(); i++) {
+            output.writeInt(entry.getHistory().getTime(i));
+            output.writeUTF(entry.getHistory().getName(i));
+        }
+    }
+
+    /**
+     * A part of the cache.
+     *
+     * Keeps its histories in access order, and drops the least recently used
+     * one once it holds more than it may. Every method must be called with the
+     * lock on the segment held, which {@link #lookup(UUID)} and {@link #store(UUID, Entry)}
+     * take themselves.
+     */
+    private class Segment extends LinkedHashMap<UUID,Entry> {
+        private final int capacity;
+
+        private Segment(final int capacity) {
+            super(16,0.75F,true);
+
+            this.capacity = capacity;
+        }
+
+        private synchronized NameHistoryCache.Entry lookup(final UUID uuid) {
+            return this.get(uuid);
+        }
+
+        private synchronized void store(final UUID uuid,final NameHistoryCache.Entry entry) {
+            this.put(uuid,entry);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<UUID,NameHistoryCache.Entry> eldest) {
+            if (this.size() <= this.capacity) {
+                return false;
+            }
+
+            NameHistoryCache.this.evictions.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * A record waiting to be written.
+     */
+    private static class Record {
+        private final UUID uuid;
+        private final Entry entry;
+
+        private Record(final UUID uuid,final Entry entry) {
+            this.uuid = uuid;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * A cached history.
+     */
+    public static class Entry {
+        private final int fetched;
+        private final NameHistory history;
+
+        private Entry(final int fetched,final NameHistory history) {
+            this.fetched = fetched;
+            this.history = history;
+        }
+
+        public int getFetched() {
+            return this.fetched;
+        }
+
+        public NameHistory getHistory() {
+            return this.history;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package it.flaten.mjolnir.clients;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import it.flaten.mjolnir.NameHistory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client for the Mojang name history and profile endpoints.
+ *
+ * Concurrent lookups for the same UUID share a single request. Requests are
+ * limited both in concurrency and in rate, and have strict timeouts. After
+ * a number of consecutive failures the client stops asking for a while, and
+ * a UUID whose lookup failed is not asked for again until its retry time has
+ * passed. Failures are always reported as {@link IOException}s, so they are
+ * never mistaken for an empty history.
+ *
+ * @author Jim Flaten
+ */
+public class NameHistoryClient {
+    /**
+     * Endpoint URL, where %s is replaced with the UUID.
+     */
+    private final String url;
+
+    /**
+     * Profile endpoint URL, where %s is replaced with the name and %d with a
+     * UNIX time.
+     */
+    private final String profileUrl;
+
+    /**
+     * Connect and read timeouts, in milliseconds.
+     */
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * Number of consecutive failures that opens the circuit breaker, and the
+     * number of seconds it then stays open.
+     */
+    private final int failureThreshold;
+    private final int cooldown;
+
+    /**
+     * Number of seconds before a failed UUID is asked for again.
+     */
+    private final int retry;
+
+    /**
+     * Limits the number of requests in flight.
+     */
+    private final Semaphore concurrency;
+
+    /**
+     * Token bucket limiting the request rate.
+     *
+     * Guarded by the lock on {@link #rateLock}.
+     */
+    private final Object rateLock = new Object();
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    /**
+     * Requests in flight, keyed by UUID.
+     */
+    private final Map<UUID,FutureTask<NameHistory>> flightMap = new ConcurrentHashMap<>();
+
+    /**
+     * UNIX time until which failed UUIDs are not asked for again.
+     */
+    private final Map<UUID,Integer> retryMap = new ConcurrentHashMap<>();
+
+    /**
+     * Circuit breaker state.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private int failures = 0;
+    private int openUntil = 0;
+
+    /**
+     * Counters.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link NameHistoryClient}.
+     *
+     * @param url              Endpoint URL, where %s is replaced with the UUID.
+     * @param profileUrl       Profile endpoint URL, where %s is replaced with the name and %d with a UNIX time.
+     * @param connectTimeout   Connect timeout, in milliseconds.
+     * @param readTimeout      Read timeout, in milliseconds.
+     * @param concurrency      Maximum number of requests in flight.
+     * @param rate             Maximum number of requests per second.
+     * @param failureThreshold Number of consecutive failures that opens the circuit breaker.
+     * @param cooldown         Number of seconds the circuit breaker stays open.
+     * @param retry            Number of seconds before a failed UUID is asked for again.
+     */
+    public NameHistoryClient(final String url,final String profileUrl,final int connectTimeout,final int readTimeout,final int concurrency,final double rate,final int failureThreshold,final int cooldown,final int retry) {
+        this.url = url;
+        this.profileUrl = profileUrl;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.concurrency = new Semaphore(Math.max(1,concurrency));
+        this.rate = rate;
+        this.burst = Math.max(1.0,rate);
+        this.tokens = this.burst;
+        this.failureThreshold = Math.max(1,failureThreshold);
+        this.cooldown = cooldown;
+        this.retry = retry;
+    }
+
+    /**
+     * Fetch the name history for a given UUID.
+     *
+     * If a lookup for the same UUID is already in flight, waits for its result
+     * instead of asking again.
+     *
+     * @param uuid UUID to look up.
+     * @return     The {@link NameHistory}.
+     * @throws IOException If the history could not be fetched.
+     */
+    public NameHistory fetch(final UUID uuid) throws IOException {
+        final Integer retryAt = this.retryMap.get(uuid);
+
+        if (retryAt != null) {
+            if (retryAt > NameHistoryClient.now()) {
+                this.rejected.incrementAndGet();
+                throw new IOException("Recently failed to fetch name history for " + uuid);
+            }
+
+            this.retryMap.remove(uuid);
+        }
+
+        final FutureTask<NameHistory> task = new FutureTask<>(new Callable<NameHistory>() {
+            @Override
+            public NameHistory call() throws IOException {
+                return NameHistoryClient.this.request(uuid,new Callable<NameHistory>() {
+                    @Override
+                    public NameHistory call() throws IOException {
+                        return NameHistoryClient.this.read(uuid);
+                    }
+                });
+            }
+        });
+
+        FutureTask<NameHistory> flight = this.flightMap.putIfAbsent(uuid,task);
+
+        if (flight == null) {
+            flight = task;
+
+            try {
+                task.run();
+            } finally {
+                this.flightMap.remove(uuid,task);
+            }
+        } else {
+            this.coalesced.incrementAndGet();
+        }
+
+        try {
+            return flight.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching name history for " + uuid);
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+
+            throw new IOException(exception.getCause());
+        }
+    }
+
+    /**
+     * Find the UUID of the player who had a name at a given time.
+     *
+     * Subject to the same limits as {@link #fetch(UUID)}, but lookups are not
+     * shared, and a failed name may be asked for again right away.
+     *
+     * @param name The name to look up.
+     * @param time The UNIX time at which the name was in use.
+     * @return     The UUID, or null if nobody had the name at that time.
+     * @throws IOException If the lookup failed.
+     */
+    public UUID resolve(final String name,final int time) throws IOException {
+        return this.request(null,new Callable<UUID>() {
+            @Override
+            public UUID call() throws IOException {
+                return NameHistoryClient.this.readProfile(name,time);
+            }
+        });
+    }
+
+    /**
+     * Check if the circuit breaker is open.
+     *
+     * @return Whether or not requests are currently refused.
+     */
+    public synchronized boolean isOpen() {
+        return this.openUntil > NameHistoryClient.now();
+    }
+
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * Do a single request.
+     *
+     * @param uuid   UUID to look up, or null if the request is not for one.
+     * @param reader Reads the response.
+     * @return       What the reader returned.
+     * @throws IOException If the request failed.
+     */
+    private <T> T request(final UUID uuid,final Callable<T> reader) throws IOException {
+        if (this.isOpen()) {
+            this.rejected.incrementAndGet();
+            throw new IOException("Name history endpoint is unavailable");
+        }
+
+        this.acquireToken();
+
+        try {
+            if (!this.concurrency.tryAcquire(this.readTimeout,TimeUnit.MILLISECONDS)) {
+                this.rejected.incrementAndGet();
+                throw new IOException("Too many name history requests in flight");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the name history endpoint");
+        }
+
+        this.requests.incrementAndGet();
+
+        try {
+            final T result = reader.call();
+
+            this.succeeded();
+
+            return result;
+        } catch (Exception exception) {
+            this.errors.incrementAndGet();
+            this.failed(uuid);
+
+            throw exception instanceof IOException ? (IOException) exception : new IOException(exception);
+        } finally {
+            this.concurrency.release();
+        }
+    }
+
+    /**
+     * Read a history from the endpoint.
+     *
+     * A 204 response means the UUID has no history.
+     *
+     * @param uuid UUID to look up.
+     * @return     The {@link NameHistory}.
+     * @throws IOException If the history could not be fetched.
+     */
+    private NameHistory read(final UUID uuid) throws IOException {
+        final Map<Integer,String> history = new HashMap<>();
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(String.format(this.url,uuid)).openConnection();
+        connection.setConnectTimeout(this.connectTimeout);
+        connection.setReadTimeout(this.readTimeout);
+
+        try {
+            connection.connect();
+
+            final int status = connection.getResponseCode();
+
+            if (status == HttpURLConnection.HTTP_NO_CONTENT) {
+                return NameHistory.EMPTY;
+            }
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Name history endpoint responded with " + status);
+            }
+
+            try (InputStreamReader reader = new InputStreamReader((InputStream) connection.getContent(),"UTF-8")) {
+                final JsonElement root = new JsonParser().parse(reader);
+
+                for (JsonElement entry : root.getAsJsonArray()) {
+                    final JsonObject object = entry.getAsJsonObject();
+
+                    history.put(
+                        object.get("changedToAt") == null ? 0 : (int) (object.get("changedToAt").getAsLong() / 1000L),
+                        object.get("name").getAsString()
+                    );
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        return NameHistory.of(history);
+    }
+
+    /**
+     * Read a profile from the profile endpoint.
+     *
+     * A 204 response means nobody had the name at that time.
+     *
+     * @param name The name to look up.
+     * @param time The UNIX time at which the name was in use.
+     * @return     The UUID of the profile, or null.
+     * @throws IOException If the profile could not be fetched.
+     */
+    private UUID readProfile(final String name,final int time) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(String.format(this.profileUrl,name,time)).openConnection();
+        connection.setConnectTimeout(this.connectTimeout);
+        connection.setReadTimeout(this.readTimeout);
+
+        try {
+            connection.connect();
+
+            final int status = connection.getResponseCode();
+
+            if (status == HttpURLConnection.HTTP_NO_CONTENT) {
+                return null;
+            }
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Profile endpoint responded with " + status);
+            }
+
+            try (InputStreamReader reader = new InputStreamReader((InputStream) connection.getContent(),"UTF-8")) {
+                final String id = new JsonParser().parse(reader).getAsJsonObject().get("id").getAsString();
+
+                if (id.length() != 32) {
+                    throw new IOException("Malformed profile id " + id);
+                }
+
+                return UUID.fromString(
+                    id.substring(0,8) + "-" + id.substring(8,12) + "-" + id.substring(12,16) + "-" + id.substring(16,20) + "-" + id.substring(20)
+                );
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Take a token from the bucket.
+     *
+     * Waits for a token for at most the read timeout.
+     *
+     * @throws IOException If no token became available in time.
+     */
+    private void acquireToken() throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.readTimeout);
+
+        while (true) {
+            final long wait;
+
+            synchronized (this.rateLock) {
+                final long now = System.nanoTime();
+
+                this.tokens = Math.min(this.burst,this.tokens + (now - this.refilled) / 1e9 * this.rate);
+                this.refilled = now;
+
+                if (this.tokens >= 1.0) {
+                    this.tokens -= 1.0;
+                    return;
+                }
+
+                wait = (long) ((1.0 - this.tokens) / this.rate * 1e9);
+
+                if (now + wait > deadline) {
+                    this.rejected.incrementAndGet();
+                    throw new IOException("Name history request rate exceeded");
+                }
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to fetch name history");
+            }
+        }
+    }
+
+    /**
+     * Record a successful request.
+     */
+    private synchronized void succeeded() {
+        this.failures = 0;
+    }
+
+    /**
+     * Record a failed request.
+     *
+     * @param uuid UUID the request was for, or null if it was not for one.
+     */
+    private synchronized void failed(final UUID uuid) {
+        final int now = NameHistoryClient.now();
+
+        if (uuid != null) {
+            if (this.retryMap.size() >= 1024) {
+                for (Map.Entry<UUID,Integer> entry : this.retryMap.entrySet()) {
+                    if (entry.getValue() <= now) {
+                        this.retryMap.remove(entry.getKey());
+                    }
+                }
+            }
+
+            this.retryMap.put(uuid,now + this.retry);
+        }
+
+        if (++this.failures >= this.failureThreshold) {
+            this.openUntil = now + this.cooldown;
+            this.failures = 0;
+        }
+    }
+
+    /**
+     * Get the current UNIX time.
+     *
+     * @return The current UNIX time.
+     */
+    private static int now() {
+        return (int) (System.currentTimeMillis() / 1000L);
+    }
+}
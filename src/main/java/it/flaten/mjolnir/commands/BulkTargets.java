@@ -0,0 +1,99 @@
+package it.flaten.mjolnir.commands;
+
+import it.flaten.mjolnir.Mjolnir;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import java.io.*;
+import java.util.*;
+
+class BulkTargets {
+    private BulkTargets() {
+    }
+
+    static Set<String> parse(final Mjolnir plugin,final CommandSender sender,final String argument) {
+        final Collection<String> names;
+
+        if (argument.startsWith("recent:")) {
+            int seconds;
+
+            try {
+                seconds = Mjolnir.parseTime(argument.substring(7)) - (int) (System.currentTimeMillis() / 1000L);
+            } catch (NumberFormatException exception) {
+                seconds = -1;
+            }
+
+            if (seconds <= 0) {
+                sender.sendMessage(ChatColor.RED + "Invalid time: " + argument.substring(7));
+                return null;
+            }
+
+            names = plugin.getSessions().getRecent(seconds);
+        } else if (argument.startsWith("file:")) {
+            names = BulkTargets.read(plugin,sender,argument.substring(5));
+
+            if (names == null) {
+                return null;
+            }
+        } else {
+            names = Arrays.asList(argument.split(","));
+        }
+
+        final Set<String> targets = new LinkedHashSet<>();
+
+        for (String name : names) {
+            if (name.length() == 0) {
+                continue;
+            }
+
+            final String target = plugin.getTarget(name);
+
+            if (target == null) {
+                sender.sendMessage(ChatColor.RED + "Unknown player: " + name);
+                continue;
+            }
+
+            targets.add(target);
+        }
+
+        return targets;
+    }
+
+    private static List<String> read(final Mjolnir plugin,final CommandSender sender,final String name) {
+        final File folder = plugin.getDataFolder();
+        final File file = new File(folder,name);
+
+        try {
+            if (!file.getCanonicalPath().startsWith(folder.getCanonicalPath() + File.separator)) {
+                sender.sendMessage(ChatColor.RED + "Files must be in " + folder.getPath() + ".");
+                return null;
+            }
+        } catch (IOException exception) {
+            sender.sendMessage(ChatColor.RED + "Invalid file: " + name);
+            return null;
+        }
+
+        final List<String> names = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),"UTF-8"))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final int comment = line.indexOf('#');
+
+                if (comment >= 0) {
+                    line = line.substring(0,comment);
+                }
+
+                for (String entry : line.trim().split("[\\s,]+")) {
+                    names.add(entry);
+                }
+            }
+        } catch (IOException exception) {
+            sender.sendMessage(ChatColor.RED + "Could not read " + file.getPath() + ": " + exception.getMessage());
+            return null;
+        }
+
+        return names;
+    }
+}
@@ -2,18 +2,28 @@ package it.flaten.mjolnir.commands;
 
 import it.flaten.mjolnir.Mjolnir;
 import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.templates.DateFormatter;
 import org.bukkit.ChatColor;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class InfoCommand implements CommandExecutor {
     final private Mjolnir plugin;
 
+    /**
+     * Known page cursors.
+     *
+     * For every sender and player, the id each page starts after. Lets a
+     * sender step through pages without the storage having to skip rows.
+     */
+    final private ConcurrentMap<String,List<Integer>> cursorMap = new ConcurrentHashMap<>();
+
     public InfoCommand(final Mjolnir plugin) {
         this.plugin = plugin;
     }
@@ -24,37 +34,185 @@ public class InfoCommand implements CommandExecutor {
             return false;
         }
 
-        final OfflinePlayer player = this.plugin.getServer().getOfflinePlayer(args[0]);
+        final String player = this.plugin.getTarget(args[0]);
 
         if (player == null) {
             sender.sendMessage(ChatColor.RED + "Unknown player.");
             return true;
         }
 
-        final List<Event> events = this.plugin.getEventHistory(player.getName());
+        final int page;
 
-        if (events == null || events.size() == 0) {
-            sender.sendMessage(ChatColor.GRAY + "No history.");
-            return true;
+        try {
+            page = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        } catch (NumberFormatException exception) {
+            return false;
+        }
+
+        if (page < 1) {
+            return false;
+        }
+
+        this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin,new Runnable() {
+            @Override
+            public void run() {
+                final List<String> lines = InfoCommand.this.render(sender.getName(),player,page,label);
+
+                InfoCommand.this.plugin.getServer().getScheduler().runTask(InfoCommand.this.plugin,new Runnable() {
+                    @Override
+                    public void run() {
+                        for (String line : lines) {
+                            sender.sendMessage(line);
+                        }
+                    }
+                });
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Build one page of history.
+     *
+     * Runs off the server thread.
+     *
+     * @param sender The name of the sender asking.
+     * @param player The name of the player whose history to show.
+     * @param page   The page to show, starting at 1.
+     * @param label  The command label used, for the next page hint.
+     * @return       The lines to send.
+     */
+    private List<String> render(final String sender,final String player,final int page,final String label) {
+        final List<String> lines = new ArrayList<>();
+        final int pageSize = Math.max(1,this.plugin.getConfig().getInt("info.page-size"));
+        final int count = this.plugin.countEventHistory(player);
+
+        if (count == 0) {
+            lines.add(ChatColor.GRAY + "No history.");
+            return lines;
+        }
+
+        final int pages = (count + pageSize - 1) / pageSize;
+
+        if (page > pages) {
+            lines.add(ChatColor.RED + "There are only " + pages + " pages.");
+            return lines;
+        }
+
+        final List<Event> events = this.plugin.getEventHistory(player,this.cursor(sender,player,page,pageSize),pageSize);
+
+        if (events.size() > 0) {
+            this.remember(sender,player,page + 1,events.get(events.size() - 1).getId());
         }
 
-        sender.sendMessage(ChatColor.GOLD + " ==== History for " + player.getName() + " ====");
+        lines.add(ChatColor.GOLD + " ==== History for " + player + " (" + page + "/" + pages + ") ====");
 
         final int now = (int) (System.currentTimeMillis() / 1000L);
 
-        final SimpleDateFormat dateFormat = new SimpleDateFormat(
-            this.plugin.getConfig().getString("info.timestamp.format")
-        );
+        final DateFormatter dateFormat = this.plugin.getInfoFormatter();
+        final StringBuilder line = new StringBuilder(128);
 
         for (Event event : events) {
-            sender.sendMessage(
-                ChatColor.GRAY +
-                "[" + dateFormat.format(event.getTime() * 1000L) + "] " +
-                this.plugin.buildBroadcastMessage(event) +
-                (event.getExpires() > 0 && event.getExpires() <= now ? ChatColor.RED + " (expired)" : "")
-            );
+            line.setLength(0);
+            line.append(ChatColor.GRAY).append('[').append(dateFormat.format(event.getTime())).append("] ");
+
+            this.plugin.buildBroadcastMessage(event,line);
+
+            if (event.getExpires() > 0 && event.getExpires() <= now) {
+                line.append(ChatColor.RED).append(" (expired)");
+            }
+
+            lines.add(line.toString());
         }
 
-        return true;
+        if (page < pages) {
+            lines.add(ChatColor.GRAY + "Type /" + label + " " + player + " " + (page + 1) + " for the next page.");
+        }
+
+        return lines;
+    }
+
+    /**
+     * Find the id a page starts after.
+     *
+     * Uses a remembered cursor if there is one. Otherwise, steps forward from
+     * the closest page we know of.
+     *
+     * @param sender   The name of the sender asking.
+     * @param player   The name of the player whose history to show.
+     * @param page     The page, starting at 1.
+     * @param pageSize The number of {@link Event}s per page.
+     * @return         The id the page starts after.
+     */
+    private int cursor(final String sender,final String player,final int page,final int pageSize) {
+        final List<Integer> cursors = this.cursors(sender,player);
+
+        synchronized (cursors) {
+            if (page == 1) {
+                cursors.clear();
+                cursors.add(0);
+            }
+
+            while (cursors.size() < page) {
+                final List<Event> events = this.plugin.getEventHistory(player,cursors.get(cursors.size() - 1),pageSize);
+
+                if (events.size() == 0) {
+                    break;
+                }
+
+                cursors.add(events.get(events.size() - 1).getId());
+            }
+
+            return cursors.get(Math.min(page,cursors.size()) - 1);
+        }
+    }
+
+    /**
+     * Remember the id a page starts after.
+     *
+     * @param sender The name of the sender asking.
+     * @param player The name of the player whose history is shown.
+     * @param page   The page, starting at 1.
+     * @param after  The id the page starts after.
+     */
+    private void remember(final String sender,final String player,final int page,final int after) {
+        final List<Integer> cursors = this.cursors(sender,player);
+
+        synchronized (cursors) {
+            if (cursors.size() == page - 1) {
+                cursors.add(after);
+            }
+        }
+    }
+
+    /**
+     * Get the known cursors for a sender and player.
+     *
+     * @param sender The name of the sender asking.
+     * @param player The name of the player whose history is shown.
+     * @return       The cursors, by page.
+     */
+    private List<Integer> cursors(final String sender,final String player) {
+        final String key = sender.toLowerCase() + ":" + player.toLowerCase();
+
+        List<Integer> cursors = this.cursorMap.get(key);
+
+        if (cursors == null) {
+            if (this.cursorMap.size() > 256) {
+                this.cursorMap.clear();
+            }
+
+            cursors = new ArrayList<>();
+            cursors.add(0);
+
+            final List<Integer> existing = this.cursorMap.putIfAbsent(key,cursors);
+
+            if (existing != null) {
+                cursors = existing;
+            }
+        }
+
+        return cursors;
     }
 }
@@ -0,0 +1,57 @@
+package it.flaten.mjolnir.commands;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import org.apache.commons.lang.StringUtils;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+import java.util.Set;
+
+public class MassUnbanCommand implements CommandExecutor {
+    private final Mjolnir plugin;
+
+    public MassUnbanCommand(final Mjolnir plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(final CommandSender sender,final Command command,final String label,final String[] args) {
+        if (args.length == 0) {
+            return false;
+        }
+
+        final Set<String> players = BulkTargets.parse(this.plugin,sender,args[0]);
+
+        if (players == null) {
+            return true;
+        }
+
+        if (players.size() == 0) {
+            sender.sendMessage(ChatColor.RED + "No players to unban.");
+            return true;
+        }
+
+        // Unban, with or without a reason.
+        final List<Event> events = this.plugin.saveEvents(
+            players,
+            sender.getName(),
+            Event.EventType.UNBAN,
+            args.length == 1 ? "" : StringUtils.join(args," ",1,args.length),
+            0
+        );
+
+        this.plugin.broadcast(events);
+
+        sender.sendMessage(ChatColor.GRAY + "Unbanned " + events.size() + " of " + players.size() + " players.");
+
+        if (events.size() < players.size()) {
+            sender.sendMessage(ChatColor.GRAY + "The rest were not banned, or the unban was cancelled.");
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+package it.flaten.mjolnir.commands;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.metrics.Gauge;
+import it.flaten.mjolnir.metrics.Histogram;
+import it.flaten.mjolnir.providers.ProviderStats;
+import it.flaten.mjolnir.tasks.MigrationTask;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import javax.persistence.PersistenceException;
+import java.util.Map;
+
+public class MjolnirCommand implements CommandExecutor {
+    private final Mjolnir plugin;
+
+    public MjolnirCommand(final Mjolnir plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(final CommandSender sender,final Command command,final String label,final String[] args) {
+        if (args.length == 0) {
+            return false;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "rebuild":
+                return this.rebuild(sender);
+
+            case "migrate":
+                return this.migrate(sender,args);
+
+            case "providers":
+                return this.providers(sender,args);
+
+            case "stats":
+                return this.stats(sender);
+
+            default:
+                return false;
+        }
+    }
+
+    private boolean rebuild(final CommandSender sender) {
+        sender.sendMessage(ChatColor.GRAY + "Rebuilding storage state...");
+
+        this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin,new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.currentTimeMillis();
+
+                String message;
+
+                try {
+                    final int read = MjolnirCommand.this.plugin.rebuild();
+
+                    message = ChatColor.GREEN + "Rebuilt storage state from " + read + " events in " + (System.currentTimeMillis() - start) + " ms.";
+                } catch (PersistenceException exception) {
+                    exception.printStackTrace();
+
+                    message = ChatColor.RED + "Failed to rebuild storage state: " + exception.getMessage();
+                }
+
+                final String result = message;
+
+                MjolnirCommand.this.plugin.getServer().getScheduler().runTask(MjolnirCommand.this.plugin,new Runnable() {
+                    @Override
+                    public void run() {
+                        sender.sendMessage(result);
+                    }
+                });
+            }
+        });
+
+        return true;
+    }
+
+    private boolean migrate(final CommandSender sender,final String[] args) {
+        final MigrationTask migration = this.plugin.getMigration();
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("restart")) {
+            if (!migration.reset()) {
+                sender.sendMessage(ChatColor.RED + "The UUID migration is running, try again when it is done.");
+                return true;
+            }
+
+            sender.sendMessage(ChatColor.GREEN + "Restarting the UUID migration from the first event.");
+        }
+
+        if (!migration.isRunning()) {
+            this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin,migration);
+        }
+
+        sender.sendMessage(ChatColor.GOLD + " ==== UUID migration ====");
+        sender.sendMessage(ChatColor.GRAY + "Last event: #" + migration.getLastId());
+        sender.sendMessage(ChatColor.GRAY + "Stamped: " + migration.getStamped() + ", unresolved: " + migration.getUnresolved());
+        sender.sendMessage(ChatColor.GRAY + "Caught up: " + (migration.isCaughtUp() ? "yes" : "no") + ", running: yes");
+
+        return true;
+    }
+
+    private boolean providers(final CommandSender sender,final String[] args) {
+        if (args.length > 1 && args[1].equalsIgnoreCase("clear")) {
+            this.plugin.getProviders().invalidateAll();
+
+            sender.sendMessage(ChatColor.GREEN + "Cleared cached provider results.");
+            return true;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + " ==== Ban providers ====");
+
+        for (Map.Entry<String,ProviderStats> entry : this.plugin.getProviders().getStats().entrySet()) {
+            final ProviderStats stats = entry.getValue();
+
+            sender.sendMessage(String.format(
+                ChatColor.GRAY + "%s: %d calls, %d bans, %d timeouts, %d errors, %.1f ms mean, %.1f ms max",
+                entry.getKey(),
+                stats.getCalls(),
+                stats.getBans(),
+                stats.getTimeouts(),
+                stats.getErrors(),
+                stats.getMeanMillis(),
+                stats.getMaxMillis()
+            ));
+        }
+
+        return true;
+    }
+
+    private boolean stats(final CommandSender sender) {
+        sender.sendMessage(ChatColor.GOLD + " ==== Timers ====");
+
+        for (Map.Entry<String,Histogram> entry : this.plugin.getMetrics().getTimers().entrySet()) {
+            final Histogram timer = entry.getValue();
+
+            if (timer.getCount() == 0) {
+                continue;
+            }
+
+            sender.sendMessage(String.format(
+                ChatColor.GRAY + "%s: %d calls, %.2f ms p50, %.2f ms p99, %.2f ms max",
+                entry.getKey(),
+                timer.getCount(),
+                timer.getP50Millis(),
+                timer.getP99Millis(),
+                timer.getMaxMillis()
+            ));
+        }
+
+        sender.sendMessage(ChatColor.GOLD + " ==== Gauges ====");
+
+        for (Map.Entry<String,Gauge> entry : this.plugin.getMetrics().getGauges().entrySet()) {
+            final double value = entry.getValue().getValue();
+
+            sender.sendMessage(ChatColor.GRAY + entry.getKey() + ": " + (value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.4f",value)));
+        }
+
+        return true;
+    }
+}
@@ -4,7 +4,6 @@ import it.flaten.mjolnir.Mjolnir;
 import it.flaten.mjolnir.beans.Event;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.ChatColor;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -22,22 +21,22 @@ public class TempUnbanCommand implements CommandExecutor {
             return false;
         }
 
-        final OfflinePlayer player = this.plugin.getServer().getOfflinePlayer(args[0]);
+        final String player = this.plugin.getTarget(args[0]);
 
         if (player == null) {
             sender.sendMessage(ChatColor.RED + "Unknown player.");
             return true;
         }
 
-        if (!this.plugin.isBanned(player.getName())) {
-            sender.sendMessage(ChatColor.RED + player.getName() + " is not banned. Cannot unban.");
+        if (!this.plugin.isBanned(player)) {
+            sender.sendMessage(ChatColor.RED + player + " is not banned. Cannot unban.");
             return true;
         }
 
         // Unban, no reason.
         if (args.length == 2) {
             Event event = this.plugin.tempUnbanPlayer(
-                player.getName(),
+                player,
                 sender.getName(),
                 args[1]
             );
@@ -51,7 +50,7 @@ public class TempUnbanCommand implements CommandExecutor {
 
         // Unban.
         Event event = this.plugin.tempUnbanPlayer(
-            player.getName(),
+            player,
             sender.getName(),
             StringUtils.join(args," ",2,args.length),
             args[1]
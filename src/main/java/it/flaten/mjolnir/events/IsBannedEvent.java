@@ -20,6 +20,12 @@ public class IsBannedEvent extends org.bukkit.event.Event {
     private Event event;
 
     public IsBannedEvent(final String player) {
+        this(player,false);
+    }
+
+    public IsBannedEvent(final String player,final boolean async) {
+        super(async);
+
         this.player = player;
     }
 
@@ -1,15 +1,29 @@
 package it.flaten.mjolnir.listeners;
 
 import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.NameHistory;
 import it.flaten.mjolnir.beans.Event;
-import it.flaten.mjolnir.tasks.PlayerTask;
+import it.flaten.mjolnir.metrics.Histogram;
+import it.flaten.mjolnir.sessions.Session;
+import org.bukkit.ChatColor;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 
 /**
  * {@link Listener} for {@link org.bukkit.entity.Player} related events.
@@ -25,11 +39,28 @@ public class PlayerListener implements Listener {
     private final Mjolnir plugin;
 
     /**
-     * Task ID map.
+     * Login timer.
      *
-     * A place to store players' task IDs.
+     * Records how long {@link #onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent)}
+     * holds up each connecting player.
      */
-    private final Map<String,Integer> taskMap = new HashMap<>();
+    private final Histogram loginTimer;
+
+    /**
+     * {@link Session}s opened for pre-login events not yet cleaned up after.
+     *
+     * Lets {@link #onAsyncPlayerPreLoginMonitor(AsyncPlayerPreLoginEvent)}
+     * close the {@link Session} opened for its own event, and not a newer one
+     * opened for the same name meanwhile.
+     */
+    private final Map<AsyncPlayerPreLoginEvent,Session> preLoginMap = new ConcurrentHashMap<>();
+
+    /**
+     * {@link Session}s used by login events not yet cleaned up after.
+     *
+     * Only touched from the server thread.
+     */
+    private final Map<PlayerLoginEvent,Session> loginMap = new HashMap<>();
 
     /**
      * Constructor.
@@ -40,89 +71,356 @@ public class PlayerListener implements Listener {
      */
     public PlayerListener(final Mjolnir plugin) {
         this.plugin = plugin;
+        this.loginTimer = plugin.getMetrics().timer("login");
+    }
+
+    /**
+     * Handle async player pre-login event.
+     *
+     * Opens a {@link Session} for the connecting player, runs the ban check on
+     * the login executor, and waits at most the configured amount of time for
+     * it. The result is kept in the {@link Session} for {@link #onPlayerLogin(PlayerLoginEvent)}.
+     *
+     * @param event An {@link AsyncPlayerPreLoginEvent} passed from the Bukkit server.
+     */
+    @EventHandler
+    public void onAsyncPlayerPreLogin(final AsyncPlayerPreLoginEvent event) {
+        final long start = System.nanoTime();
+
+        try {
+            this.gate(event);
+        } finally {
+            this.loginTimer.since(start);
+        }
+    }
+
+    /**
+     * Run the ban check for a connecting player.
+     *
+     * Does the work of {@link #onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent)},
+     * which times it.
+     *
+     * @param event An {@link AsyncPlayerPreLoginEvent} passed from the Bukkit server.
+     */
+    private void gate(final AsyncPlayerPreLoginEvent event) {
+        final String player = event.getName();
+        final Session session = this.plugin.getSessions().open(player,event.getUniqueId(),event.getAddress());
+
+        this.preLoginMap.put(event,session);
+
+        final Future<Event> future;
+
+        try {
+            future = this.plugin.getLoginExecutor().submit(new Callable<Event>() {
+                @Override
+                public Event call() {
+                    return PlayerListener.this.check(session);
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            this.plugin.getLogger().warning("Ban check for " + player + " was rejected, the login queue is full!");
+
+            this.undecided(session);
+            return;
+        }
+
+        try {
+            final Event why = future.get(this.plugin.getConfig().getLong("login.timeout"),TimeUnit.MILLISECONDS);
+
+            if (why != null) {
+                session.deny(why,this.plugin.buildKickMessage(why));
+            }
+        } catch (TimeoutException exception) {
+            future.cancel(true);
+
+            this.plugin.getLogger().warning("Ban check for " + player + " timed out!");
+
+            this.undecided(session);
+        } catch (InterruptedException exception) {
+            future.cancel(true);
+
+            Thread.currentThread().interrupt();
+
+            this.plugin.getLogger().warning("Ban check for " + player + " was interrupted!");
+
+            this.undecided(session);
+        } catch (ExecutionException exception) {
+            this.plugin.getLogger().log(Level.WARNING,"Ban check for " + player + " failed!",exception.getCause());
+
+            this.undecided(session);
+        }
+    }
+
+    /**
+     * Handle a ban check that did not finish in time, or at all.
+     *
+     * Refuses the player with the configured message if login.deny-on-timeout
+     * is set, and lets them in otherwise.
+     *
+     * @param session The {@link Session} of the connecting player.
+     */
+    private void undecided(final Session session) {
+        if (this.plugin.getConfig().getBoolean("login.deny-on-timeout")) {
+            session.deny(
+                null,
+                this.plugin.getConfig().getString("login.timeout-message").replace("&",String.valueOf(ChatColor.COLOR_CHAR))
+            );
+        }
+    }
+
+    /**
+     * Clean up after async player pre-login event.
+     *
+     * If another plugin refused the connection, {@link #onPlayerLogin(PlayerLoginEvent)}
+     * will never run for it, so the {@link Session} opened for it is closed
+     * here. If the player is let through but never logs in, the {@link Session}
+     * is left for {@link it.flaten.mjolnir.sessions.SessionRegistry#expire(int)}.
+     *
+     * @param event An {@link AsyncPlayerPreLoginEvent} passed from the Bukkit server.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLoginMonitor(final AsyncPlayerPreLoginEvent event) {
+        final Session session = this.preLoginMap.remove(event);
+
+        if (session != null && event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            this.plugin.getSessions().close(session);
+        }
     }
 
     /**
      * Handle player login event.
      *
-     * Checks whether or not the connecting player is banned in Mjölnir. Kicks
-     * with the configured message if so.
+     * Kicks the connecting player with the configured message if the check
+     * done in {@link #onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent)} found
+     * them banned. Storage is never touched here. A player who somehow has no
+     * {@link Session} is given one, and let in.
      *
      * @param event A {@link PlayerLoginEvent} passed from the Bukkit server.
      */
     @EventHandler
     public void onPlayerLogin(final PlayerLoginEvent event) {
-        String player = event.getPlayer().getName();
+        final String player = event.getPlayer().getName();
 
         /**
-         * Check if the player is banned.
+         * Check if the player was found banned.
          *
          * Kick with the appropriate message if so.
          */
-        if (this.plugin.isBanned(player)) {
-            event.setKickMessage(this.plugin.buildKickMessage(this.plugin.why(player)));
-            event.setResult(PlayerLoginEvent.Result.KICK_BANNED);
+        final Session session = this.plugin.getSessions().getConnecting(player);
+
+        if (session == null) {
+            this.loginMap.put(event,this.plugin.getSessions().open(player,event.getPlayer().getUniqueId(),event.getAddress()));
             return;
         }
 
-        /**
-         * Check if any of the player's previous names where banned while they were
-         * using it.
-         */
-        Map<Integer, String> history = this.plugin.getNameHistory(event.getPlayer().getUniqueId());
-        for (int ts : history.keySet()) {
-            String previousName = history.get(ts);
+        this.loginMap.put(event,session);
 
-            if (this.plugin.isBanned(previousName)) {
-                Event previousEvent = this.plugin.getActiveEvent(previousName);
+        if (session.getKickMessage() != null) {
+            event.setKickMessage(session.getKickMessage());
+            event.setResult(PlayerLoginEvent.Result.KICK_BANNED);
+        }
+    }
 
-                if (this.plugin.hadNameAtTime(event.getPlayer().getUniqueId(), previousName, previousEvent.getTime())) {
-                    event.setKickMessage(this.plugin.buildKickMessage(this.plugin.why(previousName)));
-                    event.setResult(PlayerLoginEvent.Result.KICK_BANNED);
-                    return;
-                }
-            }
+    /**
+     * Clean up after player login event.
+     *
+     * A player refused here, by us or by another plugin, never joins, and so
+     * never quits either. The {@link Session} used for them is closed here.
+     * A player let in has joined, and their {@link Session} is kept until they
+     * quit.
+     *
+     * @param event A {@link PlayerLoginEvent} passed from the Bukkit server.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLoginMonitor(final PlayerLoginEvent event) {
+        final Session session = this.loginMap.remove(event);
+
+        if (session == null) {
+            return;
         }
 
-        /**
-         * Start the player's task.
-         *
-         * This will make sure the player is kicked if a temporary unban expires, or
-         * if a ban is added externally.
-         */
-        this.taskMap.put(
-            player,
-            this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin,new PlayerTask(this.plugin,player),20 * 60,20 * 60)
-        );
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) {
+            this.plugin.getSessions().join(session);
+        } else {
+            this.plugin.getSessions().close(session);
+        }
     }
 
     /**
      * Handle player quit event.
      *
-     * Removes the player from the {@link Mjolnir#why(String)} {@link it.flaten.mjolnir.beans.Event} cache.
+     * Closes the player's {@link Session}, along with the {@link Mjolnir#why(String)}
+     * {@link Event} kept in it. A {@link Session} that has not joined yet
+     * belongs to a new connection under the same name, which made the server
+     * kick this player, and is left open.
      *
      * @param event A {@link PlayerQuitEvent} passed from the Bukkit server.
      */
     @EventHandler
     public void onPlayerQuit(final PlayerQuitEvent event) {
-        String player = event.getPlayer().getName();
+        final Session session = this.plugin.getSessions().get(event.getPlayer().getName());
 
-        /**
-         * Stop the player's task.
-         */
-        this.plugin.getServer().getScheduler().cancelTask(this.taskMap.get(player));
+        if (session != null && session.hasJoined()) {
+            this.plugin.getSessions().close(session);
+        }
+    }
+
+    /**
+     * Check if a connecting player is banned.
+     *
+     * Checks the player's address first, against every banned range covering
+     * it, and then the player's UUID, which finds {@link Event}s made under any
+     * name. Then checks the player's current name, and any of the
+     * player's previous names that were banned while they were using it, for
+     * {@link Event}s made before UUIDs were known. Of all these, the newest
+     * {@link Event} decides. Once the UUID migration has
+     * caught up, previous names are no longer looked up. All names are looked
+     * up in storage in a single round trip, and those not banned there are
+     * looked up by external providers all at once, under a single deadline.
+     * Finally the current name is matched against all banned name patterns
+     * at once. If the player is let in while a
+     * temporary {@link Event} is active, the {@link it.flaten.mjolnir.tasks.ExpiryTask}
+     * will check them again when it expires. Runs on the login executor.
+     *
+     * @param session The {@link Session} of the connecting player.
+     * @return        The {@link Event} that bans the player, or null.
+     */
+    private Event check(final Session session) {
+        final String player = session.getName();
+        final UUID uuid = session.getUniqueId();
+        final InetAddress address = session.getAddress();
+
+        final Event blocked = address == null ? null : this.plugin.getActiveEvent(address);
+
+        if (blocked != null && blocked.getType() == Event.EventType.BAN) {
+            session.setEvent(blocked);
+            return blocked;
+        }
+
+        if (blocked != null && blocked.getExpires() > 0) {
+            this.plugin.getExpiryTask().schedule(player,blocked.getExpires());
+        }
+
+        final Event stamped = this.plugin.getActiveEvent(uuid);
+
+        final NameHistory history = this.plugin.isMigrated() ? NameHistory.EMPTY : this.plugin.getNameHistory(uuid);
+        session.setHistory(history);
+
+        final Set<String> names = new LinkedHashSet<>();
+        names.add(player);
+        names.addAll(history.getNames());
+
+        final Map<String,Event> events = this.plugin.getActiveEvents(names);
 
         /**
-         * Remove the task ID from memory.
+         * The newest event made for the player decides, whether it was found
+         * by UUID or by a name they had at the time, so an unban made by name
+         * lifts an older ban stamped with the UUID, and the other way around.
+         * Events by name carrying a UUID were found by UUID, or belong to
+         * someone else who had the name.
          */
-        this.taskMap.remove(player);
+        Event newest = stamped;
+
+        for (String name : names) {
+            final Event event = events.get(name.toLowerCase());
+
+            if (event == null || event.getUniqueId() != null) {
+                continue;
+            }
+
+            if (!name.equals(player) && !history.hadNameAt(name,event.getTime())) {
+                continue;
+            }
+
+            if (newest == null || PlayerListener.isNewer(event,newest)) {
+                newest = event;
+            }
+        }
+
+        if (newest != null && newest.getType() == Event.EventType.BAN) {
+            session.setEvent(newest);
+            return newest;
+        }
+
+        final List<String> unbanned = this.unbanned(names,events);
+        final Map<String,Event> external = unbanned.size() == 0 ? Collections.<String,Event>emptyMap() : this.plugin.getExternalBans(unbanned);
+
+        for (String name : names) {
+            final Event event = external.get(name.toLowerCase());
+
+            if (event == null) {
+                continue;
+            }
+
+            if (name.equals(player) || history.hadNameAt(name,event.getTime())) {
+                session.setEvent(event);
+                return event;
+            }
+        }
+
+        final Event active = events.get(player.toLowerCase());
 
         /**
-         * Remove the {@link Event} stored for this player.
+         * Banned patterns only apply to players without an active event of
+         * their own, so unbanning a name makes an exception to a pattern.
          */
-        this.plugin.why(
-            player,
-            null
-        );
+        if (stamped == null && (active == null || active.getUniqueId() != null)) {
+            final Event matched = this.plugin.getPatternEvent(player);
+
+            if (matched != null) {
+                session.setEvent(matched);
+                return matched;
+            }
+        }
+
+        if (newest != null && newest.getExpires() > 0) {
+            this.plugin.getExpiryTask().schedule(player,newest.getExpires());
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the names without a stored ban of their own.
+     *
+     * @param names  The names of the player.
+     * @param events A {@link Map} of lowercased names to active {@link Event}s.
+     * @return       The names to ask external providers about.
+     */
+    private List<String> unbanned(final Set<String> names,final Map<String,Event> events) {
+        final List<String> unbanned = new ArrayList<>();
+
+        for (String name : names) {
+            final Event event = events.get(name.toLowerCase());
+
+            if (event == null || event.getUniqueId() != null || event.getType() != Event.EventType.BAN) {
+                unbanned.add(name);
+            }
+        }
+
+        return unbanned;
+    }
+
+    /**
+     * Check if an {@link Event} was made after another.
+     *
+     * Written {@link Event}s are compared by id, which follows the order they
+     * were made in. {@link Event}s not written yet have no id, and are newer
+     * than any that have.
+     *
+     * @param event The {@link Event} to check.
+     * @param other The {@link Event} to compare it with.
+     * @return      Whether or not the first {@link Event} is the newer one.
+     */
+    private static boolean isNewer(final Event event,final Event other) {
+        if (event.getId() > 0 && other.getId() > 0) {
+            return event.getId() > other.getId();
+        }
+
+        if (event.getId() != other.getId()) {
+            return event.getId() == 0;
+        }
+
+        return event.getTime() > other.getTime();
     }
 }
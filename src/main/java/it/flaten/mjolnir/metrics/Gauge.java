@@ -0,0 +1,19 @@
+package it.flaten.mjolnir.metrics;
+
+/**
+ * A value read when it is reported.
+ *
+ * Used for counters and ratios kept by other classes, such as cache hits.
+ *
+ * @author Jim Flaten
+ */
+public interface Gauge {
+    /**
+     * Get the current value.
+     *
+     * May be invoked from any thread.
+     *
+     * @return The value.
+     */
+    public double getValue();
+}
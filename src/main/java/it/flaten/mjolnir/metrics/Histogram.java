@@ -0,0 +1,172 @@
+package it.flaten.mjolnir.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram.
+ *
+ * Values are counted in buckets that double in width for every power of two,
+ * each split into eight, so every bucket is at most an eighth of its value
+ * wide. This keeps percentiles within about 12% of the true value, in a fixed
+ * 4 KiB, whatever the range of values. Recording a value is a few atomic
+ * increments, and never allocates.
+ *
+ * @author Jim Flaten
+ */
+public class Histogram implements HistogramMXBean {
+    /**
+     * Number of bits used to split each power of two.
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * Number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << Histogram.SUB_BITS;
+
+    /**
+     * Number of buckets needed to cover every positive long.
+     */
+    private static final int BUCKETS = (64 - Histogram.SUB_BITS + 1) * Histogram.SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(Histogram.BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param nanos The value, in nanoseconds. Negative values count as 0.
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L,nanos);
+
+        this.counts.incrementAndGet(Histogram.index(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+
+        long max;
+
+        while (value > (max = this.max.get())) {
+            if (this.max.compareAndSet(max,value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record the time since a given start.
+     *
+     * @param start A value from {@link System#nanoTime()}.
+     */
+    public void since(final long start) {
+        this.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Get a percentile.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return           The upper bound of the bucket holding it, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long count = this.count.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1L,(long) Math.ceil(count * Math.min(100D,Math.max(0D,percentile)) / 100D));
+
+        long seen = 0;
+
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            seen += this.counts.get(i);
+
+            if (seen >= target) {
+                return Math.min(Histogram.upper(i),this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMeanMillis() {
+        final long count = this.count.get();
+
+        return count == 0 ? 0D : this.sum.get() / 1000000D / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP50Millis() {
+        return this.getPercentile(50D) / 1000000D;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP99Millis() {
+        return this.getPercentile(99D) / 1000000D;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMaxMillis() {
+        return this.max.get() / 1000000D;
+    }
+
+    /**
+     * Find the bucket of a value.
+     *
+     * @param value A value, 0 or greater.
+     * @return      The index of its bucket.
+     */
+    private static int index(final long value) {
+        if (value < Histogram.SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - Histogram.SUB_BITS)) & (Histogram.SUB_BUCKETS - 1);
+
+        return (exponent - Histogram.SUB_BITS + 1) * Histogram.SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Find the highest value of a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return      The highest value counted in it.
+     */
+    private static long upper(final int index) {
+        if (index < Histogram.SUB_BUCKETS) {
+            return index;
+        }
+
+        final int exponent = index / Histogram.SUB_BUCKETS + Histogram.SUB_BITS - 1;
+        final long sub = index % Histogram.SUB_BUCKETS;
+        final int shift = exponent - Histogram.SUB_BITS;
+
+        return (((Histogram.SUB_BUCKETS | sub) << shift) + (1L << shift)) - 1L;
+    }
+}
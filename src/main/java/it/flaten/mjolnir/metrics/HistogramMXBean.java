@@ -0,0 +1,18 @@
+package it.flaten.mjolnir.metrics;
+
+/**
+ * Management interface of a {@link Histogram}.
+ *
+ * @author Jim Flaten
+ */
+public interface HistogramMXBean {
+    public long getCount();
+
+    public double getMeanMillis();
+
+    public double getP50Millis();
+
+    public double getP99Millis();
+
+    public double getMaxMillis();
+}
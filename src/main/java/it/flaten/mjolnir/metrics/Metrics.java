@@ -0,0 +1,191 @@
+package it.flaten.mjolnir.metrics;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * Registry of named {@link Histogram}s and {@link Gauge}s.
+ *
+ * Timers are created the first time they are asked for, and should be kept
+ * by whoever records to them. When JMX is enabled, every timer and gauge is
+ * also registered as an MBean under the it.flaten.mjolnir domain.
+ *
+ * @author Jim Flaten
+ */
+public class Metrics {
+    /**
+     * Domain of our MBeans.
+     */
+    private static final String DOMAIN = "it.flaten.mjolnir";
+
+    /**
+     * Where to log registration failures.
+     */
+    private final Logger logger;
+
+    /**
+     * Whether or not to register MBeans.
+     */
+    private final boolean jmx;
+
+    /**
+     * Timers, by name.
+     */
+    private final ConcurrentMap<String,Histogram> timerMap = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gauges, by name.
+     */
+    private final ConcurrentMap<String,Gauge> gaugeMap = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates an empty {@link Metrics}.
+     *
+     * @param logger Where to log registration failures.
+     * @param jmx    Whether or not to register MBeans.
+     */
+    public Metrics(final Logger logger,final boolean jmx) {
+        this.logger = logger;
+        this.jmx = jmx;
+    }
+
+    /**
+     * Get a timer.
+     *
+     * @param name The name of the timer.
+     * @return     The {@link Histogram}, created if needed.
+     */
+    public Histogram timer(final String name) {
+        Histogram timer = this.timerMap.get(name);
+
+        if (timer == null) {
+            final Histogram created = new Histogram();
+
+            timer = this.timerMap.putIfAbsent(name,created);
+
+            if (timer == null) {
+                timer = created;
+
+                this.register("Timer",name,created,HistogramMXBean.class);
+            }
+        }
+
+        return timer;
+    }
+
+    /**
+     * Add a gauge.
+     *
+     * Replaces any gauge by the same name.
+     *
+     * @param name  The name of the gauge.
+     * @param gauge The {@link Gauge}.
+     */
+    public void gauge(final String name,final Gauge gauge) {
+        if (this.gaugeMap.put(name,gauge) != null) {
+            this.unregister("Gauge",name);
+        }
+
+        this.register("Gauge",name,gauge,Gauge.class);
+    }
+
+    /**
+     * Get all timers.
+     *
+     * @return A {@link Map} of names to {@link Histogram}s, sorted by name.
+     */
+    public Map<String,Histogram> getTimers() {
+        return Collections.unmodifiableMap(this.timerMap);
+    }
+
+    /**
+     * Get all gauges.
+     *
+     * @return A {@link Map} of names to {@link Gauge}s, sorted by name.
+     */
+    public Map<String,Gauge> getGauges() {
+        return Collections.unmodifiableMap(this.gaugeMap);
+    }
+
+    /**
+     * Unregister every MBean.
+     */
+    public void close() {
+        for (String name : this.timerMap.keySet()) {
+            this.unregister("Timer",name);
+        }
+
+        for (String name : this.gaugeMap.keySet()) {
+            this.unregister("Gauge",name);
+        }
+    }
+
+    /**
+     * Register an MBean.
+     *
+     * @param type           The type part of its name.
+     * @param name           The name part of its name.
+     * @param implementation The object to expose.
+     * @param mbeanInterface The interface to expose it through.
+     */
+    private <T> void register(final String type,final String name,final T implementation,final Class<T> mbeanInterface) {
+        if (!this.jmx) {
+            return;
+        }
+
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = Metrics.name(type,name);
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+            server.registerMBean(new StandardMBean(implementation,mbeanInterface,true),objectName);
+        } catch (JMException exception) {
+            this.logger.warning("Failed to register " + type.toLowerCase() + " " + name + " with JMX: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Unregister an MBean, if it is registered.
+     *
+     * @param type The type part of its name.
+     * @param name The name part of its name.
+     */
+    private void unregister(final String type,final String name) {
+        if (!this.jmx) {
+            return;
+        }
+
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = Metrics.name(type,name);
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException exception) {
+            this.logger.warning("Failed to unregister " + type.toLowerCase() + " " + name + " from JMX: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Build the name of an MBean.
+     *
+     * @param type The type part of the name.
+     * @param name The name part of the name.
+     * @return     The {@link ObjectName}.
+     * @throws MalformedObjectNameException Never, in practice.
+     */
+    private static ObjectName name(final String type,final String name) throws MalformedObjectNameException {
+        return new ObjectName(Metrics.DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
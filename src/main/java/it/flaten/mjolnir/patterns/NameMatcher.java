@@ -0,0 +1,331 @@
+package it.flaten.mjolnir.patterns;
+
+import java.util.*;
+
+/**
+ * Matcher for a set of name patterns.
+ *
+ * Patterns are globs, where <code>*</code> stands for any number of characters
+ * and <code>?</code> for exactly one, compared case-insensitively. Player names
+ * never contain either, so a pattern can not be mistaken for a name.
+ * <p>
+ * The longest literal part of every pattern is put in a single Aho-Corasick
+ * automaton, compiled into a table of transitions. A name is run through it
+ * once, which finds every pattern whose literal part occurs in the name, and
+ * only those patterns are then matched against the name in full. The cost of
+ * a check thereby stays flat as patterns are added. Patterns without any
+ * literal part are always matched in full.
+ * <p>
+ * A {@link NameMatcher} is never changed once built, so it can be used from
+ * any thread. Build a new one when the patterns change.
+ *
+ * @author Jim Flaten
+ */
+public class NameMatcher {
+    /**
+     * A matcher without any patterns.
+     */
+    public static final NameMatcher EMPTY = new NameMatcher(Collections.<String>emptyList());
+
+    /**
+     * The patterns, lowercased.
+     */
+    private final String[] patterns;
+
+    /**
+     * Maps characters below 128 to their class in {@link #table}.
+     *
+     * Class 0 stands for every character that is in no literal part.
+     */
+    private final int[] classes = new int[128];
+
+    /**
+     * Number of character classes.
+     */
+    private final int width;
+
+    /**
+     * Transitions, {@link #width} entries for every state.
+     */
+    private final int[] table;
+
+    /**
+     * Patterns whose literal part ends in a state, by index.
+     */
+    private final int[][] outputs;
+
+    /**
+     * Patterns without a literal part, by index.
+     */
+    private final int[] always;
+
+    /**
+     * Constructor.
+     *
+     * Compiles the given patterns into a {@link NameMatcher}.
+     *
+     * @param patterns The patterns.
+     */
+    public NameMatcher(final Collection<String> patterns) {
+        this.patterns = new String[patterns.size()];
+
+        final String[] keys = new String[this.patterns.length];
+        final List<Integer> always = new ArrayList<>();
+        int i = 0;
+
+        for (String pattern : patterns) {
+            this.patterns[i] = pattern.toLowerCase();
+            keys[i] = NameMatcher.key(this.patterns[i]);
+
+            if (keys[i].length() == 0) {
+                always.add(i);
+            }
+
+            i++;
+        }
+
+        this.always = NameMatcher.toArray(always);
+
+        /**
+         * Give every character that occurs in a key a class of its own.
+         * Characters beyond ASCII share class 0. Should a key contain one,
+         * that only lets a few more patterns through to be matched in full.
+         */
+        int width = 1;
+
+        for (String key : keys) {
+            for (int j = 0; j < key.length(); j++) {
+                final char c = key.charAt(j);
+
+                if (c < 128 && this.classes[c] == 0) {
+                    this.classes[c] = width++;
+                }
+            }
+        }
+
+        this.width = width;
+
+        /**
+         * Build the trie of keys.
+         */
+        final List<int[]> children = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+
+        children.add(new int[width]);
+        outputs.add(new ArrayList<Integer>());
+
+        for (i = 0; i < keys.length; i++) {
+            if (keys[i].length() == 0) {
+                continue;
+            }
+
+            int state = 0;
+
+            for (int j = 0; j < keys[i].length(); j++) {
+                final int c = this.classOf(keys[i].charAt(j));
+
+                if (children.get(state)[c] == 0) {
+                    children.get(state)[c] = children.size();
+                    children.add(new int[width]);
+                    outputs.add(new ArrayList<Integer>());
+                }
+
+                state = children.get(state)[c];
+            }
+
+            outputs.get(state).add(i);
+        }
+
+        /**
+         * Follow failure links breadth first, turning the trie into a table
+         * with a transition for every state and class, and merging the
+         * outputs of every state with those of its failure state.
+         */
+        final int states = children.size();
+        final int[] fail = new int[states];
+
+        this.table = new int[states * width];
+        this.outputs = new int[states][];
+        this.outputs[0] = NameMatcher.toArray(outputs.get(0));
+
+        final Deque<Integer> queue = new ArrayDeque<>();
+
+        for (int c = 0; c < width; c++) {
+            final int child = children.get(0)[c];
+
+            this.table[c] = child;
+
+            if (child != 0) {
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+
+            final List<Integer> output = outputs.get(state);
+            output.addAll(outputs.get(fail[state]));
+            this.outputs[state] = NameMatcher.toArray(output);
+
+            for (int c = 0; c < width; c++) {
+                final int child = children.get(state)[c];
+
+                if (child == 0) {
+                    this.table[state * width + c] = this.table[fail[state] * width + c];
+                } else {
+                    this.table[state * width + c] = child;
+                    fail[child] = this.table[fail[state] * width + c];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a ban target is a pattern.
+     *
+     * @param target The name or pattern.
+     * @return       Whether or not it contains a wildcard.
+     */
+    public static boolean isPattern(final String target) {
+        return target.indexOf('*') >= 0 || target.indexOf('?') >= 0;
+    }
+
+    /**
+     * Find the patterns matching a name.
+     *
+     * @param name The name.
+     * @return     The matching patterns, lowercased, in the order they were given.
+     */
+    public List<String> match(final String name) {
+        final String lower = name.toLowerCase();
+        final BitSet checked = new BitSet(this.patterns.length);
+        final BitSet matched = new BitSet(this.patterns.length);
+
+        for (int index : this.always) {
+            checked.set(index);
+
+            if (NameMatcher.matches(this.patterns[index],lower)) {
+                matched.set(index);
+            }
+        }
+
+        int state = 0;
+
+        for (int i = 0; i < lower.length(); i++) {
+            state = this.table[state * this.width + this.classOf(lower.charAt(i))];
+
+            for (int index : this.outputs[state]) {
+                if (checked.get(index)) {
+                    continue;
+                }
+
+                checked.set(index);
+
+                if (NameMatcher.matches(this.patterns[index],lower)) {
+                    matched.set(index);
+                }
+            }
+        }
+
+        final List<String> patterns = new ArrayList<>(matched.cardinality());
+
+        for (int index = matched.nextSetBit(0); index >= 0; index = matched.nextSetBit(index + 1)) {
+            patterns.add(this.patterns[index]);
+        }
+
+        return patterns;
+    }
+
+    /**
+     * Get the number of patterns.
+     *
+     * @return The number of patterns.
+     */
+    public int size() {
+        return this.patterns.length;
+    }
+
+    /**
+     * Match a single pattern against a name.
+     *
+     * Backtracks only to the last <code>*</code>, so it never takes more than
+     * time proportional to the product of their lengths.
+     *
+     * @param pattern The pattern, lowercased.
+     * @param name    The name, lowercased.
+     * @return        Whether or not the pattern matches the whole name.
+     */
+    public static boolean matches(final String pattern,final String name) {
+        int p = 0;
+        int n = 0;
+        int star = -1;
+        int resume = 0;
+
+        while (n < name.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+                p++;
+                n++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                resume = n;
+            } else if (star >= 0) {
+                p = star + 1;
+                n = ++resume;
+            } else {
+                return false;
+            }
+        }
+
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+
+        return p == pattern.length();
+    }
+
+    /**
+     * Get the longest literal part of a pattern.
+     *
+     * @param pattern The pattern.
+     * @return        The longest run without wildcards, possibly empty.
+     */
+    private static String key(final String pattern) {
+        String key = "";
+
+        for (String part : pattern.split("[*?]")) {
+            if (part.length() > key.length()) {
+                key = part;
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Get the class of a character.
+     *
+     * @param c The character.
+     * @return  Its class in {@link #table}.
+     */
+    private int classOf(final char c) {
+        return c < 128 ? this.classes[c] : 0;
+    }
+
+    /**
+     * Turn a list of indexes into an array.
+     *
+     * @param list The indexes.
+     * @return     The indexes, as an array.
+     */
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+}
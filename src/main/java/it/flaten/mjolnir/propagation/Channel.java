@@ -0,0 +1,58 @@
+package it.flaten.mjolnir.propagation;
+
+import it.flaten.mjolnir.beans.Event;
+
+import java.io.IOException;
+
+/**
+ * Interface defining the structure of a propagation channel.
+ *
+ * A channel carries new {@link Event}s between servers sharing the same
+ * storage, so that each of them can act on an {@link Event} as soon as it is
+ * created somewhere else, instead of the next time it asks the storage.
+ *
+ * @author Jim Flaten
+ */
+public interface Channel {
+    /**
+     * Open the channel.
+     *
+     * Starts receiving {@link Event}s from other servers, and handing them to
+     * the given {@link Receiver}.
+     *
+     * @param receiver Where to hand received {@link Event}s.
+     * @throws IOException If the channel could not be opened.
+     */
+    public void open(final Receiver receiver) throws IOException;
+
+    /**
+     * Publish an {@link Event}.
+     *
+     * Sends the {@link Event} to every other server. Must not block the
+     * caller on the network.
+     *
+     * @param event The new {@link Event}.
+     */
+    public void publish(final Event event);
+
+    /**
+     * Close the channel.
+     *
+     * {@link Event}s not yet sent may be lost.
+     */
+    public void close();
+
+    /**
+     * Receives {@link Event}s published by other servers.
+     */
+    public interface Receiver {
+        /**
+         * Handle an {@link Event} published by another server.
+         *
+         * Invoked from a thread belonging to the channel.
+         *
+         * @param event The {@link Event}.
+         */
+        public void receive(final Event event);
+    }
+}
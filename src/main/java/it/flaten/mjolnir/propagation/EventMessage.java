@@ -0,0 +1,98 @@
+package it.flaten.mjolnir.propagation;
+
+import it.flaten.mjolnir.beans.Event;
+
+import java.io.*;
+
+/**
+ * Wire format of a propagated {@link Event}.
+ *
+ * A version byte, followed by the id, time, type and expiry of the
+ * {@link Event}, its player, op and reason, and the two halves of its UUID,
+ * which are 0 if it is not known. The id may be 0 if the {@link Event} had
+ * not been written yet when it was published. Messages of the first version,
+ * without the UUID, are still read.
+ * <p>
+ * Shared by all {@link Channel}s, so that only the transport differs.
+ *
+ * @author Jim Flaten
+ */
+public final class EventMessage {
+    /**
+     * Version of the format.
+     */
+    private static final int VERSION = 2;
+
+    private EventMessage() {
+
+    }
+
+    /**
+     * Encode an {@link Event}.
+     *
+     * @param event The {@link Event} to encode.
+     * @return      The message.
+     */
+    public static byte[] encode(final Event event) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            final DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeByte(EventMessage.VERSION);
+            output.writeInt(event.getId());
+            output.writeInt(event.getTime());
+            output.writeByte(event.getType().getId());
+            output.writeInt(event.getExpires());
+            output.writeUTF(event.getPlayer());
+            output.writeUTF(event.getOp() == null ? "" : event.getOp());
+            output.writeUTF(event.getReason() == null ? "" : event.getReason());
+            output.writeLong(event.getUuidMost());
+            output.writeLong(event.getUuidLeast());
+            output.flush();
+
+            return bytes.toByteArray();
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Decode a message.
+     *
+     * @param message The message.
+     * @return        The {@link Event}.
+     * @throws IOException If the message is malformed, or of an unknown version.
+     */
+    public static Event decode(final byte[] message) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+
+        final int version = input.readUnsignedByte();
+
+        if (version < 1 || version > EventMessage.VERSION) {
+            throw new IOException("Unknown message version");
+        }
+
+        final Event event = new Event();
+
+        event.setId(input.readInt());
+        event.setTime(input.readInt());
+
+        try {
+            event.setType(Event.EventType.fromId(input.readByte()));
+        } catch (IllegalArgumentException exception) {
+            throw new IOException(exception);
+        }
+
+        event.setExpires(input.readInt());
+        event.setPlayer(input.readUTF());
+        event.setOp(input.readUTF());
+        event.setReason(input.readUTF());
+
+        if (version >= 2) {
+            event.setUuidMost(input.readLong());
+            event.setUuidLeast(input.readLong());
+        }
+
+        return event;
+    }
+}
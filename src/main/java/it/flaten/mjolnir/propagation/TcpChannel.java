@@ -0,0 +1,509 @@
+package it.flaten.mjolnir.propagation;
+
+import it.flaten.mjolnir.beans.Event;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * {@link Channel} over plain TCP connections between every pair of servers.
+ *
+ * Every server listens on its own address, and keeps one outgoing connection
+ * to each configured peer. A published {@link Event} is queued once for every
+ * peer, and each peer's connection is served by its own thread, so a slow or
+ * unreachable peer never holds up the others or the publisher. Connections
+ * are opened again with a growing delay when they fail.
+ * <p>
+ * Every connection starts with the shared secret, and is dropped by the
+ * receiving end if it does not match. The channel can not be opened without
+ * a secret. After that, each message is its length followed by an
+ * {@link EventMessage}.
+ * <p>
+ * The receiving end acknowledges messages by writing back how many it has
+ * read on the connection, whenever it has read all there is, and at least
+ * every so many messages. Messages are
+ * kept until they are acknowledged, and are written again on the next
+ * connection if it fails, or goes quiet, before that. A message may therefore
+ * arrive twice, which receivers must allow for.
+ *
+ * @author Jim Flaten
+ */
+public class TcpChannel implements Channel {
+    /**
+     * Most messages written to a peer before the buffer is flushed.
+     */
+    private static final int MAX_UNFLUSHED = 64;
+
+    /**
+     * Milliseconds between checks for acknowledgements while idle.
+     */
+    private static final long POLL = 100L;
+
+    /**
+     * Largest message accepted.
+     */
+    private static final int MAX_MESSAGE = 1 << 16;
+
+    /**
+     * Milliseconds to wait for a connection or a secret.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * Where to log connection changes.
+     */
+    private final Logger logger;
+
+    /**
+     * Address to listen on.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * Shared secret.
+     */
+    private final byte[] secret;
+
+    /**
+     * Outgoing connections.
+     */
+    private final List<Peer> peers = new ArrayList<>();
+
+    /**
+     * Incoming connections.
+     */
+    private final Set<Socket> inbound = Collections.newSetFromMap(new ConcurrentHashMap<Socket,Boolean>());
+
+    /**
+     * Listening socket.
+     */
+    private ServerSocket server;
+
+    /**
+     * Whether or not the channel is open.
+     */
+    private volatile boolean running = false;
+
+    /**
+     * Message counters.
+     */
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link TcpChannel}. Nothing is opened yet.
+     *
+     * @param logger    Where to log connection changes.
+     * @param address   Address to listen on. Port 0 picks a free port.
+     * @param peers     Addresses of the other servers.
+     * @param secret    Secret shared by all servers.
+     * @param queueSize Maximum number of messages waiting for each peer.
+     */
+    public TcpChannel(final Logger logger,final InetSocketAddress address,final List<InetSocketAddress> peers,final String secret,final int queueSize) {
+        this.logger = logger;
+        this.address = address;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+
+        for (InetSocketAddress peer : peers) {
+            this.peers.add(new Peer(peer,Math.max(1,queueSize)));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Refuses to open without a secret, as anyone who can reach the port
+     * could send {@link Event}s otherwise.
+     */
+    @Override
+    public void open(final Receiver receiver) throws IOException {
+        if (this.secret.length == 0) {
+            throw new IOException("No secret set");
+        }
+
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(this.address);
+
+        this.running = true;
+
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TcpChannel.this.accept(receiver);
+            }
+        },"Mjolnir propagation");
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        for (Peer peer : this.peers) {
+            peer.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Messages are dropped for peers whose queue is full.
+     */
+    @Override
+    public void publish(final Event event) {
+        final byte[] message = EventMessage.encode(event);
+
+        for (Peer peer : this.peers) {
+            if (!peer.queue.offer(message)) {
+                this.dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        this.running = false;
+
+        try {
+            if (this.server != null) {
+                this.server.close();
+            }
+        } catch (IOException ignored) {
+            // Closing anyway.
+        }
+
+        for (Socket socket : this.inbound) {
+            TcpChannel.close(socket);
+        }
+
+        for (Peer peer : this.peers) {
+            peer.stop();
+        }
+    }
+
+    /**
+     * Get the port we listen on.
+     *
+     * @return The local port, or -1 if the channel is not open.
+     */
+    public int getPort() {
+        return this.server == null ? -1 : this.server.getLocalPort();
+    }
+
+    /**
+     * Get the number of messages sent.
+     *
+     * @return The number of messages acknowledged by peers.
+     */
+    public long getSent() {
+        return this.sent.get();
+    }
+
+    /**
+     * Get the number of messages received.
+     *
+     * @return The number of messages read from peers.
+     */
+    public long getReceived() {
+        return this.received.get();
+    }
+
+    /**
+     * Get the number of messages dropped.
+     *
+     * @return The number of messages not queued because a peer fell too far behind.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Accept loop.
+     *
+     * Starts a reader thread for every incoming connection, until the channel
+     * is closed.
+     *
+     * @param receiver Where to hand received {@link Event}s.
+     */
+    private void accept(final Receiver receiver) {
+        while (this.running) {
+            final Socket socket;
+
+            try {
+                socket = this.server.accept();
+            } catch (IOException exception) {
+                if (this.running) {
+                    this.logger.warning("Failed to accept propagation connection: " + exception.getMessage());
+                }
+
+                continue;
+            }
+
+            this.inbound.add(socket);
+
+            final Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TcpChannel.this.read(socket,receiver);
+                }
+            },"Mjolnir propagation " + socket.getRemoteSocketAddress());
+
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Reader loop.
+     *
+     * Checks the secret, and then hands every message to the receiver until
+     * the connection is closed. Whenever there is nothing left to read, and
+     * at least every so many messages, the number of messages read so far is
+     * written back as an acknowledgement.
+     *
+     * @param socket   The incoming connection.
+     * @param receiver Where to hand received {@link Event}s.
+     */
+    private void read(final Socket socket,final Receiver receiver) {
+        try {
+            socket.setSoTimeout(TcpChannel.TIMEOUT);
+
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            final int length = input.readInt();
+
+            if (length < 0 || length > TcpChannel.MAX_MESSAGE) {
+                throw new IOException("Invalid secret length");
+            }
+
+            final byte[] secret = new byte[length];
+            input.readFully(secret);
+
+            if (!MessageDigest.isEqual(secret,this.secret)) {
+                this.logger.warning("Rejected propagation connection from " + socket.getRemoteSocketAddress() + ": wrong secret.");
+                return;
+            }
+
+            socket.setSoTimeout(0);
+            socket.setTcpNoDelay(true);
+
+            final DataOutputStream acknowledgements = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int count = 0;
+            int acknowledged = 0;
+
+            while (this.running) {
+                if (count > acknowledged && (input.available() == 0 || count - acknowledged >= TcpChannel.MAX_UNFLUSHED)) {
+                    acknowledgements.writeInt(count);
+                    acknowledgements.flush();
+
+                    acknowledged = count;
+                }
+
+                final int size = input.readInt();
+
+                if (size <= 0 || size > TcpChannel.MAX_MESSAGE) {
+                    throw new IOException("Invalid message length " + size);
+                }
+
+                final byte[] message = new byte[size];
+                input.readFully(message);
+
+                this.received.incrementAndGet();
+
+                try {
+                    receiver.receive(EventMessage.decode(message));
+                } catch (RuntimeException exception) {
+                    exception.printStackTrace();
+                }
+
+                count++;
+            }
+        } catch (IOException exception) {
+            if (this.running && !(exception instanceof EOFException)) {
+                this.logger.warning("Propagation connection from " + socket.getRemoteSocketAddress() + " failed: " + exception.getMessage());
+            }
+        } finally {
+            this.inbound.remove(socket);
+
+            TcpChannel.close(socket);
+        }
+    }
+
+    /**
+     * Close a socket, ignoring errors.
+     *
+     * @param socket The socket to close, or null.
+     */
+    private static void close(final Socket socket) {
+        if (socket == null) {
+            return;
+        }
+
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it.
+        }
+    }
+
+    /**
+     * An outgoing connection, with its own queue and thread.
+     */
+    private class Peer implements Runnable {
+        private final InetSocketAddress address;
+        private final int queueSize;
+        private final BlockingQueue<byte[]> queue;
+        private final Thread thread;
+        private volatile Socket socket;
+
+        private Peer(final InetSocketAddress address,final int queueSize) {
+            this.address = address;
+            this.queueSize = queueSize;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.thread = new Thread(this,"Mjolnir propagation " + address);
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            this.thread.start();
+        }
+
+        private void stop() {
+            this.thread.interrupt();
+
+            TcpChannel.close(this.socket);
+        }
+
+        /**
+         * Writer loop.
+         *
+         * Connects, sends the secret, writes again every message not yet
+         * acknowledged, and then writes queued messages. The buffer is flushed
+         * whenever the queue runs empty, or enough messages are waiting in
+         * it. At most as many messages as fit in the queue are left waiting
+         * for an acknowledgement. The connection is dropped and opened again
+         * if one is overdue.
+         */
+        @Override
+        public void run() {
+            final Deque<byte[]> unacknowledged = new ArrayDeque<>();
+            int failures = 0;
+
+            while (TcpChannel.this.running) {
+                try {
+                    this.socket = new Socket();
+                    this.socket.setTcpNoDelay(true);
+                    this.socket.setKeepAlive(true);
+                    this.socket.connect(this.address,TcpChannel.TIMEOUT);
+
+                    final DataInputStream acknowledgements = new DataInputStream(this.socket.getInputStream());
+                    final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+
+                    output.writeInt(TcpChannel.this.secret.length);
+                    output.write(TcpChannel.this.secret);
+
+                    for (byte[] message : unacknowledged) {
+                        output.writeInt(message.length);
+                        output.write(message);
+                    }
+
+                    output.flush();
+
+                    if (failures > 0) {
+                        TcpChannel.this.logger.info("Propagation connection to " + this.address + " restored.");
+                    }
+
+                    failures = 0;
+
+                    int written = unacknowledged.size();
+                    int acknowledged = 0;
+                    int unflushed = 0;
+                    long waiting = System.currentTimeMillis();
+
+                    while (TcpChannel.this.running) {
+                        while (acknowledgements.available() >= 4) {
+                            final int count = acknowledgements.readInt();
+
+                            if (count < acknowledged || count > written) {
+                                throw new IOException("Invalid acknowledgement " + count);
+                            }
+
+                            for (; acknowledged < count; acknowledged++) {
+                                unacknowledged.removeFirst();
+                                TcpChannel.this.sent.incrementAndGet();
+                            }
+
+                            waiting = System.currentTimeMillis();
+                        }
+
+                        if (unacknowledged.size() == 0) {
+                            waiting = System.currentTimeMillis();
+                        } else if (System.currentTimeMillis() - waiting > TcpChannel.TIMEOUT) {
+                            throw new IOException("No acknowledgement for " + unacknowledged.size() + " messages");
+                        }
+
+                        final byte[] message = unacknowledged.size() < this.queueSize
+                            ? this.queue.poll(TcpChannel.POLL,TimeUnit.MILLISECONDS)
+                            : null;
+
+                        if (message == null) {
+                            if (unacknowledged.size() >= this.queueSize) {
+                                Thread.sleep(TcpChannel.POLL);
+                            }
+
+                            continue;
+                        }
+
+                        unacknowledged.addLast(message);
+
+                        output.writeInt(message.length);
+                        output.write(message);
+
+                        written++;
+                        unflushed++;
+
+                        if (this.queue.isEmpty() || unflushed >= TcpChannel.MAX_UNFLUSHED) {
+                            output.flush();
+                            unflushed = 0;
+                        }
+                    }
+                } catch (InterruptedException exception) {
+                    break;
+                } catch (IOException exception) {
+                    if (!TcpChannel.this.running) {
+                        break;
+                    }
+
+                    if (failures++ == 0) {
+                        TcpChannel.this.logger.warning("Propagation connection to " + this.address + " failed: " + exception.getMessage());
+                    }
+
+                    TcpChannel.close(this.socket);
+
+                    try {
+                        Thread.sleep(Math.min(30000L,500L << Math.min(failures,6)));
+                    } catch (InterruptedException interrupted) {
+                        break;
+                    }
+                }
+            }
+
+            TcpChannel.close(this.socket);
+        }
+    }
+}
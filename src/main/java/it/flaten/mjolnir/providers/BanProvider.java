@@ -0,0 +1,36 @@
+package it.flaten.mjolnir.providers;
+
+import it.flaten.mjolnir.beans.Event;
+
+/**
+ * Interface defining the structure of an external ban provider.
+ *
+ * Providers let other plugins tell us about bans we do not store ourselves,
+ * such as those on web ban lists. They are queried in parallel, off the
+ * server thread, and are given up on once their deadline has passed, so a
+ * slow provider never holds up a login or the server.
+ *
+ * @author Jim Flaten
+ */
+public interface BanProvider {
+    /**
+     * Get the name of the provider.
+     *
+     * Used to report its statistics.
+     *
+     * @return A short, unique name.
+     */
+    public String getName();
+
+    /**
+     * Look up a player.
+     *
+     * Invoked from one of our worker threads, never from the server thread.
+     * The thread is interrupted if the deadline passes.
+     *
+     * @param player The name of the player to look up.
+     * @return       An {@link Event} describing the player's state, or null if the provider knows nothing.
+     * @throws Exception If the lookup failed. Counted, and treated as no {@link Event}.
+     */
+    public Event lookup(final String player) throws Exception;
+}
@@ -0,0 +1,58 @@
+package it.flaten.mjolnir.providers;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.events.IsBannedEvent;
+
+/**
+ * {@link BanProvider} firing an {@link IsBannedEvent}.
+ *
+ * Keeps plugins listening for {@link IsBannedEvent} working. The event is
+ * always fired asynchronously, as providers never run on the server thread.
+ * Nothing is fired at all while nobody is listening.
+ *
+ * @author Jim Flaten
+ */
+public class EventBanProvider implements BanProvider {
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link EventBanProvider}.
+     *
+     * @param plugin A reference to the running plugin.
+     */
+    public EventBanProvider(final Mjolnir plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return "IsBannedEvent";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event lookup(final String player) {
+        if (IsBannedEvent.getHandlerList().getRegisteredListeners().length == 0) {
+            return null;
+        }
+
+        final IsBannedEvent isBannedEvent = new IsBannedEvent(player,true);
+
+        this.plugin.getServer().getPluginManager().callEvent(isBannedEvent);
+
+        return isBannedEvent.getEvent();
+    }
+}
@@ -0,0 +1,353 @@
+package it.flaten.mjolnir.providers;
+
+import it.flaten.mjolnir.beans.Event;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Registered {@link BanProvider}s, with a shared result cache.
+ *
+ * A lookup asks every provider at once, on a small pool of worker threads,
+ * and waits at most the configured timeout for each of them. Players looked
+ * up together share that timeout. Providers that do not answer in time are
+ * interrupted and left out. The first ban found, in registration order, is
+ * the result, and results are cached for a while, including when no provider
+ * knows the player.
+ *
+ * @author Jim Flaten
+ */
+public class ProviderRegistry {
+    /**
+     * Cached result for players no provider has an {@link Event} for.
+     */
+    private static final Event NONE = new Event();
+
+    /**
+     * Where to log failing providers.
+     */
+    private final Logger logger;
+
+    /**
+     * Milliseconds to wait for each provider.
+     */
+    private final long timeout;
+
+    /**
+     * Milliseconds to keep results for.
+     */
+    private final long ttl;
+
+    /**
+     * Registered providers, in registration order.
+     */
+    private final List<BanProvider> providers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Counters, keyed by provider name.
+     */
+    private final Map<String,ProviderStats> statsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Cached results, keyed by lowercased player name.
+     */
+    private final Map<String,Entry> entryMap = new ConcurrentHashMap<>();
+
+    /**
+     * Worker threads running lookups.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link ProviderRegistry}, and starts its worker threads.
+     *
+     * @param logger  Where to log failing providers.
+     * @param threads Number of worker threads.
+     * @param timeout Milliseconds to wait for each provider.
+     * @param ttl     Seconds to cache results for. 0 disables the cache.
+     */
+    public ProviderRegistry(final Logger logger,final int threads,final long timeout,final int ttl) {
+        this.logger = logger;
+        this.timeout = Math.max(1L,timeout);
+        this.ttl = Math.max(0,ttl) * 1000L;
+
+        this.executor = new ThreadPoolExecutor(
+            Math.max(1,threads),
+            Math.max(1,threads),
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(256),
+            new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable,"Mjolnir provider #" + (++this.count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+        );
+    }
+
+    /**
+     * Register a provider.
+     *
+     * @param provider The {@link BanProvider} to add.
+     */
+    public void register(final BanProvider provider) {
+        if (!this.statsMap.containsKey(provider.getName())) {
+            this.statsMap.put(provider.getName(),new ProviderStats());
+        }
+
+        this.providers.add(provider);
+
+        this.invalidateAll();
+    }
+
+    /**
+     * Unregister a provider.
+     *
+     * @param provider The {@link BanProvider} to remove.
+     */
+    public void unregister(final BanProvider provider) {
+        this.providers.remove(provider);
+
+        this.invalidateAll();
+    }
+
+    /**
+     * Forget the cached result for a player.
+     *
+     * @param player The name of the player.
+     */
+    public void invalidate(final String player) {
+        this.entryMap.remove(player.toLowerCase());
+    }
+
+    /**
+     * Forget all cached results.
+     */
+    public void invalidateAll() {
+        this.entryMap.clear();
+    }
+
+    /**
+     * Get the counters of every provider ever registered.
+     *
+     * @return A {@link Map} of provider names to {@link ProviderStats}.
+     */
+    public Map<String,ProviderStats> getStats() {
+        return Collections.unmodifiableMap(this.statsMap);
+    }
+
+    /**
+     * Look up a player.
+     *
+     * Answered from the cache if possible. Otherwise, every provider is asked
+     * at once, and the calling thread waits until all have answered or their
+     * deadline has passed.
+     *
+     * @param player The name of the player.
+     * @return       The first ban found, else the first {@link Event} found, or null.
+     */
+    public Event lookup(final String player) {
+        return this.lookup(Collections.singletonList(player)).get(player.toLowerCase());
+    }
+
+    /**
+     * Look up a number of players.
+     *
+     * Players are answered from the cache if possible. Every provider is
+     * asked about all other players at once, and the calling thread waits
+     * until all have answered or a single deadline, shared by all players,
+     * has passed.
+     *
+     * @param players The names of the players.
+     * @return        A {@link Map} of lowercased player names to the first ban found, else the first {@link Event} found.
+     */
+    public Map<String,Event> lookup(final Collection<String> players) {
+        final Map<String,Event> results = new HashMap<>();
+        final Map<String,String> pending = new LinkedHashMap<>();
+        final long now = System.currentTimeMillis();
+
+        for (String player : players) {
+            final String key = player.toLowerCase();
+            final Entry cached = this.entryMap.get(key);
+
+            if (cached == null || cached.expires <= now) {
+                pending.put(key,player);
+            } else if (cached.event != ProviderRegistry.NONE) {
+                results.put(key,cached.event);
+            }
+        }
+
+        final List<BanProvider> providers = new ArrayList<>(this.providers);
+
+        if (pending.size() == 0 || providers.size() == 0) {
+            return results;
+        }
+
+        final List<Future<Event>> futures = new ArrayList<>(pending.size() * providers.size());
+
+        for (final String player : pending.values()) {
+            for (final BanProvider provider : providers) {
+                try {
+                    futures.add(this.executor.submit(new Callable<Event>() {
+                        @Override
+                        public Event call() throws Exception {
+                            return ProviderRegistry.this.call(provider,player);
+                        }
+                    }));
+                } catch (RejectedExecutionException exception) {
+                    futures.add(null);
+                }
+            }
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+
+        int i = 0;
+
+        for (String key : pending.keySet()) {
+            Event result = null;
+
+            for (BanProvider provider : providers) {
+                final Future<Event> future = futures.get(i++);
+
+                if (future == null) {
+                    this.stats(provider).timeout();
+                    continue;
+                }
+
+                final Event event;
+
+                try {
+                    event = future.get(Math.max(0L,deadline - System.nanoTime()),TimeUnit.NANOSECONDS);
+                } catch (TimeoutException exception) {
+                    future.cancel(true);
+                    this.stats(provider).timeout();
+                    continue;
+                } catch (ExecutionException exception) {
+                    continue;
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+
+                    for (Future<Event> remaining : futures) {
+                        if (remaining != null) {
+                            remaining.cancel(true);
+                        }
+                    }
+
+                    return results;
+                }
+
+                if (event != null && (result == null || (result.getType() != Event.EventType.BAN && event.getType() == Event.EventType.BAN))) {
+                    result = event;
+                }
+            }
+
+            if (result != null) {
+                results.put(key,result);
+            }
+
+            if (this.ttl > 0) {
+                this.entryMap.put(key,new Entry(result == null ? ProviderRegistry.NONE : result,System.currentTimeMillis() + this.ttl));
+            }
+        }
+
+        if (this.ttl > 0 && this.entryMap.size() > 4096) {
+            this.purge();
+        }
+
+        return results;
+    }
+
+    /**
+     * Stop the worker threads.
+     *
+     * Running lookups are interrupted.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+        this.providers.clear();
+        this.entryMap.clear();
+    }
+
+    /**
+     * Ask a single provider, and count the outcome.
+     *
+     * @param provider The {@link BanProvider} to ask.
+     * @param player   The name of the player.
+     * @return         The provider's {@link Event}, or null.
+     * @throws Exception If the provider failed.
+     */
+    private Event call(final BanProvider provider,final String player) throws Exception {
+        final ProviderStats stats = this.stats(provider);
+        final long start = System.nanoTime();
+
+        try {
+            final Event event = provider.lookup(player);
+
+            stats.complete(System.nanoTime() - start,event != null && event.getType() == Event.EventType.BAN);
+
+            return event;
+        } catch (InterruptedException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            stats.complete(System.nanoTime() - start,false);
+            stats.error();
+
+            this.logger.warning("Ban provider " + provider.getName() + " failed: " + exception);
+
+            throw exception;
+        }
+    }
+
+    /**
+     * Get the counters of a provider.
+     *
+     * @param provider The {@link BanProvider}.
+     * @return         Its {@link ProviderStats}.
+     */
+    private ProviderStats stats(final BanProvider provider) {
+        ProviderStats stats = this.statsMap.get(provider.getName());
+
+        if (stats == null) {
+            stats = new ProviderStats();
+            this.statsMap.put(provider.getName(),stats);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Drop expired results.
+     */
+    private void purge() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry> iterator = this.entryMap.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().expires <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static class Entry {
+        private final Event event;
+        private final long expires;
+
+        private Entry(final Event event,final long expires) {
+            this.event = event;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package it.flaten.mjolnir.providers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for a single {@link BanProvider}.
+ *
+ * @author Jim Flaten
+ */
+public class ProviderStats {
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong bans = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record a finished lookup.
+     *
+     * @param nanos  How long it took, in nanoseconds.
+     * @param banned Whether or not it returned a ban.
+     */
+    void complete(final long nanos,final boolean banned) {
+        this.calls.incrementAndGet();
+        this.nanos.addAndGet(nanos);
+
+        if (banned) {
+            this.bans.incrementAndGet();
+        }
+
+        long max;
+
+        while (nanos > (max = this.maxNanos.get())) {
+            if (this.maxNanos.compareAndSet(max,nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record a lookup that missed its deadline, or could not be started.
+     */
+    void timeout() {
+        this.timeouts.incrementAndGet();
+    }
+
+    /**
+     * Record a lookup that failed.
+     */
+    void error() {
+        this.errors.incrementAndGet();
+    }
+
+    /**
+     * Get the number of finished lookups.
+     *
+     * @return The number of lookups that returned in time, failed ones included.
+     */
+    public long getCalls() {
+        return this.calls.get();
+    }
+
+    /**
+     * Get the number of lookups that returned a ban.
+     *
+     * @return The number of bans.
+     */
+    public long getBans() {
+        return this.bans.get();
+    }
+
+    /**
+     * Get the number of lookups given up on.
+     *
+     * @return The number of timeouts.
+     */
+    public long getTimeouts() {
+        return this.timeouts.get();
+    }
+
+    /**
+     * Get the number of lookups that threw.
+     *
+     * @return The number of errors.
+     */
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    /**
+     * Get the mean latency of finished lookups.
+     *
+     * @return The mean latency in milliseconds, or 0 if there were none.
+     */
+    public double getMeanMillis() {
+        final long calls = this.calls.get();
+
+        return calls == 0 ? 0D : this.nanos.get() / 1000000D / calls;
+    }
+
+    /**
+     * Get the highest latency of finished lookups.
+     *
+     * @return The highest latency in milliseconds.
+     */
+    public double getMaxMillis() {
+        return this.maxNanos.get() / 1000000D;
+    }
+}
@@ -0,0 +1,163 @@
+package it.flaten.mjolnir.sessions;
+
+import it.flaten.mjolnir.NameHistory;
+import it.flaten.mjolnir.beans.Event;
+
+import java.net.InetAddress;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State kept for a connecting or online player.
+ *
+ * Opened when the player starts to connect, and closed when they leave, are
+ * refused, or never finish connecting. Written by the login check and read from the server thread, so
+ * every field may be read from any thread without locking.
+ *
+ * @author Jim Flaten
+ */
+public class Session {
+    /**
+     * The name of the player.
+     */
+    private final String name;
+
+    /**
+     * The UUID of the player.
+     */
+    private final UUID uuid;
+
+    /**
+     * The address the player connected from.
+     */
+    private final InetAddress address;
+
+    /**
+     * UNIX time the player started to connect.
+     */
+    private final int opened = (int) (System.currentTimeMillis() / 1000L);
+
+    /**
+     * The {@link Event} that last dictated the player's fate, or null.
+     */
+    private volatile Event event;
+
+    /**
+     * The message to kick the player with, or null if they are let in.
+     */
+    private volatile String kickMessage;
+
+    /**
+     * The name history of the player, once it has been looked up.
+     */
+    private volatile NameHistory history;
+
+    /**
+     * Whether or not the player made it through login.
+     */
+    private volatile boolean joined;
+
+    /**
+     * UNIX time of the next expiry check scheduled for the player, or 0.
+     */
+    private final AtomicInteger expiry = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link Session}.
+     *
+     * @param name    The name of the player.
+     * @param uuid    The UUID of the player.
+     * @param address The address the player connected from, or null if unknown.
+     */
+    public Session(final String name,final UUID uuid,final InetAddress address) {
+        this.name = name;
+        this.uuid = uuid;
+        this.address = address;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public UUID getUniqueId() {
+        return this.uuid;
+    }
+
+    public InetAddress getAddress() {
+        return this.address;
+    }
+
+    public int getOpened() {
+        return this.opened;
+    }
+
+    public void setEvent(final Event event) {
+        this.event = event;
+    }
+    public Event getEvent() {
+        return this.event;
+    }
+
+    public String getKickMessage() {
+        return this.kickMessage;
+    }
+
+    public void setHistory(final NameHistory history) {
+        this.history = history;
+    }
+    public NameHistory getHistory() {
+        return this.history;
+    }
+
+    public void join() {
+        this.joined = true;
+    }
+    public boolean hasJoined() {
+        return this.joined;
+    }
+
+    /**
+     * Refuse the player.
+     *
+     * @param event   The {@link Event} that bans the player, or null if there is none.
+     * @param message The message to kick the player with.
+     */
+    public void deny(final Event event,final String message) {
+        this.event = event;
+        this.kickMessage = message;
+    }
+
+    /**
+     * Claim an expiry check.
+     *
+     * Succeeds unless a check is already scheduled at or before the given
+     * time, in which case that check will schedule the next one itself.
+     *
+     * @param expires A UNIX timestamp denoting expiration time.
+     * @return        Whether or not a check should be scheduled.
+     */
+    public boolean scheduleExpiry(final int expires) {
+        while (true) {
+            final int scheduled = this.expiry.get();
+
+            if (scheduled != 0 && scheduled <= expires) {
+                return false;
+            }
+
+            if (this.expiry.compareAndSet(scheduled,expires)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release an expiry check that has come due.
+     *
+     * @param expires The time the check was scheduled for.
+     */
+    public void expired(final int expires) {
+        this.expiry.compareAndSet(expires,0);
+    }
+}
@@ -0,0 +1,305 @@
+package it.flaten.mjolnir.sessions;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link Session}s.
+ *
+ * Holds one {@link Session} per connecting or online player, keyed by the
+ * lowercased name, as storage lookups are. Lookups never lock.
+ * <p>
+ * A new connection under the name of a player who is online does not take
+ * the place of their {@link Session}. Its own {@link Session} is kept aside
+ * until it joins, so refusing it leaves the online player alone.
+ * <p>
+ * The names of recent connections are remembered for a while after their
+ * {@link Session}s are closed, so that a wave of players can be dealt with
+ * after they have left again.
+ *
+ * @author Jim Flaten
+ */
+public class SessionRegistry {
+    /**
+     * Open sessions, keyed by lowercased player name.
+     */
+    private final ConcurrentMap<String,Session> sessionMap = new ConcurrentHashMap<>();
+
+    /**
+     * Sessions of connections under the name of an online player, keyed by
+     * lowercased player name.
+     */
+    private final ConcurrentMap<String,Session> connectingMap = new ConcurrentHashMap<>();
+
+    /**
+     * Lock held while sessions are moved between the maps.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Recent connections, oldest first.
+     *
+     * Changes are made under the lock on the deque.
+     */
+    private final Deque<Connection> recent = new ArrayDeque<>();
+
+    /**
+     * Number of seconds recent connections are remembered for.
+     */
+    private volatile int window = 600;
+
+    /**
+     * Maximum number of recent connections remembered.
+     */
+    private volatile int limit = 10000;
+
+    /**
+     * Set how recent connections are remembered.
+     *
+     * @param window Number of seconds to remember them for.
+     * @param limit  Maximum number to remember.
+     */
+    public void setRecent(final int window,final int limit) {
+        this.window = Math.max(0,window);
+        this.limit = Math.max(0,limit);
+    }
+
+    /**
+     * Open a {@link Session}.
+     *
+     * Replaces any {@link Session} already open for the name, unless that
+     * player has joined, in which case the new {@link Session} is kept aside
+     * until it joins itself. The connection is remembered as a recent one.
+     *
+     * @param name    The name of the player.
+     * @param uuid    The UUID of the player.
+     * @param address The address the player connected from, or null if unknown.
+     * @return        The new {@link Session}.
+     */
+    public Session open(final String name,final UUID uuid,final InetAddress address) {
+        final String key = name.toLowerCase();
+        final Session session = new Session(name,uuid,address);
+
+        synchronized (this.lock) {
+            final Session current = this.sessionMap.get(key);
+
+            if (current != null && current.hasJoined()) {
+                this.connectingMap.put(key,session);
+            } else {
+                this.sessionMap.put(key,session);
+            }
+        }
+
+        synchronized (this.recent) {
+            this.recent.addLast(new Connection(name,session.getOpened()));
+
+            this.trim(session.getOpened());
+        }
+
+        return session;
+    }
+
+    /**
+     * Get the {@link Session} for a player.
+     *
+     * While a player is online, this is their {@link Session}, even if
+     * someone else is connecting under their name.
+     *
+     * @param name The name of the player, in any case.
+     * @return     The {@link Session}, or null if none is open.
+     */
+    public Session get(final String name) {
+        return this.sessionMap.get(name.toLowerCase());
+    }
+
+    /**
+     * Get the {@link Session} of the newest connection under a name that has
+     * not joined yet.
+     *
+     * @param name The name of the player, in any case.
+     * @return     The {@link Session}, or null if there is no such connection.
+     */
+    public Session getConnecting(final String name) {
+        final String key = name.toLowerCase();
+        final Session connecting = this.connectingMap.get(key);
+
+        if (connecting != null) {
+            return connecting;
+        }
+
+        final Session session = this.sessionMap.get(key);
+
+        return session == null || session.hasJoined() ? null : session;
+    }
+
+    /**
+     * Mark a {@link Session} as joined.
+     *
+     * It then takes the place of any other {@link Session} open for the name,
+     * as the server has kicked whoever was online under it.
+     *
+     * @param session The {@link Session} of the player who joined.
+     */
+    public void join(final Session session) {
+        final String key = session.getName().toLowerCase();
+
+        synchronized (this.lock) {
+            session.join();
+
+            this.sessionMap.put(key,session);
+            this.connectingMap.remove(key,session);
+        }
+    }
+
+    /**
+     * Close the {@link Session} for a player.
+     *
+     * @param name The name of the player, in any case.
+     * @return     The {@link Session} that was closed, or null if none was open.
+     */
+    public Session close(final String name) {
+        synchronized (this.lock) {
+            this.connectingMap.remove(name.toLowerCase());
+
+            return this.sessionMap.remove(name.toLowerCase());
+        }
+    }
+
+    /**
+     * Close a {@link Session}.
+     *
+     * Does nothing if it has already been replaced by a newer one, so a
+     * refused connection never closes the {@link Session} of someone else.
+     *
+     * @param session The {@link Session} to close.
+     * @return        Whether or not it was closed.
+     */
+    public boolean close(final Session session) {
+        final String key = session.getName().toLowerCase();
+
+        synchronized (this.lock) {
+            return this.connectingMap.remove(key,session) || this.sessionMap.remove(key,session);
+        }
+    }
+
+    /**
+     * Close {@link Session}s of players who never joined.
+     *
+     * A player may stop connecting after being let through pre-login, in
+     * which case nothing else ever closes their {@link Session}.
+     *
+     * @param before UNIX time before which the {@link Session}s must have been opened.
+     * @return       The number of {@link Session}s closed.
+     */
+    public int expire(final int before) {
+        int closed = 0;
+
+        for (Session session : this.connectingMap.values()) {
+            if (session.getOpened() < before && this.close(session)) {
+                closed++;
+            }
+        }
+
+        for (Session session : this.sessionMap.values()) {
+            if (!session.hasJoined() && session.getOpened() < before && this.close(session)) {
+                closed++;
+            }
+        }
+
+        return closed;
+    }
+
+    /**
+     * Close all {@link Session}s.
+     *
+     * Recent connections are forgotten too.
+     */
+    public void clear() {
+        synchronized (this.lock) {
+            this.sessionMap.clear();
+            this.connectingMap.clear();
+        }
+
+        synchronized (this.recent) {
+            this.recent.clear();
+        }
+    }
+
+    /**
+     * Get the names of players who connected recently.
+     *
+     * Includes players whose {@link Session}s have been closed since, as far
+     * back as connections are remembered.
+     *
+     * @param seconds How many seconds back to look.
+     * @return        The names, most recent first, each only once.
+     */
+    public Set<String> getRecent(final int seconds) {
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+        final Map<String,String> names = new LinkedHashMap<>();
+
+        synchronized (this.recent) {
+            this.trim(now);
+
+            for (Iterator<Connection> iterator = this.recent.descendingIterator(); iterator.hasNext(); ) {
+                final Connection connection = iterator.next();
+
+                if (connection.time < now - seconds) {
+                    break;
+                }
+
+                if (!names.containsKey(connection.name.toLowerCase())) {
+                    names.put(connection.name.toLowerCase(),connection.name);
+                }
+            }
+        }
+
+        return new LinkedHashSet<>(names.values());
+    }
+
+    /**
+     * Get all open {@link Session}s.
+     *
+     * @return An unmodifiable view of the {@link Session}s.
+     */
+    public Collection<Session> getSessions() {
+        return Collections.unmodifiableCollection(this.sessionMap.values());
+    }
+
+    /**
+     * Get the number of open {@link Session}s.
+     *
+     * @return The number of {@link Session}s.
+     */
+    public int size() {
+        return this.sessionMap.size() + this.connectingMap.size();
+    }
+
+    /**
+     * Forget connections that are too old, or too many.
+     *
+     * Callers must hold the lock on {@link #recent}.
+     *
+     * @param now The current UNIX time.
+     */
+    private void trim(final int now) {
+        while (!this.recent.isEmpty() && (this.recent.size() > this.limit || this.recent.peekFirst().time < now - this.window)) {
+            this.recent.removeFirst();
+        }
+    }
+
+    /**
+     * A recent connection.
+     */
+    private static class Connection {
+        private final String name;
+        private final int time;
+
+        private Connection(final String name,final int time) {
+            this.name = name;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.addresses.AddressRange;
+import it.flaten.mjolnir.addresses.AddressTrie;
+import it.flaten.mjolnir.beans.Event;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory index of address bans, in front of another {@link Storage}.
+ *
+ * {@link Event}s whose target is an {@link AddressRange} instead of a player
+ * name are kept in an {@link AddressTrie}, so the {@link Event}s covering a
+ * connecting player's address are found in time proportional to the length of
+ * the address, not the number of ranges. For every range it keeps the same
+ * candidates as {@link CachedStorage} does for a name, newest first, and drops
+ * them as they expire.
+ * <p>
+ * The trie is brought up to date as {@link Event}s are saved, written or
+ * reported by other servers. Everything else is passed on to the wrapped
+ * {@link Storage}, which stores address {@link Event}s like any other.
+ *
+ * @author Jim Flaten
+ */
+public class AddressStorage implements Storage {
+    /**
+     * Wrapped storage.
+     *
+     * The {@link Storage} that actually holds our data.
+     */
+    private final Storage storage;
+
+    /**
+     * Active address {@link Event} index.
+     *
+     * Maps ranges to their candidate {@link Event}s, newest first. The arrays
+     * are never modified after they are put in the trie. Changes are made under
+     * the lock on the trie.
+     */
+    private final AddressTrie<Event[]> trie = new AddressTrie<>();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link AddressStorage}.
+     *
+     * @param storage The {@link Storage} to put the index in front of.
+     */
+    public AddressStorage(final Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Load the index.
+     *
+     * Replaces the contents of the index with all active address {@link Event}s
+     * from the wrapped {@link Storage}.
+     */
+    public void load() {
+        synchronized (this.trie) {
+            this.trie.clear();
+
+            for (Event event : this.storage.loadActiveEvents()) {
+                this.index(event);
+            }
+        }
+    }
+
+    /**
+     * Drop expired {@link Event}s.
+     *
+     * Goes through the whole index and removes every {@link Event} that has
+     * expired. Lookups skip expired {@link Event}s anyway, so this only serves
+     * to free memory and keep the trie small.
+     */
+    public void purge() {
+        final int now = CachedStorage.now();
+
+        synchronized (this.trie) {
+            for (AddressRange range : this.trie.ranges()) {
+                final Event[] events = this.trie.get(range);
+                final Event[] pruned = CachedStorage.prune(events,now);
+
+                if (pruned.length == 0) {
+                    this.trie.remove(range);
+                } else if (pruned.length != events.length) {
+                    this.trie.put(range,pruned);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of ranges in the index.
+     *
+     * @return The number of ranges with a candidate active {@link Event}.
+     */
+    public int size() {
+        return this.trie.size();
+    }
+
+    /**
+     * Load the active {@link Event} for an address.
+     *
+     * Looks at every range covering the address, the most specific first, and
+     * returns the first active {@link Event} found. An unban of a narrower
+     * range thereby makes an exception to a ban of a wider one. Answered from
+     * the index.
+     *
+     * @param address The address of the player.
+     * @return        The active {@link Event}, or null.
+     */
+    public Event loadActiveEvent(final InetAddress address) {
+        final int now = CachedStorage.now();
+
+        for (Event[] events : this.trie.match(address.getAddress())) {
+            for (Event event : events) {
+                if (CachedStorage.isActive(event,now)) {
+                    return event;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The resulting {@link Event} is added to the index if it targets an
+     * address.
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Event event = this.storage.saveEvent(player,op,type,reason,expires);
+
+        if (event != null) {
+            synchronized (this.trie) {
+                this.index(event);
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event}s that target an address are added to the index.
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        this.storage.writeEvents(events);
+
+        synchronized (this.trie) {
+            for (Event event : events) {
+                this.index(event);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        this.storage.assignUniqueIds(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        return this.storage.loadEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        return this.storage.loadEvents(player,after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
+        return this.storage.countEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.storage.scanEvents(after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.storage.loadLastId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        return this.storage.loadActiveEvent(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        return this.storage.loadActiveEvent(uuid);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        return this.storage.loadActiveEvents(players);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        return this.storage.loadActiveEvents();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event} is added to the index if it targets an address.
+     */
+    @Override
+    public void notifyEvent(final Event event) {
+        synchronized (this.trie) {
+            this.index(event);
+        }
+
+        this.storage.notifyEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The index is loaded again afterwards.
+     */
+    @Override
+    public int rebuild() {
+        final int read = this.storage.rebuild();
+
+        this.load();
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        this.trie.clear();
+
+        this.storage.shutdown();
+    }
+
+    /**
+     * Add an {@link Event} to the index.
+     *
+     * {@link Event}s that target a player name are ignored. Callers must hold
+     * the lock on {@link #trie}.
+     *
+     * @param event The {@link Event} to add.
+     */
+    private void index(final Event event) {
+        final AddressRange range = AddressRange.parse(event.getPlayer());
+        final int now = CachedStorage.now();
+
+        if (range == null || !CachedStorage.isActive(event,now)) {
+            return;
+        }
+
+        this.trie.put(range,CachedStorage.push(this.trie.get(range),event,now));
+    }
+}
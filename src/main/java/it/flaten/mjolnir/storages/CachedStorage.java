@@ -0,0 +1,665 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.beans.Event;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of active {@link Event}s, in front of another {@link Storage}.
+ *
+ * Keeps, for every lowercased player name, the {@link Event}s that are or may
+ * become active, newest first. An {@link Event} is dropped from the index as
+ * soon as it has expired, or once a newer {@link Event} makes sure it can never
+ * be active again. {@link Event}s with a known UUID are indexed the same way
+ * by UUID. Everything else is passed on to the wrapped {@link Storage}.
+ *
+ * @author Jim Flaten
+ */
+public class CachedStorage implements Storage {
+    /**
+     * Orders {@link Event}s oldest first.
+     *
+     * {@link Event}s not yet written have no id, and count as the newest.
+     */
+    private static final Comparator<Event> ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(final Event a,final Event b) {
+            final int x = a.getId() == 0 ? Integer.MAX_VALUE : a.getId();
+            final int y = b.getId() == 0 ? Integer.MAX_VALUE : b.getId();
+
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    /**
+     * Wrapped storage.
+     *
+     * The {@link Storage} that actually holds our data.
+     */
+    private final Storage storage;
+
+    /**
+     * Active {@link Event} index.
+     *
+     * Maps lowercased player names to their candidate {@link Event}s, newest
+     * first. The arrays are never modified after they are put in the map.
+     */
+    private final Map<String,Event[]> activeMap = new ConcurrentHashMap<>();
+
+    /**
+     * Active {@link Event} index by UUID.
+     *
+     * Same as {@link #activeMap}, for {@link Event}s with a known UUID. Guarded
+     * by the lock on {@link #activeMap} as well.
+     */
+    private final Map<UUID,Event[]> uuidMap = new ConcurrentHashMap<>();
+
+    /**
+     * Number of lookups that found an active {@link Event}.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups that found no active {@link Event}.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link CachedStorage}.
+     *
+     * @param storage The {@link Storage} to put the index in front of.
+     */
+    public CachedStorage(final Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Load the index.
+     *
+     * Replaces the contents of the index with all active {@link Event}s from
+     * the wrapped {@link Storage}.
+     */
+    public void load() {
+        synchronized (this.activeMap) {
+            this.activeMap.clear();
+            this.uuidMap.clear();
+
+            for (Event event : this.storage.loadActiveEvents()) {
+                this.index(event);
+            }
+        }
+    }
+
+    /**
+     * Drop expired {@link Event}s.
+     *
+     * Goes through the whole index and removes every {@link Event} that has
+     * expired. Lookups do this lazily for the names they touch, so this only
+     * serves to free memory.
+     */
+    public void purge() {
+        final int now = CachedStorage.now();
+
+        synchronized (this.activeMap) {
+            CachedStorage.purge(this.activeMap,now);
+            CachedStorage.purge(this.uuidMap,now);
+        }
+    }
+
+    /**
+     * Get the number of players in the index.
+     *
+     * @return The number of players with a candidate active {@link Event}.
+     */
+    public int size() {
+        return this.activeMap.size();
+    }
+
+    /**
+     * Get the number of lookups that found an active {@link Event}.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that found no active {@link Event}.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The resulting {@link Event} is added to the index.
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Event event = this.storage.saveEvent(player,op,type,reason,expires);
+
+        if (event != null) {
+            synchronized (this.activeMap) {
+                this.index(event);
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event}s are added to the index.
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        this.storage.writeEvents(events);
+
+        synchronized (this.activeMap) {
+            for (Event event : events) {
+                this.index(event);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Indexed {@link Event}s that were given a UUID are indexed by it too.
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        this.storage.assignUniqueIds(events);
+
+        synchronized (this.activeMap) {
+            final Map<UUID,List<Event>> assigned = new HashMap<>();
+
+            for (Event event : events) {
+                final UUID uuid = event.getUniqueId();
+                final Event[] candidates = this.activeMap.get(event.getPlayer().toLowerCase());
+
+                if (uuid == null || candidates == null) {
+                    continue;
+                }
+
+                for (Event candidate : candidates) {
+                    if (candidate.getId() == event.getId() && candidate.getUniqueId() == null) {
+                        candidate.setUniqueId(uuid);
+
+                        List<Event> list = assigned.get(uuid);
+
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            assigned.put(uuid,list);
+                        }
+
+                        list.add(candidate);
+                    }
+                }
+            }
+
+            for (Map.Entry<UUID,List<Event>> entry : assigned.entrySet()) {
+                this.reindex(entry.getKey(),entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        return this.storage.loadEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        return this.storage.loadEvents(player,after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
+        return this.storage.countEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.storage.scanEvents(after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.storage.loadLastId();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Answered from the index.
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        return this.lookup(this.activeMap,player.toLowerCase());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Answered from the index.
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        return this.lookup(this.uuidMap,uuid);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Answered from the index.
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final Map<String,Event> events = new HashMap<>();
+
+        for (String player : players) {
+            final Event event = this.loadActiveEvent(player);
+
+            if (event != null) {
+                events.put(player.toLowerCase(),event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Answered from the index.
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        final int now = CachedStorage.now();
+        final List<Event> events = new ArrayList<>();
+
+        for (Event[] candidates : this.activeMap.values()) {
+            for (Event event : candidates) {
+                if (CachedStorage.isActive(event,now)) {
+                    events.add(event);
+                    break;
+                }
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event} is added to the index.
+     */
+    @Override
+    public void notifyEvent(final Event event) {
+        synchronized (this.activeMap) {
+            this.index(event);
+        }
+
+        this.storage.notifyEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The index is loaded again afterwards.
+     */
+    @Override
+    public int rebuild() {
+        final int read = this.storage.rebuild();
+
+        this.load();
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        this.activeMap.clear();
+        this.uuidMap.clear();
+
+        this.storage.shutdown();
+    }
+
+    /**
+     * Look up the active {@link Event} in one of the indexes.
+     *
+     * @param map The index.
+     * @param key The lowercased name or UUID of the player.
+     * @return    The active {@link Event}, or null.
+     */
+    private <K> Event lookup(final Map<K,Event[]> map,final K key) {
+        final Event[] events = map.get(key);
+
+        if (events != null) {
+            final int now = CachedStorage.now();
+
+            for (Event event : events) {
+                if (CachedStorage.isActive(event,now)) {
+                    if (event != events[0]) {
+                        this.prune(map,key,now);
+                    }
+
+                    this.hits.incrementAndGet();
+                    return event;
+                }
+            }
+
+            this.prune(map,key,now);
+        }
+
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add an {@link Event} to the indexes.
+     *
+     * Callers must hold the lock on {@link #activeMap}.
+     *
+     * @param event The {@link Event} to add.
+     */
+    private void index(final Event event) {
+        final int now = CachedStorage.now();
+
+        CachedStorage.index(this.activeMap,event.getPlayer().toLowerCase(),event,now);
+
+        if (event.getUniqueId() != null) {
+            CachedStorage.index(this.uuidMap,event.getUniqueId(),event,now);
+        }
+    }
+
+    /**
+     * Index {@link Event}s by a UUID they were given later.
+     *
+     * They are older than what may already be indexed for the UUID, so the
+     * candidates for the UUID are indexed again, oldest first. {@link Event}s
+     * not yet written have no id, and count as the newest. Callers must hold
+     * the lock on {@link #activeMap}.
+     *
+     * @param uuid   The UUID.
+     * @param events The {@link Event}s given the UUID.
+     */
+    private void reindex(final UUID uuid,final List<Event> events) {
+        final int now = CachedStorage.now();
+        final List<Event> candidates = new ArrayList<>(events);
+        final Event[] previous = this.uuidMap.remove(uuid);
+
+        if (previous != null) {
+            candidates.addAll(Arrays.asList(previous));
+        }
+
+        Collections.sort(candidates,CachedStorage.ORDER);
+
+        for (Event candidate : candidates) {
+            CachedStorage.index(this.uuidMap,uuid,candidate,now);
+        }
+    }
+
+    /**
+     * Add an {@link Event} to one of the indexes.
+     *
+     * The {@link Event} becomes the newest candidate for its key. Callers must
+     * hold the lock on {@link #activeMap}.
+     *
+     * @param map   The index.
+     * @param key   The lowercased name or UUID of the player.
+     * @param event The {@link Event} to add.
+     * @param now   The current UNIX time.
+     */
+    private static <K> void index(final Map<K,Event[]> map,final K key,final Event event,final int now) {
+        if (!CachedStorage.isActive(event,now)) {
+            return;
+        }
+
+        map.put(key,CachedStorage.push(map.get(key),event,now));
+    }
+
+    /**
+     * Add an {@link Event} to an array of candidates.
+     *
+     * The {@link Event} usually becomes the newest candidate. One that is
+     * already a candidate is not added again, and one older than a candidate,
+     * such as an {@link Event} from another server read back late, is put in
+     * its place by adding all candidates again, oldest first. Older candidates
+     * are kept only if they may become active again once a newer one expires.
+     *
+     * @param previous The candidate {@link Event}s, newest first, or null.
+     * @param event    The active {@link Event} to add.
+     * @param now      The current UNIX time.
+     * @return         The new candidates, newest first.
+     */
+    static Event[] push(final Event[] previous,final Event event,final int now) {
+        if (previous == null) {
+            return new Event[] { event };
+        }
+
+        boolean newest = true;
+
+        for (Event candidate : previous) {
+            if (CachedStorage.same(candidate,event)) {
+                return previous;
+            }
+
+            if (CachedStorage.ORDER.compare(candidate,event) > 0) {
+                newest = false;
+            }
+        }
+
+        if (newest) {
+            return CachedStorage.stack(previous,event,now);
+        }
+
+        final List<Event> events = new ArrayList<>(previous.length + 1);
+        events.add(event);
+
+        for (int i = previous.length - 1; i >= 0; i--) {
+            events.add(previous[i]);
+        }
+
+        Collections.sort(events,CachedStorage.ORDER);
+
+        Event[] candidates = new Event[0];
+
+        for (Event candidate : events) {
+            if (CachedStorage.isActive(candidate,now)) {
+                candidates = CachedStorage.stack(candidates,candidate,now);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Put an {@link Event} on top of an array of candidates.
+     *
+     * @param previous The candidate {@link Event}s, newest first.
+     * @param event    The active {@link Event} to add, newer than all of them.
+     * @param now      The current UNIX time.
+     * @return         The new candidates, newest first.
+     */
+    private static Event[] stack(final Event[] previous,final Event event,final int now) {
+        if (event.getExpires() == 0) {
+            return new Event[] { event };
+        }
+
+        final List<Event> events = new ArrayList<>(previous.length + 1);
+        events.add(event);
+
+        for (Event candidate : previous) {
+            if (CachedStorage.isActive(candidate,now) && (candidate.getExpires() == 0 || candidate.getExpires() > event.getExpires())) {
+                events.add(candidate);
+            }
+        }
+
+        return events.toArray(new Event[events.size()]);
+    }
+
+    /**
+     * Check if two {@link Event}s are the same.
+     *
+     * Compared by id when both have been written, and by content otherwise,
+     * as an {@link Event} read back from storage is a different object from
+     * the one that was written.
+     *
+     * @param a An {@link Event}.
+     * @param b Another {@link Event}.
+     * @return  Whether or not they are the same {@link Event}.
+     */
+    static boolean same(final Event a,final Event b) {
+        if (a == b) {
+            return true;
+        }
+
+        if (a.getId() != 0 && b.getId() != 0) {
+            return a.getId() == b.getId();
+        }
+
+        return a.getTime() == b.getTime()
+            && a.getType() == b.getType()
+            && a.getExpires() == b.getExpires()
+            && a.getPlayer().equalsIgnoreCase(b.getPlayer())
+            && String.valueOf(a.getOp()).equals(String.valueOf(b.getOp()))
+            && String.valueOf(a.getReason()).equals(String.valueOf(b.getReason()));
+    }
+
+    /**
+     * Drop expired {@link Event}s for a single player.
+     *
+     * @param map The index.
+     * @param key The lowercased name or UUID of the player.
+     * @param now The current UNIX time.
+     */
+    private <K> void prune(final Map<K,Event[]> map,final K key,final int now) {
+        synchronized (this.activeMap) {
+            final Event[] events = map.get(key);
+
+            if (events == null) {
+                return;
+            }
+
+            final Event[] pruned = CachedStorage.prune(events,now);
+
+            if (pruned.length == 0) {
+                map.remove(key);
+            } else if (pruned.length != events.length) {
+                map.put(key,pruned);
+            }
+        }
+    }
+
+    /**
+     * Drop expired {@link Event}s from a whole index.
+     *
+     * Callers must hold the lock on {@link #activeMap}.
+     *
+     * @param map The index.
+     * @param now The current UNIX time.
+     */
+    private static <K> void purge(final Map<K,Event[]> map,final int now) {
+        for (Map.Entry<K,Event[]> entry : map.entrySet()) {
+            final Event[] events = CachedStorage.prune(entry.getValue(),now);
+
+            if (events.length == 0) {
+                map.remove(entry.getKey());
+            } else if (events.length != entry.getValue().length) {
+                entry.setValue(events);
+            }
+        }
+    }
+
+    /**
+     * Drop expired {@link Event}s from an array of candidates.
+     *
+     * @param events The candidate {@link Event}s.
+     * @param now    The current UNIX time.
+     * @return       The candidates that have not expired, in the same order.
+     */
+    static Event[] prune(final Event[] events,final int now) {
+        int count = 0;
+
+        for (Event event : events) {
+            if (CachedStorage.isActive(event,now)) {
+                count++;
+            }
+        }
+
+        if (count == events.length) {
+            return events;
+        }
+
+        final Event[] pruned = new Event[count];
+        int i = 0;
+
+        for (Event event : events) {
+            if (CachedStorage.isActive(event,now)) {
+                pruned[i++] = event;
+            }
+        }
+
+        return pruned;
+    }
+
+    /**
+     * Check if an {@link Event} has not expired.
+     *
+     * Matches the condition used by {@link NativeStorage#loadActiveEvent(String)}.
+     *
+     * @param event The {@link Event} to check.
+     * @param now   The current UNIX time.
+     * @return      Whether or not the {@link Event} is still active.
+     */
+    static boolean isActive(final Event event,final int now) {
+        return event.getExpires() == 0 || event.getExpires() >= now;
+    }
+
+    /**
+     * Get the current UNIX time.
+     *
+     * @return The current UNIX time.
+     */
+    static int now() {
+        return (int) (System.currentTimeMillis() / 1000L);
+    }
+}
@@ -0,0 +1,166 @@
+package it.flaten.mjolnir.storages;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of JDBC connections.
+ *
+ * Connections are opened as they are needed, up to the pool size, and each
+ * one keeps its own {@link PreparedStatement}s so that they are only prepared
+ * once. Connections that fail are closed instead of being returned.
+ *
+ * @author Jim Flaten
+ */
+public class ConnectionPool {
+    /**
+     * JDBC URL and credentials.
+     */
+    private final String url;
+    private final String username;
+    private final String password;
+
+    /**
+     * Connections not currently in use.
+     */
+    private final BlockingQueue<PooledConnection> idle;
+
+    /**
+     * Limits the number of connections in use.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link ConnectionPool}. No connections are opened yet.
+     *
+     * @param url      JDBC URL of the database.
+     * @param username Database username.
+     * @param password Database password.
+     * @param size     Maximum number of open connections.
+     */
+    public ConnectionPool(final String url,final String username,final String password,final int size) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1,size));
+        this.permits = new Semaphore(Math.max(1,size));
+    }
+
+    /**
+     * Borrow a connection.
+     *
+     * Waits up to five seconds for a connection to become available.
+     *
+     * @return A {@link PooledConnection}, which must be handed back with {@link #release(PooledConnection, boolean)}.
+     * @throws SQLException If no connection could be had.
+     */
+    public PooledConnection acquire() throws SQLException {
+        try {
+            if (!this.permits.tryAcquire(5,TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+
+        final PooledConnection connection = this.idle.poll();
+
+        if (connection != null) {
+            return connection;
+        }
+
+        try {
+            return new PooledConnection(DriverManager.getConnection(this.url,this.username,this.password));
+        } catch (SQLException exception) {
+            this.permits.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * Hand back a borrowed connection.
+     *
+     * @param connection The {@link PooledConnection} to hand back.
+     * @param broken     Whether or not the connection failed, in which case it is closed.
+     */
+    public void release(final PooledConnection connection,final boolean broken) {
+        if (broken || !this.idle.offer(connection)) {
+            connection.close();
+        }
+
+        this.permits.release();
+    }
+
+    /**
+     * Close all idle connections.
+     */
+    public void close() {
+        PooledConnection connection;
+
+        while ((connection = this.idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * A pooled connection with its prepared statements.
+     */
+    public static class PooledConnection {
+        private final Connection connection;
+        private final Map<String,PreparedStatement> statementMap = new HashMap<>();
+
+        private PooledConnection(final Connection connection) {
+            this.connection = connection;
+        }
+
+        public Connection getConnection() {
+            return this.connection;
+        }
+
+        /**
+         * Get a prepared statement.
+         *
+         * The statement is prepared the first time it is asked for on this connection.
+         *
+         * @param sql         The SQL of the statement.
+         * @param keys        Whether or not the statement should return generated keys.
+         * @return            The {@link PreparedStatement}.
+         * @throws SQLException If the statement could not be prepared.
+         */
+        public PreparedStatement prepare(final String sql,final boolean keys) throws SQLException {
+            PreparedStatement statement = this.statementMap.get(sql);
+
+            if (statement == null) {
+                statement = keys ?
+                    this.connection.prepareStatement(sql,Statement.RETURN_GENERATED_KEYS) :
+                    this.connection.prepareStatement(sql);
+
+                this.statementMap.put(sql,statement);
+            }
+
+            statement.clearParameters();
+
+            return statement;
+        }
+
+        public PreparedStatement prepare(final String sql) throws SQLException {
+            return this.prepare(sql,false);
+        }
+
+        private void close() {
+            try {
+                this.connection.close();
+            } catch (SQLException ignored) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+}
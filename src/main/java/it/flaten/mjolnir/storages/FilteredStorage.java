@@ -0,0 +1,410 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.caches.BloomFilter;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter of known players, in front of another {@link Storage}.
+ *
+ * Keeps a {@link BloomFilter} over the name of every player that has an
+ * {@link Event}. Lookups for names that are definitely not in it are answered
+ * right away, without reaching the wrapped {@link Storage}. Since
+ * {@link Event}s are never deleted, a name never has to leave the filter.
+ * <p>
+ * The filter is saved to a file when the storage is shut down, together with
+ * the highest id it has seen, and brought up to date from there when it is
+ * loaded again. {@link Event}s written by other servers sharing the storage
+ * are picked up by calling {@link #catchUp()} regularly.
+ * <p>
+ * Only names are kept in the filter, so lookups by UUID are always passed on.
+ *
+ * @author Jim Flaten
+ */
+public class FilteredStorage implements Storage {
+    /**
+     * Marks a filter file.
+     */
+    private static final int MAGIC = 0x4d4a4246;
+
+    /**
+     * Number of {@link Event}s read at a time while catching up.
+     */
+    private static final int BATCH = 1000;
+
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * Wrapped storage.
+     *
+     * The {@link Storage} that actually holds our data.
+     */
+    private final Storage storage;
+
+    /**
+     * The file the filter is saved to.
+     */
+    private final File file;
+
+    /**
+     * The filter.
+     *
+     * Replaced only while loading.
+     */
+    private volatile BloomFilter filter;
+
+    /**
+     * Highest {@link Event} id the filter has seen.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private int lastId = 0;
+
+    /**
+     * Whether or not the storage has been shut down.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private boolean closed = false;
+
+    /**
+     * Number of lookups answered by the filter alone.
+     */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Number of lookups passed on to the wrapped {@link Storage}.
+     */
+    private final AtomicLong passed = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link FilteredStorage} with an empty filter.
+     *
+     * @param plugin   A reference to the running plugin.
+     * @param storage  The {@link Storage} to put the filter in front of.
+     * @param file     The file to save the filter to.
+     * @param expected Number of distinct player names the filter is sized for.
+     * @param fpp      Wanted chance of a false positive at that size, between 0 and 1.
+     */
+    public FilteredStorage(final Mjolnir plugin,final Storage storage,final File file,final long expected,final double fpp) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.file = file;
+        this.filter = BloomFilter.create(expected,fpp);
+    }
+
+    /**
+     * Load the filter.
+     *
+     * Reads the saved filter if it has the configured size, and then adds
+     * every {@link Event} written since it was saved. Without a usable file,
+     * the filter is built from the whole storage.
+     */
+    public synchronized void load() {
+        if (this.file.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+                if (input.readInt() != FilteredStorage.MAGIC) {
+                    throw new IOException("Not a filter file");
+                }
+
+                final int lastId = input.readInt();
+                final BloomFilter filter = BloomFilter.read(input);
+
+                if (filter.getBits() == this.filter.getBits() && filter.getHashes() == this.filter.getHashes()) {
+                    this.filter = filter;
+                    this.lastId = lastId;
+                } else {
+                    this.plugin.getLogger().info("   Filter size changed. Rebuilding.");
+                }
+            } catch (IOException exception) {
+                this.plugin.getLogger().warning("Failed to load filter! Rebuilding.");
+            }
+        }
+
+        this.catchUp();
+    }
+
+    /**
+     * Bring the filter up to date.
+     *
+     * Adds the players of all {@link Event}s written since the last time,
+     * including those written by other servers.
+     *
+     * @return The number of {@link Event}s read.
+     */
+    public synchronized int catchUp() {
+        int read = 0;
+
+        while (!this.closed) {
+            final List<Event> events = this.storage.scanEvents(this.lastId,FilteredStorage.BATCH);
+
+            for (Event event : events) {
+                this.filter.put(event.getPlayer());
+                this.lastId = Math.max(this.lastId,event.getId());
+            }
+
+            read += events.size();
+
+            if (events.size() < FilteredStorage.BATCH) {
+                break;
+            }
+        }
+
+        return read;
+    }
+
+    /**
+     * Get the filter.
+     *
+     * @return The {@link BloomFilter} in use.
+     */
+    public BloomFilter getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * Get the number of lookups answered by the filter alone.
+     *
+     * @return The number of skipped lookups.
+     */
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Get the number of lookups passed on to the wrapped {@link Storage}.
+     *
+     * Includes the false positives.
+     *
+     * @return The number of passed lookups.
+     */
+    public long getPassed() {
+        return this.passed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The player is added to the filter first, so the {@link Event} is never
+     * hidden from lookups.
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        this.filter.put(player);
+
+        return this.storage.saveEvent(player,op,type,reason,expires);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        for (Event event : events) {
+            this.filter.put(event.getPlayer());
+        }
+
+        this.storage.writeEvents(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        this.storage.assignUniqueIds(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        if (!this.mightContain(player)) {
+            return null;
+        }
+
+        return this.storage.loadEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        if (!this.mightContain(player)) {
+            return new ArrayList<>();
+        }
+
+        return this.storage.loadEvents(player,after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
+        if (!this.mightContain(player)) {
+            return 0;
+        }
+
+        return this.storage.countEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.storage.scanEvents(after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.storage.loadLastId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        if (!this.mightContain(player)) {
+            return null;
+        }
+
+        return this.storage.loadActiveEvent(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        return this.storage.loadActiveEvent(uuid);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only names that may be in the filter are passed on.
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final List<String> known = new ArrayList<>(players.size());
+
+        for (String player : players) {
+            if (this.mightContain(player)) {
+                known.add(player);
+            }
+        }
+
+        if (known.size() == 0) {
+            return new HashMap<>();
+        }
+
+        return this.storage.loadActiveEvents(known);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        return this.storage.loadActiveEvents();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The player is added to the filter.
+     */
+    @Override
+    public void notifyEvent(final Event event) {
+        this.filter.put(event.getPlayer());
+
+        this.storage.notifyEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The filter is brought up to date afterwards.
+     */
+    @Override
+    public int rebuild() {
+        final int read = this.storage.rebuild();
+
+        this.catchUp();
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Saves the filter once the wrapped {@link Storage} is shut down.
+     */
+    @Override
+    public synchronized void shutdown() {
+        this.closed = true;
+
+        this.storage.shutdown();
+
+        final File temporary = new File(this.file.getPath() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(FilteredStorage.MAGIC);
+            output.writeInt(this.lastId);
+
+            this.filter.write(output);
+        } catch (IOException exception) {
+            this.plugin.getLogger().warning("Failed to save filter!");
+
+            exception.printStackTrace();
+            return;
+        }
+
+        if (!this.file.delete() && this.file.exists() || !temporary.renameTo(this.file)) {
+            this.plugin.getLogger().warning("Failed to replace " + this.file.getName() + "!");
+        }
+    }
+
+    /**
+     * Check the filter, and count the outcome.
+     *
+     * @param player The name of the player.
+     * @return       False if the player definitely has no {@link Event}s.
+     */
+    private boolean mightContain(final String player) {
+        if (this.filter.mightContain(player)) {
+            this.passed.incrementAndGet();
+            return true;
+        }
+
+        this.skipped.incrementAndGet();
+        return false;
+    }
+}
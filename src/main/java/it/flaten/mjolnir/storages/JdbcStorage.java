@@ -0,0 +1,929 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.events.NewEventEvent;
+
+import javax.persistence.PersistenceException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Plain JDBC implementation of storage, for Mjölnir.
+ *
+ * Keeps {@link Event}s in its own table, with a lowercased copy of the player
+ * name that is indexed together with the id, so lookups never need to compare
+ * names case-insensitively. Statements are prepared once per pooled connection.
+ * <p>
+ * A second table holds the current state of every player: the id of the
+ * newest {@link Event} that may still be active. It is updated in the same
+ * transaction as the {@link Event}s, so the active {@link Event} is found with
+ * a primary key lookup. When that {@link Event} turns out to have expired, the
+ * {@link Event}s are searched once, and the row is moved to the result.
+ * <p>
+ * The UUID of every {@link Event} is kept as two 64-bit columns, indexed
+ * together with the id, so the newest {@link Event}s for a UUID are read
+ * straight off the index.
+ *
+ * @author Jim Flaten
+ */
+public class JdbcStorage implements Storage {
+    /**
+     * Columns selected for every {@link Event}.
+     */
+    private static final String COLUMNS = "id,time,player,op,type,reason,expires,uuid_most,uuid_least";
+
+    /**
+     * Columns selected for every {@link Event}, when joined with the state table.
+     */
+    private static final String JOINED_COLUMNS = "e.id,e.time,e.player,e.op,e.type,e.reason,e.expires,e.uuid_most,e.uuid_least";
+
+    /**
+     * Number of {@link Event}s read at a time while rebuilding.
+     */
+    private static final int BATCH = 1000;
+
+    /**
+     * Largest number of names looked up in one statement.
+     *
+     * Bulk lookups are split into chunks, each padded to a power of two, so
+     * only a handful of distinct statements ever need to be prepared.
+     */
+    private static final int MAX_IN = 64;
+
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * Connection pool.
+     */
+    private final ConnectionPool pool;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link JdbcStorage}.
+     *
+     * @param plugin A reference to the running plugin.
+     * @param pool   The {@link ConnectionPool} to use.
+     */
+    public JdbcStorage(final Mjolnir plugin,final ConnectionPool pool) {
+        this.plugin = plugin;
+        this.pool = pool;
+    }
+
+    /**
+     * Create database tables.
+     *
+     * Creates the event table, its indexes and the state table, unless they
+     * already exist. Event tables created before UUIDs were stored get the
+     * columns added, left empty until they are filled in by
+     * {@link it.flaten.mjolnir.tasks.MigrationTask}. A new state table is
+     * filled from existing {@link Event}s.
+     */
+    @Override
+    public void createTables() {
+        final boolean created = this.execute(new Work<Boolean>() {
+            @Override
+            public Boolean run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final DatabaseMetaData metaData = connection.getConnection().getMetaData();
+                final String product = metaData.getDatabaseProductName().toLowerCase();
+
+                final String id;
+
+                if (product.contains("sqlite")) {
+                    id = "INTEGER PRIMARY KEY AUTOINCREMENT";
+                } else if (product.contains("postgres")) {
+                    id = "SERIAL PRIMARY KEY";
+                } else {
+                    id = "INTEGER PRIMARY KEY AUTO_INCREMENT";
+                }
+
+                try (Statement statement = connection.getConnection().createStatement()) {
+                    statement.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS mjolnir_events (" +
+                            "id " + id + "," +
+                            "time INTEGER NOT NULL," +
+                            "player VARCHAR(64) NOT NULL," +
+                            "player_key VARCHAR(64) NOT NULL," +
+                            "op VARCHAR(64) NOT NULL," +
+                            "type INTEGER NOT NULL," +
+                            "reason TEXT NOT NULL," +
+                            "expires INTEGER NOT NULL," +
+                            "uuid_most BIGINT NOT NULL DEFAULT 0," +
+                            "uuid_least BIGINT NOT NULL DEFAULT 0" +
+                        ")"
+                    );
+
+                    if (!JdbcStorage.hasColumn(metaData,"mjolnir_events","uuid_most")) {
+                        statement.executeUpdate("ALTER TABLE mjolnir_events ADD COLUMN uuid_most BIGINT NOT NULL DEFAULT 0");
+                        statement.executeUpdate("ALTER TABLE mjolnir_events ADD COLUMN uuid_least BIGINT NOT NULL DEFAULT 0");
+
+                        JdbcStorage.this.plugin.getLogger().info("   Added UUID columns. They are filled in by /mjolnir migrate.");
+                    }
+
+                    if (!product.contains("sqlite") && JdbcStorage.getColumnSize(metaData,"mjolnir_events","reason") <= 255) {
+                        statement.executeUpdate(product.contains("postgres") ?
+                            "ALTER TABLE mjolnir_events ALTER COLUMN reason TYPE TEXT" :
+                            "ALTER TABLE mjolnir_events MODIFY reason TEXT NOT NULL"
+                        );
+
+                        JdbcStorage.this.plugin.getLogger().info("   Widened the reason column.");
+                    }
+
+                    if (!JdbcStorage.hasIndex(metaData,"mjolnir_events","mjolnir_events_player_key")) {
+                        statement.executeUpdate("CREATE INDEX mjolnir_events_player_key ON mjolnir_events (player_key,id DESC)");
+                    }
+
+                    if (!JdbcStorage.hasIndex(metaData,"mjolnir_events","mjolnir_events_uuid")) {
+                        statement.executeUpdate("CREATE INDEX mjolnir_events_uuid ON mjolnir_events (uuid_most,uuid_least,id DESC)");
+                    }
+
+                    if (JdbcStorage.hasTable(metaData,"mjolnir_active")) {
+                        return false;
+                    }
+
+                    statement.executeUpdate(
+                        "CREATE TABLE mjolnir_active (" +
+                            "player_key VARCHAR(64) NOT NULL PRIMARY KEY," +
+                            "event_id INTEGER NOT NULL" +
+                        ")"
+                    );
+
+                    return true;
+                }
+            }
+        });
+
+        if (created) {
+            this.plugin.getLogger().info("   Building state table...");
+            this.plugin.getLogger().info("   Read " + this.rebuild() + " events.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Event event = new Event();
+
+        event.setTime((int) (System.currentTimeMillis() / 1000L));
+        event.setPlayer(player);
+        event.setOp(op);
+        event.setType(type);
+        event.setReason(reason);
+        event.setExpires(expires);
+
+        NewEventEvent newEventEvent = this.plugin.preProcess(event);
+
+        if (newEventEvent.isCancelled()) {
+            return null;
+        }
+
+        this.writeEvents(Collections.singletonList(event));
+
+        this.plugin.postProcess(event);
+
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Inserted one row at a time, in one transaction, so that every
+     * {@link Event} is given its id. Drivers such as sqlite-jdbc only return
+     * the last generated key of a batch.
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        this.execute(new Work<Void>() {
+            @Override
+            public Void run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "INSERT INTO mjolnir_events (time,player,player_key,op,type,reason,expires,uuid_most,uuid_least) VALUES (?,?,?,?,?,?,?,?,?)",
+                    true
+                );
+
+                connection.getConnection().setAutoCommit(false);
+
+                try {
+                    for (Event event : events) {
+                        statement.setInt(1,event.getTime());
+                        statement.setString(2,event.getPlayer());
+                        statement.setString(3,event.getPlayer().toLowerCase());
+                        statement.setString(4,event.getOp());
+                        statement.setInt(5,event.getType().getId());
+                        statement.setString(6,event.getReason());
+                        statement.setInt(7,event.getExpires());
+                        statement.setLong(8,event.getUuidMost());
+                        statement.setLong(9,event.getUuidLeast());
+                        statement.executeUpdate();
+
+                        try (ResultSet keys = statement.getGeneratedKeys()) {
+                            if (!keys.next()) {
+                                throw new SQLException("No id was generated for an event of " + event.getPlayer());
+                            }
+
+                            event.setId(keys.getInt(1));
+                        }
+                    }
+
+                    JdbcStorage.activate(connection,events);
+
+                    connection.getConnection().commit();
+                } catch (SQLException exception) {
+                    connection.getConnection().rollback();
+                    throw exception;
+                } finally {
+                    connection.getConnection().setAutoCommit(true);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Updated as a single batch, in one transaction.
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        this.execute(new Work<Void>() {
+            @Override
+            public Void run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "UPDATE mjolnir_events SET uuid_most = ?, uuid_least = ? WHERE id = ? AND uuid_most = 0 AND uuid_least = 0"
+                );
+
+                connection.getConnection().setAutoCommit(false);
+
+                try {
+                    for (Event event : events) {
+                        if (event.getUniqueId() == null) {
+                            continue;
+                        }
+
+                        statement.setLong(1,event.getUuidMost());
+                        statement.setLong(2,event.getUuidLeast());
+                        statement.setInt(3,event.getId());
+                        statement.addBatch();
+                    }
+
+                    statement.executeBatch();
+
+                    connection.getConnection().commit();
+                } catch (SQLException exception) {
+                    connection.getConnection().rollback();
+                    throw exception;
+                } finally {
+                    connection.getConnection().setAutoCommit(true);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        final List<Event> events = this.execute(new Work<List<Event>>() {
+            @Override
+            public List<Event> run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT " + JdbcStorage.COLUMNS + " FROM mjolnir_events WHERE player_key = ? ORDER BY id ASC"
+                );
+
+                statement.setString(1,player.toLowerCase());
+
+                return JdbcStorage.read(statement);
+            }
+        });
+
+        if (events.size() == 0) {
+            return null;
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        return this.execute(new Work<List<Event>>() {
+            @Override
+            public List<Event> run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT " + JdbcStorage.COLUMNS + " FROM mjolnir_events WHERE player_key = ? AND id > ? ORDER BY id ASC"
+                );
+
+                statement.setString(1,player.toLowerCase());
+                statement.setInt(2,after);
+                statement.setMaxRows(limit);
+
+                return JdbcStorage.read(statement);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
+        return this.execute(new Work<Integer>() {
+            @Override
+            public Integer run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT COUNT(*) FROM mjolnir_events WHERE player_key = ?"
+                );
+
+                statement.setString(1,player.toLowerCase());
+
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getInt(1) : 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.execute(new Work<List<Event>>() {
+            @Override
+            public List<Event> run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT " + JdbcStorage.COLUMNS + " FROM mjolnir_events WHERE id > ? ORDER BY id ASC"
+                );
+
+                statement.setInt(1,after);
+                statement.setMaxRows(limit);
+
+                return JdbcStorage.read(statement);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.execute(new Work<Integer>() {
+            @Override
+            public Integer run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT MAX(id) FROM mjolnir_events"
+                );
+
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getInt(1) : 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        return this.execute(new Work<Event>() {
+            @Override
+            public Event run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT " + JdbcStorage.JOINED_COLUMNS + " FROM mjolnir_active a JOIN mjolnir_events e ON e.id = a.event_id WHERE a.player_key = ?"
+                );
+
+                statement.setString(1,player.toLowerCase());
+
+                final List<Event> events = JdbcStorage.read(statement);
+
+                if (events.size() == 0) {
+                    return null;
+                }
+
+                final Event event = events.get(0);
+
+                if (JdbcStorage.isActive(event)) {
+                    return event;
+                }
+
+                return JdbcStorage.heal(connection,player.toLowerCase(),event.getId());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads the {@link Event}s for the UUID newest first, off its index.
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        return this.execute(new Work<Event>() {
+            @Override
+            public Event run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT " + JdbcStorage.COLUMNS + " FROM mjolnir_events WHERE uuid_most = ? AND uuid_least = ? AND (expires = 0 OR expires >= ?) ORDER BY id DESC"
+                );
+
+                statement.setLong(1,uuid.getMostSignificantBits());
+                statement.setLong(2,uuid.getLeastSignificantBits());
+                statement.setInt(3,(int) (System.currentTimeMillis() / 1000L));
+                statement.setMaxRows(1);
+
+                final List<Event> events = JdbcStorage.read(statement);
+
+                return events.size() == 0 ? null : events.get(0);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final List<String> keys = new ArrayList<>();
+
+        for (String player : new LinkedHashSet<>(players)) {
+            keys.add(player.toLowerCase());
+        }
+
+        final Map<String,Event> events = new HashMap<>();
+
+        for (int from = 0; from < keys.size(); from += JdbcStorage.MAX_IN) {
+            final List<String> chunk = keys.subList(from,Math.min(keys.size(),from + JdbcStorage.MAX_IN));
+
+            final List<Event> active = this.execute(new Work<List<Event>>() {
+                @Override
+                public List<Event> run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                    int size = 1;
+
+                    while (size < chunk.size()) {
+                        size <<= 1;
+                    }
+
+                    final StringBuilder placeholders = new StringBuilder();
+
+                    for (int i = 0; i < size; i++) {
+                        placeholders.append(i == 0 ? "?" : ",?");
+                    }
+
+                    final PreparedStatement statement = connection.prepare(
+                        "SELECT " + JdbcStorage.JOINED_COLUMNS + " FROM mjolnir_active a JOIN mjolnir_events e ON e.id = a.event_id WHERE a.player_key IN (" + placeholders + ")"
+                    );
+
+                    for (int i = 0; i < size; i++) {
+                        statement.setString(i + 1,chunk.get(Math.min(i,chunk.size() - 1)));
+                    }
+
+                    return JdbcStorage.healAll(connection,JdbcStorage.read(statement));
+                }
+            });
+
+            for (Event event : active) {
+                events.put(event.getPlayer().toLowerCase(),event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        return this.execute(new Work<List<Event>>() {
+            @Override
+            public List<Event> run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                final PreparedStatement statement = connection.prepare(
+                    "SELECT " + JdbcStorage.COLUMNS + " FROM mjolnir_events WHERE expires = 0 OR expires >= ? ORDER BY id ASC"
+                );
+
+                statement.setInt(1,(int) (System.currentTimeMillis() / 1000L));
+
+                return JdbcStorage.read(statement);
+            }
+        });
+    }
+
+    /**
+     * Does nothing.
+     *
+     * Nothing is kept in memory.
+     */
+    @Override
+    @SuppressWarnings("EmptyMethod")
+    public void notifyEvent(final Event event) {
+
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Points every player's state at their newest {@link Event}, a batch at a
+     * time, each batch in its own transaction. State is only ever moved to
+     * newer {@link Event}s, so {@link Event}s written meanwhile are never
+     * overwritten by older ones.
+     */
+    @Override
+    public int rebuild() {
+        int after = 0;
+        int read = 0;
+
+        while (true) {
+            final List<Event> events = this.scanEvents(after,JdbcStorage.BATCH);
+
+            if (events.size() == 0) {
+                break;
+            }
+
+            this.execute(new Work<Void>() {
+                @Override
+                public Void run(final ConnectionPool.PooledConnection connection) throws SQLException {
+                    connection.getConnection().setAutoCommit(false);
+
+                    try {
+                        JdbcStorage.activate(connection,events);
+
+                        connection.getConnection().commit();
+                    } catch (SQLException exception) {
+                        connection.getConnection().rollback();
+                        throw exception;
+                    } finally {
+                        connection.getConnection().setAutoCommit(true);
+                    }
+
+                    return null;
+                }
+            });
+
+            after = events.get(events.size() - 1).getId();
+            read += events.size();
+        }
+
+        return read;
+    }
+
+    /**
+     * Closes all database connections.
+     */
+    @Override
+    public void shutdown() {
+        this.pool.close();
+    }
+
+    /**
+     * Run some work on a pooled connection.
+     *
+     * The connection is handed back afterwards, or closed if the work failed.
+     *
+     * @param work The {@link Work} to run.
+     * @return     The result of the work.
+     * @throws PersistenceException If the work failed.
+     */
+    private <T> T execute(final Work<T> work) {
+        final ConnectionPool.PooledConnection connection;
+
+        try {
+            connection = this.pool.acquire();
+        } catch (SQLException exception) {
+            throw new PersistenceException(exception);
+        }
+
+        boolean broken = true;
+
+        try {
+            final T result = work.run(connection);
+            broken = false;
+            return result;
+        } catch (SQLException exception) {
+            throw new PersistenceException(exception);
+        } finally {
+            this.pool.release(connection,broken);
+        }
+    }
+
+    /**
+     * Point player states at new {@link Event}s.
+     *
+     * For every player, the state is moved to the newest of the given
+     * {@link Event}s, unless it already points at a newer one. Must be called
+     * inside the transaction that wrote the {@link Event}s.
+     * <p>
+     * Another server may insert the state of the same player between the check
+     * and the insert. The insert then fails on the primary key, is rolled back
+     * to a savepoint, and the update is run again against that row.
+     *
+     * @param connection The connection holding the transaction.
+     * @param events     The written {@link Event}s, oldest first.
+     * @throws SQLException If the state could not be updated.
+     */
+    private static void activate(final ConnectionPool.PooledConnection connection,final List<Event> events) throws SQLException {
+        final Map<String,Integer> newest = new HashMap<>();
+
+        for (Event event : events) {
+            final String key = event.getPlayer().toLowerCase();
+            final int id = event.getId();
+
+            final Integer previous = newest.get(key);
+
+            if (previous == null || previous < id) {
+                newest.put(key,id);
+            }
+        }
+
+        for (Map.Entry<String,Integer> entry : newest.entrySet()) {
+            if (JdbcStorage.update(connection,entry.getKey(),entry.getValue()) || JdbcStorage.hasState(connection,entry.getKey())) {
+                continue;
+            }
+
+            final PreparedStatement insert = connection.prepare(
+                "INSERT INTO mjolnir_active (player_key,event_id) VALUES (?,?)"
+            );
+
+            insert.setString(1,entry.getKey());
+            insert.setInt(2,entry.getValue());
+
+            final Savepoint savepoint = connection.getConnection().setSavepoint();
+
+            try {
+                insert.executeUpdate();
+            } catch (SQLException exception) {
+                connection.getConnection().rollback(savepoint);
+
+                if (!JdbcStorage.hasState(connection,entry.getKey())) {
+                    throw exception;
+                }
+
+                JdbcStorage.update(connection,entry.getKey(),entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Move the state of a player to a newer {@link Event}.
+     *
+     * @param connection The connection to use.
+     * @param key        The lowercased name of the player.
+     * @param id         The id of the {@link Event}.
+     * @return           Whether or not the state was moved.
+     * @throws SQLException If the state could not be updated.
+     */
+    private static boolean update(final ConnectionPool.PooledConnection connection,final String key,final int id) throws SQLException {
+        final PreparedStatement update = connection.prepare(
+            "UPDATE mjolnir_active SET event_id = ? WHERE player_key = ? AND event_id < ?"
+        );
+
+        update.setInt(1,id);
+        update.setString(2,key);
+        update.setInt(3,id);
+
+        return update.executeUpdate() > 0;
+    }
+
+    /**
+     * Check if a player has a state.
+     *
+     * @param connection The connection to use.
+     * @param key        The lowercased name of the player.
+     * @return           Whether or not the state exists.
+     * @throws SQLException If the database could not be asked.
+     */
+    private static boolean hasState(final ConnectionPool.PooledConnection connection,final String key) throws SQLException {
+        final PreparedStatement exists = connection.prepare(
+            "SELECT 1 FROM mjolnir_active WHERE player_key = ?"
+        );
+
+        exists.setString(1,key);
+
+        try (ResultSet result = exists.executeQuery()) {
+            return result.next();
+        }
+    }
+
+    /**
+     * Repair the state of a player whose {@link Event} has expired.
+     *
+     * Searches the player's {@link Event}s for the newest one still active, and
+     * points the state at it, or removes the state if there is none. The state
+     * is left alone if it was changed meanwhile.
+     *
+     * @param connection The connection to use.
+     * @param key        The lowercased name of the player.
+     * @param stale      The id of the expired {@link Event} the state points at.
+     * @return           The active {@link Event}, or null.
+     * @throws SQLException If the state could not be repaired.
+     */
+    private static Event heal(final ConnectionPool.PooledConnection connection,final String key,final int stale) throws SQLException {
+        final PreparedStatement statement = connection.prepare(
+            "SELECT " + JdbcStorage.COLUMNS + " FROM mjolnir_events WHERE player_key = ? AND id < ? AND (expires = 0 OR expires >= ?) ORDER BY id DESC"
+        );
+
+        statement.setString(1,key);
+        statement.setInt(2,stale);
+        statement.setInt(3,(int) (System.currentTimeMillis() / 1000L));
+        statement.setMaxRows(1);
+
+        final List<Event> events = JdbcStorage.read(statement);
+
+        if (events.size() == 0) {
+            final PreparedStatement delete = connection.prepare(
+                "DELETE FROM mjolnir_active WHERE player_key = ? AND event_id = ?"
+            );
+
+            delete.setString(1,key);
+            delete.setInt(2,stale);
+            delete.executeUpdate();
+
+            return null;
+        }
+
+        final PreparedStatement update = connection.prepare(
+            "UPDATE mjolnir_active SET event_id = ? WHERE player_key = ? AND event_id = ?"
+        );
+
+        update.setInt(1,events.get(0).getId());
+        update.setString(2,key);
+        update.setInt(3,stale);
+        update.executeUpdate();
+
+        return events.get(0);
+    }
+
+    /**
+     * Repair the state of every player whose {@link Event} has expired.
+     *
+     * @param connection The connection to use.
+     * @param events     {@link Event}s the states point at.
+     * @return           The active {@link Event}s, in the same order, without players that have none.
+     * @throws SQLException If a state could not be repaired.
+     */
+    private static List<Event> healAll(final ConnectionPool.PooledConnection connection,final List<Event> events) throws SQLException {
+        final List<Event> active = new ArrayList<>(events.size());
+
+        for (Event event : events) {
+            final Event healed = JdbcStorage.isActive(event) ? event : JdbcStorage.heal(connection,event.getPlayer().toLowerCase(),event.getId());
+
+            if (healed != null) {
+                active.add(healed);
+            }
+        }
+
+        return active;
+    }
+
+    /**
+     * Check if an {@link Event} has not expired.
+     *
+     * @param event The {@link Event} to check.
+     * @return      Whether or not it is still active.
+     */
+    private static boolean isActive(final Event event) {
+        return event.getExpires() == 0 || event.getExpires() >= (int) (System.currentTimeMillis() / 1000L);
+    }
+
+    /**
+     * Read {@link Event}s from a query.
+     *
+     * @param statement The {@link PreparedStatement} to execute.
+     * @return          A {@link List} of {@link Event}s, in the order returned.
+     * @throws SQLException If the query failed.
+     */
+    private static List<Event> read(final PreparedStatement statement) throws SQLException {
+        final List<Event> events = new ArrayList<>();
+
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                final Event event = new Event();
+
+                event.setId(result.getInt(1));
+                event.setTime(result.getInt(2));
+                event.setPlayer(result.getString(3));
+                event.setOp(result.getString(4));
+                event.setType(Event.EventType.fromId(result.getInt(5)));
+                event.setReason(result.getString(6));
+                event.setExpires(result.getInt(7));
+                event.setUuidMost(result.getLong(8));
+                event.setUuidLeast(result.getLong(9));
+
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Check if an index exists.
+     *
+     * @param metaData The {@link DatabaseMetaData} of the database.
+     * @param table    The table the index belongs to.
+     * @param index    The name of the index.
+     * @return         Whether or not the index exists.
+     * @throws SQLException If the database could not be asked.
+     */
+    private static boolean hasIndex(final DatabaseMetaData metaData,final String table,final String index) throws SQLException {
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            try (ResultSet result = metaData.getIndexInfo(null,null,name,false,false)) {
+                while (result.next()) {
+                    if (index.equalsIgnoreCase(result.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the size of a column.
+     *
+     * @param metaData The {@link DatabaseMetaData} of the database.
+     * @param table    The table the column belongs to.
+     * @param column   The name of the column.
+     * @return         The size of the column, or 0 if it does not exist.
+     * @throws SQLException If the database could not be asked.
+     */
+    private static int getColumnSize(final DatabaseMetaData metaData,final String table,final String column) throws SQLException {
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            try (ResultSet result = metaData.getColumns(null,null,name,null)) {
+                while (result.next()) {
+                    if (column.equalsIgnoreCase(result.getString("COLUMN_NAME"))) {
+                        return result.getInt("COLUMN_SIZE");
+                    }
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Check if a column exists.
+     *
+     * @param metaData The {@link DatabaseMetaData} of the database.
+     * @param table    The table the column belongs to.
+     * @param column   The name of the column.
+     * @return         Whether or not the column exists.
+     * @throws SQLException If the database could not be asked.
+     */
+    private static boolean hasColumn(final DatabaseMetaData metaData,final String table,final String column) throws SQLException {
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            try (ResultSet result = metaData.getColumns(null,null,name,null)) {
+                while (result.next()) {
+                    if (column.equalsIgnoreCase(result.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if a table exists.
+     *
+     * @param metaData The {@link DatabaseMetaData} of the database.
+     * @param table    The name of the table.
+     * @return         Whether or not the table exists.
+     * @throws SQLException If the database could not be asked.
+     */
+    private static boolean hasTable(final DatabaseMetaData metaData,final String table) throws SQLException {
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            try (ResultSet result = metaData.getTables(null,null,name,null)) {
+                if (result.next()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Work done on a pooled connection.
+     */
+    private interface Work<T> {
+        public T run(final ConnectionPool.PooledConnection connection) throws SQLException;
+    }
+}
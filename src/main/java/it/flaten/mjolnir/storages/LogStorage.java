@@ -0,0 +1,1007 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.events.NewEventEvent;
+
+import javax.persistence.PersistenceException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log file implementation of storage, for Mjölnir.
+ *
+ * Every {@link Event} is appended to a single file as a length-prefixed,
+ * checksummed binary record, and never changed afterwards. An in-memory index
+ * maps lowercased player names to the offsets of their records, so reads only
+ * touch the records they need.
+ * <p>
+ * The index is rebuilt on startup by reading the log, starting from the end of
+ * the checkpoint written at shutdown if there is one. A record cut short by a
+ * crash is dropped, along with anything after it.
+ * <p>
+ * Records written since UUIDs were stored end with the UUID of the player. A
+ * second index maps UUIDs to record offsets the same way. Since records are
+ * never changed, UUIDs filled in later are appended to a file of their own
+ * next to the log, as fixed size entries of a record offset and a UUID, and
+ * applied on top of the records when they are read.
+ *
+ * @author Jim Flaten
+ */
+public class LogStorage implements Storage {
+    /**
+     * Marks the start of a checkpoint file.
+     */
+    private static final int CHECKPOINT_MAGIC = 0x4d4a4c32;
+
+    /**
+     * Size of an entry in the UUID file.
+     */
+    private static final int ASSIGNMENT = 24;
+
+    /**
+     * Largest record we will believe in when reading the log.
+     */
+    private static final int MAX_RECORD = 1 << 16;
+
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * The log file, and the checkpoint and UUID files next to it.
+     */
+    private final File file;
+    private final File checkpoint;
+    private final File assignments;
+
+    /**
+     * Channel to the log file.
+     *
+     * Appends are done while holding the lock on this instance. Reads use
+     * absolute positions and need no lock.
+     */
+    private FileChannel channel;
+
+    /**
+     * Length of the log covered by the index.
+     */
+    private long size = 0;
+
+    /**
+     * Id of the next {@link Event}.
+     */
+    private int nextId = 1;
+
+    /**
+     * Where the last {@link #scanEvents(int, int)} page ended.
+     *
+     * The id of the last record it returned, and the offset right after it,
+     * so that paging through the whole log does not start over every time.
+     */
+    private int scanId = 0;
+    private long scanOffset = 0;
+
+    /**
+     * Record offsets, keyed by lowercased player name, oldest first.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private final Map<String,Offsets> indexMap = new HashMap<>();
+
+    /**
+     * Record offsets, keyed by UUID, oldest first.
+     *
+     * Guarded by the lock on this instance.
+     */
+    private final Map<UUID,Offsets> uuidMap = new HashMap<>();
+
+    /**
+     * UUIDs filled in later, keyed by record offset.
+     *
+     * Read without locking when records are decoded.
+     */
+    private final Map<Long,UUID> assignedMap = new ConcurrentHashMap<>();
+
+    /**
+     * Length of the UUID file covered by the index.
+     */
+    private long assignedSize = 0;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link LogStorage}.
+     *
+     * @param plugin A reference to the running plugin.
+     * @param file   The log file.
+     */
+    public LogStorage(final Mjolnir plugin,final File file) {
+        this.plugin = plugin;
+        this.file = file;
+        this.checkpoint = new File(file.getPath() + ".idx");
+        this.assignments = new File(file.getPath() + ".uuid");
+    }
+
+    /**
+     * Open the log.
+     *
+     * Opens the log file, creating it if needed, and rebuilds the index.
+     */
+    @Override
+    public synchronized void createTables() {
+        try {
+            this.channel = FileChannel.open(this.file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+
+            this.readCheckpoint();
+            this.scan();
+            this.readAssignments();
+
+            this.plugin.getLogger().info("   Indexed " + this.indexMap.size() + " players, " + (this.nextId - 1) + " events.");
+        } catch (IOException exception) {
+            throw new PersistenceException(exception);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Event event = new Event();
+
+        event.setTime((int) (System.currentTimeMillis() / 1000L));
+        event.setPlayer(player);
+        event.setOp(op);
+        event.setType(type);
+        event.setReason(reason);
+        event.setExpires(expires);
+
+        NewEventEvent newEventEvent = this.plugin.preProcess(event);
+
+        if (newEventEvent.isCancelled()) {
+            return null;
+        }
+
+        this.writeEvents(Collections.singletonList(event));
+
+        this.plugin.postProcess(event);
+
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The records are appended in one write, and synced to disk once.
+     */
+    @Override
+    public synchronized void writeEvents(final List<Event> events) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final long[] offsets = new long[events.size()];
+
+            for (int i = 0; i < events.size(); i++) {
+                final Event event = events.get(i);
+
+                event.setId(this.nextId + i);
+
+                offsets[i] = this.size + bytes.size();
+                bytes.write(LogStorage.encode(event));
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer,this.size + buffer.position());
+            }
+
+            this.channel.force(false);
+
+            for (int i = 0; i < events.size(); i++) {
+                this.index(events.get(i),offsets[i]);
+            }
+
+            this.size += bytes.size();
+            this.nextId += events.size();
+        } catch (IOException exception) {
+            for (Event event : events) {
+                event.setId(0);
+            }
+
+            throw new PersistenceException(exception);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The UUIDs are appended to the UUID file in one write, and synced to disk
+     * once.
+     */
+    @Override
+    public synchronized void assignUniqueIds(final List<Event> events) {
+        final Map<Long,UUID> assigned = new LinkedHashMap<>();
+
+        for (Event event : events) {
+            final UUID uuid = event.getUniqueId();
+
+            if (uuid == null) {
+                continue;
+            }
+
+            final long offset = this.find(event.getPlayer(),event.getId());
+
+            if (offset >= 0 && !assigned.containsKey(offset) && this.read(offset).getUniqueId() == null) {
+                assigned.put(offset,uuid);
+            }
+        }
+
+        if (assigned.size() == 0) {
+            return;
+        }
+
+        try (FileOutputStream stream = new FileOutputStream(this.assignments,true)) {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+
+            for (Map.Entry<Long,UUID> entry : assigned.entrySet()) {
+                output.writeLong(entry.getKey());
+                output.writeLong(entry.getValue().getMostSignificantBits());
+                output.writeLong(entry.getValue().getLeastSignificantBits());
+            }
+
+            output.flush();
+            stream.getFD().sync();
+        } catch (IOException exception) {
+            throw new PersistenceException(exception);
+        }
+
+        for (Map.Entry<Long,UUID> entry : assigned.entrySet()) {
+            this.assign(entry.getKey(),entry.getValue());
+        }
+
+        this.assignedSize += (long) assigned.size() * LogStorage.ASSIGNMENT;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        final long[] offsets = this.offsets(player);
+
+        if (offsets.length == 0) {
+            return null;
+        }
+
+        final List<Event> events = new ArrayList<>(offsets.length);
+
+        for (long offset : offsets) {
+            events.add(this.read(offset));
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Ids grow with offsets, so the first record of the page is found with a
+     * binary search, reading only a few records.
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        final long[] offsets = this.offsets(player);
+
+        int low = 0;
+        int high = offsets.length;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (this.read(offsets[middle]).getId() <= after) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        final List<Event> events = new ArrayList<>();
+
+        for (int i = low; i < offsets.length && events.size() < limit; i++) {
+            events.add(this.read(offsets[i]));
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Answered from the index.
+     */
+    @Override
+    public int countEvents(final String player) {
+        return this.offsets(player).length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads records in log order, starting where the previous page ended when
+     * asked for the page after it.
+     */
+    @Override
+    public synchronized List<Event> scanEvents(final int after,final int limit) {
+        final List<Event> events = new ArrayList<>();
+        final ByteBuffer header = ByteBuffer.allocate(8);
+
+        long offset = after >= this.scanId ? this.scanOffset : 0;
+
+        try {
+            while (offset < this.size && events.size() < limit) {
+                header.clear();
+                this.readFully(header,offset);
+
+                final ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+                this.readFully(payload,offset + 8);
+
+                final Event event = this.decode(offset,payload.array());
+
+                offset += 8 + payload.capacity();
+
+                if (event.getId() > after) {
+                    events.add(event);
+
+                    this.scanId = event.getId();
+                    this.scanOffset = offset;
+                }
+            }
+        } catch (IOException exception) {
+            throw new PersistenceException(exception);
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Ids are handed out in order, so this is the last one handed out.
+     */
+    @Override
+    public synchronized int loadLastId() {
+        return this.nextId - 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads records newest first, until one has not expired.
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        final long[] offsets = this.offsets(player);
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        for (int i = offsets.length - 1; i >= 0; i--) {
+            final Event event = this.read(offsets[i]);
+
+            if (event.getExpires() == 0 || event.getExpires() >= now) {
+                return event;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads records newest first, until one has not expired.
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        final long[] offsets;
+
+        synchronized (this) {
+            final Offsets indexed = this.uuidMap.get(uuid);
+
+            offsets = indexed == null ? new long[0] : Arrays.copyOf(indexed.values,indexed.size);
+        }
+
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        for (int i = offsets.length - 1; i >= 0; i--) {
+            final Event event = this.read(offsets[i]);
+
+            if (event.getExpires() == 0 || event.getExpires() >= now) {
+                return event;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final Map<String,Event> events = new HashMap<>();
+
+        for (String player : players) {
+            final Event event = this.loadActiveEvent(player);
+
+            if (event != null) {
+                events.put(player.toLowerCase(),event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads every record of every player, as older {@link Event}s that have
+     * not expired may become active again.
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        final List<String> players;
+
+        synchronized (this) {
+            players = new ArrayList<>(this.indexMap.keySet());
+        }
+
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+        final List<Event> events = new ArrayList<>();
+
+        for (String player : players) {
+            for (long offset : this.offsets(player)) {
+                final Event event = this.read(offset);
+
+                if (event.getExpires() == 0 || event.getExpires() >= now) {
+                    events.add(event);
+                }
+            }
+        }
+
+        Collections.sort(events,new Comparator<Event>() {
+            @Override
+            public int compare(final Event a,final Event b) {
+                return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+            }
+        });
+
+        return events;
+    }
+
+    /**
+     * Does nothing.
+     *
+     * The log is not shared with other servers.
+     */
+    @Override
+    @SuppressWarnings("EmptyMethod")
+    public void notifyEvent(final Event event) {
+
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Drops the indexes and reads the whole log and UUID file again.
+     */
+    @Override
+    public synchronized int rebuild() {
+        this.indexMap.clear();
+        this.uuidMap.clear();
+        this.assignedMap.clear();
+        this.assignedSize = 0;
+        this.size = 0;
+        this.nextId = 1;
+        this.scanId = 0;
+        this.scanOffset = 0;
+
+        try {
+            this.scan();
+            this.readAssignments();
+        } catch (IOException exception) {
+            throw new PersistenceException(exception);
+        }
+
+        return this.nextId - 1;
+    }
+
+    /**
+     * Writes a checkpoint and closes the log.
+     */
+    @Override
+    public synchronized void shutdown() {
+        try {
+            this.writeCheckpoint();
+        } catch (IOException exception) {
+            this.plugin.getLogger().warning("Failed to write log checkpoint!");
+
+            exception.printStackTrace();
+        }
+
+        try {
+            this.channel.close();
+        } catch (IOException exception) {
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the record offsets for a player.
+     *
+     * @param player The name of the player.
+     * @return       A copy of the offsets, oldest first.
+     */
+    private synchronized long[] offsets(final String player) {
+        final Offsets offsets = this.indexMap.get(player.toLowerCase());
+
+        if (offsets == null) {
+            return new long[0];
+        }
+
+        return Arrays.copyOf(offsets.values,offsets.size);
+    }
+
+    /**
+     * Find the record of an {@link Event}.
+     *
+     * Ids grow with offsets, so the record is found with a binary search
+     * through the player's records.
+     *
+     * @param player The name of the player.
+     * @param id     The id of the {@link Event}.
+     * @return       The offset of the record, or -1 if there is none.
+     */
+    private long find(final String player,final int id) {
+        final long[] offsets = this.offsets(player);
+
+        int low = 0;
+        int high = offsets.length - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int found = this.read(offsets[middle]).getId();
+
+            if (found < id) {
+                low = middle + 1;
+            } else if (found > id) {
+                high = middle - 1;
+            } else {
+                return offsets[middle];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Add a record to the indexes.
+     *
+     * Callers must hold the lock on this instance.
+     *
+     * @param event  The {@link Event} in the record.
+     * @param offset The offset of the record.
+     */
+    private void index(final Event event,final long offset) {
+        final String key = event.getPlayer().toLowerCase();
+        Offsets offsets = this.indexMap.get(key);
+
+        if (offsets == null) {
+            offsets = new Offsets();
+            this.indexMap.put(key,offsets);
+        }
+
+        offsets.add(offset);
+
+        if (event.getUniqueId() != null) {
+            this.assign(offset,event.getUniqueId());
+        }
+    }
+
+    /**
+     * Add a record to the UUID index.
+     *
+     * Records are usually added in log order, but UUIDs filled in later
+     * belong to older records, so they are put in their place.
+     *
+     * Callers must hold the lock on this instance.
+     *
+     * @param offset The offset of the record.
+     * @param uuid   The UUID of the player.
+     */
+    private void assign(final long offset,final UUID uuid) {
+        Offsets offsets = this.uuidMap.get(uuid);
+
+        if (offsets == null) {
+            offsets = new Offsets();
+            this.uuidMap.put(uuid,offsets);
+        }
+
+        offsets.insert(offset);
+    }
+
+    /**
+     * Read the record at a given offset.
+     *
+     * @param offset The offset of the record.
+     * @return       The {@link Event}.
+     */
+    private Event read(final long offset) {
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(8);
+            this.readFully(header,offset);
+
+            final ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            this.readFully(payload,offset + 8);
+
+            return this.decode(offset,payload.array());
+        } catch (IOException exception) {
+            throw new PersistenceException(exception);
+        }
+    }
+
+    /**
+     * Read until a buffer is full.
+     *
+     * @param buffer   The buffer to fill.
+     * @param position Where in the log to start reading.
+     * @throws IOException If the end of the log was reached first.
+     */
+    private void readFully(final ByteBuffer buffer,final long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer,position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Read the log from where the index ends.
+     *
+     * Adds every complete record to the index. The log is truncated at the
+     * first record that is incomplete or fails its checksum.
+     *
+     * Callers must hold the lock on this instance.
+     *
+     * @throws IOException If the log could not be read.
+     */
+    private void scan() throws IOException {
+        final long length = this.channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(8);
+
+        while (this.size + 8 <= length) {
+            header.clear();
+            this.readFully(header,this.size);
+
+            final int recordLength = header.getInt(0);
+
+            if (recordLength <= 0 || recordLength > LogStorage.MAX_RECORD || this.size + 8 + recordLength > length) {
+                break;
+            }
+
+            final ByteBuffer payload = ByteBuffer.allocate(recordLength);
+            this.readFully(payload,this.size + 8);
+
+            final CRC32 crc = new CRC32();
+            crc.update(payload.array());
+
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+
+            final Event event = LogStorage.decode(payload.array());
+
+            this.index(event,this.size);
+            this.nextId = Math.max(this.nextId,event.getId() + 1);
+            this.size += 8 + recordLength;
+        }
+
+        if (this.size < length) {
+            this.plugin.getLogger().warning("Truncating " + (length - this.size) + " bytes of torn records from the event log.");
+
+            this.channel.truncate(this.size);
+            this.channel.force(true);
+        }
+    }
+
+    /**
+     * Read the UUID file.
+     *
+     * Every entry is kept for decoding records, and those past the part
+     * covered by the checkpoint are added to the UUID index. An entry cut
+     * short by a crash is dropped, and so is an entry for a record that was.
+     *
+     * Callers must hold the lock on this instance.
+     *
+     * @throws IOException If the UUID file could not be read.
+     */
+    private void readAssignments() throws IOException {
+        if (!this.assignments.exists()) {
+            this.assignedSize = 0;
+            return;
+        }
+
+        final long length = this.assignments.length() - this.assignments.length() % LogStorage.ASSIGNMENT;
+        long position = 0;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.assignments)))) {
+            while (position < length) {
+                final long offset = input.readLong();
+                final UUID uuid = new UUID(input.readLong(),input.readLong());
+
+                if (offset >= this.size) {
+                    break;
+                }
+
+                this.assignedMap.put(offset,uuid);
+
+                if (position >= this.assignedSize) {
+                    this.assign(offset,uuid);
+                }
+
+                position += LogStorage.ASSIGNMENT;
+            }
+        }
+
+        if (position < this.assignments.length()) {
+            this.plugin.getLogger().warning("Truncating " + (this.assignments.length() - position) + " bytes of torn entries from the UUID file.");
+
+            try (RandomAccessFile file = new RandomAccessFile(this.assignments,"rw")) {
+                file.setLength(position);
+                file.getFD().sync();
+            }
+        }
+
+        this.assignedSize = position;
+    }
+
+    /**
+     * Load the checkpoint, if it is usable.
+     *
+     * Callers must hold the lock on this instance.
+     */
+    private void readCheckpoint() {
+        if (!this.checkpoint.exists()) {
+            return;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.checkpoint)))) {
+            if (input.readInt() != LogStorage.CHECKPOINT_MAGIC) {
+                return;
+            }
+
+            final long size = input.readLong();
+            final int nextId = input.readInt();
+
+            if (size > this.channel.size()) {
+                return;
+            }
+
+            final Map<String,Offsets> indexMap = new HashMap<>();
+            final int keys = input.readInt();
+
+            for (int i = 0; i < keys; i++) {
+                final String key = input.readUTF();
+                final Offsets offsets = new Offsets();
+                final int count = input.readInt();
+
+                for (int j = 0; j < count; j++) {
+                    offsets.add(input.readLong());
+                }
+
+                indexMap.put(key,offsets);
+            }
+
+            final long assignedSize = input.readLong();
+
+            if (assignedSize > this.assignments.length()) {
+                return;
+            }
+
+            final Map<UUID,Offsets> uuidMap = new HashMap<>();
+            final int uuids = input.readInt();
+
+            for (int i = 0; i < uuids; i++) {
+                final UUID uuid = new UUID(input.readLong(),input.readLong());
+                final Offsets offsets = new Offsets();
+                final int count = input.readInt();
+
+                for (int j = 0; j < count; j++) {
+                    offsets.add(input.readLong());
+                }
+
+                uuidMap.put(uuid,offsets);
+            }
+
+            this.indexMap.putAll(indexMap);
+            this.uuidMap.putAll(uuidMap);
+            this.assignedSize = assignedSize;
+            this.size = size;
+            this.nextId = nextId;
+        } catch (IOException exception) {
+            this.plugin.getLogger().warning("Ignoring unreadable log checkpoint.");
+        }
+    }
+
+    /**
+     * Write a checkpoint of the index.
+     *
+     * Callers must hold the lock on this instance.
+     *
+     * @throws IOException If the checkpoint could not be written.
+     */
+    private void writeCheckpoint() throws IOException {
+        final File temporary = new File(this.checkpoint.getPath() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(LogStorage.CHECKPOINT_MAGIC);
+            output.writeLong(this.size);
+            output.writeInt(this.nextId);
+            output.writeInt(this.indexMap.size());
+
+            for (Map.Entry<String,Offsets> entry : this.indexMap.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue().size);
+
+                for (int i = 0; i < entry.getValue().size; i++) {
+                    output.writeLong(entry.getValue().values[i]);
+                }
+            }
+
+            output.writeLong(this.assignedSize);
+            output.writeInt(this.uuidMap.size());
+
+            for (Map.Entry<UUID,Offsets> entry : this.uuidMap.entrySet()) {
+                output.writeLong(entry.getKey().getMostSignificantBits());
+                output.writeLong(entry.getKey().getLeastSignificantBits());
+                output.writeInt(entry.getValue().size);
+
+                for (int i = 0; i < entry.getValue().size; i++) {
+                    output.writeLong(entry.getValue().values[i]);
+                }
+            }
+        }
+
+        if (this.checkpoint.exists() && !this.checkpoint.delete() || !temporary.renameTo(this.checkpoint)) {
+            throw new IOException("Could not replace " + this.checkpoint);
+        }
+    }
+
+    /**
+     * Encode an {@link Event} as a record.
+     *
+     * @param event The {@link Event} to encode.
+     * @return      The record, header included.
+     * @throws IOException Never, in practice.
+     */
+    private static byte[] encode(final Event event) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        final DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(0);
+        output.writeInt(0);
+        output.writeInt(event.getId());
+        output.writeInt(event.getTime());
+        output.writeByte(event.getType().getId());
+        output.writeInt(event.getExpires());
+        output.writeUTF(event.getPlayer());
+        output.writeUTF(event.getOp());
+        output.writeUTF(event.getReason());
+
+        if (event.getUniqueId() != null) {
+            output.writeLong(event.getUuidMost());
+            output.writeLong(event.getUuidLeast());
+        }
+
+        output.flush();
+
+        final byte[] record = bytes.toByteArray();
+
+        final CRC32 crc = new CRC32();
+        crc.update(record,8,record.length - 8);
+
+        final ByteBuffer header = ByteBuffer.wrap(record,0,8);
+        header.putInt(record.length - 8);
+        header.putInt((int) crc.getValue());
+
+        return record;
+    }
+
+    /**
+     * Decode a record payload, with any UUID filled in later.
+     *
+     * @param offset  The offset of the record.
+     * @param payload The record, without its header.
+     * @return        The {@link Event}.
+     */
+    private Event decode(final long offset,final byte[] payload) {
+        final Event event = LogStorage.decode(payload);
+
+        if (event.getUniqueId() == null) {
+            event.setUniqueId(this.assignedMap.get(offset));
+        }
+
+        return event;
+    }
+
+    /**
+     * Decode a record payload.
+     *
+     * @param payload The record, without its header.
+     * @return        The {@link Event}.
+     */
+    private static Event decode(final byte[] payload) {
+        try {
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            final Event event = new Event();
+
+            event.setId(input.readInt());
+            event.setTime(input.readInt());
+            event.setType(Event.EventType.fromId(input.readByte()));
+            event.setExpires(input.readInt());
+            event.setPlayer(input.readUTF());
+            event.setOp(input.readUTF());
+            event.setReason(input.readUTF());
+
+            if (input.available() >= 16) {
+                event.setUuidMost(input.readLong());
+                event.setUuidLeast(input.readLong());
+            }
+
+            return event;
+        } catch (IOException exception) {
+            throw new PersistenceException(exception);
+        }
+    }
+
+    /**
+     * A growable array of record offsets.
+     */
+    private static class Offsets {
+        private long[] values = new long[2];
+        private int size = 0;
+
+        private void add(final long offset) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values,this.size * 2);
+            }
+
+            this.values[this.size++] = offset;
+        }
+
+        private void insert(final long offset) {
+            if (this.size == 0 || this.values[this.size - 1] < offset) {
+                this.add(offset);
+                return;
+            }
+
+            final int index = Arrays.binarySearch(this.values,0,this.size,offset);
+
+            if (index >= 0) {
+                return;
+            }
+
+            this.add(0L);
+
+            System.arraycopy(this.values,-index - 1,this.values,-index,this.size - 1 - (-index - 1));
+            this.values[-index - 1] = offset;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.metrics.Histogram;
+import it.flaten.mjolnir.metrics.Metrics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Latency timers around another {@link Storage}.
+ *
+ * Records how long every call to the wrapped {@link Storage} takes, failed
+ * calls included, in a {@link Histogram} per method, named storage.active,
+ * storage.write and so on. Meant to sit right in front of the backend, so it
+ * shows what actually reaches the database.
+ *
+ * @author Jim Flaten
+ */
+public class MetricsStorage implements Storage {
+    /**
+     * Wrapped storage.
+     *
+     * The {@link Storage} that actually holds our data.
+     */
+    private final Storage storage;
+
+    /**
+     * Timers, one per method.
+     */
+    private final Histogram saveTimer;
+    private final Histogram writeTimer;
+    private final Histogram assignTimer;
+    private final Histogram historyTimer;
+    private final Histogram pageTimer;
+    private final Histogram countTimer;
+    private final Histogram scanTimer;
+    private final Histogram activeTimer;
+    private final Histogram activeUuidTimer;
+    private final Histogram activeBulkTimer;
+    private final Histogram activeAllTimer;
+    private final Histogram rebuildTimer;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link MetricsStorage}.
+     *
+     * @param storage The {@link Storage} to time.
+     * @param metrics The {@link Metrics} to record to.
+     */
+    public MetricsStorage(final Storage storage,final Metrics metrics) {
+        this.storage = storage;
+        this.saveTimer = metrics.timer("storage.save");
+        this.writeTimer = metrics.timer("storage.write");
+        this.assignTimer = metrics.timer("storage.assign");
+        this.historyTimer = metrics.timer("storage.history");
+        this.pageTimer = metrics.timer("storage.page");
+        this.countTimer = metrics.timer("storage.count");
+        this.scanTimer = metrics.timer("storage.scan");
+        this.activeTimer = metrics.timer("storage.active");
+        this.activeUuidTimer = metrics.timer("storage.active-uuid");
+        this.activeBulkTimer = metrics.timer("storage.active-bulk");
+        this.activeAllTimer = metrics.timer("storage.active-all");
+        this.rebuildTimer = metrics.timer("storage.rebuild");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.saveEvent(player,op,type,reason,expires);
+        } finally {
+            this.saveTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        final long start = System.nanoTime();
+
+        try {
+            this.storage.writeEvents(events);
+        } finally {
+            this.writeTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        final long start = System.nanoTime();
+
+        try {
+            this.storage.assignUniqueIds(events);
+        } finally {
+            this.assignTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadEvents(player);
+        } finally {
+            this.historyTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadEvents(player,after,limit);
+        } finally {
+            this.pageTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.countEvents(player);
+        } finally {
+            this.countTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.scanEvents(after,limit);
+        } finally {
+            this.scanTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.storage.loadLastId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadActiveEvent(player);
+        } finally {
+            this.activeTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadActiveEvent(uuid);
+        } finally {
+            this.activeUuidTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadActiveEvents(players);
+        } finally {
+            this.activeBulkTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.loadActiveEvents();
+        } finally {
+            this.activeAllTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notifyEvent(final Event event) {
+        this.storage.notifyEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int rebuild() {
+        final long start = System.nanoTime();
+
+        try {
+            return this.storage.rebuild();
+        } finally {
+            this.rebuildTimer.since(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        this.storage.shutdown();
+    }
+}
@@ -2,18 +2,34 @@ package it.flaten.mjolnir.storages;
 
 import com.avaje.ebean.*;
 import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.ActiveState;
 import it.flaten.mjolnir.beans.Event;
 import it.flaten.mjolnir.events.NewEventEvent;
 
 import javax.persistence.PersistenceException;
-import java.util.List;
+import java.util.*;
 
 /**
  * Implementation of Bukkit's native database, for Mjölnir.
  *
+ * Next to the {@link Event}s, an {@link ActiveState} is kept for every player,
+ * pointing at the newest {@link Event} that may still be active. It is updated
+ * in the same transaction as the {@link Event}s, so the active {@link Event}
+ * is found with two primary key lookups. When that {@link Event} turns out to
+ * have expired, the {@link Event}s are searched once, and the state is moved
+ * to the result.
+ * <p>
+ * The UUID of every {@link Event} is kept in two columns, indexed together,
+ * so {@link Event}s are found by UUID without touching names at all.
+ *
  * @author Jim Flaten
  */
 public class NativeStorage implements Storage {
+    /**
+     * Number of {@link Event}s read at a time while rebuilding.
+     */
+    private static final int BATCH = 1000;
+
     /**
      * Plugin instance.
      *
@@ -37,13 +53,43 @@ public class NativeStorage implements Storage {
      *
      * Tries to count the number of {@link Event}s in the database, and
      * invokes {@link it.flaten.mjolnir.Mjolnir#installDDL()} if an @{link PersistenceException} is thrown.
+     * Databases created before UUIDs were stored get the columns added, left
+     * empty until they are filled in by {@link it.flaten.mjolnir.tasks.MigrationTask}.
+     * Databases created before {@link ActiveState} existed get its table added,
+     * filled from the existing {@link Event}s.
      */
     @Override
     public void createTables() {
+        final EbeanServer database = this.plugin.getDatabase();
+
         try {
-            this.plugin.getDatabase().find(Event.class).findRowCount();
+            database.find(Event.class).findRowCount();
         } catch (PersistenceException exception) {
             this.plugin.installDDL();
+
+            database.createSqlUpdate("CREATE INDEX ix_event_uuid ON Event (uuid_most,uuid_least)").execute();
+            return;
+        }
+
+        try {
+            database.createSqlQuery("SELECT uuid_most FROM Event WHERE id = 0").findList();
+        } catch (PersistenceException exception) {
+            database.createSqlUpdate("ALTER TABLE Event ADD COLUMN uuid_most BIGINT NOT NULL DEFAULT 0").execute();
+            database.createSqlUpdate("ALTER TABLE Event ADD COLUMN uuid_least BIGINT NOT NULL DEFAULT 0").execute();
+            database.createSqlUpdate("CREATE INDEX ix_event_uuid ON Event (uuid_most,uuid_least)").execute();
+
+            this.plugin.getLogger().info("   Added UUID columns. They are filled in by /mjolnir migrate.");
+        }
+
+        try {
+            this.plugin.getDatabase().find(ActiveState.class).findRowCount();
+        } catch (PersistenceException exception) {
+            this.plugin.getDatabase().createSqlUpdate(
+                "CREATE TABLE ActiveState (player VARCHAR(255) NOT NULL, event INTEGER NOT NULL, PRIMARY KEY (player))"
+            ).execute();
+
+            this.plugin.getLogger().info("   Building state table...");
+            this.plugin.getLogger().info("   Read " + this.rebuild() + " events.");
         }
     }
 
@@ -67,13 +113,69 @@ public class NativeStorage implements Storage {
             return null;
         }
 
-        this.plugin.getDatabase().save(event);
+        this.writeEvents(Collections.singletonList(event));
 
         this.plugin.postProcess(event);
 
         return event;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Saved in a single transaction, together with the players' states. Rows
+     * are inserted one at a time, not batched, as not every database hands
+     * back the generated id of every row in a batch, and the states need them.
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        final EbeanServer database = this.plugin.getDatabase();
+        final Transaction transaction = database.beginTransaction();
+
+        try {
+            for (Event event : events) {
+                database.save(event,transaction);
+            }
+
+            this.activate(events,transaction);
+
+            transaction.commit();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Updated one row at a time, in a single transaction.
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        final EbeanServer database = this.plugin.getDatabase();
+        final Transaction transaction = database.beginTransaction();
+
+        try {
+            for (Event event : events) {
+                if (event.getUniqueId() == null) {
+                    continue;
+                }
+
+                database.execute(
+                    database.createSqlUpdate("UPDATE Event SET uuid_most = :most, uuid_least = :least WHERE id = :id AND uuid_most = 0 AND uuid_least = 0")
+                        .setParameter("most",event.getUuidMost())
+                        .setParameter("least",event.getUuidLeast())
+                        .setParameter("id",event.getId()),
+                    transaction
+                );
+            }
+
+            transaction.commit();
+        } finally {
+            transaction.end();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -98,11 +200,90 @@ public class NativeStorage implements Storage {
      * {@inheritDoc}
      */
     @Override
-    public Event loadActiveEvent(final String player) {
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        return this.plugin.getDatabase()
+            .find(Event.class)
+            .where()
+                .ieq("player",player)
+                .gt("id",after)
+            .orderBy("id ASC")
+            .setMaxRows(limit)
+            .findList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
         return this.plugin.getDatabase()
             .find(Event.class)
             .where()
                 .ieq("player",player)
+            .findRowCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.plugin.getDatabase()
+            .find(Event.class)
+            .where()
+                .gt("id",after)
+            .orderBy("id ASC")
+            .setMaxRows(limit)
+            .findList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        final List<Event> events = this.plugin.getDatabase()
+            .find(Event.class)
+            .orderBy("id DESC")
+            .setMaxRows(1)
+            .findList();
+
+        return events.size() == 0 ? 0 : events.get(0).getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        final EbeanServer database = this.plugin.getDatabase();
+        final ActiveState state = database.find(ActiveState.class,player.toLowerCase());
+
+        if (state == null) {
+            return null;
+        }
+
+        final Event event = database.find(Event.class,state.getEvent());
+
+        if (event != null && NativeStorage.isActive(event)) {
+            return event;
+        }
+
+        return this.heal(state.getPlayer(),state.getEvent());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Searches the {@link Event}s by UUID, newest first, through their index.
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        return this.plugin.getDatabase()
+            .find(Event.class)
+            .where()
+                .eq("uuidMost",uuid.getMostSignificantBits())
+                .eq("uuidLeast",uuid.getLeastSignificantBits())
                 .disjunction()
                     .eq("expires",0)
                     .ge("expires",(int) (System.currentTimeMillis() / 1000L))
@@ -111,6 +292,111 @@ public class NativeStorage implements Storage {
             .findUnique();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Done in a single query against the players' states, with the names
+     * lowercased up front.
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final Map<String,Event> events = new HashMap<>();
+
+        if (players.size() == 0) {
+            return events;
+        }
+
+        final Set<String> keys = new LinkedHashSet<>();
+
+        for (String player : players) {
+            keys.add(player.toLowerCase());
+        }
+
+        final StringBuilder placeholders = new StringBuilder();
+
+        for (int i = 0; i < keys.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+
+        final List<Event> active = this.heal(this.plugin.getDatabase()
+            .find(Event.class)
+            .where()
+                .raw("id in (select event from ActiveState where player in (" + placeholders + "))",keys.toArray())
+            .orderBy("id ASC")
+            .findList());
+
+        for (Event event : active) {
+            events.put(event.getPlayer().toLowerCase(),event);
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        return this.plugin.getDatabase()
+            .find(Event.class)
+            .where()
+                .disjunction()
+                    .eq("expires",0)
+                    .ge("expires",(int) (System.currentTimeMillis() / 1000L))
+            .orderBy("id ASC")
+            .findList();
+    }
+
+    /**
+     * Does nothing.
+     *
+     * Nothing is kept in memory.
+     */
+    @Override
+    @SuppressWarnings("EmptyMethod")
+    public void notifyEvent(final Event event) {
+
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Points every player's state at their newest {@link Event}, a batch at a
+     * time, each batch in its own transaction. States are only ever moved to
+     * newer {@link Event}s, so {@link Event}s written meanwhile are never
+     * overwritten by older ones.
+     */
+    @Override
+    public int rebuild() {
+        final EbeanServer database = this.plugin.getDatabase();
+
+        int after = 0;
+        int read = 0;
+
+        while (true) {
+            final List<Event> events = this.scanEvents(after,NativeStorage.BATCH);
+
+            if (events.size() == 0) {
+                break;
+            }
+
+            final Transaction transaction = database.beginTransaction();
+
+            try {
+                this.activate(events,transaction);
+
+                transaction.commit();
+            } finally {
+                transaction.end();
+            }
+
+            after = events.get(events.size() - 1).getId();
+            read += events.size();
+        }
+
+        return read;
+    }
+
     /**
      * Does nothing.
      *
@@ -121,4 +407,116 @@ public class NativeStorage implements Storage {
     public void shutdown() {
 
     }
+
+    /**
+     * Point player states at new {@link Event}s.
+     *
+     * For every player, the state is moved to the newest of the given
+     * {@link Event}s, unless it already points at a newer one.
+     *
+     * @param events      The written {@link Event}s, oldest first.
+     * @param transaction The transaction that wrote them.
+     */
+    private void activate(final List<Event> events,final Transaction transaction) {
+        final EbeanServer database = this.plugin.getDatabase();
+        final Map<String,Integer> newest = new HashMap<>();
+
+        for (Event event : events) {
+            final String key = event.getPlayer().toLowerCase();
+            final Integer previous = newest.get(key);
+
+            if (previous == null || previous < event.getId()) {
+                newest.put(key,event.getId());
+            }
+        }
+
+        for (Map.Entry<String,Integer> entry : newest.entrySet()) {
+            final ActiveState state = database.find(ActiveState.class,entry.getKey());
+
+            if (state == null) {
+                final ActiveState created = database.createEntityBean(ActiveState.class);
+
+                created.setPlayer(entry.getKey());
+                created.setEvent(entry.getValue());
+
+                database.save(created,transaction);
+            } else if (state.getEvent() < entry.getValue()) {
+                state.setEvent(entry.getValue());
+
+                database.save(state,transaction);
+            }
+        }
+    }
+
+    /**
+     * Repair the state of a player whose {@link Event} has expired.
+     *
+     * Searches the player's {@link Event}s for the newest one still active, and
+     * points the state at it, or removes the state if there is none. The state
+     * is left alone if it was changed meanwhile.
+     *
+     * @param key   The lowercased name of the player.
+     * @param stale The id of the expired {@link Event} the state points at.
+     * @return      The active {@link Event}, or null.
+     */
+    private Event heal(final String key,final int stale) {
+        final EbeanServer database = this.plugin.getDatabase();
+
+        final Event event = database
+            .find(Event.class)
+            .where()
+                .ieq("player",key)
+                .lt("id",stale)
+                .disjunction()
+                    .eq("expires",0)
+                    .ge("expires",(int) (System.currentTimeMillis() / 1000L))
+            .orderBy("id DESC")
+            .setMaxRows(1)
+            .findUnique();
+
+        if (event == null) {
+            database.createSqlUpdate("DELETE FROM ActiveState WHERE player = :player AND event = :stale")
+                .setParameter("player",key)
+                .setParameter("stale",stale)
+                .execute();
+        } else {
+            database.createSqlUpdate("UPDATE ActiveState SET event = :event WHERE player = :player AND event = :stale")
+                .setParameter("event",event.getId())
+                .setParameter("player",key)
+                .setParameter("stale",stale)
+                .execute();
+        }
+
+        return event;
+    }
+
+    /**
+     * Repair the states of players whose {@link Event}s have expired.
+     *
+     * @param events {@link Event}s the states point at.
+     * @return       The active {@link Event}s, in the same order, without players that have none.
+     */
+    private List<Event> heal(final List<Event> events) {
+        final List<Event> active = new ArrayList<>(events.size());
+
+        for (Event event : events) {
+            final Event healed = NativeStorage.isActive(event) ? event : this.heal(event.getPlayer().toLowerCase(),event.getId());
+
+            if (healed != null) {
+                active.add(healed);
+            }
+        }
+
+        return active;
+    }
+
+    /**
+     * Check if an {@link Event} has not expired.
+     *
+     * @param event The {@link Event} to check.
+     * @return      Whether or not it is still active.
+     */
+    private static boolean isActive(final Event event) {
+        return event.getExpires() == 0 || event.getExpires() >= (int) (System.currentTimeMillis() / 1000L);
+    }
 }
@@ -0,0 +1,391 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.patterns.NameMatcher;
+
+import java.util.*;
+
+/**
+ * In-memory index of pattern bans, in front of another {@link Storage}.
+ *
+ * {@link Event}s whose target is a name pattern instead of a player name are
+ * kept here, with the same candidates as {@link CachedStorage} keeps for a
+ * name, newest first. All patterns that may ban someone are compiled into a
+ * single {@link NameMatcher}, which is built again whenever a pattern is added
+ * or dropped, so a name is checked against all of them in one pass.
+ * <p>
+ * A pattern is dropped once it has no candidates left. One lifted for good is
+ * kept, so that older {@link Event}s read back late can not ban it again, but
+ * it is left out of the {@link NameMatcher}. Everything else is passed on to the wrapped {@link Storage}, which
+ * stores pattern {@link Event}s like any other.
+ *
+ * @author Jim Flaten
+ */
+public class PatternStorage implements Storage {
+    /**
+     * Wrapped storage.
+     *
+     * The {@link Storage} that actually holds our data.
+     */
+    private final Storage storage;
+
+    /**
+     * Active pattern {@link Event} index.
+     *
+     * Maps lowercased patterns to their candidate {@link Event}s, newest first.
+     * The arrays are never modified after they are put in the map. Changes are
+     * made under the lock on the map.
+     */
+    private final Map<String,Event[]> patternMap = new HashMap<>();
+
+    /**
+     * The compiled patterns.
+     *
+     * Holds every pattern in {@link #patternMap} that has not been lifted for
+     * good, paired with its candidates as of when it was compiled. Replaced as
+     * a whole.
+     */
+    private volatile Compiled compiled = new Compiled(NameMatcher.EMPTY,Collections.<String,Event[]>emptyMap());
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link PatternStorage}.
+     *
+     * @param storage The {@link Storage} to put the index in front of.
+     */
+    public PatternStorage(final Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Load the index.
+     *
+     * Replaces the contents of the index with all active pattern {@link Event}s
+     * from the wrapped {@link Storage}.
+     */
+    public void load() {
+        synchronized (this.patternMap) {
+            this.patternMap.clear();
+
+            for (Event event : this.storage.loadActiveEvents()) {
+                this.index(event);
+            }
+
+            this.compile();
+        }
+    }
+
+    /**
+     * Drop expired {@link Event}s.
+     *
+     * Goes through the whole index and removes every {@link Event} that has
+     * expired. The patterns are compiled again if any were dropped.
+     */
+    public void purge() {
+        final int now = CachedStorage.now();
+
+        synchronized (this.patternMap) {
+            boolean changed = false;
+
+            for (Iterator<Map.Entry<String,Event[]>> iterator = this.patternMap.entrySet().iterator(); iterator.hasNext(); ) {
+                final Map.Entry<String,Event[]> entry = iterator.next();
+                final Event[] events = CachedStorage.prune(entry.getValue(),now);
+
+                if (events.length == 0) {
+                    iterator.remove();
+                } else if (events.length != entry.getValue().length) {
+                    entry.setValue(events);
+                } else {
+                    continue;
+                }
+
+                changed = true;
+            }
+
+            if (changed) {
+                this.compile();
+            }
+        }
+    }
+
+    /**
+     * Get the number of patterns in the index.
+     *
+     * @return The number of patterns with a candidate active {@link Event}.
+     */
+    public int size() {
+        return this.compiled.matcher.size();
+    }
+
+    /**
+     * Load the active ban {@link Event} of a pattern matching a name.
+     *
+     * Runs the name through the compiled patterns once, and returns the active
+     * {@link Event} of the first matching pattern that bans it. Answered from
+     * the index.
+     *
+     * @param player The name of the player.
+     * @return       The active ban {@link Event}, or null.
+     */
+    public Event matchActiveEvent(final String player) {
+        final Compiled compiled = this.compiled;
+        final int now = CachedStorage.now();
+
+        for (String pattern : compiled.matcher.match(player)) {
+            for (Event event : compiled.eventMap.get(pattern)) {
+                if (CachedStorage.isActive(event,now)) {
+                    if (event.getType() == Event.EventType.BAN) {
+                        return event;
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The resulting {@link Event} is added to the index if it targets a
+     * pattern.
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Event event = this.storage.saveEvent(player,op,type,reason,expires);
+
+        if (event != null && NameMatcher.isPattern(event.getPlayer())) {
+            synchronized (this.patternMap) {
+                this.index(event);
+                this.compile();
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event}s that target a pattern are added to the index.
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        this.storage.writeEvents(events);
+
+        synchronized (this.patternMap) {
+            boolean changed = false;
+
+            for (Event event : events) {
+                if (NameMatcher.isPattern(event.getPlayer())) {
+                    this.index(event);
+
+                    changed = true;
+                }
+            }
+
+            if (changed) {
+                this.compile();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        this.storage.assignUniqueIds(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        return this.storage.loadEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        return this.storage.loadEvents(player,after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countEvents(final String player) {
+        return this.storage.countEvents(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.storage.scanEvents(after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.storage.loadLastId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        return this.storage.loadActiveEvent(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        return this.storage.loadActiveEvent(uuid);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        return this.storage.loadActiveEvents(players);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        return this.storage.loadActiveEvents();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event} is added to the index if it targets a pattern.
+     */
+    @Override
+    public void notifyEvent(final Event event) {
+        if (NameMatcher.isPattern(event.getPlayer())) {
+            synchronized (this.patternMap) {
+                this.index(event);
+                this.compile();
+            }
+        }
+
+        this.storage.notifyEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The index is loaded again afterwards.
+     */
+    @Override
+    public int rebuild() {
+        final int read = this.storage.rebuild();
+
+        this.load();
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        synchronized (this.patternMap) {
+            this.patternMap.clear();
+            this.compile();
+        }
+
+        this.storage.shutdown();
+    }
+
+    /**
+     * Add an {@link Event} to the index.
+     *
+     * {@link Event}s that target a player name are ignored. Callers must hold
+     * the lock on {@link #patternMap}, and compile the patterns afterwards.
+     *
+     * @param event The {@link Event} to add.
+     */
+    private void index(final Event event) {
+        final int now = CachedStorage.now();
+
+        if (!NameMatcher.isPattern(event.getPlayer()) || !CachedStorage.isActive(event,now)) {
+            return;
+        }
+
+        final String pattern = event.getPlayer().toLowerCase();
+
+        this.patternMap.put(pattern,CachedStorage.push(this.patternMap.get(pattern),event,now));
+    }
+
+    /**
+     * Compile the patterns.
+     *
+     * Replaces {@link #compiled} with the current contents of the index,
+     * leaving out patterns lifted for good. The {@link NameMatcher} is only
+     * built again if the set of patterns changed. Callers must hold the lock
+     * on {@link #patternMap}.
+     */
+    private void compile() {
+        final Map<String,Event[]> eventMap = new HashMap<>();
+        final Compiled previous = this.compiled;
+
+        for (Map.Entry<String,Event[]> entry : this.patternMap.entrySet()) {
+            final Event newest = entry.getValue()[0];
+
+            if (newest.getType() != Event.EventType.UNBAN || newest.getExpires() != 0) {
+                eventMap.put(entry.getKey(),entry.getValue());
+            }
+        }
+
+
+        if (eventMap.keySet().equals(previous.eventMap.keySet())) {
+            this.compiled = new Compiled(previous.matcher,eventMap);
+        } else {
+            this.compiled = new Compiled(new NameMatcher(eventMap.keySet()),eventMap);
+        }
+    }
+
+    /**
+     * Compiled patterns.
+     *
+     * Pairs a {@link NameMatcher} with the candidates of its patterns, so a
+     * lookup never sees one without the other.
+     */
+    private static class Compiled {
+        private final NameMatcher matcher;
+        private final Map<String,Event[]> eventMap;
+
+        private Compiled(final NameMatcher matcher,final Map<String,Event[]> eventMap) {
+            this.matcher = matcher;
+            this.eventMap = eventMap;
+        }
+    }
+}
@@ -0,0 +1,630 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.events.NewEventEvent;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind queue in front of another {@link Storage}.
+ *
+ * New {@link Event}s are processed and returned right away, and written to
+ * the wrapped {@link Storage} by a single writer thread, in batches of one
+ * transaction each. Until they are written, they are kept in memory and
+ * taken into account by all reads.
+ * <p>
+ * {@link Event}s handed over together, such as those of a mass ban, are
+ * queued as one write, which is never split across batches, so they are
+ * written all at once or not at all.
+ * <p>
+ * Since there is only one writer and a failed batch is retried before
+ * anything queued after it, {@link Event}s are written, and given their
+ * ids, in the order they were created. A batch that keeps failing is given
+ * up on after a number of tries, and its writes are then tried one at a
+ * time, so a single bad write cannot hold up the rest. Those that still
+ * fail are logged and dropped. If the queue stays full for too long, a write
+ * is made directly by whoever created it, ahead of those still queued.
+ *
+ * @author Jim Flaten
+ */
+public class QueuedStorage implements Storage {
+    /**
+     * Number of times a batch is tried before it is given up on.
+     */
+    private static final int RETRIES = 8;
+
+    /**
+     * Milliseconds to wait for room in the queue before writing directly.
+     */
+    private static final long OFFER_TIMEOUT = 1000L;
+
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * Wrapped storage.
+     *
+     * The {@link Storage} that actually holds our data.
+     */
+    private final Storage storage;
+
+    /**
+     * Maximum number of {@link Event}s written in one transaction.
+     */
+    private final int batchSize;
+
+    /**
+     * Writes waiting to be made, each a {@link List} of {@link Event}s.
+     *
+     * Bounded, so that whoever creates {@link Event}s is held up once the
+     * writer falls too far behind.
+     */
+    private final BlockingQueue<List<Event>> queue;
+
+    /**
+     * Number of {@link Event}s in the queue.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * {@link Event}s not yet written, keyed by lowercased player name, oldest first.
+     *
+     * Guarded by its own lock.
+     */
+    private final Map<String,List<Event>> pendingMap = new ConcurrentHashMap<>();
+
+    /**
+     * The writer thread.
+     */
+    private final Thread writer;
+
+    /**
+     * Whether or not the writer should keep running once the queue is empty.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link QueuedStorage}, and starts the writer thread.
+     *
+     * @param plugin    A reference to the running plugin.
+     * @param storage   The {@link Storage} to write to.
+     * @param queueSize Maximum number of writes waiting to be made.
+     * @param batchSize Maximum number of {@link Event}s written in one transaction, unless a single write is larger.
+     */
+    public QueuedStorage(final Mjolnir plugin,final Storage storage,final int queueSize,final int batchSize) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1,queueSize));
+        this.batchSize = Math.max(1,batchSize);
+
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                QueuedStorage.this.write();
+            }
+        },"Mjolnir writer");
+
+        this.writer.start();
+    }
+
+    /**
+     * Get the number of {@link Event}s waiting to be written.
+     *
+     * @return The number of queued {@link Event}s.
+     */
+    public int size() {
+        return this.queued.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event} is queued, and is written some time after this returns.
+     */
+    @Override
+    public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires) {
+        final Event event = new Event();
+
+        event.setTime((int) (System.currentTimeMillis() / 1000L));
+        event.setPlayer(player);
+        event.setOp(op);
+        event.setType(type);
+        event.setReason(reason);
+        event.setExpires(expires);
+
+        NewEventEvent newEventEvent = this.plugin.preProcess(event);
+
+        if (newEventEvent.isCancelled()) {
+            return null;
+        }
+
+        this.enqueue(Collections.singletonList(event));
+
+        this.plugin.postProcess(event);
+
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The {@link Event}s are queued as one write, and are written together
+     * some time after this returns.
+     */
+    @Override
+    public void writeEvents(final List<Event> events) {
+        if (events.size() > 0) {
+            this.enqueue(new ArrayList<>(events));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only {@link Event}s that have been written are changed. Those not yet
+     * written already carry whatever UUID they will be written with.
+     */
+    @Override
+    public void assignUniqueIds(final List<Event> events) {
+        this.storage.assignUniqueIds(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Includes {@link Event}s not yet written.
+     */
+    @Override
+    public List<Event> loadEvents(final String player) {
+        final List<Event> pending = this.pending(player);
+        final List<Event> events = this.storage.loadEvents(player);
+
+        if (pending.size() == 0) {
+            return events;
+        }
+
+        final List<Event> merged = new ArrayList<>();
+        final Set<Integer> written = new HashSet<>();
+
+        if (events != null) {
+            for (Event event : events) {
+                merged.add(event);
+                written.add(event.getId());
+            }
+        }
+
+        for (Event event : pending) {
+            if (event.getId() == 0 || !written.contains(event.getId())) {
+                merged.add(event);
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * {@link Event}s not yet written come after all written ones.
+     */
+    @Override
+    public List<Event> loadEvents(final String player,final int after,final int limit) {
+        final List<Event> pending = this.pending(player);
+        final List<Event> events = new ArrayList<>(this.storage.loadEvents(player,after,limit));
+
+        if (pending.size() == 0 || events.size() >= limit) {
+            return events;
+        }
+
+        final Set<Integer> written = new HashSet<>();
+
+        for (Event event : events) {
+            written.add(event.getId());
+        }
+
+        for (Event event : pending) {
+            if (events.size() >= limit) {
+                break;
+            }
+
+            if (event.getId() == 0 || (event.getId() > after && !written.contains(event.getId()))) {
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Includes {@link Event}s not yet written.
+     */
+    @Override
+    public int countEvents(final String player) {
+        int count = this.storage.countEvents(player);
+
+        for (Event event : this.pending(player)) {
+            if (event.getId() == 0) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only {@link Event}s that have been written are included.
+     */
+    @Override
+    public List<Event> scanEvents(final int after,final int limit) {
+        return this.storage.scanEvents(after,limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int loadLastId() {
+        return this.storage.loadLastId();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * {@link Event}s not yet written take precedence, as they are newer.
+     */
+    @Override
+    public Event loadActiveEvent(final String player) {
+        final Event event = QueuedStorage.newestActive(this.pending(player));
+
+        if (event != null) {
+            return event;
+        }
+
+        return this.storage.loadActiveEvent(player);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * {@link Event}s not yet written take precedence, as they are newer. They
+     * are not indexed by UUID, so all of them are searched, but there are
+     * seldom many.
+     */
+    @Override
+    public Event loadActiveEvent(final UUID uuid) {
+        final List<Event> pending = new ArrayList<>();
+
+        synchronized (this.pendingMap) {
+            for (List<Event> events : this.pendingMap.values()) {
+                for (Event event : events) {
+                    if (uuid.equals(event.getUniqueId())) {
+                        pending.add(event);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(pending,new Comparator<Event>() {
+            @Override
+            public int compare(final Event a,final Event b) {
+                return a.getTime() < b.getTime() ? -1 : (a.getTime() == b.getTime() ? 0 : 1);
+            }
+        });
+
+        final Event event = QueuedStorage.newestActive(pending);
+
+        if (event != null) {
+            return event;
+        }
+
+        return this.storage.loadActiveEvent(uuid);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * {@link Event}s not yet written take precedence, as they are newer.
+     */
+    @Override
+    public Map<String,Event> loadActiveEvents(final Collection<String> players) {
+        final Map<String,Event> events = this.storage.loadActiveEvents(players);
+
+        for (String player : players) {
+            final Event event = QueuedStorage.newestActive(this.pending(player));
+
+            if (event != null) {
+                events.put(player.toLowerCase(),event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Includes {@link Event}s not yet written.
+     */
+    @Override
+    public List<Event> loadActiveEvents() {
+        final List<Event> events = new ArrayList<>(this.storage.loadActiveEvents());
+
+        for (String player : this.pendingMap.keySet()) {
+            final int now = (int) (System.currentTimeMillis() / 1000L);
+
+            for (Event event : this.pending(player)) {
+                if (event.getExpires() == 0 || event.getExpires() >= now) {
+                    events.add(event);
+                }
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notifyEvent(final Event event) {
+        this.storage.notifyEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * {@link Event}s not yet written are taken into account once they are.
+     */
+    @Override
+    public int rebuild() {
+        return this.storage.rebuild();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Waits for every queued {@link Event} to be written first.
+     */
+    @Override
+    public void shutdown() {
+        this.running = false;
+
+        try {
+            this.writer.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (this.queued.get() > 0) {
+            this.plugin.getLogger().severe(this.queued.get() + " events were not written!");
+        }
+
+        this.storage.shutdown();
+    }
+
+    /**
+     * Queue {@link Event}s for writing, as one write.
+     *
+     * Waits a while for room if the queue is full, and then writes the
+     * {@link Event}s directly instead.
+     *
+     * @param events The {@link Event}s to queue.
+     */
+    private void enqueue(final List<Event> events) {
+        synchronized (this.pendingMap) {
+            for (Event event : events) {
+                final String key = event.getPlayer().toLowerCase();
+                List<Event> pending = this.pendingMap.get(key);
+
+                if (pending == null) {
+                    pending = new ArrayList<>();
+                    this.pendingMap.put(key,pending);
+                }
+
+                pending.add(event);
+            }
+        }
+
+        this.queued.addAndGet(events.size());
+
+        boolean queued;
+
+        try {
+            queued = this.queue.offer(events,QueuedStorage.OFFER_TIMEOUT,TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            queued = false;
+        }
+
+        if (queued) {
+            return;
+        }
+
+        this.queued.addAndGet(-events.size());
+
+        this.settle(events);
+
+        this.plugin.getLogger().warning("Could not queue " + events.size() + " events! Writing them directly.");
+
+        this.storage.writeEvents(events);
+    }
+
+    /**
+     * Forget {@link Event}s that are no longer waiting to be written.
+     *
+     * @param events The {@link Event}s that were written, or given up on.
+     */
+    private void settle(final List<Event> events) {
+        synchronized (this.pendingMap) {
+            for (Event event : events) {
+                final String key = event.getPlayer().toLowerCase();
+                final List<Event> pending = this.pendingMap.get(key);
+
+                if (pending != null) {
+                    pending.remove(event);
+
+                    if (pending.size() == 0) {
+                        this.pendingMap.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Make writes one at a time.
+     *
+     * Used once a batch has failed too many times. The {@link Event}s of a
+     * write that still fails are logged, with everything needed to make them
+     * again, and dropped.
+     *
+     * @param writes The writes to make.
+     */
+    private void writeEach(final List<List<Event>> writes) {
+        for (List<Event> events : writes) {
+            try {
+                this.storage.writeEvents(events);
+            } catch (RuntimeException exception) {
+                for (Event event : events) {
+                    this.plugin.getLogger().severe(
+                        "Giving up on event! " + event.getType() + " of " + event.getPlayer() + " by " + event.getOp()
+                        + ", expiring at " + event.getExpires() + ", for: " + event.getReason()
+                    );
+                }
+
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the {@link Event}s not yet written for a player.
+     *
+     * @param player The name of the player.
+     * @return       A copy of the pending {@link Event}s, oldest first.
+     */
+    private List<Event> pending(final String player) {
+        final List<Event> pending = this.pendingMap.get(player.toLowerCase());
+
+        if (pending == null) {
+            return Collections.emptyList();
+        }
+
+        synchronized (this.pendingMap) {
+            return new ArrayList<>(pending);
+        }
+    }
+
+    /**
+     * Writer loop.
+     *
+     * Takes as many writes as fit in a batch and makes them in one go, until
+     * the storage is shut down and the queue is empty. A write larger than a
+     * batch is made on its own.
+     */
+    private void write() {
+        final List<List<Event>> writes = new ArrayList<>();
+        final List<Event> batch = new ArrayList<>(this.batchSize);
+        int failures = 0;
+
+        while (this.running || batch.size() > 0 || this.queue.size() > 0) {
+            if (batch.size() == 0) {
+                try {
+                    final List<Event> events = this.queue.poll(100,TimeUnit.MILLISECONDS);
+
+                    if (events == null) {
+                        continue;
+                    }
+
+                    writes.add(events);
+                    batch.addAll(events);
+                } catch (InterruptedException exception) {
+                    continue;
+                }
+
+                List<Event> next;
+
+                while ((next = this.queue.peek()) != null && batch.size() + next.size() <= this.batchSize) {
+                    writes.add(this.queue.poll());
+                    batch.addAll(next);
+                }
+
+                this.queued.addAndGet(-batch.size());
+            }
+
+            try {
+                this.storage.writeEvents(batch);
+            } catch (RuntimeException exception) {
+                exception.printStackTrace();
+
+                if (++failures < QueuedStorage.RETRIES) {
+                    this.plugin.getLogger().warning("Failed to write " + batch.size() + " events! Retrying.");
+
+                    try {
+                        Thread.sleep(Math.min(10000L,250L << Math.min(failures,6)));
+                    } catch (InterruptedException ignored) {
+                        // Retry right away.
+                    }
+
+                    continue;
+                }
+
+                this.plugin.getLogger().severe("Failed to write " + batch.size() + " events " + failures + " times! Writing them one write at a time.");
+
+                this.writeEach(writes);
+            }
+
+            failures = 0;
+
+            this.settle(batch);
+
+            writes.clear();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Find the newest active {@link Event}.
+     *
+     * @param events {@link Event}s, oldest first.
+     * @return       The newest {@link Event} that has not expired, or null.
+     */
+    private static Event newestActive(final List<Event> events) {
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        for (int i = events.size() - 1; i >= 0; i--) {
+            final Event event = events.get(i);
+
+            if (event.getExpires() == 0 || event.getExpires() >= now) {
+                return event;
+            }
+        }
+
+        return null;
+    }
+}
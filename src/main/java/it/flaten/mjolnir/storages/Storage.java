@@ -2,7 +2,10 @@ package it.flaten.mjolnir.storages;
 
 import it.flaten.mjolnir.beans.Event;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * Interface defining the structure of a storage.
@@ -35,6 +38,30 @@ public interface Storage {
      */
     public Event saveEvent(final String player,final String op,final Event.EventType type,final String reason,final int expires);
 
+    /**
+     * Write a number of {@link Event}s to storage.
+     *
+     * Persists {@link Event}s that have already been built and processed, in
+     * order, in a single transaction. Unlike {@link #saveEvent(String, String, it.flaten.mjolnir.beans.Event.EventType, String, int)}
+     * this does not fire {@link it.flaten.mjolnir.Mjolnir#preProcess(it.flaten.mjolnir.beans.Event)}
+     * or {@link it.flaten.mjolnir.Mjolnir#postProcess(it.flaten.mjolnir.beans.Event)}.
+     *
+     * @param events The {@link Event}s to write, oldest first.
+     */
+    public void writeEvents(final List<Event> events);
+
+    /**
+     * Record the UUIDs of {@link Event}s already in storage.
+     *
+     * Sets the UUID of every given {@link Event}, found by its id, to the one
+     * it carries, in a single transaction. {@link Event}s without a UUID, and
+     * {@link Event}s that already have one in storage, are left alone. Used
+     * to fill in UUIDs for {@link Event}s written before they were known.
+     *
+     * @param events The {@link Event}s, with their UUIDs set.
+     */
+    public void assignUniqueIds(final List<Event> events);
+
     /**
      * Load all {@link Event}s for a given player.
      *
@@ -45,6 +72,51 @@ public interface Storage {
      */
     public List<Event> loadEvents(final String player);
 
+    /**
+     * Load a page of {@link Event}s for a given player.
+     *
+     * Fetches up to the given number of {@link Event}s for the given player
+     * with an id greater than the given one, oldest first. Pass 0 for the
+     * first page, and the id of the last {@link Event} on a page for the next.
+     *
+     * @param player The name of the player whose {@link Event}s to fetch.
+     * @param after  Only {@link Event}s with a greater id are fetched.
+     * @param limit  The maximum number of {@link Event}s to fetch.
+     * @return       A {@link List} of {@link Event}s, possibly empty.
+     */
+    public List<Event> loadEvents(final String player,final int after,final int limit);
+
+    /**
+     * Count the {@link Event}s for a given player.
+     *
+     * @param player The name of the player whose {@link Event}s to count.
+     * @return       The number of stored {@link Event}s.
+     */
+    public int countEvents(final String player);
+
+    /**
+     * Load a page of all {@link Event}s.
+     *
+     * Fetches up to the given number of {@link Event}s, for any player, with
+     * an id greater than the given one, oldest first. Used to stream through
+     * the whole storage in batches.
+     *
+     * @param after Only {@link Event}s with a greater id are fetched.
+     * @param limit The maximum number of {@link Event}s to fetch.
+     * @return      A {@link List} of {@link Event}s, possibly empty.
+     */
+    public List<Event> scanEvents(final int after,final int limit);
+
+    /**
+     * Load the id of the newest {@link Event}.
+     *
+     * Fetches the greatest id of any {@link Event} in storage, active or not,
+     * for any player. Used to start streaming after what is already there.
+     *
+     * @return The id, or 0 if there are no {@link Event}s.
+     */
+    public int loadLastId();
+
     /**
      * Load the active {@link Event} for a given player.
      *
@@ -56,6 +128,63 @@ public interface Storage {
      */
     public Event loadActiveEvent(final String player);
 
+    /**
+     * Load the active {@link Event} for a given UUID.
+     *
+     * Fetch the newest non-expired {@link Event} carrying the given UUID,
+     * whatever name the player had when it was made. {@link Event}s whose UUID
+     * is not known are not considered. Will return null if no {@link Event}
+     * is found.
+     *
+     * @param uuid The UUID of the player whose {@link Event} to fetch.
+     * @return     The active {@link Event}, or null.
+     */
+    public Event loadActiveEvent(final UUID uuid);
+
+    /**
+     * Load the active {@link Event}s for a number of players.
+     *
+     * Fetch the newest non-expired {@link Event} for each of the given players
+     * at once. Players with no active {@link Event} are left out.
+     *
+     * @param players The names of the players whose {@link Event}s to fetch.
+     * @return        A {@link Map} of lowercased player names to active {@link Event}s.
+     */
+    public Map<String,Event> loadActiveEvents(final Collection<String> players);
+
+    /**
+     * Load all active {@link Event}s.
+     *
+     * Fetch every non-expired {@link Event} in storage, for all players. Used
+     * to warm up in-memory indexes once, when the plugin is enabled.
+     *
+     * @return A {@link List} of {@link Event}s, oldest first.
+     */
+    public List<Event> loadActiveEvents();
+
+    /**
+     * Take note of an {@link Event} written elsewhere.
+     *
+     * Invoked when another server sharing the storage reports a new
+     * {@link Event}, so that anything kept in memory can be brought up to date.
+     * The {@link Event} is not written again.
+     *
+     * @param event The {@link Event} written by another server.
+     */
+    public void notifyEvent(final Event event);
+
+    /**
+     * Rebuild derived state.
+     *
+     * Recomputes everything the storage derives from its {@link Event}s, such
+     * as indexes and current state, by streaming through all of them in
+     * batches. Used for recovery and after migrations. Safe to invoke while
+     * the storage is in use.
+     *
+     * @return The number of {@link Event}s read.
+     */
+    public int rebuild();
+
     /**
      * Shut down the storage.
      *
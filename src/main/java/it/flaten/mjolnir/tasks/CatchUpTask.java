@@ -0,0 +1,115 @@
+package it.flaten.mjolnir.tasks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.addresses.AddressRange;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.patterns.NameMatcher;
+import it.flaten.mjolnir.storages.Storage;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Regular read of new {@link Event}s from storage.
+ *
+ * Other servers sharing our storage write {@link Event}s we are not told
+ * about, unless they are propagated, and a propagated {@link Event} may be
+ * lost on the way. This reads every {@link Event} written since the last run,
+ * hands it to the {@link Storage} so that in-memory indexes are brought up to
+ * date, and has the online players it may concern checked again from the
+ * server thread. {@link Event}s that are already known are read too, and are
+ * ignored by the indexes.
+ * <p>
+ * Meant to be run asynchronously.
+ *
+ * @author Jim Flaten
+ */
+public class CatchUpTask implements Runnable {
+    /**
+     * Number of {@link Event}s read at a time.
+     */
+    private static final int BATCH = 1000;
+
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * The {@link Storage} to read from and bring up to date.
+     */
+    private final Storage storage;
+
+    /**
+     * The highest id read so far.
+     */
+    private int lastId;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link CatchUpTask}.
+     *
+     * @param plugin  A reference to the running plugin.
+     * @param storage The {@link Storage} to read from and bring up to date.
+     * @param lastId  The id after which to start reading.
+     */
+    public CatchUpTask(final Mjolnir plugin,final Storage storage,final int lastId) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.lastId = lastId;
+    }
+
+    @Override
+    public synchronized void run() {
+        final Set<String> players = new HashSet<>();
+        boolean everyone = false;
+
+        while (true) {
+            final List<Event> events = this.storage.scanEvents(this.lastId,CatchUpTask.BATCH);
+
+            for (Event event : events) {
+                this.storage.notifyEvent(event);
+                this.lastId = Math.max(this.lastId,event.getId());
+
+                if (AddressRange.parse(event.getPlayer()) != null || NameMatcher.isPattern(event.getPlayer())) {
+                    everyone = true;
+                } else {
+                    players.add(event.getPlayer().toLowerCase());
+                }
+            }
+
+            if (events.size() < CatchUpTask.BATCH) {
+                break;
+            }
+        }
+
+        if (players.size() == 0 && !everyone) {
+            return;
+        }
+
+        final boolean all = everyone;
+
+        this.plugin.getServer().getScheduler().runTask(this.plugin,new Runnable() {
+            @Override
+            public void run() {
+                final List<String> online = new ArrayList<>();
+
+                for (Player player : CatchUpTask.this.plugin.getServer().getOnlinePlayers()) {
+                    if (all || players.contains(player.getName().toLowerCase())) {
+                        online.add(player.getName());
+                    }
+                }
+
+                if (online.size() > 0) {
+                    CatchUpTask.this.plugin.recheck(online);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package it.flaten.mjolnir.tasks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.sessions.Session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Single scheduler for {@link it.flaten.mjolnir.beans.Event} expiry.
+ *
+ * Keeps a queue of players ordered by when their active {@link it.flaten.mjolnir.beans.Event}
+ * expires. Runs every second on the server thread, and has the players whose
+ * {@link it.flaten.mjolnir.beans.Event} just expired checked again.
+ *
+ * @author Jim Flaten
+ */
+public class ExpiryTask implements Runnable {
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * Expiry queue.
+     *
+     * Ordered by expiry time, soonest first. Guarded by its own lock, as
+     * entries are added from login checks.
+     */
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link ExpiryTask}.
+     *
+     * @param plugin A reference to the running plugin.
+     */
+    public ExpiryTask(final Mjolnir plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Schedule a check for a player.
+     *
+     * The player will be checked again right after the given time, if they are
+     * still online by then. Nothing is added if the player's {@link Session}
+     * already has a check scheduled at or before that time, as that check will
+     * schedule the next.
+     *
+     * @param player  The name of the player.
+     * @param expires A UNIX timestamp denoting expiration time.
+     */
+    public void schedule(final String player,final int expires) {
+        final Session session = this.plugin.getSessions().get(player);
+
+        if (session != null && !session.scheduleExpiry(expires)) {
+            return;
+        }
+
+        synchronized (this.queue) {
+            this.queue.add(new Entry(player,expires));
+        }
+    }
+
+    @Override
+    public void run() {
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+        final List<String> players = new ArrayList<>();
+
+        synchronized (this.queue) {
+            while (!this.queue.isEmpty() && this.queue.peek().expires < now) {
+                final Entry entry = this.queue.poll();
+                final String player = entry.player;
+                final Session session = this.plugin.getSessions().get(player);
+
+                if (session != null) {
+                    session.expired(entry.expires);
+                }
+
+                if (!players.contains(player) && this.plugin.getServer().getPlayerExact(player) != null) {
+                    players.add(player);
+                }
+            }
+        }
+
+        if (players.size() > 0) {
+            this.plugin.recheck(players);
+        }
+    }
+
+    /**
+     * Entry in the expiry queue.
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final String player;
+        private final int expires;
+
+        private Entry(final String player,final int expires) {
+            this.player = player;
+            this.expires = expires;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            return this.expires < other.expires ? -1 : (this.expires == other.expires ? 0 : 1);
+        }
+    }
+}
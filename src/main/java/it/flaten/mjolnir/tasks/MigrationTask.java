@@ -0,0 +1,539 @@
+package it.flaten.mjolnir.tasks;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.NameHistory;
+import it.flaten.mjolnir.addresses.AddressRange;
+import it.flaten.mjolnir.beans.Event;
+import it.flaten.mjolnir.clients.NameHistoryClient;
+import it.flaten.mjolnir.patterns.NameMatcher;
+import it.flaten.mjolnir.storages.Storage;
+
+import javax.persistence.PersistenceException;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fills in the UUIDs of {@link Event}s written before they were known.
+ *
+ * Streams through all {@link Event}s in id order, a batch at a time. For every
+ * {@link Event} without a UUID, the player who had its name when it was made
+ * is looked up at the profile endpoint. The names in a batch are looked up in
+ * parallel by a bounded number of threads, on top of the limits of the
+ * {@link NameHistoryClient} itself, and the UUIDs found are written in one
+ * transaction per batch. Names nobody had at the time are left without one.
+ * <p>
+ * Progress is saved to a file after every batch. A run that is stopped, or
+ * that fails because the endpoint is unavailable, resumes from the last batch
+ * the next time. Once all {@link Event}s have been through, the migration is
+ * caught up, and later runs only look at {@link Event}s written since, such as
+ * bans of players who were offline at the time.
+ * <p>
+ * The owners found for a name are remembered together with their name
+ * histories, so the other {@link Event}s for the same name rarely need a
+ * lookup of their own.
+ *
+ * @author Jim Flaten
+ */
+public class MigrationTask implements Runnable {
+    /**
+     * Marks a progress file.
+     */
+    private static final int MAGIC = 0x4d4a5531;
+
+    /**
+     * Number of names whose owners are remembered.
+     */
+    private static final int OWNERS = 4096;
+
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * The {@link Storage} to migrate.
+     */
+    private final Storage storage;
+
+    /**
+     * Client used for lookups.
+     */
+    private final NameHistoryClient client;
+
+    /**
+     * The file progress is saved to.
+     */
+    private final File file;
+
+    /**
+     * Number of {@link Event}s read at a time.
+     */
+    private final int batchSize;
+
+    /**
+     * Number of names looked up at the same time.
+     */
+    private final int threads;
+
+    /**
+     * Whether or not a run is in progress.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Whether or not the migration has been stopped for good.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Lookup threads of the current run.
+     */
+    private volatile ExecutorService executor;
+
+    /**
+     * Progress.
+     *
+     * The id of the last {@link Event} looked at, whether all of them have
+     * been, and how many were given a UUID or could not be. Guarded by the
+     * lock on this instance.
+     */
+    private int lastId = 0;
+    private boolean caughtUp = false;
+    private long stamped = 0;
+    private long unresolved = 0;
+
+    /**
+     * Owners found for recent names, keyed by lowercased name.
+     *
+     * Guarded by its own lock.
+     */
+    private final Map<String,List<Owner>> ownerMap = new LinkedHashMap<String,List<Owner>>(16,0.75f,true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String,List<Owner>> eldest) {
+            return this.size() > MigrationTask.OWNERS;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link MigrationTask}, with no progress.
+     *
+     * @param plugin    A reference to the running plugin.
+     * @param storage   The {@link Storage} to migrate.
+     * @param client    The {@link NameHistoryClient} to look names up with.
+     * @param file      The file to save progress to.
+     * @param batchSize Number of {@link Event}s read at a time.
+     * @param threads   Number of names looked up at the same time.
+     */
+    public MigrationTask(final Mjolnir plugin,final Storage storage,final NameHistoryClient client,final File file,final int batchSize,final int threads) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.client = client;
+        this.file = file;
+        this.batchSize = Math.max(1,batchSize);
+        this.threads = Math.max(1,threads);
+    }
+
+    /**
+     * Load saved progress.
+     *
+     * Without a usable file, the migration starts from the first {@link Event}.
+     */
+    public synchronized void load() {
+        if (!this.file.exists()) {
+            return;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (input.readInt() != MigrationTask.MAGIC) {
+                throw new IOException("Not a progress file");
+            }
+
+            final int lastId = input.readInt();
+            final boolean caughtUp = input.readBoolean();
+            final long stamped = input.readLong();
+            final long unresolved = input.readLong();
+
+            this.lastId = lastId;
+            this.caughtUp = caughtUp;
+            this.stamped = stamped;
+            this.unresolved = unresolved;
+        } catch (IOException exception) {
+            this.plugin.getLogger().warning("Failed to load UUID migration progress! Starting over.");
+        }
+    }
+
+    /**
+     * Start over.
+     *
+     * Forgets all progress, so the next run looks at every {@link Event}
+     * again. {@link Event}s that already have a UUID are skipped.
+     *
+     * @return False if a run is in progress, and nothing was changed.
+     */
+    public boolean reset() {
+        if (this.running.get()) {
+            return false;
+        }
+
+        synchronized (this) {
+            this.lastId = 0;
+            this.caughtUp = false;
+            this.stamped = 0;
+            this.unresolved = 0;
+
+            this.save();
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if a run is in progress.
+     *
+     * @return Whether or not the migration is running.
+     */
+    public boolean isRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * Check if every {@link Event} has been looked at once.
+     *
+     * @return Whether or not the migration is caught up.
+     */
+    public synchronized boolean isCaughtUp() {
+        return this.caughtUp;
+    }
+
+    public synchronized int getLastId() {
+        return this.lastId;
+    }
+
+    public synchronized long getStamped() {
+        return this.stamped;
+    }
+
+    public synchronized long getUnresolved() {
+        return this.unresolved;
+    }
+
+    /**
+     * Run the migration.
+     *
+     * Goes through every {@link Event} written since the last run. Does
+     * nothing if a run is already in progress. Meant to be run off the
+     * server thread.
+     */
+    @Override
+    public void run() {
+        if (this.stopped || !this.running.compareAndSet(false,true)) {
+            return;
+        }
+
+        try {
+            this.migrate();
+        } finally {
+            this.running.set(false);
+        }
+    }
+
+    /**
+     * Stop the migration for good.
+     *
+     * Lookups in flight are interrupted, and a run in progress is waited for,
+     * for a few seconds, so its progress is saved.
+     */
+    public void stop() {
+        this.stopped = true;
+
+        final ExecutorService executor = this.executor;
+
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        final long deadline = System.currentTimeMillis() + 5000L;
+
+        while (this.running.get() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50L);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Go through the {@link Event}s written since the last run.
+     */
+    private void migrate() {
+        final long start = System.currentTimeMillis();
+        final boolean wasCaughtUp = this.isCaughtUp();
+        final long stampedBefore = this.getStamped();
+
+        int after = this.getLastId();
+
+        this.executor = Executors.newFixedThreadPool(this.threads,new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable,"Mjolnir migration #" + (++this.count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            while (!this.stopped) {
+                final List<Event> events = this.storage.scanEvents(after,this.batchSize);
+
+                if (events.size() == 0) {
+                    synchronized (this) {
+                        this.caughtUp = true;
+
+                        this.save();
+                    }
+
+                    break;
+                }
+
+                final int unresolved = this.resolve(events);
+
+                after = events.get(events.size() - 1).getId();
+
+                synchronized (this) {
+                    this.lastId = after;
+                    this.unresolved += unresolved;
+
+                    this.save();
+                }
+            }
+        } catch (IOException exception) {
+            this.plugin.getLogger().warning("UUID migration paused after event " + after + ": " + exception.getMessage());
+        } catch (PersistenceException exception) {
+            this.plugin.getLogger().warning("UUID migration paused after event " + after + "!");
+
+            exception.printStackTrace();
+        } finally {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+
+        final long stamped = this.getStamped() - stampedBefore;
+
+        if (this.isCaughtUp() && (!wasCaughtUp || stamped > 0)) {
+            this.plugin.getLogger().info(String.format(
+                "UUID migration caught up. Gave %d events a UUID in %.1f s. %d events in total have one, and %d have names nobody had at the time.",
+                stamped,
+                (System.currentTimeMillis() - start) / 1000D,
+                this.getStamped(),
+                this.getUnresolved()
+            ));
+        }
+    }
+
+    /**
+     * Fill in UUIDs for a batch of {@link Event}s.
+     *
+     * Looks up the names in parallel, one task per name, and writes the UUIDs
+     * found. If any lookup fails, the UUIDs found are still written, but the
+     * batch is not done.
+     *
+     * @param events The {@link Event}s.
+     * @return       The number of {@link Event}s whose name nobody had at the time.
+     * @throws IOException If a lookup failed, or the run was stopped.
+     */
+    private int resolve(final List<Event> events) throws IOException {
+        final Map<String,List<Event>> names = new LinkedHashMap<>();
+
+        for (Event event : events) {
+            /**
+             * Address and pattern bans have no player to resolve.
+             */
+            if (event.getUniqueId() != null || AddressRange.parse(event.getPlayer()) != null || NameMatcher.isPattern(event.getPlayer())) {
+                continue;
+            }
+
+            final String key = event.getPlayer().toLowerCase();
+            List<Event> list = names.get(key);
+
+            if (list == null) {
+                list = new ArrayList<>();
+                names.put(key,list);
+            }
+
+            list.add(event);
+        }
+
+        if (names.size() == 0) {
+            return 0;
+        }
+
+        final List<Future<Integer>> futures = new ArrayList<>(names.size());
+
+        try {
+            for (final List<Event> list : names.values()) {
+                futures.add(this.executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        int unresolved = 0;
+
+                        for (Event event : list) {
+                            final UUID uuid = MigrationTask.this.owner(event.getPlayer(),event.getTime());
+
+                            if (uuid == null) {
+                                unresolved++;
+                            } else {
+                                event.setUniqueId(uuid);
+                            }
+                        }
+
+                        return unresolved;
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException exception) {
+            throw new IOException("Stopped");
+        }
+
+        IOException failure = null;
+        int unresolved = 0;
+
+        for (Future<Integer> future : futures) {
+            try {
+                unresolved += future.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+
+                failure = new IOException("Stopped");
+            } catch (CancellationException exception) {
+                failure = new IOException("Stopped");
+            } catch (ExecutionException exception) {
+                failure = exception.getCause() instanceof IOException ? (IOException) exception.getCause() : new IOException(exception.getCause());
+            }
+        }
+
+        final List<Event> stamped = new ArrayList<>();
+
+        for (List<Event> list : names.values()) {
+            for (Event event : list) {
+                if (event.getUniqueId() != null) {
+                    stamped.add(event);
+                }
+            }
+        }
+
+        if (stamped.size() > 0) {
+            this.storage.assignUniqueIds(stamped);
+
+            synchronized (this) {
+                this.stamped += stamped.size();
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return unresolved;
+    }
+
+    /**
+     * Find the player who had a name at a given time.
+     *
+     * Checks the owners already found for the name first.
+     *
+     * @param name The name.
+     * @param time The UNIX time.
+     * @return     The UUID of the player, or null if nobody had the name.
+     * @throws IOException If the lookup failed.
+     */
+    private UUID owner(final String name,final int time) throws IOException {
+        final String key = name.toLowerCase();
+        final List<Owner> owners;
+
+        synchronized (this.ownerMap) {
+            final List<Owner> known = this.ownerMap.get(key);
+
+            owners = known == null ? Collections.<Owner>emptyList() : new ArrayList<>(known);
+        }
+
+        for (Owner owner : owners) {
+            if (owner.history.hadNameAt(name,time)) {
+                return owner.uuid;
+            }
+        }
+
+        final UUID uuid = this.client.resolve(name,time);
+
+        if (uuid == null) {
+            return null;
+        }
+
+        final NameHistory history;
+
+        try {
+            history = this.client.fetch(uuid);
+        } catch (IOException exception) {
+            return uuid;
+        }
+
+        synchronized (this.ownerMap) {
+            List<Owner> known = this.ownerMap.get(key);
+
+            if (known == null) {
+                known = new ArrayList<>();
+                this.ownerMap.put(key,known);
+            }
+
+            known.add(new Owner(uuid,history));
+        }
+
+        return uuid;
+    }
+
+    /**
+     * Save progress.
+     *
+     * Callers must hold the lock on this instance.
+     */
+    private void save() {
+        final File temporary = new File(this.file.getPath() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(MigrationTask.MAGIC);
+            output.writeInt(this.lastId);
+            output.writeBoolean(this.caughtUp);
+            output.writeLong(this.stamped);
+            output.writeLong(this.unresolved);
+        } catch (IOException exception) {
+            this.plugin.getLogger().warning("Failed to save UUID migration progress!");
+            return;
+        }
+
+        if (!this.file.delete() && this.file.exists() || !temporary.renameTo(this.file)) {
+            this.plugin.getLogger().warning("Failed to replace " + this.file.getName() + "!");
+        }
+    }
+
+    /**
+     * A player who had a name, and their name history.
+     */
+    private static class Owner {
+        private final UUID uuid;
+        private final NameHistory history;
+
+        private Owner(final UUID uuid,final NameHistory history) {
+            this.uuid = uuid;
+            this.history = history;
+        }
+    }
+}
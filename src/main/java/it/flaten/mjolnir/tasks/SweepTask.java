@@ -0,0 +1,48 @@
+package it.flaten.mjolnir.tasks;
+
+import it.flaten.mjolnir.Mjolnir;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Low-frequency check of all online players.
+ *
+ * Catches bans that {@link ExpiryTask} cannot know about, such as those added
+ * by external plugins or by other servers sharing our storage.
+ *
+ * @author Jim Flaten
+ */
+public class SweepTask implements Runnable {
+    /**
+     * Plugin instance.
+     *
+     * A place to store a reference to the running plugin.
+     */
+    private final Mjolnir plugin;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link SweepTask}.
+     *
+     * @param plugin A reference to the running plugin.
+     */
+    public SweepTask(final Mjolnir plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void run() {
+        final List<String> players = new ArrayList<>();
+
+        for (Player player : this.plugin.getServer().getOnlinePlayers()) {
+            players.add(player.getName());
+        }
+
+        if (players.size() > 0) {
+            this.plugin.recheck(players);
+        }
+    }
+}
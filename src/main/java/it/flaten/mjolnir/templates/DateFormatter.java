@@ -0,0 +1,65 @@
+package it.flaten.mjolnir.templates;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Thread-safe date formatter.
+ *
+ * {@link SimpleDateFormat} is not safe to share between threads, so every
+ * thread gets its own instance, created once and reused from then on.
+ *
+ * @author Jim Flaten
+ */
+public class DateFormatter {
+    /**
+     * The pattern, in {@link SimpleDateFormat} syntax.
+     */
+    private final String pattern;
+
+    /**
+     * One {@link SimpleDateFormat} per thread.
+     */
+    private final ThreadLocal<SimpleDateFormat> format = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(DateFormatter.this.pattern);
+        }
+    };
+
+    /**
+     * One reusable {@link Date} per thread.
+     */
+    private final ThreadLocal<Date> date = new ThreadLocal<Date>() {
+        @Override
+        protected Date initialValue() {
+            return new Date();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link DateFormatter}. The pattern is checked right away.
+     *
+     * @param pattern The pattern, in {@link SimpleDateFormat} syntax.
+     */
+    public DateFormatter(final String pattern) {
+        this.pattern = pattern;
+
+        this.format.get();
+    }
+
+    /**
+     * Format a UNIX timestamp.
+     *
+     * @param timestamp A UNIX timestamp, in seconds.
+     * @return          The formatted date.
+     */
+    public String format(final int timestamp) {
+        final Date date = this.date.get();
+        date.setTime(timestamp * 1000L);
+
+        return this.format.get().format(date);
+    }
+}
@@ -0,0 +1,188 @@
+package it.flaten.mjolnir.templates;
+
+import it.flaten.mjolnir.beans.Event;
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled message template.
+ *
+ * The message is parsed once into literal text and placeholders, with color
+ * codes already translated in the literal text. An optional fragment is added
+ * for {@link Event}s that expire. Rendering only appends to a builder that is
+ * reused by each thread.
+ * <p>
+ * Supported placeholders are &lt;player&gt;, &lt;op&gt;, &lt;type&gt;,
+ * &lt;reason&gt; and, in the expiry fragment, &lt;expires&gt;.
+ *
+ * @author Jim Flaten
+ */
+public class MessageTemplate {
+    /**
+     * Placeholders, and the text they are written as.
+     */
+    private enum Placeholder {
+        PLAYER("<player>"), OP("<op>"), TYPE("<type>"), REASON("<reason>"), EXPIRES("<expires>");
+
+        private final String text;
+
+        private Placeholder(final String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Builder reused by each thread.
+     */
+    private static final ThreadLocal<StringBuilder> builder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    /**
+     * The message, as {@link String}s and {@link Placeholder}s.
+     */
+    private final Object[] tokens;
+
+    /**
+     * The expiry fragment, as {@link String}s and {@link Placeholder}s.
+     */
+    private final Object[] expiresTokens;
+
+    /**
+     * Formatter for &lt;expires&gt;.
+     */
+    private final DateFormatter expiresFormat;
+
+    /**
+     * Constructor.
+     *
+     * Instantiates {@link MessageTemplate}.
+     *
+     * @param message        The message.
+     * @param expiresMessage The fragment added when the {@link Event} expires.
+     * @param expiresFormat  The date format used for &lt;expires&gt;.
+     */
+    public MessageTemplate(final String message,final String expiresMessage,final String expiresFormat) {
+        this.tokens = MessageTemplate.compile(message);
+        this.expiresTokens = MessageTemplate.compile(expiresMessage);
+        this.expiresFormat = new DateFormatter(expiresFormat);
+    }
+
+    /**
+     * Render the message for an {@link Event}.
+     *
+     * @param event The {@link Event}.
+     * @return      The message.
+     */
+    public String render(final Event event) {
+        final StringBuilder builder = MessageTemplate.builder.get();
+        builder.setLength(0);
+
+        this.render(event,builder);
+
+        return builder.toString();
+    }
+
+    /**
+     * Render the message for an {@link Event} into a builder.
+     *
+     * @param event   The {@link Event}.
+     * @param builder The builder to append the message to.
+     */
+    public void render(final Event event,final StringBuilder builder) {
+        this.append(this.tokens,event,builder);
+
+        if (event.getExpires() > 0) {
+            this.append(this.expiresTokens,event,builder);
+        }
+    }
+
+    /**
+     * Append tokens to a builder.
+     *
+     * @param tokens  The tokens.
+     * @param event   The {@link Event} to take placeholder values from.
+     * @param builder The builder to append to.
+     */
+    private void append(final Object[] tokens,final Event event,final StringBuilder builder) {
+        for (Object token : tokens) {
+            if (token instanceof String) {
+                builder.append((String) token);
+                continue;
+            }
+
+            switch ((Placeholder) token) {
+                case PLAYER:  builder.append(event.getPlayer()); break;
+                case OP:      builder.append(event.getOp()); break;
+                case TYPE:    builder.append(event.getType().toString().toLowerCase()); break;
+                case REASON:  builder.append(event.getReason()); break;
+                case EXPIRES: builder.append(this.expiresFormat.format(event.getExpires())); break;
+            }
+        }
+    }
+
+    /**
+     * Parse a message into tokens.
+     *
+     * @param message The message.
+     * @return        An array of {@link String}s and {@link Placeholder}s.
+     */
+    private static Object[] compile(final String message) {
+        final List<Object> tokens = new ArrayList<>();
+
+        if (message == null) {
+            return tokens.toArray();
+        }
+
+        int start = 0;
+        int i = 0;
+
+        while (i < message.length()) {
+            Placeholder found = null;
+
+            if (message.charAt(i) == '<') {
+                for (Placeholder placeholder : Placeholder.values()) {
+                    if (message.startsWith(placeholder.text,i)) {
+                        found = placeholder;
+                        break;
+                    }
+                }
+            }
+
+            if (found == null) {
+                i++;
+                continue;
+            }
+
+            if (i > start) {
+                tokens.add(MessageTemplate.colorize(message.substring(start,i)));
+            }
+
+            tokens.add(found);
+
+            i += found.text.length();
+            start = i;
+        }
+
+        if (start < message.length()) {
+            tokens.add(MessageTemplate.colorize(message.substring(start)));
+        }
+
+        return tokens.toArray();
+    }
+
+    /**
+     * Translate color codes.
+     *
+     * @param text Text using &amp; for color codes.
+     * @return     Text using {@link ChatColor#COLOR_CHAR} for color codes.
+     */
+    private static String colorize(final String text) {
+        return text.replace('&',ChatColor.COLOR_CHAR);
+    }
+}
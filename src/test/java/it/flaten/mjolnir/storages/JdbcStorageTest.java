@@ -0,0 +1,225 @@
+package it.flaten.mjolnir.storages;
+
+import it.flaten.mjolnir.Mjolnir;
+import it.flaten.mjolnir.beans.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the {@link Storage} contract against {@link JdbcStorage} on SQLite.
+ *
+ * Every test gets a fresh database file, opened through a pool of more than
+ * one connection, as on a running server.
+ *
+ * @author Jim Flaten
+ */
+public class JdbcStorageTest {
+    private File file;
+    private JdbcStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        this.file = File.createTempFile("mjolnir",".db");
+
+        final Mjolnir plugin = mock(Mjolnir.class);
+
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("JdbcStorageTest"));
+
+        this.storage = new JdbcStorage(plugin,new ConnectionPool("jdbc:sqlite:" + this.file.getPath(),"","",2));
+        this.storage.createTables();
+    }
+
+    @After
+    public void tearDown() {
+        this.storage.shutdown();
+
+        if (!this.file.delete()) {
+            this.file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void writeEventsAssignsDistinctIds() {
+        assertEquals(0,this.storage.loadLastId());
+
+        final List<Event> events = Arrays.asList(
+            JdbcStorageTest.event("Alice",Event.EventType.BAN,0),
+            JdbcStorageTest.event("Bob",Event.EventType.BAN,0),
+            JdbcStorageTest.event("alice",Event.EventType.UNBAN,0)
+        );
+
+        this.storage.writeEvents(events);
+
+        final Set<Integer> ids = new HashSet<>();
+
+        for (Event event : events) {
+            assertTrue(event.getId() > 0);
+            assertTrue(ids.add(event.getId()));
+        }
+
+        assertEquals(Collections.max(ids).intValue(),this.storage.loadLastId());
+
+        assertEquals(2,this.storage.countEvents("ALICE"));
+        assertEquals(Event.EventType.UNBAN,this.storage.loadActiveEvent("Alice").getType());
+        assertEquals(Event.EventType.BAN,this.storage.loadActiveEvent("bob").getType());
+    }
+
+    @Test
+    public void loadEventsPagesInOrder() {
+        for (int i = 0; i < 5; i++) {
+            this.storage.writeEvents(Collections.singletonList(JdbcStorageTest.event("Alice",Event.EventType.BAN,0)));
+        }
+
+        final List<Event> all = this.storage.loadEvents("alice");
+
+        assertEquals(5,all.size());
+        assertNull(this.storage.loadEvents("nobody"));
+
+        final List<Event> first = this.storage.loadEvents("Alice",0,2);
+        final List<Event> rest = this.storage.loadEvents("Alice",first.get(1).getId(),10);
+
+        assertEquals(2,first.size());
+        assertEquals(3,rest.size());
+        assertEquals(all.get(0).getId(),first.get(0).getId());
+        assertEquals(all.get(2).getId(),rest.get(0).getId());
+
+        assertEquals(3,this.storage.scanEvents(0,3).size());
+        assertEquals(5,this.storage.scanEvents(0,100).size());
+        assertEquals(0,this.storage.scanEvents(all.get(4).getId(),100).size());
+    }
+
+    @Test
+    public void longReasonsAreKept() {
+        final StringBuilder reason = new StringBuilder();
+
+        while (reason.length() < 1000) {
+            reason.append("Griefing the spawn. ");
+        }
+
+        final Event event = JdbcStorageTest.event("Alice",Event.EventType.BAN,0);
+
+        event.setReason(reason.toString());
+
+        this.storage.writeEvents(Collections.singletonList(event));
+
+        assertEquals(reason.toString(),this.storage.loadActiveEvent("alice").getReason());
+    }
+
+    @Test
+    public void expiredEventsAreHealed() {
+        final int now = (int) (System.currentTimeMillis() / 1000L);
+
+        final Event permanent = JdbcStorageTest.event("Alice",Event.EventType.BAN,0);
+        final Event expired = JdbcStorageTest.event("Alice",Event.EventType.BAN,now - 60);
+        final Event temporary = JdbcStorageTest.event("Bob",Event.EventType.BAN,now - 60);
+
+        this.storage.writeEvents(Arrays.asList(permanent,expired,temporary));
+
+        assertEquals(permanent.getId(),this.storage.loadActiveEvent("alice").getId());
+        assertNull(this.storage.loadActiveEvent("bob"));
+
+        final Map<String,Event> active = this.storage.loadActiveEvents(Arrays.asList("Alice","Bob","Carol"));
+
+        assertEquals(1,active.size());
+        assertEquals(permanent.getId(),active.get("alice").getId());
+
+        final List<Event> all = this.storage.loadActiveEvents();
+
+        assertEquals(1,all.size());
+        assertEquals(permanent.getId(),all.get(0).getId());
+    }
+
+    @Test
+    public void uniqueIdsAreOnlyAssignedOnce() {
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+
+        final Event event = JdbcStorageTest.event("Alice",Event.EventType.BAN,0);
+
+        this.storage.writeEvents(Collections.singletonList(event));
+
+        assertNull(this.storage.loadActiveEvent(first));
+
+        event.setUniqueId(first);
+        this.storage.assignUniqueIds(Collections.singletonList(event));
+
+        event.setUniqueId(second);
+        this.storage.assignUniqueIds(Collections.singletonList(event));
+
+        assertEquals(event.getId(),this.storage.loadActiveEvent(first).getId());
+        assertNull(this.storage.loadActiveEvent(second));
+    }
+
+    @Test
+    public void newestEventIsFoundByUniqueId() {
+        final UUID uuid = UUID.randomUUID();
+
+        final Event ban = JdbcStorageTest.event("Alice",Event.EventType.BAN,0);
+        final Event unban = JdbcStorageTest.event("Alice",Event.EventType.UNBAN,0);
+
+        ban.setUniqueId(uuid);
+        unban.setUniqueId(uuid);
+
+        this.storage.writeEvents(Arrays.asList(ban,unban));
+
+        assertEquals(unban.getId(),this.storage.loadActiveEvent(uuid).getId());
+    }
+
+    @Test
+    public void rebuildRestoresState() throws Exception {
+        final Event ban = JdbcStorageTest.event("Alice",Event.EventType.BAN,0);
+        final Event unban = JdbcStorageTest.event("Alice",Event.EventType.UNBAN,0);
+        final Event other = JdbcStorageTest.event("Bob",Event.EventType.BAN,0);
+
+        this.storage.writeEvents(Arrays.asList(ban,unban,other));
+
+        try (
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.file.getPath());
+            Statement statement = connection.createStatement()
+        ) {
+            statement.executeUpdate("DELETE FROM mjolnir_active");
+        }
+
+        assertNull(this.storage.loadActiveEvent("alice"));
+        assertEquals(3,this.storage.rebuild());
+
+        assertEquals(unban.getId(),this.storage.loadActiveEvent("alice").getId());
+        assertEquals(other.getId(),this.storage.loadActiveEvent("bob").getId());
+
+        assertEquals(3,this.storage.rebuild());
+        assertEquals(unban.getId(),this.storage.loadActiveEvent("alice").getId());
+    }
+
+    /**
+     * Create an {@link Event} that has not been written yet.
+     *
+     * @param player  The name of the player.
+     * @param type    The type of the {@link Event}.
+     * @param expires When it expires, or 0.
+     * @return        The {@link Event}.
+     */
+    private static Event event(final String player,final Event.EventType type,final int expires) {
+        final Event event = new Event();
+
+        event.setTime((int) (System.currentTimeMillis() / 1000L));
+        event.setPlayer(player);
+        event.setOp("Console");
+        event.setType(type);
+        event.setReason("Testing.");
+        event.setExpires(expires);
+
+        return event;
+    }
+}